@@ -1,17 +1,35 @@
 package traffic;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
-import org.apache.commons.io.input.Tailer;
 
+import traffic.cluster.MetricsAgent;
+import traffic.cluster.MetricsAggregator;
+import traffic.log.FieldType;
+import traffic.log.FileTailer;
+import traffic.log.LogBackfill;
+import traffic.log.LogFormat;
 import traffic.log.LogProcessor;
+import traffic.log.StreamLogSource;
+import traffic.log.SyslogTcpSource;
+import traffic.log.SyslogUdpSource;
+import traffic.log.TimeIndex;
 import traffic.monitor.MetricManager;
+import traffic.monitor.MonitorConfig;
+import traffic.stats.TrafficMonitorStats;
+import traffic.util.ConfigWatcher;
 import traffic.util.MetricPrinter;
+import traffic.util.MetricsExporter;
 
 public class TrafficMonitor
 {
     /** Milliseconds to wait between reading the log file */
     private static final long FILE_READING_DELAY = 10;
+    /** Milliseconds to wait for syslog messages before checking whether the listener was stopped */
+    private static final long SYSLOG_SELECT_DELAY = 100;
     
     /** Milliseconds to wait between monitoring throughput */
     private static final long MONITOR_THROUGHPUT_INTERVAL = 100;
@@ -23,34 +41,357 @@ public class TrafficMonitor
     /** The time window (in milliseconds) for which high traffic is detected */
     private static final long HIGH_TRAFFIC_TIME_WINDOW = 120000;
     
+    /** If the requests of the busiest second reach this value, log a warning */
+    private static final double BURST_RPS_THRESHOLD = 5000.0;
+    /** The time window (in milliseconds) in which the busiest second is found */
+    private static final long BURST_TIME_WINDOW = 120000;
+    /** The number of milliseconds covered by each bucket of the burst monitor */
+    private static final long BURST_BUCKET_LENGTH = 1000;
+    
+    /** If the bytes served per second reach this value, log a warning */
+    private static final double HIGH_BANDWIDTH_THRESHOLD = 100 * 1024 * 1024;
+    /** The time window (in milliseconds) over which the bytes served per second are averaged */
+    private static final long HIGH_BANDWIDTH_TIME_WINDOW = 120000;
+    
+    /** The response time percentile that is monitored */
+    private static final double HIGH_LATENCY_PERCENTILE = 99.0;
+    /** If the percentile's response time (in microseconds) reaches this value, log a warning */
+    private static final long HIGH_LATENCY_THRESHOLD = 500000;
+    /** The time window (in milliseconds) over which the response time percentile is computed */
+    private static final long HIGH_LATENCY_TIME_WINDOW = 120000;
+    
+    /** If the share of 5xx responses reaches this value, log a warning */
+    private static final double HIGH_ERROR_RATE_THRESHOLD = 0.05;
+    /** Once alerted, the share of 5xx responses must drop below this value to recover */
+    private static final double HIGH_ERROR_RATE_RECOVERY = 0.025;
+    /** No error rate warning is logged until the time window holds this many requests */
+    private static final long HIGH_ERROR_RATE_MIN_REQUESTS = 100;
+    /** The time window (in milliseconds) over which the share of 5xx responses is computed */
+    private static final long HIGH_ERROR_RATE_TIME_WINDOW = 120000;
+    
+    /** If a single client's requests in the time window reach this value, log a warning */
+    private static final long CLIENT_REQUEST_THRESHOLD = 600;
+    /** The time window (in milliseconds) over which each client's requests are counted */
+    private static final long CLIENT_TIME_WINDOW = 60000;
+    
+    /** If a request rate deviates from its baseline by this many standard deviations, log a warning */
+    private static final double BASELINE_DEVIATIONS = 4.0;
+    /** No baseline warning is logged for request rates below this value (in requests per second) */
+    private static final double BASELINE_MIN_RATE = 1.0;
+    
+    /** When backfilling, the logs dated within this many milliseconds of the last log seed the monitors */
+    private static final long BACKFILL_SEED_WINDOW = Math.max(HIGH_TRAFFIC_TIME_WINDOW, 
+            Math.max(BURST_TIME_WINDOW, Math.max(HIGH_BANDWIDTH_TIME_WINDOW, Math.max(HIGH_LATENCY_TIME_WINDOW, 
+            Math.max(HIGH_ERROR_RATE_TIME_WINDOW, CLIENT_TIME_WINDOW)))));
+    
+    /** The size at which the exported metrics file is rotated */
+    private static final long EXPORT_MAX_BYTES = 64 * 1024 * 1024;
+    /** The number of rotated metrics files that are kept */
+    private static final int EXPORT_FILES = 5;
+    
+    /** Milliseconds to wait between checking whether the configuration file changed */
+    private static final long CONFIG_RELOAD_INTERVAL = 1000;
+    
+    /** The share of the maximum heap that the metrics and alerts may retain, unless --memory sets their budget */
+    private static final double MEMORY_BUDGET_SHARE = 0.25;
+    
+    /** Milliseconds to wait between sending metrics to the aggregator */
+    private static final long AGENT_SEND_INTERVAL = 1000;
+    
+    /**
+     * Usage: TrafficMonitor [--agent host:port] [--format FORMAT] [--backfill] [--export out] [--config file] [--memory MB] file
+     *        TrafficMonitor [--agent host:port] [--format FORMAT] [--export out] [--config file] [--memory MB] [--udp port] [--tcp port] [-]
+     *        TrafficMonitor --aggregator port [--export out] [--config file] [--memory MB]
+     *
+     * FORMAT is "common" (the default), "combined", or an Apache/nginx format string.
+     * With --backfill, the existing content of the log is analyzed in parallel before it is tailed.
+     * With --udp or --tcp, log lines sent over syslog to the given port are analyzed, and 
+     * with "-" as the file, log lines piped into standard input are analyzed.
+     * With --export, the metrics of each interval are appended to the given file, as CSV if
+     * its name ends with ".csv" and as NDJSON otherwise.
+     * With --config, the monitors and print interval are read from the given file instead of
+     * the defaults below, and the file is reloaded whenever it changes.
+     * With --memory, the metrics and alerts retain at most about this many megabytes, instead
+     * of a quarter of the maximum heap. 0 lifts the limit.
+     */
     public static void main(String[] args) throws Exception
     {
-        if (args.length < 1)
+        String aggregatorAddress = null;
+        int aggregatorPort = -1;
+        int udpPort = -1;
+        int tcpPort = -1;
+        LogFormat format = LogFormat.COMMON;
+        boolean backfill = false;
+        String exportPath = null;
+        String configPath = null;
+        long memoryBudget = (long) (Runtime.getRuntime().maxMemory() * MEMORY_BUDGET_SHARE);
+        String path = null;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--agent") && i + 1 < args.length)
+                aggregatorAddress = args[++i];
+            else if (args[i].equals("--format") && i + 1 < args.length)
+                format = parseFormat(args[++i]);
+            else if (args[i].equals("--backfill"))
+                backfill = true;
+            else if (args[i].equals("--export") && i + 1 < args.length)
+                exportPath = args[++i];
+            else if (args[i].equals("--config") && i + 1 < args.length)
+                configPath = args[++i];
+            else if (args[i].equals("--memory") && i + 1 < args.length)
+                memoryBudget = Long.parseLong(args[++i]) * 1024 * 1024;
+            else if (args[i].equals("--aggregator") && i + 1 < args.length)
+                aggregatorPort = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--udp") && i + 1 < args.length)
+                udpPort = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--tcp") && i + 1 < args.length)
+                tcpPort = Integer.parseInt(args[++i]);
+            else
+                path = args[i];
+        }
+        
+        if (path == null && aggregatorPort < 0 && udpPort < 0 && tcpPort < 0)
         {
             System.out.println("Error: expecting a log file");
             return;
         }
         
-        // Create a manager for metrics that monitors throughput
+        // Print metrics every 10-second interval, unless the configuration file says otherwise
         MetricManager metricManager = new MetricManager();
+        metricManager.setMemoryBudget(memoryBudget);
+        MetricPrinter metricPrinter = new MetricPrinter(metricManager, METRIC_PRINT_INTERVAL);
+        long seedWindow = BACKFILL_SEED_WINDOW;
+        if (configPath != null)
+        {
+            // Create the configured monitors, and apply the file's changes as they are saved
+            ConfigWatcher configWatcher = new ConfigWatcher(new File(configPath), 
+                    metricManager, metricPrinter, CONFIG_RELOAD_INTERVAL);
+            MonitorConfig config = configWatcher.reload();
+            if (config == null)
+                System.exit(1);
+            seedWindow = config.getMaxWindow();
+            
+            Thread configWatcherThread = new Thread(configWatcher);
+            configWatcherThread.setDaemon(true);
+            configWatcherThread.start();
+        }
+        else
+        {
+            addDefaultMonitors(metricManager, aggregatorPort >= 0 || format.hasField(FieldType.RESPONSE_TIME));
+        }
+        
+        if (aggregatorPort >= 0)
+        {
+            // Combine the metrics sent by agents instead of reading a log
+            MetricsAggregator aggregator = new MetricsAggregator(metricManager, aggregatorPort);
+            new Thread(aggregator).start();
+        }
+        else
+        {
+            if (path != null)
+                tail(path, format, backfill, seedWindow, metricManager);
+            if (udpPort >= 0 || tcpPort >= 0)
+                listen(udpPort, tcpPort, format, metricManager);
+            
+            if (aggregatorAddress != null)
+            {
+                // Send this monitor's metrics to the aggregator
+                MetricsAgent agent = new MetricsAgent(metricManager, 
+                        InetAddress.getLocalHost().getHostName(), 
+                        parseAddress(aggregatorAddress), AGENT_SEND_INTERVAL);
+                Thread agentThread = new Thread(agent);
+                agentThread.setDaemon(true);
+                agentThread.start();
+            }
+        }
+        
+        if (exportPath != null)
+        {
+            // Write the metrics of each interval in the background
+            MetricsExporter exporter = new MetricsExporter(new File(exportPath), 
+                    exportPath.endsWith(".csv")? MetricsExporter.Format.CSV : MetricsExporter.Format.NDJSON,
+                    EXPORT_MAX_BYTES, EXPORT_FILES);
+            new Thread(exporter).start();
+            metricPrinter.setExporter(exporter);
+        }
+        Thread metricPrinterThread = new Thread(metricPrinter);
+        metricPrinterThread.start();
+    }
+    
+    /**
+     * Monitors throughput, bursts, bandwidth, errors, clients and baselines, along with response times if requested
+     * @param metricManager The manager to add the monitors to
+     * @param latency If true, response times are monitored
+     */
+    private static void addDefaultMonitors(MetricManager metricManager, boolean latency)
+    {
         metricManager.addThroughputMonitor(
                 HIGH_TRAFFIC_RPS_THRESHOLD, 
                 HIGH_TRAFFIC_TIME_WINDOW, 
                 MONITOR_THROUGHPUT_INTERVAL);
+        metricManager.addBurstMonitor(
+                BURST_RPS_THRESHOLD, 
+                BURST_TIME_WINDOW, 
+                BURST_BUCKET_LENGTH, 
+                MONITOR_THROUGHPUT_INTERVAL);
+        metricManager.addBandwidthMonitor(
+                HIGH_BANDWIDTH_THRESHOLD, 
+                HIGH_BANDWIDTH_TIME_WINDOW, 
+                MONITOR_THROUGHPUT_INTERVAL);
+        metricManager.addErrorRateMonitor(
+                HIGH_ERROR_RATE_THRESHOLD, 
+                HIGH_ERROR_RATE_RECOVERY, 
+                HIGH_ERROR_RATE_MIN_REQUESTS, 
+                HIGH_ERROR_RATE_TIME_WINDOW, 
+                MONITOR_THROUGHPUT_INTERVAL);
+        metricManager.addClientMonitor(
+                CLIENT_REQUEST_THRESHOLD, 
+                CLIENT_TIME_WINDOW, 
+                MONITOR_THROUGHPUT_INTERVAL);
+        metricManager.addBaselineMonitor(
+                BASELINE_DEVIATIONS, 
+                BASELINE_MIN_RATE, 
+                MONITOR_THROUGHPUT_INTERVAL);
+        
+        // Monitor response times when the logs contain them
+        if (latency)
+        {
+            metricManager.addLatencyMonitor(
+                    HIGH_LATENCY_PERCENTILE, 
+                    HIGH_LATENCY_THRESHOLD, 
+                    HIGH_LATENCY_TIME_WINDOW, 
+                    MONITOR_THROUGHPUT_INTERVAL);
+        }
+    }
+    
+    /**
+     * Starts reading the log file, analyzing each line as it is written
+     * @param path The path of the log file, or "-" to read standard input
+     * @param format The layout of the log's lines
+     * @param backfill If true, the existing lines are analyzed in parallel before the log is tailed
+     * @param seedWindow The logs dated within this many milliseconds of the last log seed the monitors
+     * @param metricManager The manager which analyzes the log
+     */
+    private static void tail(String path, LogFormat format, boolean backfill, long seedWindow, 
+            MetricManager metricManager)
+    {
+        if (path.equals("-"))
+        {
+            // Read the lines piped into the monitor
+            TrafficMonitorStats.getInstance().register();
+            new Thread(new StreamLogSource(System.in, new LogProcessor(metricManager, format))).start();
+            return;
+        }
         
         // Create a reader for the log file
-        File file = new File(args[0]);
+        File file = new File(path);
         if (!file.exists())
         {
-            System.out.println("Error: File does not exist: " + args[0]);
+            System.out.println("Error: File does not exist: " + path);
             System.exit(1);
         }
-        LogProcessor logProcessor = new LogProcessor(metricManager);
-        Tailer tailer = Tailer.create(file, logProcessor);
+        // Expose ingestion statistics over JMX
+        TrafficMonitorStats stats = TrafficMonitorStats.getInstance();
+        stats.setLogFile(file);
+        stats.register();
         
-        // Print metrics every 10-second interval
-        MetricPrinter metricPrinter = new MetricPrinter(metricManager, METRIC_PRINT_INTERVAL);
-        Thread metricPrinterThread = new Thread(metricPrinter);
-        metricPrinterThread.start();
+        LogProcessor logProcessor = new LogProcessor(metricManager, format);
+        TimeIndex timeIndex = null;
+        try
+        {
+            // Index the log by time while it is read
+            timeIndex = TimeIndex.openForAppend(file);
+            logProcessor.setTimeIndex(timeIndex);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Warning: Could not open the time index: " + e.getMessage());
+        }
+        
+        // Seed the metrics and monitors with the existing lines, then tail from where they end.
+        // The file is tailed by offset, so the time index records where each line really starts
+        long offset = 0;
+        if (backfill)
+        {
+            try
+            {
+                long startTime = System.currentTimeMillis();
+                LogBackfill logBackfill = new LogBackfill(file, format, 
+                        Runtime.getRuntime().availableProcessors(), seedWindow);
+                logBackfill.setTimeIndex(timeIndex);
+                offset = logBackfill.run(metricManager);
+                System.out.println("Backfilled " + logBackfill.getLineCount() + " lines in " 
+                        + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: Could not backfill the log: " + e.getMessage());
+            }
+        }
+        logProcessor.setOffset(offset);
+        new Thread(new FileTailer(file, logProcessor, FILE_READING_DELAY, offset)).start();
+    }
+    
+    /**
+     * Starts listening for syslog messages, analyzing the log line carried by each message.
+     * Each listener reads its senders on its own thread.
+     * @param udpPort The port on which messages are received over UDP, or -1
+     * @param tcpPort The port on which messages are received over TCP, or -1
+     * @param format The layout of the log lines
+     * @param metricManager The manager which analyzes the log lines
+     */
+    private static void listen(int udpPort, int tcpPort, LogFormat format, MetricManager metricManager)
+    {
+        TrafficMonitorStats.getInstance().register();
+        try
+        {
+            if (udpPort >= 0)
+                new Thread(new SyslogUdpSource(new LogProcessor(metricManager, format), 
+                        udpPort, SYSLOG_SELECT_DELAY)).start();
+            if (tcpPort >= 0)
+                new Thread(new SyslogTcpSource(new LogProcessor(metricManager, format), 
+                        tcpPort, SYSLOG_SELECT_DELAY)).start();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not listen for syslog messages: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Parses the log format given on the command line
+     * @param name "common", "combined", or a format string
+     * @return The log format
+     */
+    private static LogFormat parseFormat(String name)
+    {
+        try
+        {
+            return LogFormat.forName(name);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+    
+    /**
+     * Parses an address written as "host:port"
+     * @param address The address to parse
+     * @return The socket address
+     */
+    private static InetSocketAddress parseAddress(String address)
+    {
+        int separator = address.lastIndexOf(':');
+        if (separator < 0)
+        {
+            System.out.println("Error: expecting an aggregator address as host:port");
+            System.exit(1);
+        }
+        return new InetSocketAddress(address.substring(0, separator), 
+                Integer.parseInt(address.substring(separator + 1)));
     }
-}
\ No newline at end of file
+}
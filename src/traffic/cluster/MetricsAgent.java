@@ -0,0 +1,135 @@
+package traffic.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import traffic.monitor.MetricManager;
+import traffic.monitor.MetricsDelta;
+
+/**
+ * Periodically sends the metrics recorded by a local metric manager to an aggregator
+ */
+public class MetricsAgent implements Runnable
+{
+    /** Milliseconds to wait when connecting to the aggregator */
+    private static final int CONNECT_TIMEOUT = 5000;
+    
+    /** The manager whose metrics are sent */
+    private MetricManager metricManager;
+    /** The name identifying this agent to the aggregator */
+    private String node;
+    /** The address of the aggregator */
+    private InetSocketAddress aggregator;
+    /** Milliseconds to wait between sending each delta */
+    private long delay;
+    
+    /** The connection to the aggregator. Null while disconnected */
+    private Socket socket;
+    private DataOutputStream out;
+    /** A delta that could not be sent yet. Merged with the next delta */
+    private MetricsDelta pendingDelta;
+    
+    /**
+     * Creates an agent which sends metrics to an aggregator
+     * @param metricManager The manager whose metrics are sent
+     * @param node The name identifying this agent to the aggregator
+     * @param aggregator The address of the aggregator
+     * @param delay Milliseconds to wait between sending each delta
+     */
+    public MetricsAgent(MetricManager metricManager, String node, InetSocketAddress aggregator, long delay)
+    {
+        if (delay <= 0)
+            throw new IllegalArgumentException("MetricsAgent requires a positive delay");
+        
+        this.metricManager = metricManager;
+        this.node = node;
+        this.aggregator = aggregator;
+        this.delay = delay;
+        
+        metricManager.collectDeltas();
+    }
+    
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            
+            send();
+        }
+        close();
+    }
+    
+    /**
+     * Sends the metrics recorded since the last call to the aggregator.
+     * If the aggregator cannot be reached, the metrics are sent with the next delta.
+     * @return True if the metrics were sent
+     */
+    public boolean send()
+    {
+        MetricsDelta delta = metricManager.takeDelta();
+        if (pendingDelta != null)
+        {
+            // Fold the new delta into the one that could not be sent
+            pendingDelta.merge(delta);
+            delta = pendingDelta;
+        }
+        
+        try
+        {
+            if (socket == null)
+                connect();
+            MetricsCodec.write(out, node, delta);
+            pendingDelta = null;
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not send metrics to " + aggregator + ": " + e.getMessage());
+            close();
+            pendingDelta = delta;
+            return false;
+        }
+    }
+    
+    /**
+     * Opens a connection to the aggregator
+     */
+    private void connect() throws IOException
+    {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(aggregator, CONNECT_TIMEOUT);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+    
+    /**
+     * Closes the connection to the aggregator
+     */
+    public void close()
+    {
+        if (socket == null)
+            return;
+        
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // The connection is discarded either way
+        }
+        socket = null;
+        out = null;
+    }
+}
@@ -0,0 +1,113 @@
+package traffic.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import traffic.monitor.MetricManager;
+
+/**
+ * Receives metric deltas from agents and merges them into one metric manager, 
+ * whose monitors then evaluate alerts on the combined traffic
+ */
+public class MetricsAggregator implements Runnable
+{
+    /** The manager that combines the agents' metrics */
+    private MetricManager metricManager;
+    /** Accepts connections from agents */
+    private ServerSocket serverSocket;
+    
+    /**
+     * Creates an aggregator listening on the given port
+     * @param metricManager The manager that combines the agents' metrics
+     * @param port The port to listen on, or 0 to pick any free port
+     */
+    public MetricsAggregator(MetricManager metricManager, int port) throws IOException
+    {
+        this.metricManager = metricManager;
+        serverSocket = new ServerSocket(port);
+    }
+    
+    /**
+     * Returns the port on which the aggregator listens
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Accepts agents until the aggregator is closed, reading each agent in its own thread
+     */
+    public void run()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                Thread agentThread = new Thread(new Runnable() {
+                    public void run()
+                    {
+                        readAgent(socket);
+                    }
+                });
+                agentThread.setDaemon(true);
+                agentThread.start();
+            }
+            catch (IOException e)
+            {
+                if (!serverSocket.isClosed())
+                    System.out.println("Error: Could not accept agent: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Merges every delta sent by an agent until it disconnects
+     * @param socket The connection to the agent
+     */
+    private void readAgent(Socket socket)
+    {
+        String[] node = new String[1];
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true)
+            {
+                metricManager.merge(MetricsCodec.read(in, node));
+            }
+        }
+        catch (EOFException e)
+        {
+            // The agent disconnected
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not read metrics from " + 
+                    ((node[0] != null)? node[0] : socket.getRemoteSocketAddress()) + ": " + e.getMessage());
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // The connection is discarded either way
+            }
+        }
+    }
+    
+    /**
+     * Stops accepting agents
+     */
+    public void close() throws IOException
+    {
+        serverSocket.close();
+    }
+}
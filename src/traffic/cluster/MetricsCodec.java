@@ -0,0 +1,407 @@
+package traffic.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import traffic.monitor.ByteCounter;
+import traffic.monitor.LatencyHistogram;
+import traffic.monitor.Metrics;
+import traffic.monitor.MetricsDelta;
+import traffic.monitor.RequestBuckets;
+import traffic.monitor.SectionTrie;
+import traffic.monitor.SubnetTrie;
+import traffic.monitor.Website;
+
+/**
+ * Encodes metric deltas into the binary frames exchanged between agents and the aggregator.
+ *
+ * Each frame holds a magic number, a version, the payload's length and the payload:
+ * the agent's name, the request and byte counts, the count of each status class, the top
+ * websites with their sections, the number of requests made, bytes served and 5xx responses
+ * in each second of the delta, the histograms of response times, the bytes served by each section
+ * the requests and bytes under each path prefix, and the requests from each client subnet.
+ * Counts are written as variable-length integers.
+ */
+public class MetricsCodec
+{
+    /** Identifies metric frames ("TMDL") */
+    private static final int MAGIC = 0x544D444C;
+    /** The version of the frame format */
+    private static final int VERSION = 6;
+    /** The largest payload accepted from an agent */
+    private static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+
+    /** The number of websites with the most hits sent in each frame */
+    private static final int TOP_WEBSITES = 100;
+    /** The number of sections sent for each website */
+    private static final int MAX_SECTIONS = 64;
+
+    /**
+     * Writes a delta as one frame
+     * @param out The stream to write to
+     * @param node The name of the agent that recorded the delta
+     * @param delta The metrics recorded by the agent
+     */
+    public static void write(DataOutputStream out, String node, MetricsDelta delta) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        Metrics metrics = delta.metrics;
+
+        payload.writeUTF(node);
+        writeVarLong(payload, metrics.totalRequests);
+        writeVarLong(payload, metrics.totalBytes);
+
+        // One count per status class, indexed by the status code's first digit
+        for (char digit = '0'; digit <= '9'; digit++)
+        {
+            Integer count = metrics.statusCodeCounts.get(digit);
+            writeVarLong(payload, (count != null)? count : 0);
+        }
+
+        // Only the websites with the most hits are sent, to bound the frame's size
+        ArrayList<Website> websites = getTopWebsites(metrics, TOP_WEBSITES);
+        writeVarLong(payload, websites.size());
+        for (Website website : websites)
+        {
+            payload.writeUTF(website.getName());
+            writeVarLong(payload, website.getHits());
+            writeVarLong(payload, website.getBytes());
+
+            int sectionCount = Math.min(MAX_SECTIONS, website.getSections().size());
+            writeVarLong(payload, sectionCount);
+            Iterator<String> sections = website.getSections().iterator();
+            for (int i = 0; i < sectionCount; i++)
+            {
+                payload.writeUTF(sections.next());
+            }
+        }
+
+        // Requests, bytes and errors per second
+        writeBuckets(payload, delta.requests);
+        writeBuckets(payload, delta.bytes);
+        writeBuckets(payload, delta.errors);
+
+        // Response times, globally and per section
+        writeHistogram(payload, metrics.latency);
+        writeVarLong(payload, metrics.sectionLatencies.size());
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.sectionLatencies.entrySet())
+        {
+            payload.writeUTF(entry.getKey());
+            writeHistogram(payload, entry.getValue());
+        }
+
+        // Bytes served per section
+        writeVarLong(payload, metrics.sectionBytes.size());
+        for (Map.Entry<String, ByteCounter> entry : metrics.sectionBytes.entrySet())
+        {
+            payload.writeUTF(entry.getKey());
+            writeVarLong(payload, entry.getValue().getBytes());
+        }
+
+        // Requests and bytes under each path prefix
+        ArrayList<SectionTrie.Node> nodes = new ArrayList<SectionTrie.Node>();
+        addSectionNodes(metrics.sectionTree.getRoot(), nodes);
+        writeVarLong(payload, nodes.size());
+        for (SectionTrie.Node sectionNode : nodes)
+        {
+            writeSectionNode(payload, sectionNode);
+        }
+
+        // Requests from each client subnet
+        ArrayList<SubnetTrie.Subnet> subnets = metrics.subnetTree.getSubnets();
+        writeVarLong(payload, metrics.subnetTree.getOtherHits());
+        writeVarLong(payload, subnets.size());
+        for (SubnetTrie.Subnet subnet : subnets)
+        {
+            payload.writeLong(subnet.getHigh());
+            payload.writeLong(subnet.getLow());
+            payload.writeByte(subnet.getLength());
+            writeVarLong(payload, subnet.getHits());
+        }
+
+        payload.flush();
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Reads one frame
+     * @param in The stream to read from
+     * @param node Receives the name of the agent that sent the frame, at index zero
+     * @return The delta stored in the frame
+     */
+    public static MetricsDelta read(DataInputStream in, String[] node) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a metrics frame");
+        if (in.readByte() != VERSION)
+            throw new IOException("Unsupported metrics frame version");
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH)
+            throw new IOException("Invalid metrics frame length: " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        MetricsDelta delta = new MetricsDelta();
+        Metrics metrics = delta.metrics;
+        node[0] = payload.readUTF();
+        metrics.totalRequests = (int) readVarLong(payload);
+        metrics.totalBytes = readVarLong(payload);
+
+        for (char digit = '0'; digit <= '9'; digit++)
+        {
+            int count = (int) readVarLong(payload);
+            if (count > 0)
+                metrics.statusCodeCounts.put(digit, count);
+        }
+
+        // Merging the websites one at a time recomputes the website with the most hits
+        int websiteCount = (int) readVarLong(payload);
+        Metrics websiteMetrics = new Metrics();
+        for (int i = 0; i < websiteCount; i++)
+        {
+            Website website = new Website(payload.readUTF());
+            website.addHits((int) readVarLong(payload));
+            website.addBytes(readVarLong(payload));
+            int sectionCount = (int) readVarLong(payload);
+            HashSet<String> sections = website.getSections();
+            for (int j = 0; j < sectionCount; j++)
+            {
+                sections.add(payload.readUTF());
+            }
+            websiteMetrics.websites.put(website.getName(), website);
+        }
+        metrics.merge(websiteMetrics);
+
+        readBuckets(payload, delta.requests);
+        readBuckets(payload, delta.bytes);
+        readBuckets(payload, delta.errors);
+
+        readHistogram(payload, metrics.latency);
+        int sectionCount = (int) readVarLong(payload);
+        for (int i = 0; i < sectionCount; i++)
+        {
+            String section = payload.readUTF();
+            LatencyHistogram histogram = new LatencyHistogram();
+            readHistogram(payload, histogram);
+            if (metrics.sectionLatencies.size() < Metrics.MAX_LATENCY_SECTIONS)
+                metrics.sectionLatencies.put(section, histogram);
+        }
+
+        sectionCount = (int) readVarLong(payload);
+        for (int i = 0; i < sectionCount; i++)
+        {
+            String section = payload.readUTF();
+            long sectionBytes = readVarLong(payload);
+            if (metrics.sectionBytes.size() < Metrics.MAX_BYTES_SECTIONS)
+            {
+                ByteCounter counter = new ByteCounter();
+                counter.add(sectionBytes);
+                metrics.sectionBytes.put(section, counter);
+            }
+        }
+
+        int nodeCount = (int) readVarLong(payload);
+        for (int i = 0; i < nodeCount; i++)
+        {
+            String path = payload.readUTF();
+            metrics.sectionTree.add(path, readVarLong(payload), readVarLong(payload));
+        }
+
+        metrics.subnetTree.addOtherHits(readVarLong(payload));
+        int subnetCount = (int) readVarLong(payload);
+        for (int i = 0; i < subnetCount; i++)
+        {
+            long high = payload.readLong();
+            long low = payload.readLong();
+            int prefixLength = payload.readUnsignedByte();
+            try
+            {
+                metrics.subnetTree.add(new SubnetTrie.Subnet(high, low, prefixLength, readVarLong(payload)));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException("Invalid subnet in metrics frame: " + e.getMessage());
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Returns the websites with the most hits
+     * @param metrics The metrics containing the websites
+     * @param count The maximum number of websites to return
+     * @return The websites, in decreasing order of hits
+     */
+    private static ArrayList<Website> getTopWebsites(Metrics metrics, int count)
+    {
+        ArrayList<Website> websites = new ArrayList<Website>(metrics.websites.values());
+        Collections.sort(websites, new Comparator<Website>() {
+            public int compare(Website a, Website b)
+            {
+                return Integer.compare(b.getHits(), a.getHits());
+            }
+        });
+
+        if (websites.size() > count)
+            return new ArrayList<Website>(websites.subList(0, count));
+        return websites;
+    }
+
+    /**
+     * Adds the nodes of a section tree that counted requests which none of their children counted
+     */
+    private static void addSectionNodes(SectionTrie.Node node, ArrayList<SectionTrie.Node> nodes)
+    {
+        ArrayList<SectionTrie.Node> children = node.getChildren();
+        long hits = node.getHits();
+        long bytes = node.getBytes();
+        for (SectionTrie.Node child : children)
+        {
+            hits -= child.getHits();
+            bytes -= child.getBytes();
+            addSectionNodes(child, nodes);
+        }
+        if (hits > 0 || bytes > 0)
+            nodes.add(node);
+    }
+
+    /**
+     * Writes the path of a section tree node, followed by the requests and bytes that its
+     * children did not count. Adding these to a tree at the path restores the node's counts.
+     */
+    private static void writeSectionNode(DataOutputStream out, SectionTrie.Node node) throws IOException
+    {
+        long hits = node.getHits();
+        long bytes = node.getBytes();
+        for (SectionTrie.Node child : node.getChildren())
+        {
+            hits -= child.getHits();
+            bytes -= child.getBytes();
+        }
+        out.writeUTF(node.getPath());
+        writeVarLong(out, hits);
+        writeVarLong(out, bytes);
+    }
+
+    /**
+     * Writes the first second of per-second buckets, followed by the count of each bucket
+     */
+    private static void writeBuckets(DataOutputStream out, RequestBuckets buckets) throws IOException
+    {
+        int length = buckets.getLength();
+        writeVarLong(out, buckets.getFirstSecond() + 1);
+        writeVarLong(out, length);
+        for (int i = 0; i < length; i++)
+        {
+            writeVarLong(out, buckets.getCount(i));
+        }
+    }
+
+    /**
+     * Reads buckets written by writeBuckets() into the given buckets
+     */
+    private static void readBuckets(DataInputStream in, RequestBuckets buckets) throws IOException
+    {
+        long firstSecond = readVarLong(in) - 1;
+        int bucketCount = (int) readVarLong(in);
+        for (int i = 0; i < bucketCount; i++)
+        {
+            long count = readVarLong(in);
+            if (count > 0)
+                buckets.add((firstSecond + i) * 1000, count);
+        }
+    }
+
+    /**
+     * Writes the largest value of a histogram, followed by its non-empty buckets.
+     * Each bucket is written as its distance from the previous one and its count.
+     */
+    private static void writeHistogram(DataOutputStream out, LatencyHistogram histogram) throws IOException
+    {
+        int bucketCount = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++)
+        {
+            if (histogram.getCount(i) > 0)
+                bucketCount++;
+        }
+
+        writeVarLong(out, histogram.getMaxValue());
+        writeVarLong(out, bucketCount);
+        int previousBucket = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++)
+        {
+            long count = histogram.getCount(i);
+            if (count == 0)
+                continue;
+            writeVarLong(out, i - previousBucket);
+            writeVarLong(out, count);
+            previousBucket = i;
+        }
+    }
+
+    /**
+     * Reads a histogram written by writeHistogram() into the given histogram
+     */
+    private static void readHistogram(DataInputStream in, LatencyHistogram histogram) throws IOException
+    {
+        histogram.updateMaxValue(readVarLong(in));
+        int bucketCount = (int) readVarLong(in);
+        int bucket = 0;
+        for (int i = 0; i < bucketCount; i++)
+        {
+            bucket += (int) readVarLong(in);
+            if (bucket < 0 || bucket >= LatencyHistogram.BUCKET_COUNT)
+                throw new IOException("Invalid histogram bucket: " + bucket);
+            histogram.addToBucket(bucket, readVarLong(in));
+        }
+    }
+
+    /**
+     * Writes a non-negative value using seven bits per byte
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a value written by writeVarLong()
+     */
+    private static long readVarLong(DataInputStream in) throws IOException
+    {
+        long value = 0;
+        int shift = 0;
+        while (true)
+        {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+            shift += 7;
+            if (shift > 63)
+                throw new IOException("Malformed variable-length integer");
+        }
+    }
+}
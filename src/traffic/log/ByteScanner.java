@@ -0,0 +1,177 @@
+package traffic.log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the bytes that delimit lines and fields, such as line feeds, spaces and quotes, in
+ * blocks of log data. The SWAR scanner compares eight bytes at a time by reading them as a
+ * long, which is what makes splitting large blocks of lines fast. The scalar scanner compares
+ * one byte at a time, and both return the same indexes.
+ *
+ * The scanner used by the log readers is the SWAR scanner, unless the system property
+ * "traffic.scanner" is set to "scalar".
+ */
+public abstract class ByteScanner
+{
+    /** Compares one byte at a time */
+    public static final ByteScanner SCALAR = new ScalarScanner();
+    /** Compares eight bytes at a time */
+    public static final ByteScanner SWAR = new SwarScanner();
+
+    /** The scanner used by the log readers */
+    private static final ByteScanner DEFAULT = "scalar".equals(System.getProperty("traffic.scanner"))? SCALAR : SWAR;
+
+    /**
+     * Returns the scanner used by the log readers
+     */
+    public static ByteScanner getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a buffer that reads the given bytes, in the byte order that the SWAR scanner reads fastest
+     * @param bytes The bytes to scan, which the buffer reads in place
+     */
+    public static ByteBuffer wrap(byte[] bytes)
+    {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns the index of the first occurrence of a byte
+     * @param buffer The bytes to scan, read at absolute indexes
+     * @param b The byte to find
+     * @param start The index where the search starts
+     * @param end The index where the search stops
+     * @return The index of the byte, or -1 if it is not found before "end"
+     */
+    public abstract int indexOf(ByteBuffer buffer, byte b, int start, int end);
+
+    /**
+     * Returns the index of the first occurrence of either of two bytes
+     * @param buffer The bytes to scan, read at absolute indexes
+     * @param a The first byte to find
+     * @param b The second byte to find
+     * @param start The index where the search starts
+     * @param end The index where the search stops
+     * @return The index of the first byte that matches either, or -1 if neither is found before "end"
+     */
+    public abstract int indexOfAny(ByteBuffer buffer, byte a, byte b, int start, int end);
+
+    /**
+     * Returns the index of the quote that closes a quoted field, skipping escaped quotes
+     * @param buffer The bytes to scan, read at absolute indexes
+     * @param start The index after the opening quote
+     * @param end The index where the search stops
+     * @return The index of the closing quote, or -1 if it is not found before "end"
+     */
+    public int indexOfQuote(ByteBuffer buffer, int start, int end)
+    {
+        int i = start;
+        while (true)
+        {
+            i = indexOfAny(buffer, (byte) '"', (byte) '\\', i, end);
+            if (i < 0 || buffer.get(i) == '"')
+                return i;
+            // The escaped byte is skipped
+            i += 2;
+        }
+    }
+
+    /**
+     * Compares one byte at a time
+     */
+    private static class ScalarScanner extends ByteScanner
+    {
+        public int indexOf(ByteBuffer buffer, byte b, int start, int end)
+        {
+            for (int i = start; i < end; i++)
+            {
+                if (buffer.get(i) == b)
+                    return i;
+            }
+            return -1;
+        }
+
+        public int indexOfAny(ByteBuffer buffer, byte a, byte b, int start, int end)
+        {
+            for (int i = start; i < end; i++)
+            {
+                byte c = buffer.get(i);
+                if (c == a || c == b)
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Compares eight bytes at a time, by reading them as a long. A byte of the long is zero
+     * after it is xor-ed with a repeated byte only where the two bytes are equal.
+     */
+    private static class SwarScanner extends ByteScanner
+    {
+        /** The lowest seven bits of each byte */
+        private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        /** One in each byte, which repeats a byte when multiplied by it */
+        private static final long ONES = 0x0101010101010101L;
+
+        public int indexOf(ByteBuffer buffer, byte b, int start, int end)
+        {
+            long pattern = repeat(b);
+            boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+            int i = start;
+            for (; i + 8 <= end; i += 8)
+            {
+                long zeros = findZeros(buffer.getLong(i) ^ pattern);
+                if (zeros != 0)
+                    return i + firstByte(zeros, littleEndian);
+            }
+            return SCALAR.indexOf(buffer, b, i, end);
+        }
+
+        public int indexOfAny(ByteBuffer buffer, byte a, byte b, int start, int end)
+        {
+            long first = repeat(a);
+            long second = repeat(b);
+            boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+            int i = start;
+            for (; i + 8 <= end; i += 8)
+            {
+                long word = buffer.getLong(i);
+                long zeros = findZeros(word ^ first) | findZeros(word ^ second);
+                if (zeros != 0)
+                    return i + firstByte(zeros, littleEndian);
+            }
+            return SCALAR.indexOfAny(buffer, a, b, i, end);
+        }
+
+        /**
+         * Returns a long whose eight bytes are the given byte
+         */
+        private static long repeat(byte b)
+        {
+            return (b & 0xFFL) * ONES;
+        }
+
+        /**
+         * Returns a long whose bytes have their high bit set where the word's bytes are zero,
+         * and are zero elsewhere. Unlike the shorter (word - ONES) & ~word test, no carry
+         * crosses bytes, so no byte is marked after a zero byte.
+         */
+        private static long findZeros(long word)
+        {
+            return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+        }
+
+        /**
+         * Returns the index, within the long, of the first byte marked by findZeros
+         */
+        private static int firstByte(long zeros, boolean littleEndian)
+        {
+            return (littleEndian? Long.numberOfTrailingZeros(zeros) : Long.numberOfLeadingZeros(zeros)) >>> 3;
+        }
+    }
+}
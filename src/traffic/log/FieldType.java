@@ -0,0 +1,36 @@
+package traffic.log;
+
+/**
+ * The fields that a log format can contain
+ */
+public enum FieldType
+{
+    /** The client's host or IP address (%h, $remote_addr) */
+    HOST,
+    /** The client's identity, usually "-" (%l) */
+    IDENT,
+    /** The authenticated user (%u, $remote_user) */
+    AUTH_USER,
+    /** The date of the request (%t, $time_local) */
+    TIME,
+    /** The request line, e.g. "GET /index.html HTTP/1.1" (%r, $request) */
+    REQUEST,
+    /** The request method (%m, $request_method) */
+    METHOD,
+    /** The requested URL (%U, $request_uri) */
+    URL,
+    /** The request protocol (%H, $server_protocol) */
+    PROTOCOL,
+    /** The status code of the response (%s, %>s, $status) */
+    STATUS,
+    /** The size of the response, or "-" if it is empty (%b, %B, $body_bytes_sent) */
+    BYTES,
+    /** The Referer header (%{Referer}i, $http_referer) */
+    REFERER,
+    /** The User-Agent header (%{User-agent}i, $http_user_agent) */
+    USER_AGENT,
+    /** The time taken to serve the request (%D, %T, $request_time) */
+    RESPONSE_TIME,
+    /** A field that is skipped when logs are parsed */
+    OTHER;
+}
@@ -0,0 +1,206 @@
+package traffic.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.io.input.TailerListenerAdapter;
+
+/**
+ * Follows a log file from a given byte offset, passing each complete line to a listener.
+ *
+ * Unlike the commons-io Tailer, which starts at the beginning or the end of the file, this
+ * tailer starts at an exact offset, so it can take over from a bulk reader without skipping
+ * or repeating lines. A line is only passed on once its terminator has been written.
+ */
+public class FileTailer implements LogSource
+{
+    /** The number of bytes read from the file at a time */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The file to follow */
+    private File file;
+    /** Receives each line, and is notified when the end of the file is reached */
+    private TailerListenerAdapter listener;
+    /** The listener, if it can parse lines without copying them into strings. Else null */
+    private LogProcessor processor;
+    /** Milliseconds to wait for new lines once the end of the file is reached */
+    private long delay;
+    /** The offset of the next line to read */
+    private volatile long position;
+    /** False once the tailer was asked to stop */
+    private volatile boolean running = true;
+
+    /** The bytes read from the file */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /** Reads the buffer when the end of each line is searched */
+    private ByteBuffer view = ByteScanner.wrap(buffer);
+    /** Finds the end of each line */
+    private ByteScanner scanner = ByteScanner.getDefault();
+    /** The bytes of a line that spans several reads */
+    private byte[] line = new byte[1024];
+
+    /**
+     * Creates a tailer which follows a file from the given offset
+     * @param file The file to follow
+     * @param listener Receives each line of the file
+     * @param delay Milliseconds to wait for new lines once the end of the file is reached
+     * @param position The offset of the first line to read. Must be the start of a line
+     */
+    public FileTailer(File file, TailerListenerAdapter listener, long delay, long position)
+    {
+        if (delay <= 0 || position < 0)
+            throw new IllegalArgumentException("FileTailer requires a positive delay and offset");
+
+        this.file = file;
+        this.listener = listener;
+        this.processor = (listener instanceof LogProcessor)? (LogProcessor) listener : null;
+        this.delay = delay;
+        this.position = position;
+    }
+
+    /**
+     * Reads lines as they are written, until the tailer is stopped
+     */
+    public void run()
+    {
+        RandomAccessFile reader = null;
+        try
+        {
+            while (running && reader == null)
+            {
+                if (file.exists())
+                    reader = new RandomAccessFile(file, "r");
+                else
+                {
+                    listener.fileNotFound();
+                    Thread.sleep(delay);
+                }
+            }
+
+            while (running)
+            {
+                long length = file.length();
+                if (length < position)
+                {
+                    // The file was truncated or replaced, so it is read again from its start
+                    listener.fileRotated();
+                    reader.close();
+                    reader = new RandomAccessFile(file, "r");
+                    position = 0;
+                }
+                else if (length == position || readLines(reader) == 0)
+                {
+                    listener.endOfFileReached();
+                    Thread.sleep(delay);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            listener.handle(e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    listener.handle(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes every complete line after the current position to the listener
+     * @param reader The open file
+     * @return The number of lines read
+     */
+    private int readLines(RandomAccessFile reader) throws IOException
+    {
+        reader.seek(position);
+        int lines = 0;
+        int lineLength = 0;
+        long lineStart = position;
+        long offset = position;
+        int read;
+        while (running && (read = reader.read(buffer)) > 0)
+        {
+            int start = 0;
+            int lineEnd;
+            while ((lineEnd = scanner.indexOf(view, (byte) '\n', start, read)) >= 0)
+            {
+                lineLength = append(buffer, start, lineEnd, lineLength);
+                handleLine(lineLength);
+                lines++;
+                lineLength = 0;
+                start = lineEnd + 1;
+                lineStart = offset + start;
+            }
+            lineLength = append(buffer, start, read, lineLength);
+            offset += read;
+        }
+
+        // An unterminated line is read again once it is complete
+        position = lineStart;
+        return lines;
+    }
+
+    /**
+     * Appends a range of the read buffer to the current line
+     * @return The length of the current line
+     */
+    private int append(byte[] bytes, int start, int end, int lineLength)
+    {
+        int length = end - start;
+        if (lineLength + length > line.length)
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        System.arraycopy(bytes, start, line, lineLength, length);
+        return lineLength + length;
+    }
+
+    /**
+     * Strips the current line's carriage return and passes it to the listener
+     */
+    private void handleLine(int length)
+    {
+        int terminatorLength = 1;
+        if (length > 0 && line[length-1] == '\r')
+        {
+            length--;
+            terminatorLength = 2;
+        }
+        if (processor != null)
+            processor.handle(line, 0, length, terminatorLength);
+        else
+            listener.handle(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Returns the offset of the next line to read
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Stops the tailer once it has passed on its current line
+     */
+    public void stop()
+    {
+        running = false;
+    }
+}
@@ -0,0 +1,222 @@
+package traffic.log;
+
+/**
+ * Parses IPv4 and IPv6 addresses into two longs, reading the characters in place so
+ * no string is created. IPv4 addresses are mapped into IPv6 as ::ffff:a.b.c.d, so both
+ * families share one 128-bit space.
+ */
+public class IpAddress
+{
+    /** The high 64 bits of every IPv4-mapped address */
+    public static final long IPV4_MAPPED_HIGH = 0;
+    /** The bits above the IPv4 address in the low 64 bits of every IPv4-mapped address */
+    public static final long IPV4_MAPPED_PREFIX = 0xffffL << 32;
+    /** The prefix length of the IPv4-mapped range, which is added to IPv4 prefix lengths */
+    public static final int IPV4_MAPPED_LENGTH = 96;
+
+    private IpAddress()
+    {
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address. An IPv6 address may end with a zone, such as "%eth0".
+     * @param text The characters holding the address
+     * @param address Receives the high 64 bits at index 0 and the low 64 bits at index 1
+     * @return False if the text is not an IP address, such as a host name
+     */
+    public static boolean parse(CharSequence text, long[] address)
+    {
+        int length = text.length();
+        long ipv4 = parseIpv4(text, 0, length);
+        if (ipv4 >= 0)
+        {
+            address[0] = IPV4_MAPPED_HIGH;
+            address[1] = IPV4_MAPPED_PREFIX | ipv4;
+            return true;
+        }
+
+        // Only IPv6 addresses have colons, and host names usually stop at their first letters
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c == ':')
+                return parseIpv6(text, length, address);
+            if (c != '.' && Character.digit(c, 16) < 0)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a dotted IPv4 address
+     * @param text The characters holding the address
+     * @param start The index of the address's first character
+     * @param end The index after the address's last character
+     * @return The address as an unsigned 32-bit value, or -1 if the text is not an IPv4 address
+     */
+    public static long parseIpv4(CharSequence text, int start, int end)
+    {
+        long address = 0;
+        int octets = 0;
+        int i = start;
+        while (i < end)
+        {
+            int value = 0;
+            int digits = 0;
+            for (; i < end && digits < 4; i++, digits++)
+            {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                value = value * 10 + (c - '0');
+            }
+            if (digits == 0 || digits > 3 || value > 255)
+                return -1;
+
+            address = (address << 8) | value;
+            octets++;
+            if (i == end)
+                break;
+            if (text.charAt(i) != '.' || octets == 4)
+                return -1;
+            i++;
+        }
+        return (octets == 4)? address : -1;
+    }
+
+    /**
+     * Returns true if the address is an IPv4 address mapped into IPv6
+     * @param high The high 64 bits of the address
+     * @param low The low 64 bits of the address
+     */
+    public static boolean isIpv4(long high, long low)
+    {
+        return high == IPV4_MAPPED_HIGH && (low & 0xffffffff00000000L) == IPV4_MAPPED_PREFIX;
+    }
+
+    /**
+     * Formats the prefix of an address, such as "10.1.2.0/24" or "2001:db8:1::/48".
+     * The prefix length of an IPv4 address is given within IPv6, e.g. 120 for a /24.
+     * @param high The high 64 bits of the address
+     * @param low The low 64 bits of the address
+     * @param prefixLength The number of leading bits in the prefix, between 0 and 128
+     * @return The prefix in CIDR notation
+     */
+    public static String format(long high, long low, int prefixLength)
+    {
+        StringBuilder text = new StringBuilder();
+        if (isIpv4(high, low) && prefixLength >= IPV4_MAPPED_LENGTH)
+        {
+            text.append((low >>> 24) & 0xff).append('.').append((low >>> 16) & 0xff).append('.')
+                    .append((low >>> 8) & 0xff).append('.').append(low & 0xff);
+            return text.append('/').append(prefixLength - IPV4_MAPPED_LENGTH).toString();
+        }
+
+        // Write the groups that hold the prefix, and compress the zeros after them
+        int groups = (prefixLength + 15) / 16;
+        for (int i = 0; i < groups; i++)
+        {
+            long half = (i < 4)? high : low;
+            int group = (int) ((half >>> (48 - (i % 4) * 16)) & 0xffff);
+            text.append((i == 0)? "" : ":").append(Integer.toHexString(group));
+        }
+        if (groups < 8)
+            text.append((groups == 7)? ":0" : "::");
+        return text.append('/').append(prefixLength).toString();
+    }
+
+    /**
+     * Parses an IPv6 address, which may compress its zeros with "::" and end with an IPv4 address
+     */
+    private static boolean parseIpv6(CharSequence text, int length, long[] address)
+    {
+        // Ignore the zone of a link-local address
+        int end = length;
+        for (int i = 0; i < length; i++)
+        {
+            if (text.charAt(i) == '%')
+            {
+                end = i;
+                break;
+            }
+        }
+
+        int[] groups = new int[8];
+        int count = 0;
+        int compressed = -1;
+        int i = 0;
+        if (end >= 2 && text.charAt(0) == ':' && text.charAt(1) == ':')
+        {
+            compressed = 0;
+            i = 2;
+        }
+        while (i < end)
+        {
+            int start = i;
+            int value = 0;
+            for (; i < end && i - start < 5; i++)
+            {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (digit < 0)
+                    break;
+                value = (value << 4) | digit;
+            }
+
+            if (i < end && text.charAt(i) == '.')
+            {
+                // The last 32 bits are written as an IPv4 address
+                long ipv4 = parseIpv4(text, start, end);
+                if (ipv4 < 0 || count > 6)
+                    return false;
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xffff);
+                i = end;
+                break;
+            }
+            if (i == start || i - start > 4 || count == 8)
+                return false;
+            groups[count++] = value;
+
+            if (i == end)
+                break;
+            if (text.charAt(i) != ':')
+                return false;
+            i++;
+            if (i < end && text.charAt(i) == ':')
+            {
+                if (compressed >= 0)
+                    return false;
+                compressed = count;
+                i++;
+            }
+            else if (i == end)
+            {
+                return false;
+            }
+        }
+
+        if (compressed < 0 && count != 8 || compressed >= 0 && count == 8)
+            return false;
+        if (compressed >= 0)
+        {
+            // Move the groups after "::" to the end
+            int moved = count - compressed;
+            System.arraycopy(groups, compressed, groups, 8 - moved, moved);
+            for (int j = compressed; j < 8 - moved; j++)
+            {
+                groups[j] = 0;
+            }
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int j = 0; j < 4; j++)
+        {
+            high = (high << 16) | groups[j];
+            low = (low << 16) | groups[j + 4];
+        }
+        address[0] = high;
+        address[1] = low;
+        return true;
+    }
+}
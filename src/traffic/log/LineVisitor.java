@@ -0,0 +1,15 @@
+package traffic.log;
+
+/**
+ * Receives the lines of a log file that is scanned in bulk
+ */
+public interface LineVisitor
+{
+    /**
+     * Called for each line in the scanned range, in file order
+     * @param line The bytes of the line, without its line terminator. Only valid until this method returns
+     * @param length The number of bytes in the line
+     * @param offset The byte offset of the line's first character in the file
+     */
+    void visitLine(byte[] line, int length, long offset);
+}
@@ -1,17 +1,311 @@
 package traffic.log;
+import java.nio.ByteBuffer;
+
 /**
- * A container for a log parsed from in Apache common log format.
+ * A view of a log line.
+ *
+ * Parsing only records where each field starts and ends. A field is converted into a
+ * number or string when it is requested, and the same log is reused for the next line,
+ * so reading a line allocates nothing. Fields are only valid until the next line is parsed.
+ * The layout of the line is given by a LogFormat.
  */
 public class Log
 {
-    public String host;
-    public String id;
-    public String authUser;
-    public String date;
-    public String request;
-    public String requestMethod;
-    public String requestUrl;
-    public String requestProtocol;
-    public String status;
-    public String bytes;
+    /** Returned by lazily-parsed numbers that have not been parsed yet */
+    private static final long NOT_PARSED = -2;
+
+    /** The layout of the parsed lines */
+    private LogFormat format;
+    /** The bytes of the current line, when it is copied from characters */
+    private byte[] buffer = new byte[1024];
+    /** Reads the bytes of the current line when the ends of its fields are searched */
+    private ByteBuffer view = ByteScanner.wrap(buffer);
+
+    /** The view of each field, indexed by field type */
+    private LogField[] fields = new LogField[FieldType.values().length];
+
+    /** The parsed status code, or NOT_PARSED */
+    private long statusValue;
+    /** The parsed number of bytes, or NOT_PARSED */
+    private long bytesValue;
+    /** The parsed timestamp of the log's date, or NOT_PARSED */
+    private long timestamp;
+    /** The parsed response time in microseconds, or NOT_PARSED */
+    private long responseTime;
+    /** The number of microseconds in one unit of the response time field */
+    private long responseTimeScale;
+
+    /**
+     * Creates a log which parses lines in Common Log Format
+     */
+    public Log()
+    {
+        this(LogFormat.COMMON);
+    }
+
+    /**
+     * Creates a log which parses lines in the given format
+     * @param format The layout of the parsed lines
+     */
+    public Log(LogFormat format)
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            fields[i] = new LogField();
+        }
+        setFormat(format);
+    }
+
+    /**
+     * Changes the layout of the lines parsed by this log, clearing its fields
+     * @param format The layout of the parsed lines
+     */
+    public void setFormat(LogFormat format)
+    {
+        this.format = format;
+        clear();
+    }
+
+    public LogFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Parses a log line, copying its characters into this log's buffer
+     * @param line The log line
+     * @return True if the line is a valid log
+     */
+    public boolean parse(CharSequence line)
+    {
+        int length = line.length();
+        if (buffer.length < length)
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+
+        byte[] lineBuffer = buffer;
+        for (int i = 0; i < length; i++)
+        {
+            lineBuffer[i] = (byte) line.charAt(i);
+        }
+        return parse(lineBuffer, 0, length);
+    }
+
+    /**
+     * Parses a log line stored in a range of bytes, copying them into this log's buffer,
+     * so the bytes may be reused as soon as this method returns
+     * @param line The bytes containing the line
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @return True if the line is a valid log
+     */
+    public boolean parseCopy(byte[] line, int start, int end)
+    {
+        int length = end - start;
+        if (buffer.length < length)
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+
+        System.arraycopy(line, start, buffer, 0, length);
+        return parse(buffer, 0, length);
+    }
+
+    /**
+     * Parses a log line stored in a range of bytes. The bytes are read in place,
+     * so they must not change while this log's fields are used.
+     * @param line The bytes containing the line
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @return True if the line is a valid log
+     */
+    public boolean parse(byte[] line, int start, int end)
+    {
+        statusValue = NOT_PARSED;
+        bytesValue = NOT_PARSED;
+        timestamp = NOT_PARSED;
+        responseTime = NOT_PARSED;
+        if (view.array() != line)
+            view = ByteScanner.wrap(line);
+        return format.parse(this, line, view, start, end);
+    }
+
+    /**
+     * Sets this log's fields directly, e.g. when replaying logs that were already parsed.
+     * Fields that are not given are left empty.
+     * @param host The host that sent the request
+     * @param requestUrl The requested URL
+     * @param status The status code of the response
+     * @param bytes The number of bytes served
+     * @param timestamp The timestamp of the log
+     */
+    public void set(String host, String requestUrl, int status, long bytes, long timestamp)
+    {
+        clear();
+        getField(FieldType.HOST).set(host);
+        getField(FieldType.URL).set(requestUrl);
+        this.statusValue = status;
+        this.bytesValue = bytes;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Empties every field
+     */
+    private void clear()
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            fields[i].clear();
+        }
+        statusValue = NOT_PARSED;
+        bytesValue = NOT_PARSED;
+        timestamp = NOT_PARSED;
+        responseTime = NOT_PARSED;
+    }
+
+    /**
+     * Returns the view of a field. Fields that are not in the log's format are empty.
+     * @param type The type of the field
+     * @return The field's characters
+     */
+    public LogField getField(FieldType type)
+    {
+        return fields[type.ordinal()];
+    }
+
+    void setResponseTimeScale(long scale)
+    {
+        responseTimeScale = scale;
+    }
+
+    public LogField getHost()
+    {
+        return getField(FieldType.HOST);
+    }
+
+    public LogField getId()
+    {
+        return getField(FieldType.IDENT);
+    }
+
+    public LogField getAuthUser()
+    {
+        return getField(FieldType.AUTH_USER);
+    }
+
+    public LogField getDate()
+    {
+        return getField(FieldType.TIME);
+    }
+
+    public LogField getRequest()
+    {
+        return getField(FieldType.REQUEST);
+    }
+
+    public LogField getRequestMethod()
+    {
+        return getField(FieldType.METHOD);
+    }
+
+    public LogField getRequestUrl()
+    {
+        return getField(FieldType.URL);
+    }
+
+    public LogField getRequestProtocol()
+    {
+        return getField(FieldType.PROTOCOL);
+    }
+
+    public LogField getReferer()
+    {
+        return getField(FieldType.REFERER);
+    }
+
+    public LogField getUserAgent()
+    {
+        return getField(FieldType.USER_AGENT);
+    }
+
+    /**
+     * Returns the status code of the response
+     * @return The status code, e.g. 404, or -1 if the log has none
+     */
+    public int getStatus()
+    {
+        if (statusValue == NOT_PARSED)
+            statusValue = getField(FieldType.STATUS).toLong();
+        return (int) statusValue;
+    }
+
+    /**
+     * Returns the number of bytes served
+     * @return The size of the response, or zero if none was sent
+     */
+    public long getBytes()
+    {
+        if (bytesValue == NOT_PARSED)
+            bytesValue = Math.max(0, getField(FieldType.BYTES).toLong());
+        return bytesValue;
+    }
+
+    /**
+     * Returns the timestamp of the log's date
+     * @return The milliseconds since the epoch, or -1 if the date is malformed
+     */
+    public long getTimestamp()
+    {
+        if (timestamp == NOT_PARSED)
+            timestamp = LogDate.parse(getField(FieldType.TIME));
+        return timestamp;
+    }
+
+    /**
+     * Returns the time taken to serve the request
+     * @return The response time in microseconds, or -1 if the log has none
+     */
+    public long getResponseTime()
+    {
+        if (responseTime == NOT_PARSED)
+            responseTime = parseDecimal(getField(FieldType.RESPONSE_TIME), responseTimeScale);
+        return responseTime;
+    }
+
+    /**
+     * Parses a non-negative decimal number, e.g. "0.125"
+     * @param field The number's characters
+     * @param scale The value of one unit of the number
+     * @return The number multiplied by the scale, or -1 if the field is not a number
+     */
+    private static long parseDecimal(LogField field, long scale)
+    {
+        int length = field.length();
+        if (length == 0)
+            return -1;
+
+        long value = 0;
+        long fractionScale = scale;
+        boolean fraction = false;
+        for (int i = 0; i < length; i++)
+        {
+            char c = field.charAt(i);
+            if (c == '.' && !fraction)
+            {
+                fraction = true;
+            }
+            else if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            else if (!fraction)
+            {
+                value = value * 10 + (c - '0') * scale;
+            }
+            else
+            {
+                fractionScale /= 10;
+                value += (c - '0') * fractionScale;
+            }
+        }
+        return value;
+    }
 }
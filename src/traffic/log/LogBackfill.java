@@ -0,0 +1,233 @@
+package traffic.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import traffic.monitor.MetricManager;
+import traffic.monitor.Metrics;
+import traffic.monitor.MetricsDelta;
+import traffic.stats.TrafficMonitorStats;
+
+/**
+ * Analyzes the existing content of a log in parallel, before the log is tailed.
+ *
+ * The log is scanned in memory-mapped chunks up to its last complete line. Every log seeds
+ * the total metrics, and the logs dated within the seed window before the last log seed the
+ * monitors at their own timestamps, so alerts start from an accurate window. Tailing then
+ * continues from the offset where the scan stopped, so no line is skipped or counted twice.
+ * The log's time index, if any, is given the first line of each minute that was scanned,
+ * so a minute which the handover falls in is found from its first line.
+ */
+public class LogBackfill
+{
+    /** The number of bytes searched at the end of the log for its last complete line */
+    private static final int TAIL_SEARCH_LENGTH = 64 * 1024;
+
+    /** The log to analyze */
+    private File file;
+    /** The layout of the log's lines, restricted to the fields used by the metric manager */
+    private LogFormat format;
+    /** The number of chunks analyzed at the same time */
+    private int threads;
+    /** The logs dated within this many milliseconds of the last log seed the monitors */
+    private long seedWindow;
+    /** Maps each minute of the log to its byte offset. Null if the log is not indexed */
+    private TimeIndex timeIndex;
+
+    /** The number of lines analyzed by the last run */
+    private long lineCount;
+    /** The number of lines of the last run that could not be parsed */
+    private long failureCount;
+
+    /**
+     * Creates a backfill of the given log
+     * @param file The log to analyze
+     * @param format The layout of the log's lines
+     * @param threads The number of threads that analyze chunks of the log
+     * @param seedWindow The logs dated within this many milliseconds of the last log seed the monitors
+     */
+    public LogBackfill(File file, LogFormat format, int threads, long seedWindow)
+    {
+        if (threads <= 0 || seedWindow < 0)
+            throw new IllegalArgumentException("LogBackfill requires at least one thread and a non-negative window");
+
+        this.file = file;
+        this.format = format.select(MetricManager.ANALYZED_FIELDS);
+        this.threads = threads;
+        this.seedWindow = seedWindow;
+    }
+
+    /**
+     * Indexes the log by time as it is analyzed
+     * @param timeIndex The index which records the offset of each minute in the log, or null
+     */
+    public void setTimeIndex(TimeIndex timeIndex)
+    {
+        this.timeIndex = timeIndex;
+    }
+
+    /**
+     * Analyzes every complete line of the log and seeds the manager with their metrics
+     * @param metricManager The manager to seed
+     * @return The offset after the last analyzed line, from which the log should be tailed
+     */
+    public long run(final MetricManager metricManager) throws IOException
+    {
+        long end;
+        long lastLogTime;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            end = getEndOfLastLine(randomAccessFile);
+            lastLogTime = getLastTimestamp(randomAccessFile, end);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+
+        final long seedStart = (lastLogTime >= 0)? lastLogTime - seedWindow : Long.MAX_VALUE;
+        final long seedTime = lastLogTime;
+        final boolean indexed = (timeIndex != null);
+        lineCount = 0;
+        failureCount = 0;
+
+        // Each chunk seeds the manager as soon as it is analyzed, so only the chunks being
+        // analyzed hold their metrics, however large the log is
+        MappedLogReader reader = new MappedLogReader(file, threads);
+        reader.scan(0, end, new Supplier<ChunkAnalyzer>() {
+            public ChunkAnalyzer get()
+            {
+                return new ChunkAnalyzer(format, seedStart, indexed);
+            }
+        }, new Consumer<ChunkAnalyzer>() {
+            public void accept(ChunkAnalyzer chunk)
+            {
+                metricManager.seed(chunk.history, chunk.recent, seedTime);
+                if (chunk.minutes != null)
+                    timeIndex.addAll(chunk.minutes);
+                lineCount += chunk.lineCount;
+                failureCount += chunk.failures;
+            }
+        });
+        if (indexed)
+            timeIndex.flush();
+        TrafficMonitorStats.getInstance().linesBackfilled(lineCount, failureCount, end, lastLogTime);
+        return end;
+    }
+
+    /**
+     * Returns the number of lines analyzed by the last run
+     */
+    public long getLineCount()
+    {
+        return lineCount;
+    }
+
+    /**
+     * Returns the offset after the last line terminator of the file. A line that is still
+     * being written is left to the tailer.
+     */
+    private static long getEndOfLastLine(RandomAccessFile file) throws IOException
+    {
+        byte[] buffer = new byte[TAIL_SEARCH_LENGTH];
+        long blockEnd = file.length();
+        while (blockEnd > 0)
+        {
+            long blockStart = Math.max(0, blockEnd - buffer.length);
+            int length = (int) (blockEnd - blockStart);
+            file.seek(blockStart);
+            file.readFully(buffer, 0, length);
+            for (int i = length - 1; i >= 0; i--)
+            {
+                if (buffer[i] == '\n')
+                    return blockStart + i + 1;
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the timestamp of the last parseable line before the given offset,
+     * searching the last TAIL_SEARCH_LENGTH bytes
+     * @return The timestamp of the line, or -1 if no line could be parsed
+     */
+    private long getLastTimestamp(RandomAccessFile file, long end) throws IOException
+    {
+        long start = Math.max(0, end - TAIL_SEARCH_LENGTH);
+        byte[] buffer = new byte[(int) (end - start)];
+        file.seek(start);
+        file.readFully(buffer);
+
+        // Lines are parsed from the last one, skipping the terminator of the last line
+        int lineEnd = buffer.length - 1;
+        for (int i = lineEnd - 1; i >= -1; i--)
+        {
+            if (i >= 0 && buffer[i] != '\n')
+                continue;
+            // The first line of the buffer is only whole if the buffer starts the file
+            if (i < 0 && start > 0)
+                break;
+
+            int stop = (lineEnd > i + 1 && buffer[lineEnd-1] == '\r')? lineEnd - 1 : lineEnd;
+            Log log = LogProcessor.parseLine(buffer, i + 1, stop, format);
+            long timestamp = (log != null)? log.getTimestamp() : -1;
+            if (timestamp >= 0)
+                return timestamp;
+            lineEnd = i;
+        }
+        return -1;
+    }
+
+    /**
+     * Analyzes the lines of one chunk of the log
+     */
+    private static class ChunkAnalyzer implements LineVisitor
+    {
+        /** The layout of the chunk's lines */
+        private LogFormat format;
+        /** Logs dated at or after this time also seed the monitors */
+        private long seedStart;
+
+        /** The metrics of every log in the chunk */
+        private Metrics history = new Metrics();
+        /** The metrics of the logs that seed the monitors, counted at their own timestamps */
+        private MetricsDelta recent = new MetricsDelta();
+        /** The first log of each minute in the chunk, or null if the log is not indexed */
+        private TimeIndex minutes;
+        /** The number of lines in the chunk */
+        private long lineCount;
+        /** The number of lines that could not be parsed */
+        private long failures;
+
+        ChunkAnalyzer(LogFormat format, long seedStart, boolean indexed)
+        {
+            this.format = format;
+            this.seedStart = seedStart;
+            if (indexed)
+                minutes = new TimeIndex();
+        }
+
+        public void visitLine(byte[] line, int length, long offset)
+        {
+            lineCount++;
+            Log log = LogProcessor.parseLine(line, 0, length, format);
+            if (log == null)
+            {
+                failures++;
+                return;
+            }
+
+            MetricManager.analyze(log, history);
+            long timestamp = log.getTimestamp();
+            if (minutes != null)
+                minutes.add(timestamp, offset);
+            if (timestamp >= seedStart)
+                MetricManager.analyze(log, timestamp, recent);
+        }
+    }
+}
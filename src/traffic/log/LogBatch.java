@@ -0,0 +1,138 @@
+package traffic.log;
+
+/**
+ * A block of parsed logs that are analyzed together.
+ *
+ * Each log of the batch keeps its own copy of its line, so the logs stay valid until the
+ * batch is cleared. The logs are reused by the next block, so filling a batch allocates
+ * nothing once every log's buffer is large enough.
+ */
+public class LogBatch
+{
+    /** The logs of the batch, followed by the logs that are free to be filled */
+    private Log[] logs;
+    /** The number of logs in the batch */
+    private int size;
+
+    /**
+     * Creates an empty batch
+     * @param format The layout of the lines parsed by the batch's logs
+     * @param capacity The maximum number of logs in the batch
+     */
+    public LogBatch(LogFormat format, int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("LogBatch requires a positive capacity");
+
+        // One more log than the capacity, so a line can be parsed while the batch is full
+        logs = new Log[capacity + 1];
+        for (int i = 0; i < logs.length; i++)
+        {
+            logs[i] = new Log(format);
+        }
+    }
+
+    /**
+     * Returns the log that the next line should be parsed into. The log only joins
+     * the batch once add() is called.
+     * @return The first free log of the batch
+     */
+    public Log next()
+    {
+        return logs[size];
+    }
+
+    /**
+     * Adds the log returned by next() to the batch
+     */
+    public void add()
+    {
+        if (isFull())
+            throw new IllegalStateException("The batch is full");
+        size++;
+    }
+
+    /**
+     * Parses a line into the next log, adding it to the batch if the line is valid
+     * @param line The log line
+     * @return The parsed log, or null if the line is malformed
+     */
+    public Log add(CharSequence line)
+    {
+        Log log = next();
+        if (!log.parse(line))
+            return null;
+        add();
+        return log;
+    }
+
+    /**
+     * Parses a line stored in a range of bytes into the next log, adding it to the batch if
+     * the line is valid. The log keeps a copy of the bytes, so they may be reused.
+     * @param line The bytes containing the line
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @return The parsed log, or null if the line is malformed
+     */
+    public Log add(byte[] line, int start, int end)
+    {
+        Log log = next();
+        if (!log.parseCopy(line, start, end))
+            return null;
+        add();
+        return log;
+    }
+
+    /**
+     * Moves a log of another batch to the end of this batch without copying it. The other
+     * batch receives this batch's free log in its place, so neither batch loses a log.
+     * @param source The batch holding the log
+     * @param index The index of the log in the other batch, which must not be read again
+     */
+    public void take(LogBatch source, int index)
+    {
+        if (isFull())
+            throw new IllegalStateException("The batch is full");
+        Log log = source.logs[index];
+        source.logs[index] = logs[size];
+        logs[size] = log;
+        size++;
+    }
+
+    /**
+     * Returns a log of the batch
+     * @param index The index of the log, in the order it was added
+     */
+    public Log get(int index)
+    {
+        return logs[index];
+    }
+
+    /**
+     * Returns the number of logs in the batch
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if no more logs can be added to the batch
+     */
+    public boolean isFull()
+    {
+        return size == logs.length - 1;
+    }
+
+    /**
+     * Removes every log from the batch. The log returned by next() is kept first,
+     * so a line parsed into it before the batch was cleared can still be added.
+     */
+    public void clear()
+    {
+        Log next = logs[size];
+        logs[size] = logs[0];
+        logs[0] = next;
+        size = 0;
+    }
+}
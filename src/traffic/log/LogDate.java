@@ -0,0 +1,157 @@
+package traffic.log;
+
+/**
+ * Converts dates written in Apache common log format (e.g. "07/Mar/2004:16:05:49 -0800")
+ * into epoch timestamps without allocating intermediate objects
+ */
+public class LogDate
+{
+    /** The three-letter month abbreviations used by the common log format */
+    private static final String[] MONTHS = {
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+    /** Milliseconds in a minute */
+    public static final long MINUTE = 60000;
+
+    /**
+     * Returns the epoch timestamp of the given log date
+     * @param date A date in common log format
+     * @return The timestamp in milliseconds since the epoch, or -1 if the date is malformed
+     */
+    public static long parse(CharSequence date)
+    {
+        if (date == null)
+            return -1;
+        return parse(date, 0, date.length());
+    }
+
+    /**
+     * Returns the epoch timestamp of the log date stored in the given range of characters
+     * @param text The characters containing the date
+     * @param start The index of the first character of the date
+     * @param end The index after the last character of the date
+     * @return The timestamp in milliseconds since the epoch, or -1 if the date is malformed
+     */
+    public static long parse(CharSequence text, int start, int end)
+    {
+        // Day of month: one or two digits followed by a slash
+        int i = start;
+        int day = 0;
+        while (i < end && isDigit(text.charAt(i)))
+        {
+            day = day * 10 + (text.charAt(i++) - '0');
+        }
+        if (i == start || i >= end || text.charAt(i++) != '/')
+            return -1;
+
+        // Month: three letters followed by a slash
+        if (i + 4 > end)
+            return -1;
+        int month = parseMonth(text, i);
+        i += 3;
+        if (month < 0 || text.charAt(i++) != '/')
+            return -1;
+
+        // Year, followed by the time of day
+        int yearStart = i;
+        int year = 0;
+        while (i < end && isDigit(text.charAt(i)))
+        {
+            year = year * 10 + (text.charAt(i++) - '0');
+        }
+        if (i == yearStart || i + 9 > end || text.charAt(i++) != ':')
+            return -1;
+
+        int hour = parseTwoDigits(text, i);
+        int minute = parseTwoDigits(text, i + 3);
+        int second = parseTwoDigits(text, i + 6);
+        if (hour < 0 || minute < 0 || second < 0
+                || text.charAt(i + 2) != ':' || text.charAt(i + 5) != ':')
+            return -1;
+        i += 8;
+
+        // Time zone offset (optional), e.g. " -0800"
+        long offsetMinutes = 0;
+        while (i < end && text.charAt(i) == ' ')
+            i++;
+        if (i < end)
+        {
+            char sign = text.charAt(i++);
+            while (i < end && text.charAt(i) == ' ')
+                i++;
+            if ((sign != '+' && sign != '-') || i + 4 > end)
+                return -1;
+            int offsetHours = parseTwoDigits(text, i);
+            int offsetMins = parseTwoDigits(text, i + 2);
+            if (offsetHours < 0 || offsetMins < 0)
+                return -1;
+            offsetMinutes = offsetHours * 60 + offsetMins;
+            if (sign == '-')
+                offsetMinutes = -offsetMinutes;
+        }
+
+        long days = toEpochDays(year, month + 1, day);
+        long localTime = ((days * 24 + hour) * 60 + minute) * 60 + second;
+        return (localTime - offsetMinutes * 60) * 1000;
+    }
+
+    /**
+     * Returns the number of days between the epoch and the given date
+     * @param year The year of the date
+     * @param month The month of the date, from 1 to 12
+     * @param day The day of the month, from 1 to 31
+     * @return The days since 1970-01-01
+     */
+    private static long toEpochDays(long year, int month, int day)
+    {
+        // Shift the year so that it starts in March, placing leap days at its end
+        if (month <= 2)
+            year--;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the index of the month abbreviation starting at the given position
+     * @param text The characters containing the month
+     * @param start The index of the month's first letter
+     * @return The month index from 0 to 11, or -1 if the month is unknown
+     */
+    private static int parseMonth(CharSequence text, int start)
+    {
+        for (int month = 0; month < MONTHS.length; month++)
+        {
+            String name = MONTHS[month];
+            if (text.charAt(start) == name.charAt(0)
+                    && text.charAt(start + 1) == name.charAt(1)
+                    && text.charAt(start + 2) == name.charAt(2))
+            {
+                return month;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a two-digit number
+     * @param text The characters containing the number
+     * @param start The index of the first digit
+     * @return The parsed number, or -1 if either character is not a digit
+     */
+    private static int parseTwoDigits(CharSequence text, int start)
+    {
+        char tens = text.charAt(start);
+        char ones = text.charAt(start + 1);
+        if (!isDigit(tens) || !isDigit(ones))
+            return -1;
+        return (tens - '0') * 10 + (ones - '0');
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,140 @@
+package traffic.log;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A view of one field of a log line. The view reads the line's bytes in place,
+ * so no string is created unless toString() is called.
+ */
+public class LogField implements CharSequence
+{
+    /** The bytes of the line containing the field */
+    private byte[] buffer;
+    /** The index of the field's first byte */
+    private int start;
+    /** The index after the field's last byte */
+    private int end;
+    /** The field's value when it is not read from a buffer. Null otherwise */
+    private String value;
+
+    /**
+     * Points the view at a range of bytes
+     * @param buffer The bytes of the line
+     * @param start The index of the field's first byte
+     * @param end The index after the field's last byte
+     */
+    public void set(byte[] buffer, int start, int end)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.value = null;
+    }
+
+    /**
+     * Points the view at a string
+     * @param value The field's value
+     */
+    public void set(String value)
+    {
+        this.buffer = null;
+        this.start = 0;
+        this.end = (value != null)? value.length() : 0;
+        this.value = value;
+    }
+
+    /**
+     * Empties the view
+     */
+    public void clear()
+    {
+        set(null, 0, 0);
+    }
+
+    public int length()
+    {
+        return end - start;
+    }
+
+    public char charAt(int index)
+    {
+        if (value != null)
+            return value.charAt(index);
+        return (char) (buffer[start + index] & 0xFF);
+    }
+
+    public CharSequence subSequence(int from, int to)
+    {
+        if (value != null)
+            return value.substring(from, to);
+        return new String(buffer, start + from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns true if the field contains exactly the given characters
+     * @param other The characters to compare to
+     */
+    public boolean contentEquals(CharSequence other)
+    {
+        int length = length();
+        if (other == null || other.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (charAt(i) != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the field starts with the given characters
+     * @param prefix The characters to compare to
+     */
+    public boolean startsWith(CharSequence prefix)
+    {
+        int length = prefix.length();
+        if (length > length())
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (charAt(i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the field as a number
+     * @return The field's digits as a number, or -1 if it contains anything else
+     */
+    public long toLong()
+    {
+        int length = length();
+        if (length == 0)
+            return -1;
+
+        long number = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Creates a string holding the field's characters
+     */
+    public String toString()
+    {
+        if (value != null)
+            return value;
+        if (buffer == null)
+            return "";
+
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
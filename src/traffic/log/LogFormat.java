@@ -0,0 +1,490 @@
+package traffic.log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Describes the layout of a log line with an Apache or nginx format string, e.g.
+ * "%h %l %u %t \"%r\" %>s %b" or "$remote_addr - $remote_user [$time_local] \"$request\" $status".
+ *
+ * The format is compiled once into a list of steps. Each step matches the text before a
+ * field and then finds where the field ends, so a line is parsed in a single pass without
+ * backtracking. Fields that are not selected are skipped without being validated, and
+ * parsing stops after the last selected field.
+ */
+public class LogFormat
+{
+    /** The NCSA Common Log Format */
+    public static final String COMMON_FORMAT = "%h %l %u %t \"%r\" %>s %b";
+    /** The NCSA Combined Log Format, which adds the referer and the user agent */
+    public static final String COMBINED_FORMAT = COMMON_FORMAT + " \"%{Referer}i\" \"%{User-agent}i\"";
+
+    /** Parses logs in Common Log Format */
+    public static final LogFormat COMMON = compile(COMMON_FORMAT);
+    /** Parses logs in Combined Log Format */
+    public static final LogFormat COMBINED = compile(COMBINED_FORMAT);
+
+    /** Terminates the last field of a format: the field ends at the next space or at the end of the line */
+    private static final int LINE_END = -1;
+    /** Finds the end of each field */
+    private static final ByteScanner SCANNER = ByteScanner.getDefault();
+
+    /** The format string */
+    private String format;
+    /** The text that precedes each field */
+    private byte[][] literals;
+    /** The type of each field, or OTHER if it is skipped */
+    private FieldType[] types;
+    /** The character that ends each field */
+    private int[] terminators;
+    /** True for each field enclosed in quotes, which may contain escaped quotes */
+    private boolean[] quoted;
+    /** The number of microseconds in one unit of each response time field */
+    private long[] scales;
+    /** The number of steps to run when parsing a line */
+    private int stepCount;
+
+    private LogFormat(String format, int fieldCount)
+    {
+        this.format = format;
+        literals = new byte[fieldCount][];
+        types = new FieldType[fieldCount];
+        terminators = new int[fieldCount];
+        quoted = new boolean[fieldCount];
+        scales = new long[fieldCount];
+    }
+
+    /**
+     * Returns the format with the given name, or compiles a format string
+     * @param name "common", "combined", or a format string
+     * @return The log format
+     */
+    public static LogFormat forName(String name)
+    {
+        if (name.equalsIgnoreCase("common"))
+            return COMMON;
+        if (name.equalsIgnoreCase("combined"))
+            return COMBINED;
+        return compile(name);
+    }
+
+    /**
+     * Compiles a format string
+     * @param format An Apache or nginx format string
+     * @return The compiled format, which parses every field it recognizes
+     */
+    public static LogFormat compile(String format)
+    {
+        ArrayList<String> literals = new ArrayList<String>();
+        ArrayList<FieldType> types = new ArrayList<FieldType>();
+        ArrayList<Long> scales = new ArrayList<Long>();
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < format.length())
+        {
+            char c = format.charAt(i);
+            if (c == '%' && i + 1 < format.length() && format.charAt(i+1) == '%')
+            {
+                literal.append('%');
+                i += 2;
+            }
+            else if (c == '%' && i + 1 < format.length())
+            {
+                // Skip modifiers, e.g. the '>' in "%>s" or the status codes in "%400,501{Referer}i"
+                i++;
+                while (i < format.length() && "<>!,0123456789".indexOf(format.charAt(i)) >= 0)
+                    i++;
+
+                String argument = null;
+                if (i < format.length() && format.charAt(i) == '{')
+                {
+                    int close = format.indexOf('}', i);
+                    if (close < 0)
+                        throw new IllegalArgumentException("Unclosed '{' in log format: " + format);
+                    argument = format.substring(i + 1, close);
+                    i = close + 1;
+                }
+                if (i >= format.length())
+                    throw new IllegalArgumentException("Missing directive at the end of log format: " + format);
+
+                char directive = format.charAt(i++);
+                if (directive == 't' && argument == null)
+                {
+                    // %t includes the brackets around the date
+                    literal.append('[');
+                    addField(format, literal, FieldType.TIME, 0, literals, types, scales);
+                    literal.append(']');
+                }
+                else
+                {
+                    FieldType type = getApacheField(directive, argument);
+                    long scale = (type == FieldType.RESPONSE_TIME)? getApacheScale(directive, argument) : 0;
+                    addField(format, literal, type, scale, literals, types, scales);
+                }
+            }
+            else if (c == '$' && i + 1 < format.length() && isVariableStart(format.charAt(i+1)))
+            {
+                int nameStart = i + 1;
+                int nameEnd;
+                if (format.charAt(nameStart) == '{')
+                {
+                    nameEnd = format.indexOf('}', nameStart);
+                    if (nameEnd < 0)
+                        throw new IllegalArgumentException("Unclosed '{' in log format: " + format);
+                    i = nameEnd + 1;
+                    nameStart++;
+                }
+                else
+                {
+                    nameEnd = nameStart;
+                    while (nameEnd < format.length() && isVariableChar(format.charAt(nameEnd)))
+                        nameEnd++;
+                    i = nameEnd;
+                }
+
+                String name = format.substring(nameStart, nameEnd);
+                FieldType type = getNginxField(name);
+                long scale = (type == FieldType.RESPONSE_TIME)? 1000000 : 0;
+                addField(format, literal, type, scale, literals, types, scales);
+            }
+            else
+            {
+                literal.append(c);
+                i++;
+            }
+        }
+
+        // Each field ends at the first character of the text that follows it
+        LogFormat logFormat = new LogFormat(format, types.size());
+        literals.add(literal.toString());
+        for (int j = 0; j < types.size(); j++)
+        {
+            String before = literals.get(j);
+            String after = literals.get(j+1);
+            logFormat.literals[j] = toBytes(before);
+            logFormat.types[j] = types.get(j);
+            logFormat.scales[j] = scales.get(j);
+            logFormat.terminators[j] = after.isEmpty()? LINE_END : after.charAt(0);
+            logFormat.quoted[j] = before.endsWith("\"") && after.startsWith("\"");
+        }
+        logFormat.stepCount = types.size();
+        return logFormat;
+    }
+
+    /**
+     * Adds a field that follows the given text
+     */
+    private static void addField(String format, StringBuilder literal, FieldType type, long scale,
+            ArrayList<String> literals, ArrayList<FieldType> types, ArrayList<Long> scales)
+    {
+        // Without text in between, there is no way to tell where the previous field ends
+        if (literal.length() == 0 && !types.isEmpty())
+            throw new IllegalArgumentException("Fields must be separated by text in log format: " + format);
+
+        literals.add(literal.toString());
+        types.add(type);
+        scales.add(scale);
+        literal.setLength(0);
+    }
+
+    /**
+     * Returns a copy of this format which only parses the given fields. Other fields are
+     * skipped, and the fields after the last selected one are not read at all.
+     * @param fields The fields to parse
+     * @return The format restricted to the given fields
+     */
+    public LogFormat select(EnumSet<FieldType> fields)
+    {
+        LogFormat selected = new LogFormat(format, types.length);
+        for (int i = 0; i < types.length; i++)
+        {
+            selected.literals[i] = literals[i];
+            selected.types[i] = fields.contains(types[i])? types[i] : FieldType.OTHER;
+            selected.terminators[i] = terminators[i];
+            selected.quoted[i] = quoted[i];
+            selected.scales[i] = scales[i];
+        }
+
+        selected.stepCount = stepCount;
+        while (selected.stepCount > 0 && selected.types[selected.stepCount-1] == FieldType.OTHER)
+            selected.stepCount--;
+        return selected;
+    }
+
+    /**
+     * Returns true if this format parses the given field
+     * @param type The type of the field
+     */
+    public boolean hasField(FieldType type)
+    {
+        for (int i = 0; i < stepCount; i++)
+        {
+            if (types[i] == type)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a line into the fields of a log
+     * @param log The log receiving the fields
+     * @param line The bytes containing the line
+     * @param view A buffer reading the line's bytes, in which the ends of fields are searched
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @return True if the line matches this format
+     */
+    boolean parse(Log log, byte[] line, ByteBuffer view, int start, int end)
+    {
+        int position = start;
+        for (int i = 0; i < stepCount; i++)
+        {
+            // Match the text before the field
+            byte[] literal = literals[i];
+            if (position + literal.length > end)
+                return false;
+            for (int j = 0; j < literal.length; j++)
+            {
+                if (line[position + j] != literal[j])
+                    return false;
+            }
+            position += literal.length;
+
+            // Find where the field ends
+            int fieldEnd;
+            if (quoted[i])
+                fieldEnd = SCANNER.indexOfQuote(view, position, end);
+            else if (terminators[i] == LINE_END)
+            {
+                fieldEnd = SCANNER.indexOf(view, (byte) ' ', position, end);
+                if (fieldEnd < 0)
+                    fieldEnd = end;
+            }
+            else
+                fieldEnd = SCANNER.indexOf(view, (byte) terminators[i], position, end);
+            if (fieldEnd < 0)
+                return false;
+
+            FieldType type = types[i];
+            if (type != FieldType.OTHER)
+            {
+                if (fieldEnd == position && !quoted[i])
+                    return false;
+                if (!setField(log, type, scales[i], line, position, fieldEnd))
+                    return false;
+            }
+            position = fieldEnd;
+        }
+        return true;
+    }
+
+    /**
+     * Stores a field in the log, checking that numeric fields are numbers
+     * @return True if the field is valid
+     */
+    private static boolean setField(Log log, FieldType type, long scale, byte[] line, int start, int end)
+    {
+        switch (type)
+        {
+        case STATUS:
+            if (!isNumber(line, start, end))
+                return false;
+            break;
+        case BYTES:
+            if (!isNumber(line, start, end) && !(end == start + 1 && line[start] == '-'))
+                return false;
+            break;
+        case REQUEST:
+            if (!parseRequest(log, line, start, end))
+                return false;
+            break;
+        case RESPONSE_TIME:
+            log.setResponseTimeScale(scale);
+            break;
+        default:
+            break;
+        }
+
+        log.getField(type).set(line, start, end);
+        return true;
+    }
+
+    /**
+     * Splits the request into its method, URL and protocol
+     * @return True if the request contains at least a method and a URL
+     */
+    private static boolean parseRequest(Log log, byte[] line, int start, int end)
+    {
+        int methodEnd = indexOf(line, ' ', start, end);
+        if (methodEnd <= start)
+            return false;
+        log.getField(FieldType.METHOD).set(line, start, methodEnd);
+
+        int urlStart = methodEnd + 1;
+        int urlEnd = indexOf(line, ' ', urlStart, end);
+        LogField url = log.getField(FieldType.URL);
+        LogField protocol = log.getField(FieldType.PROTOCOL);
+        if (urlEnd < 0)
+        {
+            url.set(line, urlStart, end);
+            protocol.clear();
+        }
+        else
+        {
+            url.set(line, urlStart, urlEnd);
+            protocol.set(line, urlEnd + 1, end);
+        }
+        return url.length() > 0;
+    }
+
+    /**
+     * Returns the field written by an Apache directive
+     */
+    private static FieldType getApacheField(char directive, String argument)
+    {
+        switch (directive)
+        {
+        case 'h':
+        case 'a':
+            return FieldType.HOST;
+        case 'l':
+            return FieldType.IDENT;
+        case 'u':
+            return FieldType.AUTH_USER;
+        case 'r':
+            return FieldType.REQUEST;
+        case 'm':
+            return FieldType.METHOD;
+        case 'U':
+            return FieldType.URL;
+        case 'H':
+            return FieldType.PROTOCOL;
+        case 's':
+            return FieldType.STATUS;
+        case 'b':
+        case 'B':
+        case 'O':
+            return FieldType.BYTES;
+        case 'D':
+        case 'T':
+            return FieldType.RESPONSE_TIME;
+        case 'i':
+            if ("Referer".equalsIgnoreCase(argument))
+                return FieldType.REFERER;
+            if ("User-agent".equalsIgnoreCase(argument))
+                return FieldType.USER_AGENT;
+            return FieldType.OTHER;
+        default:
+            return FieldType.OTHER;
+        }
+    }
+
+    /**
+     * Returns the number of microseconds in one unit of an Apache response time directive
+     */
+    private static long getApacheScale(char directive, String argument)
+    {
+        if (directive == 'D' || "us".equals(argument))
+            return 1;
+        if ("ms".equals(argument))
+            return 1000;
+        return 1000000;
+    }
+
+    /**
+     * Returns the field written by an nginx variable
+     */
+    private static FieldType getNginxField(String name)
+    {
+        switch (name)
+        {
+        case "remote_addr":
+            return FieldType.HOST;
+        case "remote_user":
+            return FieldType.AUTH_USER;
+        case "time_local":
+            return FieldType.TIME;
+        case "request":
+            return FieldType.REQUEST;
+        case "request_method":
+            return FieldType.METHOD;
+        case "request_uri":
+        case "uri":
+            return FieldType.URL;
+        case "server_protocol":
+            return FieldType.PROTOCOL;
+        case "status":
+            return FieldType.STATUS;
+        case "body_bytes_sent":
+        case "bytes_sent":
+            return FieldType.BYTES;
+        case "http_referer":
+            return FieldType.REFERER;
+        case "http_user_agent":
+            return FieldType.USER_AGENT;
+        case "request_time":
+            return FieldType.RESPONSE_TIME;
+        default:
+            return FieldType.OTHER;
+        }
+    }
+
+    private static boolean isVariableStart(char c)
+    {
+        return c == '{' || isVariableChar(c);
+    }
+
+    private static boolean isVariableChar(char c)
+    {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static byte[] toBytes(String text)
+    {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a character
+     * @return The index of the character, or -1 if it is not found before "end"
+     */
+    private static int indexOf(byte[] line, int c, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (line[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the range holds one or more digits and nothing else
+     */
+    private static boolean isNumber(byte[] line, int start, int end)
+    {
+        if (start >= end)
+            return false;
+        for (int i = start; i < end; i++)
+        {
+            if (line[i] < '0' || line[i] > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the format string
+     */
+    public String toString()
+    {
+        return format;
+    }
+}
@@ -0,0 +1,422 @@
+package traffic.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+import traffic.util.MetricPrinter;
+
+/**
+ * Merges several logs, such as rotated logs or the logs of several servers, into one
+ * stream of logs in time order.
+ *
+ * Each log is read and parsed by its own thread into blocks of logs, which wait in a bounded
+ * queue until the merge reaches them. Every disk is therefore read ahead at its own pace,
+ * while the merge only compares timestamps: the log whose next line is the earliest is
+ * found through a heap, in O(log n) time for n logs. Each log is expected to be in time
+ * order, as the log of one server is. Logs whose names end with ".gz" are decompressed.
+ *
+ * Usage: LogMerger [--format FORMAT] [--threshold RPS] [--window MS] file...
+ */
+public class LogMerger
+{
+    /** The default number of logs parsed into each block */
+    public static final int BLOCK_SIZE = 512;
+    /** The default number of parsed blocks that wait for the merge in each log */
+    public static final int READ_AHEAD_BLOCKS = 4;
+    /** The number of bytes read from a log at a time */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The layout of the logs' lines */
+    private LogFormat format;
+    /** The number of logs parsed into each block */
+    private int blockSize;
+    /** The logs being merged */
+    private ArrayList<LogStream> streams = new ArrayList<LogStream>();
+    /** The logs which have lines left to merge, ordered by the timestamp of their next line */
+    private PriorityQueue<LogStream> heap;
+
+    /**
+     * Creates a merger of the given logs, with the default block size and read-ahead
+     * @param files The logs to merge
+     * @param format The layout of the logs' lines
+     */
+    public LogMerger(List<File> files, LogFormat format)
+    {
+        this(files, format, BLOCK_SIZE, READ_AHEAD_BLOCKS);
+    }
+
+    /**
+     * Creates a merger of the given logs
+     * @param files The logs to merge
+     * @param format The layout of the logs' lines
+     * @param blockSize The number of logs parsed into each block
+     * @param readAhead The number of parsed blocks that may wait for the merge in each log
+     */
+    public LogMerger(List<File> files, LogFormat format, int blockSize, int readAhead)
+    {
+        if (files.isEmpty() || blockSize <= 0 || readAhead <= 0)
+            throw new IllegalArgumentException("LogMerger requires at least one log, a positive block size and read-ahead");
+
+        this.format = format;
+        this.blockSize = blockSize;
+        for (int i = 0; i < files.size(); i++)
+        {
+            streams.add(new LogStream(files.get(i), format, i, blockSize, readAhead));
+        }
+    }
+
+    /**
+     * Starts reading every log. Called by the first merge if it was not called before.
+     */
+    public void start() throws IOException
+    {
+        if (heap != null)
+            return;
+
+        // Earlier lines come first, and lines logged at the same time keep the order of their logs
+        heap = new PriorityQueue<LogStream>(streams.size(), new Comparator<LogStream>() {
+            public int compare(LogStream a, LogStream b)
+            {
+                if (a.time != b.time)
+                    return (a.time < b.time)? -1 : 1;
+                return Integer.compare(a.order, b.order);
+            }
+        });
+        for (int i = 0; i < streams.size(); i++)
+        {
+            Thread thread = new Thread(streams.get(i), "LogMerger-" + streams.get(i).file.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (int i = 0; i < streams.size(); i++)
+        {
+            LogStream stream = streams.get(i);
+            if (stream.nextBlock())
+                heap.add(stream);
+        }
+    }
+
+    /**
+     * Moves the earliest log that was not merged yet to the end of the given batch
+     * @param batch The batch receiving the log. Must not be full
+     * @return False if every line of every log was merged
+     */
+    public boolean next(LogBatch batch) throws IOException
+    {
+        start();
+        LogStream stream = heap.poll();
+        if (stream == null)
+            return false;
+
+        batch.take(stream.block, stream.index);
+        if (stream.advance())
+            heap.add(stream);
+        return true;
+    }
+
+    /**
+     * Replays the merged logs through a metric manager as if they were read from one log,
+     * using the logs' own timestamps as the monitors' clock. The logs of each second are
+     * analyzed in batches.
+     * @param metricManager The manager receiving the logs
+     * @return The number of logs replayed
+     */
+    public long run(MetricManager metricManager) throws IOException
+    {
+        start();
+        LogBatch batch = new LogBatch(format, blockSize);
+        long batchTime = 0;
+        long lastUpdateSecond = Long.MIN_VALUE;
+        long logCount = 0;
+        while (!heap.isEmpty())
+        {
+            // Analyze the previous second's logs and update the monitors whenever a new second starts
+            long time = heap.peek().time;
+            long second = Math.floorDiv(time, 1000);
+            if (second != lastUpdateSecond)
+            {
+                metricManager.analyzeBatch(batch, batchTime);
+                batch.clear();
+                if (lastUpdateSecond != Long.MIN_VALUE)
+                    metricManager.updateMonitors(time);
+                lastUpdateSecond = second;
+            }
+
+            if (batch.size() == 0)
+                batchTime = time;
+            next(batch);
+            if (batch.isFull())
+            {
+                metricManager.analyzeBatch(batch, batchTime);
+                batch.clear();
+            }
+            logCount++;
+        }
+        metricManager.analyzeBatch(batch, batchTime);
+        return logCount;
+    }
+
+    /**
+     * Returns the number of lines read from every log. Complete once every log was merged.
+     */
+    public long getLineCount()
+    {
+        long lineCount = 0;
+        for (int i = 0; i < streams.size(); i++)
+        {
+            lineCount += streams.get(i).lineCount;
+        }
+        return lineCount;
+    }
+
+    /**
+     * Returns the number of malformed lines skipped in every log. Complete once every log was merged.
+     */
+    public long getFailures()
+    {
+        long failures = 0;
+        for (int i = 0; i < streams.size(); i++)
+        {
+            failures += streams.get(i).failures;
+        }
+        return failures;
+    }
+
+    /**
+     * Reads one log into blocks of parsed logs on its own thread, and hands the blocks
+     * to the merge in order. The blocks are recycled, so reading allocates no logs.
+     */
+    private static class LogStream implements Runnable
+    {
+        /** The log to read */
+        private File file;
+        /** The layout of the log's lines */
+        private LogFormat format;
+        /** The position of the log in the merger's list, which orders lines logged at the same time */
+        private int order;
+
+        /** The parsed blocks waiting for the merge. An empty block marks the end of the log */
+        private ArrayBlockingQueue<LogBatch> parsedBlocks;
+        /** The merged blocks waiting to be filled again */
+        private ArrayBlockingQueue<LogBatch> freeBlocks;
+
+        /** The block being merged */
+        private LogBatch block;
+        /** The index of the next log to merge in the block */
+        private int index;
+        /** The timestamp of the next log to merge */
+        private long time;
+
+        /** The number of lines read. Written by the reading thread before the end of the log is handed over */
+        private long lineCount;
+        /** The number of malformed lines skipped */
+        private long failures;
+        /** The error that stopped the reading thread, if any */
+        private IOException error;
+
+        /**
+         * Creates a stream of the given log
+         * @param file The log to read
+         * @param format The layout of the log's lines
+         * @param order The position of the log in the merger's list
+         * @param blockSize The number of logs parsed into each block
+         * @param readAhead The number of parsed blocks that may wait for the merge
+         */
+        public LogStream(File file, LogFormat format, int order, int blockSize, int readAhead)
+        {
+            this.file = file;
+            this.format = format;
+            this.order = order;
+
+            // One more block than the read-ahead is being merged
+            parsedBlocks = new ArrayBlockingQueue<LogBatch>(readAhead + 1);
+            freeBlocks = new ArrayBlockingQueue<LogBatch>(readAhead + 1);
+            for (int i = 0; i <= readAhead; i++)
+            {
+                freeBlocks.add(new LogBatch(format, blockSize));
+            }
+        }
+
+        /**
+         * Parses the log into blocks until its end, or until an error stops the reading
+         */
+        public void run()
+        {
+            try
+            {
+                LogBatch block = freeBlocks.take();
+                block.clear();
+                try
+                {
+                    BufferedReader reader = open();
+                    try
+                    {
+                        String line;
+                        while ((line = reader.readLine()) != null)
+                        {
+                            lineCount++;
+
+                            // The logs moved in by the merge may have been created with another format
+                            Log log = block.next();
+                            if (log.getFormat() != format)
+                                log.setFormat(format);
+                            if (!log.parse(line))
+                            {
+                                failures++;
+                                continue;
+                            }
+                            block.add();
+                            if (block.isFull())
+                            {
+                                parsedBlocks.put(block);
+                                block = freeBlocks.take();
+                                block.clear();
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+                    if (block.size() > 0)
+                    {
+                        parsedBlocks.put(block);
+                        block = freeBlocks.take();
+                    }
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                }
+
+                // An empty block marks the end of the log
+                block.clear();
+                parsedBlocks.put(block);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Moves to the next log to merge
+         * @return False if every line of the log was merged
+         */
+        public boolean advance() throws IOException
+        {
+            index++;
+            if (index < block.size())
+            {
+                time = block.get(index).getTimestamp();
+                return true;
+            }
+            freeBlocks.add(block);
+            return nextBlock();
+        }
+
+        /**
+         * Waits for the next parsed block, and moves to its first log
+         * @return False if every line of the log was merged
+         */
+        public boolean nextBlock() throws IOException
+        {
+            try
+            {
+                block = parsedBlocks.take();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException("Interrupted while merging " + file, e);
+            }
+            if (block.size() == 0)
+            {
+                if (error != null)
+                    throw new IOException("Could not read " + file, error);
+                return false;
+            }
+            index = 0;
+            time = block.get(0).getTimestamp();
+            return true;
+        }
+
+        /**
+         * Opens the log, decompressing it if its name ends with ".gz"
+         */
+        private BufferedReader open() throws IOException
+        {
+            InputStream in = new FileInputStream(file);
+            if (file.getName().endsWith(".gz"))
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        LogFormat format = LogFormat.COMMON;
+        double threshold = 1000.0;
+        long window = 120000;
+        ArrayList<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--format") && i + 1 < args.length)
+            {
+                try
+                {
+                    format = LogFormat.forName(args[++i]);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    System.out.println("Error: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            else if (args[i].equals("--threshold") && i + 1 < args.length)
+                threshold = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--window") && i + 1 < args.length)
+                window = Long.parseLong(args[++i]);
+            else
+            {
+                File file = new File(args[i]);
+                if (!file.exists())
+                {
+                    System.out.println("Error: File does not exist: " + args[i]);
+                    System.exit(1);
+                }
+                files.add(file);
+            }
+        }
+        if (files.isEmpty())
+        {
+            System.out.println("Error: expecting log files");
+            System.exit(1);
+        }
+
+        MetricManager metricManager = new MetricManager();
+        metricManager.addThroughputMonitor(new ThroughputMonitor(threshold, window, 1000));
+        LogMerger merger = new LogMerger(files, format.select(MetricManager.ANALYZED_FIELDS));
+
+        long startTime = System.currentTimeMillis();
+        long logCount = merger.run(metricManager);
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        new MetricPrinter(metricManager, 0).printMetrics();
+        System.out.println("Merged " + logCount + " logs from " + files.size() + " files in "
+                + elapsedTime / 1000.0 + "s (" + merger.getFailures() + " malformed lines)");
+    }
+}
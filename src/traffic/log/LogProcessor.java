@@ -1,75 +1,285 @@
 package traffic.log;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.io.input.TailerListenerAdapter;
 
 import traffic.monitor.MetricManager;
+import traffic.stats.LogParseEvent;
+import traffic.stats.LogParseFailureEvent;
+import traffic.stats.TrafficMonitorStats;
 
 /**
- * Reads a log file in Apache format, parses its contents and processes its metrics
+ * Parses the lines read by a log source, such as a log file in Apache format, and processes their metrics
  */
 public class LogProcessor extends TailerListenerAdapter
 {
-    /** Regex which extracts information about a log line */
-    private static final String LOG_PATTERN = "(\\S+) (\\S+) (\\S+) \\[(\\d{1,2}\\/[a-zA-Z]+\\/\\d+:\\d{2}:\\d{2}:\\d{2} [+\\-] ?\\d{4})\\] \"(.{1,})\" (\\d+) (\\d+)";
-    /** The number of fields in a log line */
-    private static final int LOG_FIELD_COUNT = 7;
+    /** The log reused by each thread that parses lines */
+    private static final ThreadLocal<Log> LOGS = new ThreadLocal<Log>() {
+        protected Log initialValue()
+        {
+            return new Log();
+        }
+    };
+    
+    /** The maximum number of parsed logs that are analyzed together */
+    private static final int BATCH_SIZE = 512;
     
     /** Monitors metrics from a log file */
     private MetricManager metricManager;
+    /** The layout of the log's lines, restricted to the fields used by the metric manager */
+    private LogFormat format;
+    /** The parsed logs waiting to be analyzed */
+    private LogBatch batch;
+    /** Records how quickly lines are read and parsed */
+    private TrafficMonitorStats stats = TrafficMonitorStats.getInstance();
+    /** The number of lines that could not be parsed, which samples the failures that are recorded */
+    private long parseFailures;
+    
+    /** Maps each minute of the log to its byte offset. Null if the log is not indexed */
+    private TimeIndex timeIndex;
+    /** The byte offset of the next line in the log file */
+    private long offset;
     
     /**
      * Creates a process for logs
      * @param metricManager Manager that will store metrics processed from a log file
      */
     public LogProcessor(MetricManager metricManager)
+    {
+        this(metricManager, LogFormat.COMMON);
+    }
+    
+    /**
+     * Creates a process for logs written in the given format
+     * @param metricManager Manager that will store metrics processed from a log file
+     * @param format The layout of the log's lines
+     */
+    public LogProcessor(MetricManager metricManager, LogFormat format)
     {
         this.metricManager = metricManager;
+        this.format = format.select(MetricManager.ANALYZED_FIELDS);
+        batch = new LogBatch(this.format, BATCH_SIZE);
+    }
+    
+    /**
+     * Indexes the log by time as it is read
+     * @param timeIndex The index which records the offset of each minute in the log
+     */
+    public void setTimeIndex(TimeIndex timeIndex)
+    {
+        this.timeIndex = timeIndex;
+    }
+    
+    /**
+     * Sets the byte offset of the next line, when the log is not read from its start
+     * @param offset The byte offset of the next line in the log file
+     */
+    public void setOffset(long offset)
+    {
+        this.offset = offset;
+        stats.setLogOffset(offset);
+    }
+    
+    /**
+     * Records how quickly lines are read and parsed in the given statistics, instead of
+     * the statistics shared by the whole process
+     * @param stats The statistics to update
+     */
+    public void setStats(TrafficMonitorStats stats)
+    {
+        this.stats = stats;
     }
     
     /**
-     * Called whenever a line is added to the log file
+     * Called whenever a line is added to the log file. The parsed log is analyzed 
+     * once the batch is full or the reader catches up with the end of the file.
+     * The line is assumed to have ended with a line feed alone.
      * @param line The line added to the log file
      */
     public void handle(String line)
     {
-        Log log = parseLine(line);
-        metricManager.analyze(log);
+        // Slow lines are recorded when a flight recording enables the event
+        LogParseEvent event = new LogParseEvent();
+        event.begin();
+        long startTime = System.nanoTime();
+        Log log = batch.add(line);
+        long parseTime = System.nanoTime();
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.line = LogParseEvent.truncate(line);
+            event.length = line.length();
+            event.commit();
+        }
+        
+        if (log == null)
+            LogParseFailureEvent.record(line, ++parseFailures);
+        process(log, line.length(), 1, parseTime - startTime);
     }
     
     /**
-     * Returns a log object parsed from the given log line
-     * @param logLine The log line to parse
-     * @return A log object containing the information from the log line
+     * Called whenever a line stored in a range of bytes is read, such as a syslog message.
+     * The bytes are copied into the batch, so they may be reused once this method returns,
+     * and no string is created for the line.
+     * @param line The bytes containing the line, without its line terminator
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
      */
-    private Log parseLine(String logLine)
-    {    
-        Pattern pattern = Pattern.compile(LOG_PATTERN);
-        Matcher matcher = pattern.matcher(logLine);
-        if (matcher.find() && matcher.groupCount() == LOG_FIELD_COUNT)
+    public void handle(byte[] line, int start, int end)
+    {
+        handle(line, start, end, 1);
+    }
+    
+    /**
+     * Called whenever a line of a log file is read into a range of bytes. The length of the
+     * line's terminator keeps the offsets of the following lines exact, e.g. for "\r\n".
+     * @param line The bytes containing the line, without its line terminator
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @param terminatorLength The number of bytes of the line terminator that the reader stripped
+     */
+    public void handle(byte[] line, int start, int end, int terminatorLength)
+    {
+        LogParseEvent event = new LogParseEvent();
+        event.begin();
+        long startTime = System.nanoTime();
+        Log log = batch.add(line, start, end);
+        long parseTime = System.nanoTime();
+        event.end();
+        if (event.shouldCommit())
         {
-            Log log = new Log();
-            
-            log.host = matcher.group(1);
-            log.id = matcher.group(2);
-            log.authUser = matcher.group(3);
-            log.date = matcher.group(4);
-            
-            // Extract request
-            log.request = matcher.group(5);
-            String[] requestFields = log.request.split(" ");
-            log.requestMethod = requestFields[0];
-            log.requestUrl = requestFields[1];
-            log.requestProtocol = requestFields[2];
-            
-            log.status = matcher.group(6);
-            log.bytes = matcher.group(7);
-            
-            return log;
+            event.line = LogParseEvent.truncate(new String(line, start, end - start, StandardCharsets.ISO_8859_1));
+            event.length = end - start;
+            event.commit();
         }
-
-        // Error
-        return null;
+        
+        if (log == null)
+            LogParseFailureEvent.record(line, start, end, ++parseFailures);
+        process(log, end - start, terminatorLength, parseTime - startTime);
+    }
+    
+    /**
+     * Records a parsed line, and analyzes the batch once it is full
+     * @param log The parsed log, or null if the line is malformed
+     * @param length The number of characters in the line, without its terminator
+     * @param terminatorLength The number of bytes of the line terminator that the reader stripped
+     * @param parseNanos The time spent parsing the line
+     */
+    private void process(Log log, int length, int terminatorLength, long parseNanos)
+    {
+        // Count the line terminator stripped by the reader
+        long lineOffset = offset;
+        offset += length + terminatorLength;
+        stats.lineRead(length + terminatorLength);
+        stats.setLogOffset(offset);
+        if (log == null)
+        {
+            stats.parseFailed(parseNanos);
+            return;
+        }
+        stats.lineParsed(parseNanos, log.getTimestamp());
+        
+        if (timeIndex != null)
+            timeIndex.add(log.getTimestamp(), lineOffset);
+        
+        if (batch.isFull())
+            flush();
+    }
+    
+    /**
+     * Called when the reader has caught up with the end of the log file
+     */
+    public void endOfFileReached()
+    {
+        flush();
+        if (timeIndex != null)
+            timeIndex.flush();
+    }
+    
+    /**
+     * Analyzes the parsed logs that are waiting in the batch
+     */
+    public void flush()
+    {
+        if (batch.size() == 0)
+            return;
+        
+        long startTime = System.nanoTime();
+        metricManager.analyzeBatch(batch);
+        batch.clear();
+        stats.analyzed(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Called when the log file was rotated and is read again from its start
+     */
+    public void fileRotated()
+    {
+        flush();
+        setOffset(0);
+        if (timeIndex == null)
+            return;
+        
+        try
+        {
+            timeIndex.clear();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not reset the time index: " + e.getMessage());
+            timeIndex = null;
+        }
+    }
+    
+    /**
+     * Returns a log object parsed from the given log line in Common Log Format. The log is
+     * reused by the calling thread, so it is only valid until the thread parses another line.
+     * @param logLine The log line to parse
+     * @return A log object containing the information from the log line, or null if the line is malformed
+     */
+    public static Log parseLine(CharSequence logLine)
+    {
+        return parseLine(logLine, LogFormat.COMMON);
+    }
+    
+    /**
+     * Returns a log object parsed from the given log line. The log is reused by the
+     * calling thread, so it is only valid until the thread parses another line.
+     * @param logLine The log line to parse
+     * @param format The layout of the line
+     * @return A log object containing the information from the log line, or null if the line is malformed
+     */
+    public static Log parseLine(CharSequence logLine, LogFormat format)
+    {
+        Log log = getLog(format);
+        return log.parse(logLine)? log : null;
+    }
+    
+    /**
+     * Returns a log object parsed from a line stored in a range of bytes. The log reads
+     * the bytes in place and is reused by the calling thread, so it is only valid until
+     * the bytes change or the thread parses another line.
+     * @param line The bytes containing the line
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @param format The layout of the line
+     * @return A log object containing the information from the log line, or null if the line is malformed
+     */
+    public static Log parseLine(byte[] line, int start, int end, LogFormat format)
+    {
+        Log log = getLog(format);
+        return log.parse(line, start, end)? log : null;
+    }
+    
+    /**
+     * Returns the calling thread's log, set to parse the given format
+     */
+    private static Log getLog(LogFormat format)
+    {
+        Log log = LOGS.get();
+        if (log.getFormat() != format)
+            log.setFormat(format);
+        return log;
     }
 }
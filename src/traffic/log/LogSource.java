@@ -0,0 +1,19 @@
+package traffic.log;
+
+/**
+ * A source of log lines, such as a log file being written or a syslog listener. Each source
+ * runs on its own thread and passes every line it reads to a log processor, which is only
+ * used by that thread.
+ */
+public interface LogSource extends Runnable
+{
+    /**
+     * Reads lines and passes them on, until the source is stopped or has no more lines
+     */
+    void run();
+
+    /**
+     * Stops the source once it has passed on its current line
+     */
+    void stop();
+}
@@ -0,0 +1,253 @@
+package traffic.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Scans a log file in parallel. The file is split into chunks that end on line boundaries,
+ * and each chunk is memory-mapped and read by its own visitor.
+ */
+public class MappedLogReader
+{
+    /** The number of bytes each chunk should contain, unless the reader is given a size */
+    public static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+    /** The number of chunks per thread that are scanned ahead of the chunk being consumed */
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    /** The longest line that can be visited. Longer lines are truncated */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /** The file to scan */
+    private File file;
+    /** The number of chunks scanned at the same time */
+    private int threads;
+    /** The number of bytes each chunk should contain */
+    private long chunkSize;
+    /** Finds the end of each line */
+    private ByteScanner scanner = ByteScanner.getDefault();
+
+    /**
+     * Creates a reader which scans the given file
+     * @param file The log file to scan
+     * @param threads The number of threads that scan chunks of the file
+     */
+    public MappedLogReader(File file, int threads)
+    {
+        this(file, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a reader which scans the given file in chunks of the given size
+     * @param file The log file to scan
+     * @param threads The number of threads that scan chunks of the file
+     * @param chunkSize The number of bytes each chunk should contain. Chunks are extended to the end of their last line
+     */
+    public MappedLogReader(File file, int threads, long chunkSize)
+    {
+        if (threads <= 0 || chunkSize <= 0)
+            throw new IllegalArgumentException("MappedLogReader requires at least one thread and a positive chunk size");
+
+        this.file = file;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Visits every line in the file
+     * @param visitorFactory Creates a visitor for each chunk of the file
+     * @return The visitors of each chunk, in file order
+     */
+    public <T extends LineVisitor> ArrayList<T> scan(Supplier<T> visitorFactory) throws IOException
+    {
+        return scan(0, file.length(), visitorFactory);
+    }
+
+    /**
+     * Visits every line that starts within the given byte range
+     * @param start The byte offset where scanning starts. Moved forward to the next line if it is mid-line
+     * @param end The byte offset where scanning stops. Moved forward to the next line if it is mid-line
+     * @param visitorFactory Creates a visitor for each chunk of the file
+     * @return The visitors of each chunk, in file order
+     */
+    public <T extends LineVisitor> ArrayList<T> scan(long start, long end, Supplier<T> visitorFactory) throws IOException
+    {
+        final ArrayList<T> visitors = new ArrayList<T>();
+        scan(start, end, visitorFactory, new Consumer<T>() {
+            public void accept(T visitor)
+            {
+                visitors.add(visitor);
+            }
+        });
+        return visitors;
+    }
+
+    /**
+     * Visits every line that starts within the given byte range, passing the visitor of each
+     * chunk to a consumer as soon as the chunk and the chunks before it are scanned. Only a few
+     * chunks per thread are scanned ahead of the consumer, so the visitors that are alive at
+     * once do not grow with the size of the file.
+     * @param start The byte offset where scanning starts. Moved forward to the next line if it is mid-line
+     * @param end The byte offset where scanning stops. Moved forward to the next line if it is mid-line
+     * @param visitorFactory Creates a visitor for each chunk of the file
+     * @param consumer Receives the visitor of each chunk, in file order, on the calling thread
+     */
+    public <T extends LineVisitor> void scan(long start, long end, final Supplier<T> visitorFactory,
+            Consumer<? super T> consumer) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            final FileChannel channel = randomAccessFile.getChannel();
+            // Lines that start before the end of the range are read in full
+            end = alignToLine(randomAccessFile, Math.min(end, channel.size()), channel.size());
+            long[] boundaries = getChunkBoundaries(randomAccessFile, start, end);
+
+            // Scan the chunks in parallel, submitting each one once there is room ahead of the consumer
+            ArrayDeque<Future<T>> results = new ArrayDeque<Future<T>>();
+            int chunkCount = boundaries.length - 1;
+            int next = 0;
+            while (next < chunkCount || !results.isEmpty())
+            {
+                while (next < chunkCount && results.size() < threads * CHUNKS_AHEAD_PER_THREAD)
+                {
+                    final long chunkStart = boundaries[next];
+                    final long chunkEnd = boundaries[next+1];
+                    results.add(executor.submit(new Callable<T>() {
+                        public T call() throws IOException
+                        {
+                            T visitor = visitorFactory.get();
+                            scanChunk(channel, chunkStart, chunkEnd, visitor);
+                            return visitor;
+                        }
+                    }));
+                    next++;
+                }
+                consumer.accept(results.poll().get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("Interrupted while scanning " + file, e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Could not scan " + file, e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Splits the byte range into chunks that each start at the beginning of a line
+     * @param file The file to split
+     * @param start The byte offset of the range's start
+     * @param end The byte offset of the range's end
+     * @return The offsets at which each chunk starts, followed by the end of the range
+     */
+    private long[] getChunkBoundaries(RandomAccessFile file, long start, long end) throws IOException
+    {
+        ArrayList<Long> boundaries = new ArrayList<Long>();
+        long boundary = alignToLine(file, start, end);
+        while (boundary < end)
+        {
+            boundaries.add(boundary);
+            boundary = alignToLine(file, boundary + chunkSize, end);
+        }
+        boundaries.add(end);
+
+        long[] offsets = new long[boundaries.size()];
+        for (int i = 0; i < offsets.length; i++)
+        {
+            offsets[i] = boundaries.get(i);
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after the given offset
+     * @param file The file to search
+     * @param offset The offset to align
+     * @param end The offset at which the search stops
+     * @return The start of the next line, or "end" if no line starts before it
+     */
+    static long alignToLine(RandomAccessFile file, long offset, long end) throws IOException
+    {
+        if (offset <= 0)
+            return 0;
+        if (offset >= end)
+            return end;
+
+        // The offset is a line start if the previous byte ends a line
+        file.seek(offset - 1);
+        byte[] buffer = new byte[8192];
+        long position = offset - 1;
+        while (position < end)
+        {
+            int read = file.read(buffer);
+            if (read < 0)
+                break;
+            for (int i = 0; i < read; i++)
+            {
+                if (buffer[i] == '\n')
+                    return Math.min(end, position + i + 1);
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * Visits every line in a chunk of the file
+     * @param channel The channel of the file
+     * @param start The offset of the chunk's first line
+     * @param end The offset at which the chunk ends
+     * @param visitor Receives each line in the chunk
+     */
+    private void scanChunk(FileChannel channel, long start, long end, LineVisitor visitor) throws IOException
+    {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        buffer.order(ByteOrder.nativeOrder());
+        byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineStart = 0;
+        int size = buffer.limit();
+
+        // The last line of the file may not be terminated
+        while (lineStart < size)
+        {
+            int lineEnd = scanner.indexOf(buffer, (byte) '\n', lineStart, size);
+            if (lineEnd < 0)
+                lineEnd = size;
+            int length = Math.min(lineEnd - lineStart, MAX_LINE_LENGTH);
+            buffer.position(lineStart);
+            buffer.get(line, 0, length);
+            visitLine(line, length, start + lineStart, visitor);
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Strips a line's carriage return and passes it to the visitor
+     */
+    private void visitLine(byte[] line, int length, long offset, LineVisitor visitor)
+    {
+        if (length > 0 && line[length-1] == '\r')
+            length--;
+        visitor.visitLine(line, length, offset);
+    }
+}
@@ -0,0 +1,142 @@
+package traffic.log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+import traffic.util.BufferPool;
+
+/**
+ * A log source which reads non-blocking channels, such as syslog sockets, on one thread.
+ * The channels are read into pooled direct buffers whenever a selector finds them ready.
+ * The logs waiting in the processor's batch are analyzed whenever every channel has been
+ * read, like the lines of a file once its end is reached.
+ */
+public abstract class SelectorLogSource implements LogSource
+{
+    /** The capacity of each pooled buffer */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+    /** The most released buffers kept for reuse */
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    /** Receives each line read from the channels */
+    protected LogProcessor processor;
+    /** Finds the channels which are ready to be read */
+    protected Selector selector;
+    /** Lends the buffers into which the channels are read */
+    protected BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    /** Milliseconds to wait for a channel to become ready, before checking whether the source was stopped */
+    private long delay;
+    /** False once the source was asked to stop */
+    private volatile boolean running = true;
+
+    /**
+     * Creates a source with an empty selector
+     * @param processor Receives each line read from the channels
+     * @param delay Milliseconds to wait for a channel to become ready, before checking whether the source was stopped
+     */
+    protected SelectorLogSource(LogProcessor processor, long delay) throws IOException
+    {
+        if (delay <= 0)
+            throw new IllegalArgumentException("SelectorLogSource requires a positive delay");
+
+        this.processor = processor;
+        this.delay = delay;
+        selector = Selector.open();
+    }
+
+    /**
+     * Reads the channels as they become ready, until the source is stopped
+     */
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                if (selector.selectNow() == 0)
+                {
+                    // Every channel was read, so the waiting logs are analyzed before blocking
+                    processor.flush();
+                    if (selector.select(delay) == 0)
+                        continue;
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid())
+                        handle(key);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not read " + getName() + ": " + e.getMessage());
+        }
+        finally
+        {
+            close();
+            processor.flush();
+        }
+    }
+
+    /**
+     * Stops the source and closes its channels once it has passed on its current lines
+     */
+    public void stop()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Reads a channel which the selector found ready
+     * @param key The channel's registration with the selector
+     */
+    protected abstract void handle(SelectionKey key) throws IOException;
+
+    /**
+     * Returns a description of the source, such as "syslog UDP port 514"
+     */
+    public abstract String getName();
+
+    /**
+     * Closes every channel registered with the selector, then the selector
+     */
+    protected void close()
+    {
+        for (SelectionKey key : selector.keys())
+        {
+            closeChannel(key);
+        }
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not close " + getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes a channel and cancels its registration
+     * @param key The channel's registration with the selector
+     */
+    protected void closeChannel(SelectionKey key)
+    {
+        key.cancel();
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not close a channel of " + getName() + ": " + e.getMessage());
+        }
+    }
+}
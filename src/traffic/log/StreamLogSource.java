@@ -0,0 +1,75 @@
+package traffic.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads log lines from a stream, such as standard input when logs are piped into the monitor.
+ * Lines may carry a syslog header, which is stripped. The stream is read into one reused
+ * buffer, so reading a line allocates nothing.
+ */
+public class StreamLogSource implements LogSource
+{
+    /** The number of bytes read from the stream at a time */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The stream to read */
+    private InputStream in;
+    /** Receives each line, which is analyzed once the stream has no bytes waiting */
+    private LogProcessor processor;
+    /** Splits the stream's bytes into lines */
+    private SyslogFramer framer;
+    /** The bytes read from the stream */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /** False once the source was asked to stop */
+    private volatile boolean running = true;
+
+    /**
+     * Creates a source reading the given stream
+     * @param in The stream to read, such as System.in
+     * @param processor Receives each line of the stream
+     */
+    public StreamLogSource(InputStream in, LogProcessor processor)
+    {
+        this.in = in;
+        this.processor = processor;
+        framer = new SyslogFramer(processor, false);
+    }
+
+    /**
+     * Reads lines until the end of the stream, or until the source is stopped
+     */
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                // The waiting logs are analyzed before blocking for more lines
+                if (in.available() == 0)
+                    processor.flush();
+                int read = in.read(buffer);
+                if (read < 0)
+                    break;
+                framer.append(buffer, 0, read);
+            }
+            framer.finish();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not read the log stream: " + e.getMessage());
+        }
+        finally
+        {
+            processor.flush();
+        }
+    }
+
+    /**
+     * Stops the source once its current read returns
+     */
+    public void stop()
+    {
+        running = false;
+    }
+}
@@ -0,0 +1,115 @@
+package traffic.log;
+
+/**
+ * Finds the log line carried by a syslog message, reading the message's header in place.
+ *
+ * RFC 5424 messages start with "&lt;PRI&gt;VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID
+ * STRUCTURED-DATA", and RFC 3164 (BSD) messages with "&lt;PRI&gt;Mmm dd hh:mm:ss HOSTNAME TAG:".
+ * Lines without a priority, such as the lines of a plain log sent with netcat, are passed on
+ * whole. The header's timestamp is ignored, since the log line carries its own date.
+ */
+public class Syslog
+{
+    /** The most digits in a priority, which is at most 191 */
+    private static final int MAX_PRIORITY_DIGITS = 3;
+    /** The number of space-separated fields between the priority and the structured data of RFC 5424 */
+    private static final int RFC5424_HEADER_FIELDS = 6;
+    /** The length of an RFC 3164 timestamp followed by its space, such as "Oct 19 18:00:00 " */
+    private static final int RFC3164_TIMESTAMP_LENGTH = 16;
+    /** The most characters in an RFC 3164 tag, including its colon */
+    private static final int MAX_TAG_LENGTH = 48;
+
+    private Syslog()
+    {
+    }
+
+    /**
+     * Returns the start of the message carried by a syslog frame
+     * @param frame The bytes containing the frame
+     * @param start The index of the frame's first byte
+     * @param end The index after the frame's last byte
+     * @return The index of the message's first byte, which is the frame's start if it has no header
+     */
+    public static int findMessage(byte[] frame, int start, int end)
+    {
+        // <PRI>
+        if (end - start < 3 || frame[start] != '<')
+            return start;
+        int i = start + 1;
+        while (i < end && i - start <= MAX_PRIORITY_DIGITS && isDigit(frame[i]))
+        {
+            i++;
+        }
+        if (i == start + 1 || i == end || frame[i] != '>')
+            return start;
+        i++;
+
+        if (i < end && isDigit(frame[i]))
+        {
+            // RFC 5424, whose message may start with a byte order mark
+            for (int field = 0; field < RFC5424_HEADER_FIELDS; field++)
+            {
+                i = skipField(frame, i, end);
+            }
+            i = skipStructuredData(frame, i, end);
+            if (end - i >= 3 && frame[i] == (byte) 0xef && frame[i+1] == (byte) 0xbb && frame[i+2] == (byte) 0xbf)
+                i += 3;
+            return i;
+        }
+
+        // RFC 3164, whose timestamp and host name are sometimes left out by local senders
+        if (end - i > RFC3164_TIMESTAMP_LENGTH && frame[i+3] == ' ' && frame[i+6] == ' '
+                && frame[i+9] == ':' && frame[i+12] == ':' && frame[i+15] == ' ')
+        {
+            i = skipField(frame, i + RFC3164_TIMESTAMP_LENGTH, end);
+        }
+
+        // The tag ends with a colon, such as "nginx:" or "nginx[123]:"
+        int tagEnd = i;
+        while (tagEnd < end && tagEnd - i < MAX_TAG_LENGTH && frame[tagEnd] != ' ')
+        {
+            tagEnd++;
+        }
+        if (tagEnd > i && tagEnd < end && frame[tagEnd-1] == ':')
+            return tagEnd + 1;
+        return i;
+    }
+
+    /**
+     * Returns the index after a field and the space which ends it
+     */
+    private static int skipField(byte[] frame, int i, int end)
+    {
+        while (i < end && frame[i] != ' ')
+        {
+            i++;
+        }
+        return (i < end)? i + 1 : end;
+    }
+
+    /**
+     * Returns the index after the structured data of an RFC 5424 message and the space which
+     * ends it. The structured data is "-" or a list of elements such as [id key="value"],
+     * whose values may contain escaped brackets.
+     */
+    private static int skipStructuredData(byte[] frame, int i, int end)
+    {
+        if (i < end && frame[i] == '-')
+            i++;
+        while (i < end && frame[i] == '[')
+        {
+            i++;
+            while (i < end && frame[i] != ']')
+            {
+                i += (frame[i] == '\\')? 2 : 1;
+            }
+            i = Math.min(i + 1, end);
+        }
+        return (i < end && frame[i] == ' ')? i + 1 : i;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+}
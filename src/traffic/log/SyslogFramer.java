@@ -0,0 +1,183 @@
+package traffic.log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a stream of bytes into syslog frames, and passes the log line carried by each frame
+ * to a log processor. Frames end with a line feed, or are prefixed with their length as in
+ * RFC 6587 octet counting ("LENGTH SP MESSAGE"). The bytes are kept in one reused buffer,
+ * so framing allocates nothing. A frame longer than the buffer is cut at its length.
+ */
+public class SyslogFramer
+{
+    /** The number of bytes that can wait for the end of their frame */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** The most digits in the length of an octet-counted frame */
+    private static final int MAX_LENGTH_DIGITS = 6;
+
+    /** Receives the log line of each frame */
+    private LogProcessor processor;
+    /** True if frames starting with their length are octet-counted */
+    private boolean octetCounting;
+
+    /** The bytes received after the last complete frame */
+    private byte[] data = new byte[BUFFER_SIZE];
+    /** Reads the buffer when the end of each line is searched */
+    private ByteBuffer view = ByteScanner.wrap(data);
+    /** Finds the end of each line */
+    private ByteScanner scanner = ByteScanner.getDefault();
+    /** The number of bytes in the buffer */
+    private int length;
+    /** The index after the length of the last octet-counted frame found */
+    private int countedStart;
+
+    /**
+     * Creates a framer which passes the log lines to the given processor
+     * @param processor Receives the log line of each frame
+     * @param octetCounting True if frames may start with their length, as over TCP. Plain
+     *                      logs read from a pipe should not be octet-counted.
+     */
+    public SyslogFramer(LogProcessor processor, boolean octetCounting)
+    {
+        this.processor = processor;
+        this.octetCounting = octetCounting;
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer to the stream, passing on each frame they complete
+     * @param buffer The bytes received, which are all consumed
+     */
+    public void append(ByteBuffer buffer)
+    {
+        while (buffer.hasRemaining())
+        {
+            int count = Math.min(buffer.remaining(), data.length - length);
+            buffer.get(data, length, count);
+            length += count;
+            drain();
+        }
+    }
+
+    /**
+     * Appends bytes to the stream, passing on each frame they complete
+     * @param bytes The bytes received
+     * @param start The index of the first byte received
+     * @param count The number of bytes received
+     */
+    public void append(byte[] bytes, int start, int count)
+    {
+        while (count > 0)
+        {
+            int copied = Math.min(count, data.length - length);
+            System.arraycopy(bytes, start, data, length, copied);
+            length += copied;
+            start += copied;
+            count -= copied;
+            drain();
+        }
+    }
+
+    /**
+     * Passes on every line of a datagram, which holds one or more whole frames
+     * @param buffer The datagram, whose remaining bytes are all consumed
+     */
+    public void appendDatagram(ByteBuffer buffer)
+    {
+        length = 0;
+        append(buffer);
+        finish();
+    }
+
+    /**
+     * Passes on the frame that was cut by the end of the stream, if any
+     */
+    public void finish()
+    {
+        if (length > 0)
+            handleFrame(0, length);
+        length = 0;
+    }
+
+    /**
+     * Passes on every complete frame in the buffer, and moves the incomplete frame to its start
+     */
+    private void drain()
+    {
+        int start = 0;
+        while (start < length)
+        {
+            int frameEnd = findOctetCountedFrame(start);
+            if (frameEnd == 0)
+                break;
+            if (frameEnd < 0)
+            {
+                // The frame ends with a line feed
+                int lineEnd = scanner.indexOf(view, (byte) '\n', start, length);
+                if (lineEnd < 0)
+                    break;
+                handleFrame(start, lineEnd);
+                start = lineEnd + 1;
+            }
+            else
+            {
+                handleFrame(countedStart, frameEnd);
+                start = frameEnd;
+            }
+        }
+
+        if (start == 0 && length == data.length)
+        {
+            // A frame fills the whole buffer, so it is cut
+            handleFrame(0, length);
+            start = length;
+        }
+        System.arraycopy(data, start, data, 0, length - start);
+        length -= start;
+    }
+
+    /**
+     * Returns the end of the octet-counted frame at the given index
+     * @return The index after the frame, 0 if the frame is octet-counted but incomplete, or -1
+     *         if the frame is not octet-counted
+     */
+    private int findOctetCountedFrame(int start)
+    {
+        if (!octetCounting)
+            return -1;
+
+        int i = start;
+        int frameLength = 0;
+        while (i < length && i - start < MAX_LENGTH_DIGITS && data[i] >= '0' && data[i] <= '9')
+        {
+            frameLength = frameLength * 10 + (data[i] - '0');
+            i++;
+        }
+        if (i == start)
+            return -1;
+        if (i == length)
+            return 0;
+        if (data[i] != ' ' || i + 1 - start + frameLength > data.length)
+            return -1;
+
+        countedStart = i + 1;
+        int frameEnd = countedStart + frameLength;
+        return (frameEnd <= length)? frameEnd : 0;
+    }
+
+    /**
+     * Passes the log line carried by a frame to the processor
+     * @param start The index of the frame's first byte, after the length of an octet-counted frame
+     * @param end The index after the frame's last byte
+     */
+    private void handleFrame(int start, int end)
+    {
+        // Strip the line terminator, which octet-counted frames may still carry
+        while (end > start && (data[end-1] == '\n' || data[end-1] == '\r'))
+        {
+            end--;
+        }
+        int message = Syslog.findMessage(data, start, end);
+        if (message < end)
+            processor.handle(data, message, end);
+    }
+}
@@ -0,0 +1,125 @@
+package traffic.log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receives syslog messages sent over TCP by any number of senders, framed with a line feed
+ * or with RFC 6587 octet counting. Each connection is read into a pooled direct buffer and
+ * framed in place, so receiving a message allocates nothing.
+ */
+public class SyslogTcpSource extends SelectorLogSource
+{
+    /** The most reads of one connection at a time, so a busy sender cannot starve the others */
+    private static final int MAX_READS_PER_CONNECTION = 16;
+
+    /** Accepts the senders' connections */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Creates a source listening on the given port
+     * @param processor Receives each log line
+     * @param port The port to listen on, or 0 to pick any free port
+     * @param delay Milliseconds to wait for messages, before checking whether the source was stopped
+     */
+    public SyslogTcpSource(LogProcessor processor, int port, long delay) throws IOException
+    {
+        super(processor, delay);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Returns the port on which the source listens
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public String getName()
+    {
+        return "syslog TCP port " + getPort();
+    }
+
+    /**
+     * Accepts a sender, or reads the messages waiting in a sender's connection
+     */
+    protected void handle(SelectionKey key) throws IOException
+    {
+        if (key.isAcceptable())
+        {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null)
+                return;
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, 
+                    new Connection(buffers.acquire(), new SyslogFramer(processor, true)));
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try
+        {
+            for (int i = 0; i < MAX_READS_PER_CONNECTION; i++)
+            {
+                int read = channel.read(connection.buffer);
+                if (read < 0)
+                {
+                    closeChannel(key);
+                    return;
+                }
+                if (read == 0)
+                    return;
+                connection.buffer.flip();
+                connection.framer.append(connection.buffer);
+                connection.buffer.clear();
+            }
+        }
+        catch (IOException e)
+        {
+            // A sender that resets its connection does not stop the other senders
+            System.out.println("Error: Could not read a sender of " + getName() + ": " + e.getMessage());
+            closeChannel(key);
+        }
+    }
+
+    /**
+     * Passes on the sender's last frame, and returns its buffer to the pool
+     */
+    protected void closeChannel(SelectionKey key)
+    {
+        super.closeChannel(key);
+        Connection connection = (Connection) key.attachment();
+        if (connection != null)
+        {
+            connection.framer.finish();
+            buffers.release(connection.buffer);
+            key.attach(null);
+        }
+    }
+
+    /**
+     * The state of a sender's connection
+     */
+    private static class Connection
+    {
+        /** The buffer into which the connection is read */
+        private ByteBuffer buffer;
+        /** Splits the sender's bytes into frames */
+        private SyslogFramer framer;
+
+        public Connection(ByteBuffer buffer, SyslogFramer framer)
+        {
+            this.buffer = buffer;
+            this.framer = framer;
+        }
+    }
+}
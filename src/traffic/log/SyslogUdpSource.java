@@ -0,0 +1,80 @@
+package traffic.log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Receives syslog messages sent over UDP, each datagram holding one or more log lines.
+ * Datagrams are read into one direct buffer and framed in place, so receiving a message
+ * allocates nothing once the sender's address is cached by the channel.
+ */
+public class SyslogUdpSource extends SelectorLogSource
+{
+    /** The size requested for the socket's receive buffer, which absorbs bursts while logs are analyzed */
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    /** The most datagrams read at a time, so a flood cannot keep the source from stopping */
+    private static final int MAX_DATAGRAMS_PER_READ = 1024;
+
+    /** The socket receiving the messages */
+    private DatagramChannel channel;
+    /** The buffer receiving each datagram */
+    private ByteBuffer buffer;
+    /** Passes the log lines of each datagram to the processor */
+    private SyslogFramer framer;
+
+    /**
+     * Creates a source listening on the given port
+     * @param processor Receives each log line
+     * @param port The port to listen on, or 0 to pick any free port
+     * @param delay Milliseconds to wait for messages, before checking whether the source was stopped
+     */
+    public SyslogUdpSource(LogProcessor processor, int port, long delay) throws IOException
+    {
+        super(processor, delay);
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        buffer = buffers.acquire();
+        framer = new SyslogFramer(processor, false);
+    }
+
+    /**
+     * Returns the port on which the source listens
+     */
+    public int getPort()
+    {
+        return channel.socket().getLocalPort();
+    }
+
+    public String getName()
+    {
+        return "syslog UDP port " + getPort();
+    }
+
+    /**
+     * Reads the datagrams waiting in the socket
+     */
+    protected void handle(SelectionKey key) throws IOException
+    {
+        for (int i = 0; i < MAX_DATAGRAMS_PER_READ; i++)
+        {
+            buffer.clear();
+            if (channel.receive(buffer) == null)
+                return;
+            buffer.flip();
+            framer.appendDatagram(buffer);
+        }
+    }
+
+    protected void close()
+    {
+        super.close();
+        buffers.release(buffer);
+    }
+}
@@ -0,0 +1,554 @@
+package traffic.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A sparse index that maps each minute of log time to the byte offset of the first log
+ * written in that minute. The index is stored next to the log (e.g. "access.log.idx"), so
+ * that a time range can be read without scanning the log from its start.
+ */
+public class TimeIndex
+{
+    /** The extension appended to the log's name to form the index's name */
+    public static final String EXTENSION = ".idx";
+
+    /** Identifies index files ("TIDX") */
+    private static final int MAGIC = 0x54494458;
+    /** The version of the index file format */
+    private static final int VERSION = 1;
+    /** Below this many bytes, a binary search over the log reads lines sequentially */
+    private static final int SEQUENTIAL_SEARCH_SIZE = 64 * 1024;
+
+    /** The minute (milliseconds since the epoch divided by 60000) of each entry, in ascending order */
+    private long[] minutes = new long[64];
+    /** The byte offset of the first log of each entry's minute */
+    private long[] offsets = new long[64];
+    /** The number of entries in the index */
+    private int size;
+
+    /** The file storing this index */
+    private File indexFile;
+    /** Appends new entries to the index file. Null if the index is not written incrementally */
+    private DataOutputStream output;
+
+    /**
+     * Creates an empty index stored in the given file
+     * @param indexFile The file storing the index
+     */
+    private TimeIndex(File indexFile)
+    {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Creates an empty index of one chunk of a log, which is kept in memory until it is
+     * added to the index of the whole log
+     */
+    TimeIndex()
+    {
+        this(null);
+    }
+
+    /**
+     * Returns the file that stores the index of the given log
+     * @param log The log file
+     * @return The log's sidecar index file
+     */
+    public static File getIndexFile(File log)
+    {
+        return new File(log.getPath() + EXTENSION);
+    }
+
+    /**
+     * Loads the index of the given log
+     * @param log The log file
+     * @return The log's index, or null if it does not exist or no longer matches the log
+     */
+    public static TimeIndex load(File log)
+    {
+        File indexFile = getIndexFile(log);
+        if (!indexFile.exists())
+            return null;
+
+        TimeIndex index = new TimeIndex(indexFile);
+        DataInputStream input = null;
+        try
+        {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+
+            while (true)
+            {
+                long minute;
+                long offset;
+                try
+                {
+                    minute = input.readLong();
+                    offset = input.readLong();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                index.add(minute * LogDate.MINUTE, offset);
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            close(input);
+        }
+
+        // The log was truncated or replaced since the index was written
+        if (index.size > 0 && index.offsets[index.size-1] >= log.length())
+            return null;
+
+        return index;
+    }
+
+    /**
+     * Opens the index of the given log so that new entries are appended to it as the log is read.
+     * A missing or outdated index is replaced by an empty one.
+     * @param log The log file
+     * @return The log's index, open for appending
+     */
+    public static TimeIndex openForAppend(File log) throws IOException
+    {
+        TimeIndex index = load(log);
+        if (index == null)
+        {
+            index = new TimeIndex(getIndexFile(log));
+            index.save();
+        }
+
+        index.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index.indexFile, true)));
+        return index;
+    }
+
+    /**
+     * Builds the index of an existing log by scanning it in parallel, and saves it next to the log
+     * @param log The log file
+     * @param threads The number of threads that scan the log
+     * @return The log's index
+     */
+    public static TimeIndex build(File log, int threads) throws IOException
+    {
+        MappedLogReader reader = new MappedLogReader(log, threads);
+        ArrayList<ChunkIndexer> chunks = reader.scan(new Supplier<ChunkIndexer>() {
+            public ChunkIndexer get()
+            {
+                return new ChunkIndexer();
+            }
+        });
+
+        // Chunks are in file order, so their entries can be appended one after another
+        TimeIndex index = new TimeIndex(getIndexFile(log));
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            index.addAll(chunks.get(i));
+        }
+
+        index.save();
+        return index;
+    }
+
+    /**
+     * Records the first line of each minute in a chunk of a log
+     */
+    private static class ChunkIndexer extends TimeIndex implements LineVisitor
+    {
+        /** Views the bytes of the current line */
+        private LogField text = new LogField();
+
+        public void visitLine(byte[] line, int length, long offset)
+        {
+            text.set(line, 0, length);
+            long timestamp = getTimestamp(text);
+            if (timestamp >= 0)
+                add(timestamp, offset);
+        }
+    }
+
+    /**
+     * Adds the log at the given offset to the index if it starts a new minute.
+     * Logs that are older than the last indexed minute are ignored.
+     * @param timestamp The timestamp of the log
+     * @param offset The byte offset of the log in the file
+     * @return True if an entry was added to the index
+     */
+    public boolean add(long timestamp, long offset)
+    {
+        long minute = Math.floorDiv(timestamp, LogDate.MINUTE);
+        if (size > 0 && (minute <= minutes[size-1] || offset <= offsets[size-1]))
+            return false;
+
+        if (size == minutes.length)
+        {
+            minutes = Arrays.copyOf(minutes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        minutes[size] = minute;
+        offsets[size] = offset;
+        size++;
+
+        if (output != null)
+        {
+            try
+            {
+                output.writeLong(minute);
+                output.writeLong(offset);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: Could not write to " + indexFile + ": " + e.getMessage());
+                close(output);
+                output = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entries of the index of a later chunk of the log. The entries of minutes
+     * which this index already holds are ignored.
+     * @param chunk The index of the chunk
+     */
+    public void addAll(TimeIndex chunk)
+    {
+        for (int i = 0; i < chunk.size; i++)
+        {
+            add(chunk.minutes[i] * LogDate.MINUTE, chunk.offsets[i]);
+        }
+    }
+
+    /**
+     * Returns the offset from which a log must be read to find every log dated at or after the timestamp
+     * @param timestamp The start of the time range
+     * @return The byte offset at which reading should start
+     */
+    public long getStartOffset(long timestamp)
+    {
+        // Find the last minute that is not after the timestamp's minute
+        int i = search(Math.floorDiv(timestamp, LogDate.MINUTE));
+        return (i >= 0)? offsets[i] : 0;
+    }
+
+    /**
+     * Returns the offset at which reading can stop, since every following log is dated at or after the timestamp
+     * @param timestamp The end of the time range
+     * @param logLength The length of the log file
+     * @return The byte offset at which reading should stop
+     */
+    public long getEndOffset(long timestamp, long logLength)
+    {
+        // Find the first minute after the timestamp's minute
+        int i = search(Math.floorDiv(timestamp, LogDate.MINUTE)) + 1;
+        return (i < size)? offsets[i] : logLength;
+    }
+
+    /**
+     * Returns the index of the last entry whose minute is not after the given minute
+     * @param minute The minute to search for
+     * @return The entry's index, or -1 if every entry is after the minute
+     */
+    private int search(long minute)
+    {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (minutes[mid] <= minute)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    /**
+     * Returns the number of minutes in the index
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Removes every entry from the index, e.g. after the log was rotated
+     */
+    public void clear() throws IOException
+    {
+        size = 0;
+        boolean appending = (output != null);
+        close(output);
+        save();
+        if (appending)
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+    }
+
+    /**
+     * Writes buffered entries to the index file
+     */
+    public void flush()
+    {
+        if (output == null)
+            return;
+
+        try
+        {
+            output.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Could not write to " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the whole index to its file
+     */
+    private void save() throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < size; i++)
+            {
+                out.writeLong(minutes[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the byte range of the log that contains every log dated within the time range.
+     * Uses the log's index if it exists, and otherwise binary searches the log.
+     * @param log The log file
+     * @param from The start of the time range, or -1 to start at the beginning of the log
+     * @param to The end of the time range (exclusive), or -1 to read until the end of the log
+     * @return The start and end offsets of the range
+     */
+    public static long[] getRange(File log, long from, long to) throws IOException
+    {
+        long length = log.length();
+        long[] range = { 0, length };
+        if (from < 0 && to < 0)
+            return range;
+
+        TimeIndex index = load(log);
+        if (index != null && index.size > 0)
+        {
+            if (from >= 0)
+                range[0] = index.getStartOffset(from);
+            if (to >= 0)
+                range[1] = index.getEndOffset(to, length);
+            return range;
+        }
+
+        // Without an index, assume the log is in time order and binary search it
+        RandomAccessFile file = new RandomAccessFile(log, "r");
+        try
+        {
+            if (from >= 0)
+                range[0] = search(file, from, length);
+            if (to >= 0)
+                range[1] = search(file, to, length);
+        }
+        finally
+        {
+            file.close();
+        }
+        return range;
+    }
+
+    /**
+     * Finds the first line dated at or after the timestamp in a log that is in time order
+     * @param file The log file
+     * @param timestamp The timestamp to search for
+     * @param length The length of the log
+     * @return The byte offset of the line, or the length of the log if every line is older
+     */
+    static long search(RandomAccessFile file, long timestamp, long length) throws IOException
+    {
+        // Every line that starts before "low" is older than the timestamp
+        long low = 0;
+        // "high" is the end of the log or the start of a line that is not older than the timestamp
+        long high = length;
+        long[] line = new long[3];
+
+        while (high - low > SEQUENTIAL_SEARCH_SIZE)
+        {
+            long mid = MappedLogReader.alignToLine(file, (low + high) >>> 1, high);
+            if (!readDatedLine(file, mid, high, line))
+                break;
+
+            if (line[2] < timestamp)
+                low = line[1];
+            else
+                high = line[0];
+        }
+
+        // Read the remaining lines one by one
+        while (low < high && readDatedLine(file, low, high, line))
+        {
+            if (line[2] >= timestamp)
+                return line[0];
+            low = line[1];
+        }
+        return high;
+    }
+
+    /**
+     * Reads the first line with a valid date starting at or after the given offset
+     * @param file The log file
+     * @param offset The offset of a line start
+     * @param end The offset at which reading stops
+     * @param line Receives the line's start offset, the offset after the line, and the line's timestamp
+     * @return True if a dated line was found before "end"
+     */
+    private static boolean readDatedLine(RandomAccessFile file, long offset, long end, long[] line) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        while (offset < end)
+        {
+            // Read until the end of the line
+            file.seek(offset);
+            StringBuilder text = new StringBuilder();
+            long lineEnd = -1;
+            while (lineEnd < 0)
+            {
+                int read = file.read(buffer);
+                if (read < 0)
+                {
+                    lineEnd = file.length();
+                    break;
+                }
+                for (int i = 0; i < read; i++)
+                {
+                    if (buffer[i] == '\n')
+                    {
+                        lineEnd = offset + text.length() + i + 1;
+                        read = i;
+                        break;
+                    }
+                }
+                text.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+            }
+
+            long timestamp = getTimestamp(text);
+            if (timestamp >= 0)
+            {
+                line[0] = offset;
+                line[1] = lineEnd;
+                line[2] = timestamp;
+                return true;
+            }
+            offset = lineEnd;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the timestamp of a log line without parsing its other fields
+     * @param line A log line in common log format
+     * @return The timestamp of the log's date, or -1 if the line has no valid date
+     */
+    public static long getTimestamp(CharSequence line)
+    {
+        int length = line.length();
+        int start = -1;
+        for (int i = 0; i < length; i++)
+        {
+            char c = line.charAt(i);
+            if (c == '[')
+            {
+                start = i + 1;
+            }
+            else if (c == ']' && start >= 0)
+            {
+                return LogDate.parse(line, start, i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Closes the index file
+     */
+    public void close()
+    {
+        close(output);
+        output = null;
+    }
+
+    /**
+     * Closes a stream, ignoring errors
+     */
+    private static void close(Closeable stream)
+    {
+        if (stream == null)
+            return;
+        try
+        {
+            stream.close();
+        }
+        catch (IOException e)
+        {
+            // The index is only an optimization, so failing to close it is harmless
+        }
+    }
+
+    /**
+     * Rebuilds the indexes of the given logs
+     * Usage: TimeIndex file...
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Error: expecting a log file");
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String path : args)
+        {
+            File log = new File(path);
+            if (!log.exists())
+            {
+                System.out.println("Error: File does not exist: " + path);
+                continue;
+            }
+
+            long startTime = System.currentTimeMillis();
+            TimeIndex index = build(log, threads);
+            System.out.println("Indexed " + index.size() + " minutes of " + path + " in "
+                    + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
+        }
+    }
+}
@@ -53,15 +53,42 @@ public class Alert
         return DATE_FORMATTER.format(calendar.getTime());
     }
     
+    /**
+     * Describes what triggered the alert. Subclasses describe their own metric.
+     * @return The description of the alert, without its severity and date
+     */
+    protected String getDescription()
+    {
+        if (!recovery)
+            return "High traffic generated an alert - hits = " + hits;
+        return "High traffic has recovered - hits = " + hits;
+    }
+    
+    /**
+     * Returns true if this is a recovery alert
+     */
+    public boolean isRecovery()
+    {
+        return recovery;
+    }
+    
+    /**
+     * Returns the timestamp when the alert was triggered
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+    
     public String toString()
     {
         String output = "";
         if (!recovery)
-            output += "[CRITICAL] High traffic generated an alert";
+            output += "[CRITICAL] ";
         else
-            output += "[RECOVERY] High traffic has recovered";
+            output += "[RECOVERY] ";
         
-        output += " - hits = " + hits + " triggered at " + date;
+        output += getDescription() + " triggered at " + date;
         
         return output;
     }
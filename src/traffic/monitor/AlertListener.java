@@ -3,7 +3,7 @@ package traffic.monitor;
 /**
  * Informs subscribers when a monitor triggers an alert
  */
-interface AlertListener
+public interface AlertListener
 {
     /** 
      * Called when an alert is triggered
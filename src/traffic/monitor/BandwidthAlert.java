@@ -0,0 +1,64 @@
+package traffic.monitor;
+
+/**
+ * An alert triggered when the bytes served per second cross their threshold
+ */
+public class BandwidthAlert extends Alert
+{
+    /** The number of bytes served in the monitored window */
+    private long bytes;
+    /** The average bytes served per second when the alert was triggered */
+    private double bytesPerSecond;
+
+    /**
+     * Creates an alert at the given timestamp
+     * @param bytes The number of bytes served in the monitored window
+     * @param bytesPerSecond The average bytes served per second in the window
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public BandwidthAlert(long bytes, double bytesPerSecond, boolean recovery, long timestamp)
+    {
+        super(0, recovery, timestamp);
+        this.bytes = bytes;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Returns the number of bytes served in the monitored window
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns the average bytes served per second when the alert was triggered
+     */
+    public double getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    protected String getDescription()
+    {
+        if (!isRecovery())
+            return "High bandwidth generated an alert - " + formatBytes(bytesPerSecond) + "/s";
+        return "High bandwidth has recovered - " + formatBytes(bytesPerSecond) + "/s";
+    }
+
+    /**
+     * Formats a number of bytes with a binary unit, e.g. "1.5 MB"
+     */
+    public static String formatBytes(double bytes)
+    {
+        String[] units = { "B", "KB", "MB", "GB", "TB" };
+        int unit = 0;
+        while (bytes >= 1024 && unit < units.length - 1)
+        {
+            bytes /= 1024;
+            unit++;
+        }
+        return (unit == 0)? String.format("%.0f %s", bytes, units[unit]) : String.format("%.1f %s", bytes, units[unit]);
+    }
+}
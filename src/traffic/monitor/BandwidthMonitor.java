@@ -0,0 +1,57 @@
+package traffic.monitor;
+
+import traffic.log.Log;
+
+/**
+ * Monitors the bytes served per second over a sliding time window, and triggers an alert
+ * when the average reaches a threshold. Bytes are summed like a throughput monitor counts
+ * requests, so alerts follow the same critical/recovery rules.
+ */
+public class BandwidthMonitor extends ThroughputMonitor
+{
+    /**
+     * Creates a monitor which analyzes the bytes served per second for critical values
+     * @param bytesPerSecondThreshold If the average bytes per second reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) over which the average is computed
+     * @param delay Every "delay" milliseconds, the bandwidth is checked
+     */
+    public BandwidthMonitor(double bytesPerSecondThreshold, long timeWindow, long delay)
+    {
+        super(bytesPerSecondThreshold, timeWindow, delay);
+    }
+
+    /**
+     * Each log adds the bytes its request served
+     */
+    protected long getWeight(Log log)
+    {
+        return log.getBytes();
+    }
+
+    /**
+     * Each second of a delta adds the bytes served in that second
+     */
+    protected RequestBuckets getBuckets(MetricsDelta delta)
+    {
+        return delta.bytes;
+    }
+
+    /**
+     * Creates a bandwidth alert, which reports the average bytes served per second
+     * @param bytes The number of bytes served in the time window
+     * @param recovery If true, create a recovery alert. Otherwise, create a critical alert
+     * @param currentTime The timestamp when the alert is triggered
+     */
+    protected Alert createAlert(long bytes, boolean recovery, long currentTime)
+    {
+        return new BandwidthAlert(bytes, getCurrentBytesPerSecond(), recovery, currentTime);
+    }
+
+    /**
+     * Returns the average bytes served per second in the time window
+     */
+    public double getCurrentBytesPerSecond()
+    {
+        return getCurrentRps();
+    }
+}
@@ -0,0 +1,75 @@
+package traffic.monitor;
+
+/**
+ * An alert triggered when the request rate of all traffic or of a section deviates from its baseline
+ */
+public class BaselineAlert extends Alert
+{
+    /** The section, or "all traffic" */
+    private String key;
+    /** The 1 minute rate, in requests per second */
+    private double rate;
+    /** The 15 minute rate that the 1 minute rate is compared with */
+    private double baseline;
+    /** True if the rate surged above its baseline, false if it dropped below it */
+    private boolean surge;
+
+    /**
+     * Creates an alert at the given timestamp
+     * @param key The section, or "all traffic"
+     * @param rate The 1 minute rate, in requests per second
+     * @param baseline The 15 minute rate that the 1 minute rate is compared with
+     * @param surge True if the rate surged above its baseline, false if it dropped below it
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public BaselineAlert(String key, double rate, double baseline, boolean surge, boolean recovery, long timestamp)
+    {
+        super((int) Math.round(rate), recovery, timestamp);
+        this.key = key;
+        this.rate = rate;
+        this.baseline = baseline;
+        this.surge = surge;
+    }
+
+    /**
+     * Returns the section, or "all traffic"
+     */
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Returns the 1 minute rate, in requests per second, when the alert was triggered
+     */
+    public double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Returns the 15 minute rate that the 1 minute rate was compared with
+     */
+    public double getBaseline()
+    {
+        return baseline;
+    }
+
+    /**
+     * Returns true if the rate surged above its baseline, false if it dropped below it
+     */
+    public boolean isSurge()
+    {
+        return surge;
+    }
+
+    protected String getDescription()
+    {
+        String rates = String.format("%.1f req/s against a baseline of %.1f req/s", rate, baseline);
+        String kind = surge? "Traffic surge" : "Traffic drop";
+        if (!isRecovery())
+            return kind + " on " + key + " generated an alert - " + rates;
+        return kind + " on " + key + " has recovered - " + rates;
+    }
+}
@@ -0,0 +1,543 @@
+package traffic.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import traffic.log.Log;
+
+/**
+ * Learns the usual request rate of all traffic and of each first-level section, e.g. "/api",
+ * and triggers an alert when a rate deviates from its baseline: a sudden surge, or a sudden
+ * drop towards zero. Unlike a fixed threshold, the baseline follows the daily rise and fall
+ * of traffic, so the daily peak does not trigger an alert and a drop at night does.
+ *
+ * Like the section tree of the metrics, at most SECTION_TREE_CHILDREN sections are measured,
+ * and the requests of the sections that do not fit are measured together as "(other)", so
+ * logs analyzed one at a time and in batches are measured under the same keys. A section
+ * which is no longer requested is forgotten, making room for a new one.
+ *
+ * Every tick, each key's requests are folded into exponentially weighted 1, 5 and 15 minute
+ * rates, and into a weighted variance of the rate around the 15 minute rate, which is the
+ * baseline. The deviation of the 1 minute rate from the baseline is measured in standard
+ * deviations. The deviations that feed the variance are clipped, and a key's variance is kept
+ * while it alerts, so a surge is detected before it widens the variance. A lasting change of
+ * level still becomes the new baseline as the 15 minute rate catches up with it. Each key is
+ * held in a few primitive fields, so a tick costs O(1) per key and the keys take a few kilobytes.
+ */
+public class BaselineMonitor extends MetricMonitor
+{
+    /** The number of milliseconds between folding the requests into the rates */
+    public static final long TICK_LENGTH = 5000;
+    /** The number of seconds in a tick */
+    private static final double TICK_SECONDS = TICK_LENGTH / 1000.0;
+    /** The weight of each tick in the 1 minute rate */
+    private static final double ALPHA_1 = 1 - Math.exp(-TICK_SECONDS / 60);
+    /** The weight of each tick in the 5 minute rate */
+    private static final double ALPHA_5 = 1 - Math.exp(-TICK_SECONDS / 300);
+    /** The weight of each tick in the 15 minute rate and its variance */
+    private static final double ALPHA_15 = 1 - Math.exp(-TICK_SECONDS / 900);
+    /** The period (in milliseconds) that the baseline is weighted over, which recent traffic is seeded from */
+    public static final long BASELINE_WINDOW = 15 * 60 * 1000;
+
+    /** The number of ticks a key is measured before its deviations trigger alerts */
+    public static final int WARMUP_TICKS = 60;
+    /** After this many ticks without an update, the baselines are stale and are learned again */
+    private static final int MAX_IDLE_TICKS = 720;
+    /** Once alerted, a rate must come back within this share of the deviations to recover */
+    private static final double RECOVERY_RATIO = 0.5;
+    /** Sections whose baseline falls below this rate (in requests per second) are forgotten */
+    private static final double EXPIRED_RATE = 0.01;
+    /** The name of the key that counts every request */
+    public static final String ALL_TRAFFIC = "all traffic";
+
+    /** The maximum number of sections measured, as many as the section tree keeps at its top level */
+    public static final int MAX_SECTIONS = Metrics.SECTION_TREE_CHILDREN;
+    /** The maximum number of keys: all traffic, the sections and "(other)" */
+    private static final int MAX_KEYS = MAX_SECTIONS + 2;
+    /** The number of entries in the hash table of sections, a power of two at least twice MAX_KEYS */
+    private static final int TABLE_CAPACITY = Integer.highestOneBit(MAX_KEYS) * 4;
+    /** The hash of the key that counts the requests of the sections that are not measured */
+    private static final long OTHER_HASH = CountMinSketch.hash(SectionTrie.OTHER);
+
+    /** If a rate deviates from its baseline by this many standard deviations, create an alert */
+    private double deviations;
+    /** No alert is created for rates and baselines below this value (in requests per second) */
+    private double minRate;
+
+    /** The index of the current tick, counted from the epoch, or Long.MIN_VALUE before the first request */
+    private long currentTick = Long.MIN_VALUE;
+
+    /** The name of each key. Key 0 counts all traffic, the others count a section or "(other)" */
+    private String[] names = new String[MAX_KEYS];
+    /** The hash of each section's name without its leading slash, or OTHER_HASH */
+    private long[] hashes = new long[MAX_KEYS];
+    /** The requests of each key in the current tick */
+    private long[] tickCounts = new long[MAX_KEYS];
+    /** The 1 minute rate of each key, in requests per second */
+    private double[] rates1 = new double[MAX_KEYS];
+    /** The 5 minute rate of each key, in requests per second */
+    private double[] rates5 = new double[MAX_KEYS];
+    /** The 15 minute rate of each key, which is its baseline */
+    private double[] rates15 = new double[MAX_KEYS];
+    /** The variance of each key's rate around its baseline */
+    private double[] variances = new double[MAX_KEYS];
+    /** The number of ticks each key was measured */
+    private int[] ticks = new int[MAX_KEYS];
+    /** The alert state of each key: 1 during a surge, -1 during a drop and 0 otherwise */
+    private byte[] states = new byte[MAX_KEYS];
+    /** The number of keys */
+    private int keyCount = 1;
+    /** The index of the "(other)" key, or -1 if it is not measured */
+    private int otherKey = -1;
+    /** Maps each section's hash to its index, by linear probing. Zero marks a free entry */
+    private int[] table = new int[TABLE_CAPACITY];
+
+    /**
+     * Creates a monitor which learns the baselines of all traffic and of each section
+     * @param deviations If a rate deviates from its baseline by this many standard deviations, create an alert
+     * @param minRate No alert is created for rates and baselines below this value (in requests per second)
+     * @param delay Every "delay" milliseconds, the rates are brought up to date
+     */
+    public BaselineMonitor(double deviations, double minRate, long delay)
+    {
+        super(delay);
+        if (deviations <= 0 || minRate < 0)
+            throw new IllegalArgumentException("BaselineMonitor requires positive deviations and a minimum rate of zero or more");
+
+        this.deviations = deviations;
+        this.minRate = minRate;
+        names[0] = ALL_TRAFFIC;
+    }
+
+    /**
+     * Folds the requests of every tick that ended into the rates, and logs a warning
+     * for each rate that deviates from or recovers to its baseline
+     * @param currentTime The current time of the system
+     */
+    public synchronized void update(long currentTime)
+    {
+        // The ticks start with the first request, which may be dated before the current time
+        if (currentTick != Long.MIN_VALUE)
+            advance(currentTime);
+    }
+
+    public void addLog(Log log, long currentTime)
+    {
+        addRequests(log.getRequestUrl(), currentTime, 1);
+    }
+
+    /**
+     * Counts each second's requests at the start of that second, along with a share of the
+     * requests of each first-level section of the delta's section tree. The tree does not
+     * record when its requests were made, so each section is assumed to carry the same
+     * share of every second's traffic. A delta spanning many seconds, such as a seed, then
+     * starts a section at its average rate rather than counting it all in one tick. The
+     * sections that overflowed the tree are counted as "(other)".
+     */
+    public synchronized void addDelta(MetricsDelta delta, long currentTime)
+    {
+        RequestBuckets requests = delta.requests;
+        ArrayList<SectionTrie.Node> sections = delta.metrics.sectionTree.getRoot().getChildren();
+        long total = 0;
+        for (int i = 0; i < requests.getLength(); i++)
+        {
+            total += requests.getCount(i);
+        }
+
+        long counted = 0;
+        for (int i = 0; i < requests.getLength(); i++)
+        {
+            long count = requests.getCount(i);
+            advance((requests.getFirstSecond() + i) * 1000);
+            tickCounts[0] += count;
+            if (count > 0)
+                addSectionShares(sections, counted, counted + count, total);
+            counted += count;
+        }
+        advance(currentTime);
+    }
+
+    /**
+     * Adds requests for all traffic and for the section of their URL
+     * @param url The requested URL. Its section is only copied when the section is first measured
+     * @param currentTime The timestamp when the requests were made
+     * @param count The number of requests
+     */
+    public synchronized void addRequests(CharSequence url, long currentTime, long count)
+    {
+        advance(currentTime);
+        tickCounts[0] += count;
+        addSectionRequests(url, count);
+    }
+
+    /**
+     * Returns the baseline of all traffic, followed by the sections with the highest baselines
+     * @param count The maximum number of sections to return
+     * @return The baselines of the keys that were measured for at least one tick
+     */
+    public synchronized ArrayList<Baseline> getBaselines(int count)
+    {
+        ArrayList<Baseline> sections = new ArrayList<Baseline>();
+        for (int i = 1; i < keyCount; i++)
+        {
+            if (ticks[i] > 0)
+                sections.add(getBaseline(i));
+        }
+        Collections.sort(sections, new Comparator<Baseline>() {
+            public int compare(Baseline a, Baseline b)
+            {
+                return Double.compare(b.rate15, a.rate15);
+            }
+        });
+
+        ArrayList<Baseline> baselines = new ArrayList<Baseline>();
+        if (ticks[0] > 0)
+            baselines.add(getBaseline(0));
+        baselines.addAll(sections.subList(0, Math.min(count, sections.size())));
+        return baselines;
+    }
+
+    /**
+     * Returns the baseline of all traffic or of a section
+     * @param name The section, e.g. "/api", or ALL_TRAFFIC
+     * @return The baseline, or null if the key is not measured
+     */
+    public synchronized Baseline getBaseline(String name)
+    {
+        for (int i = 0; i < keyCount; i++)
+        {
+            if (names[i].equals(name))
+                return getBaseline(i);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if any rate currently deviates from its baseline
+     */
+    public synchronized boolean isAlerting()
+    {
+        for (int i = 0; i < keyCount; i++)
+        {
+            if (states[i] != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of standard deviations from its baseline which trigger an alert
+     */
+    public double getDeviations()
+    {
+        return deviations;
+    }
+
+    /**
+     * Ends every tick before the one containing the given time. After a long idle period,
+     * the baselines are forgotten rather than decayed one tick at a time.
+     */
+    private void advance(long time)
+    {
+        long tick = Math.floorDiv(time, TICK_LENGTH);
+        if (currentTick == Long.MIN_VALUE || tick - currentTick > MAX_IDLE_TICKS)
+        {
+            if (currentTick != Long.MIN_VALUE)
+                reset();
+            currentTick = tick;
+            return;
+        }
+        while (currentTick < tick)
+        {
+            currentTick++;
+            tick(currentTick * TICK_LENGTH);
+        }
+    }
+
+    /**
+     * Folds the requests of the tick that just ended into each key's rates, then checks
+     * each key's deviation from its baseline
+     * @param time The time when the tick ended
+     */
+    private void tick(long time)
+    {
+        boolean removed = false;
+        for (int i = keyCount - 1; i >= 0; i--)
+        {
+            double rate = tickCounts[i] / TICK_SECONDS;
+            tickCounts[i] = 0;
+            if (ticks[i] == 0)
+            {
+                rates1[i] = rate;
+                rates5[i] = rate;
+                rates15[i] = rate;
+            }
+            else
+            {
+                // The deviation that feeds the variance is clipped, so an outlier barely widens it,
+                // and an alerting key's variance is kept until the baseline catches up with its rate
+                if (states[i] == 0)
+                {
+                    double limit = deviations * getDeviation(i);
+                    double diff = Math.max(-limit, Math.min(limit, rate - rates15[i]));
+                    variances[i] = (1 - ALPHA_15) * (variances[i] + ALPHA_15 * diff * diff);
+                }
+                rates1[i] += ALPHA_1 * (rate - rates1[i]);
+                rates5[i] += ALPHA_5 * (rate - rates5[i]);
+                rates15[i] += ALPHA_15 * (rate - rates15[i]);
+            }
+            if (ticks[i] < Integer.MAX_VALUE)
+                ticks[i]++;
+
+            if (ticks[i] >= WARMUP_TICKS)
+                check(i, time);
+
+            // Sections that are no longer requested make room for new ones
+            if (i > 0 && states[i] == 0 && ticks[i] >= WARMUP_TICKS && rates15[i] < EXPIRED_RATE)
+            {
+                removeKey(i);
+                removed = true;
+            }
+        }
+        if (removed)
+            rebuildTable();
+    }
+
+    /**
+     * Compares a key's 1 minute rate with its baseline, and creates an alert when it starts or stops deviating
+     */
+    private void check(int key, long time)
+    {
+        double rate = rates1[key];
+        double baseline = rates15[key];
+        double deviation = getDeviation(key);
+        if (states[key] == 0)
+        {
+            if (rate >= minRate && rate > baseline + deviations * deviation)
+            {
+                states[key] = 1;
+                addAlert(new BaselineAlert(names[key], rate, baseline, true, false, time));
+            }
+            else if (baseline >= minRate && rate < baseline - deviations * deviation)
+            {
+                states[key] = -1;
+                addAlert(new BaselineAlert(names[key], rate, baseline, false, false, time));
+            }
+        }
+        else if (states[key] > 0)
+        {
+            if (rate <= baseline + deviations * RECOVERY_RATIO * deviation)
+            {
+                states[key] = 0;
+                addAlert(new BaselineAlert(names[key], rate, baseline, true, true, time));
+            }
+        }
+        else if (rate >= baseline - deviations * RECOVERY_RATIO * deviation || baseline < minRate)
+        {
+            states[key] = 0;
+            addAlert(new BaselineAlert(names[key], rate, baseline, false, true, time));
+        }
+    }
+
+    /**
+     * Adds requests to the current tick of a URL's first-level section, e.g. "/api" for "/api/v2?id=1",
+     * or to "(other)" if the section is not measured and there is no room for it
+     */
+    private void addSectionRequests(CharSequence url, long count)
+    {
+        int length = url.length();
+        int start = 0;
+        while (start < length && url.charAt(start) == '/')
+            start++;
+        int end = start;
+        char c;
+        while (end < length && (c = url.charAt(end)) != '/' && c != '?' && c != '#')
+            end++;
+        if (end == start)
+            return;
+
+        long hash = CountMinSketch.hash(url, start, end);
+        int key = findKey(hash);
+        if (key < 0)
+        {
+            // The name is only built for a section that is measured
+            int sections = (otherKey < 0)? keyCount - 1 : keyCount - 2;
+            key = (sections < MAX_SECTIONS)? addKey("/" + url.subSequence(start, end), hash) : getOtherKey();
+        }
+        tickCounts[key] += count;
+    }
+
+    /**
+     * Adds the share of each section's requests made while all traffic's count went from "from" to "to"
+     * @param sections The first-level sections of a delta's section tree, including "(other)"
+     * @param total The requests of all traffic in the delta
+     */
+    private void addSectionShares(ArrayList<SectionTrie.Node> sections, long from, long to, long total)
+    {
+        for (SectionTrie.Node section : sections)
+        {
+            // The shares are rounded so that they add up to the section's requests
+            long hits = section.getHits() * to / total - section.getHits() * from / total;
+            if (hits == 0)
+                continue;
+            if (section.getName().equals(SectionTrie.OTHER))
+                tickCounts[getOtherKey()] += hits;
+            else
+                addSectionRequests(section.getPath(), hits);
+        }
+    }
+
+    /**
+     * Returns the standard deviation of a key's rate around its baseline. It is never below
+     * the deviation of a Poisson process at the baseline, so a key with a steady rate does
+     * not alert on the noise of counting requests in short ticks.
+     */
+    private double getDeviation(int key)
+    {
+        return Math.sqrt(Math.max(variances[key], rates15[key] / TICK_SECONDS));
+    }
+
+    /**
+     * Returns a copy of a key's rates
+     */
+    private Baseline getBaseline(int key)
+    {
+        double deviation = getDeviation(key);
+        return new Baseline(names[key], rates1[key], rates5[key], rates15[key],
+                (deviation > 0)? (rates1[key] - rates15[key]) / deviation : 0, states[key]);
+    }
+
+    /**
+     * Forgets every key's rates, keeping all traffic and the sections
+     */
+    private void reset()
+    {
+        Arrays.fill(tickCounts, 0, keyCount, 0);
+        Arrays.fill(ticks, 0, keyCount, 0);
+        Arrays.fill(variances, 0, keyCount, 0);
+        Arrays.fill(states, 0, keyCount, (byte) 0);
+    }
+
+    /**
+     * Returns the index of the "(other)" key, measuring it if it is not measured yet
+     */
+    private int getOtherKey()
+    {
+        if (otherKey < 0)
+            otherKey = addKey(SectionTrie.OTHER, OTHER_HASH);
+        return otherKey;
+    }
+
+    /**
+     * Starts measuring a section or "(other)". The caller makes sure there is room for it.
+     * @return The key's index
+     */
+    private int addKey(String name, long hash)
+    {
+        int key = keyCount++;
+        names[key] = name;
+        hashes[key] = hash;
+        tickCounts[key] = 0;
+        ticks[key] = 0;
+        variances[key] = 0;
+        states[key] = 0;
+        insert(key);
+        return key;
+    }
+
+    /**
+     * Removes a section or "(other)" by moving the last key into its place. The table must be rebuilt afterwards.
+     */
+    private void removeKey(int key)
+    {
+        int last = --keyCount;
+        if (key == otherKey)
+            otherKey = -1;
+        else if (last == otherKey)
+            otherKey = key;
+        if (key != last)
+        {
+            names[key] = names[last];
+            hashes[key] = hashes[last];
+            tickCounts[key] = tickCounts[last];
+            rates1[key] = rates1[last];
+            rates5[key] = rates5[last];
+            rates15[key] = rates15[last];
+            variances[key] = variances[last];
+            ticks[key] = ticks[last];
+            states[key] = states[last];
+        }
+        names[last] = null;
+    }
+
+    /**
+     * Returns the index of the section with the given hash, or -1 if it is not measured
+     */
+    private int findKey(long hash)
+    {
+        int mask = TABLE_CAPACITY - 1;
+        for (int i = (int) hash & mask; table[i] != 0; i = (i + 1) & mask)
+        {
+            if (hashes[table[i]] == hash)
+                return table[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a section to the hash table
+     */
+    private void insert(int key)
+    {
+        int mask = TABLE_CAPACITY - 1;
+        int i = (int) hashes[key] & mask;
+        while (table[i] != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+    }
+
+    /**
+     * Rebuilds the hash table after sections were removed
+     */
+    private void rebuildTable()
+    {
+        Arrays.fill(table, 0);
+        for (int i = 1; i < keyCount; i++)
+        {
+            insert(i);
+        }
+    }
+
+    /**
+     * The rates of all traffic or of a section, in requests per second
+     */
+    public static class Baseline
+    {
+        /** The section, or ALL_TRAFFIC */
+        public String name;
+        /** The 1 minute rate */
+        public double rate1;
+        /** The 5 minute rate */
+        public double rate5;
+        /** The 15 minute rate, which is the baseline */
+        public double rate15;
+        /** The number of standard deviations between the 1 minute rate and the baseline */
+        public double deviation;
+        /** 1 during a surge alert, -1 during a drop alert and 0 otherwise */
+        public int state;
+
+        public Baseline(String name, double rate1, double rate5, double rate15, double deviation, int state)
+        {
+            this.name = name;
+            this.rate1 = rate1;
+            this.rate5 = rate5;
+            this.rate15 = rate15;
+            this.deviation = deviation;
+            this.state = state;
+        }
+    }
+}
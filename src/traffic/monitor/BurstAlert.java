@@ -0,0 +1,43 @@
+package traffic.monitor;
+
+/**
+ * An alert triggered when the busiest second (or other bucket) of the window crosses its threshold
+ */
+public class BurstAlert extends Alert
+{
+    /** The requests per second of the busiest bucket in the window */
+    private double peakRps;
+    /** The number of milliseconds covered by each bucket */
+    private long bucketLength;
+
+    /**
+     * Creates an alert at the given timestamp
+     * @param peakCount The number of requests in the busiest bucket of the window
+     * @param peakRps The requests per second of the busiest bucket
+     * @param bucketLength The number of milliseconds covered by each bucket
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public BurstAlert(long peakCount, double peakRps, long bucketLength, boolean recovery, long timestamp)
+    {
+        super((int) peakCount, recovery, timestamp);
+        this.peakRps = peakRps;
+        this.bucketLength = bucketLength;
+    }
+
+    /**
+     * Returns the requests per second of the busiest bucket when the alert was triggered
+     */
+    public double getPeakRps()
+    {
+        return peakRps;
+    }
+
+    protected String getDescription()
+    {
+        String peak = String.format("peak = %.1f req/s over %d ms", peakRps, bucketLength);
+        if (!isRecovery())
+            return "Traffic burst generated an alert - " + peak;
+        return "Traffic burst has recovered - " + peak;
+    }
+}
@@ -0,0 +1,121 @@
+package traffic.monitor;
+
+import traffic.log.Log;
+
+/**
+ * Monitors the busiest second (or other bucket) within a time window, and triggers an alert
+ * when its requests per second reach a threshold. Unlike the average of a throughput monitor,
+ * the peak is not diluted by the quiet parts of the window, so short bursts are detected.
+ * The alert recovers once the bursts have left the window.
+ */
+public class BurstMonitor extends MetricMonitor
+{
+    /** If the busiest bucket's requests per second reach this value, create an alert */
+    private double threshold;
+    /** Tracks the busiest bucket in the time window */
+    private PeakTracker peaks;
+    /** True if a burst is currently in the time window */
+    private boolean burstDetected;
+
+    /**
+     * Creates a monitor which analyzes bursts of traffic
+     * @param threshold If the busiest bucket's requests per second reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) in which the busiest bucket is found
+     * @param bucketLength The number of milliseconds covered by each bucket, such as 1000 or 100
+     * @param delay Every "delay" milliseconds, the peak is checked
+     */
+    public BurstMonitor(double threshold, long timeWindow, long bucketLength, long delay)
+    {
+        super(delay);
+        if (threshold <= 0)
+            throw new IllegalArgumentException("BurstMonitor requires a positive threshold");
+
+        this.threshold = threshold;
+        peaks = new PeakTracker(bucketLength, timeWindow);
+    }
+
+    /**
+     * Finds the busiest bucket in the time window, and logs a warning if the threshold is reached
+     * @param currentTime The current time of the system
+     */
+    public synchronized void update(long currentTime)
+    {
+        peaks.expire(currentTime);
+        double peakRps = peaks.getPeakRate();
+
+        if (!burstDetected && peakRps >= threshold)
+        {
+            addAlert(new BurstAlert(peaks.getPeakCount(), peakRps, peaks.getBucketLength(), false, currentTime));
+            burstDetected = true;
+        }
+        else if (burstDetected && peakRps < threshold)
+        {
+            addAlert(new BurstAlert(peaks.getPeakCount(), peakRps, peaks.getBucketLength(), true, currentTime));
+            burstDetected = false;
+        }
+    }
+
+    public void addLog(Log log, long currentTime)
+    {
+        addRequests(currentTime, 1);
+    }
+
+    /**
+     * Counts the requests of the current second at the current time, which is when a batch
+     * of logs counts its requests, so buckets shorter than a second keep the batches apart.
+     * The requests of earlier seconds, such as those of a seed, are counted at the start of
+     * their second.
+     */
+    public synchronized void addDelta(MetricsDelta delta, long currentTime)
+    {
+        RequestBuckets requests = delta.requests;
+        long currentSecond = Math.floorDiv(currentTime, 1000);
+        for (int i = 0; i < requests.getLength(); i++)
+        {
+            long second = requests.getFirstSecond() + i;
+            peaks.add((second == currentSecond)? currentTime : second * 1000, requests.getCount(i));
+        }
+    }
+
+    /**
+     * Adds requests made at the given timestamp
+     * @param currentTime The timestamp when the requests were made
+     * @param count The number of requests
+     */
+    public synchronized void addRequests(long currentTime, long count)
+    {
+        peaks.add(currentTime, count);
+    }
+
+    /**
+     * Returns the requests per second of the busiest bucket in the time window
+     */
+    public synchronized double getPeakRps()
+    {
+        return peaks.getPeakRate();
+    }
+
+    /**
+     * Returns the requests per second of the busiest bucket since the start
+     */
+    public synchronized double getMaxPeakRps()
+    {
+        return peaks.getMaxRate();
+    }
+
+    /**
+     * Returns the time window (in milliseconds) in which the busiest bucket is found
+     */
+    public long getTimeWindow()
+    {
+        return peaks.getTimeWindow();
+    }
+
+    /**
+     * Returns the number of milliseconds covered by each bucket
+     */
+    public long getBucketLength()
+    {
+        return peaks.getBucketLength();
+    }
+}
@@ -0,0 +1,27 @@
+package traffic.monitor;
+
+/**
+ * Counts the bytes served for one key, such as a section, without boxing the count
+ */
+public class ByteCounter
+{
+    /** The number of bytes served */
+    private long bytes;
+
+    /**
+     * Adds to the number of bytes served
+     * @param count The number of bytes to add
+     */
+    public void add(long count)
+    {
+        bytes += count;
+    }
+
+    /**
+     * Returns the number of bytes served
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+}
@@ -0,0 +1,49 @@
+package traffic.monitor;
+
+/**
+ * An alert triggered when a single client's requests in the time window cross their threshold
+ */
+public class ClientAlert extends Alert
+{
+    /** The address of the client */
+    private String client;
+    /** The client's requests in the monitored window */
+    private long requests;
+
+    /**
+     * Creates an alert at the given timestamp
+     * @param client The address of the client
+     * @param requests The client's requests in the monitored window
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public ClientAlert(String client, long requests, boolean recovery, long timestamp)
+    {
+        super((int) requests, recovery, timestamp);
+        this.client = client;
+        this.requests = requests;
+    }
+
+    /**
+     * Returns the address of the client
+     */
+    public String getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Returns the client's requests in the monitored window
+     */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    protected String getDescription()
+    {
+        if (!isRecovery())
+            return "Client " + client + " generated an alert - hits = " + requests;
+        return "Client " + client + " has recovered - hits = " + requests;
+    }
+}
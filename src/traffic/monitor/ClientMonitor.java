@@ -0,0 +1,394 @@
+package traffic.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import traffic.log.Log;
+
+/**
+ * Monitors the requests of each client over a sliding time window, and triggers an alert
+ * when a single client reaches a threshold, e.g. a scraper or a credential-stuffing bot.
+ *
+ * Every client is counted in a Count-Min Sketch per time slot, so memory stays constant
+ * however many clients there are. Clients whose estimated count reaches half the threshold
+ * become suspects, and are counted exactly in a small table from then on.
+ */
+public class ClientMonitor extends MetricMonitor
+{
+    /** The number of slots the time window is split into */
+    private static final int SLOT_COUNT = 10;
+    /** The number of rows in each slot's sketch */
+    private static final int SKETCH_DEPTH = 4;
+    /** The number of counters in each row of a slot's sketch */
+    private static final int SKETCH_WIDTH = 4096;
+    /** The maximum number of suspects counted exactly */
+    public static final int MAX_SUSPECTS = 256;
+    /** The number of entries in the hash table of suspects, a power of two */
+    private static final int TABLE_CAPACITY = MAX_SUSPECTS * 4;
+
+    /** If a client's requests in the time window reach this value, create an alert */
+    private long threshold;
+    /** Clients whose estimated requests reach this value are counted exactly */
+    private long suspectThreshold;
+    /** The time window (in milliseconds) over which each client's requests are counted */
+    private long timeWindow;
+    /** The number of milliseconds covered by each slot */
+    private long slotLength;
+
+    /** The clients counted in each slot */
+    private CountMinSketch[] slots;
+    /** The index of the time slot that each sketch covers, counted from the epoch */
+    private long[] slotIds;
+
+    /** The address of each suspect */
+    private String[] suspects = new String[MAX_SUSPECTS];
+    /** The hash of each suspect's address */
+    private long[] suspectHashes = new long[MAX_SUSPECTS];
+    /** The requests of each suspect in each slot, SLOT_COUNT counts per suspect */
+    private long[] suspectCounts = new long[MAX_SUSPECTS * SLOT_COUNT];
+    /** The requests of each suspect in the time window when the monitor was last updated */
+    private long[] windowCounts = new long[MAX_SUSPECTS];
+    /** True for each suspect that is currently above the threshold */
+    private boolean[] alerted = new boolean[MAX_SUSPECTS];
+    /** The number of suspects */
+    private int suspectCount;
+    /** Maps each suspect's hash to its index plus one, by linear probing. Zero marks a free entry */
+    private int[] table = new int[TABLE_CAPACITY];
+
+    /**
+     * Creates a monitor which analyzes the requests of each client for critical values
+     * @param threshold If a client's requests in the time window reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) over which each client's requests are counted
+     * @param delay Every "delay" milliseconds, the clients are checked
+     */
+    public ClientMonitor(long threshold, long timeWindow, long delay)
+    {
+        super(delay);
+        if (threshold <= 0 || timeWindow <= 0)
+            throw new IllegalArgumentException("ClientMonitor requires a positive threshold and time window");
+
+        this.threshold = threshold;
+        this.timeWindow = timeWindow;
+        suspectThreshold = Math.max(1, threshold / 2);
+        slotLength = Math.max(1, timeWindow / SLOT_COUNT);
+
+        slots = new CountMinSketch[SLOT_COUNT];
+        slotIds = new long[SLOT_COUNT];
+        for (int i = 0; i < SLOT_COUNT; i++)
+        {
+            slots[i] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        }
+        Arrays.fill(slotIds, Long.MIN_VALUE);
+    }
+
+    /**
+     * Counts each suspect's requests over the time window, and logs a warning for
+     * each client that reaches or recovers from the threshold
+     * @param currentTime The current time of the system
+     */
+    public synchronized void update(long currentTime)
+    {
+        long currentSlot = Math.floorDiv(currentTime, slotLength);
+        boolean removed = false;
+        for (int i = suspectCount - 1; i >= 0; i--)
+        {
+            long requests = getWindowCount(i, currentSlot);
+            windowCounts[i] = requests;
+
+            if (!alerted[i] && requests >= threshold)
+            {
+                addAlert(new ClientAlert(suspects[i], requests, false, currentTime));
+                alerted[i] = true;
+            }
+            else if (alerted[i] && requests < threshold)
+            {
+                addAlert(new ClientAlert(suspects[i], requests, true, currentTime));
+                alerted[i] = false;
+            }
+
+            // Suspects that left the window make room for new ones
+            if (requests == 0 && !alerted[i])
+            {
+                removeSuspect(i);
+                removed = true;
+            }
+        }
+        if (removed)
+            rebuildTable();
+    }
+
+    public void addLog(Log log, long currentTime)
+    {
+        if (log.getHost().length() > 0)
+            addRequests(log.getHost(), currentTime, 1);
+    }
+
+    /**
+     * Adds the hits of each website of the delta, which are counted per client
+     */
+    public void addDelta(MetricsDelta delta, long currentTime)
+    {
+        for (Website website : delta.metrics.websites.values())
+        {
+            addRequests(website.getName(), currentTime, website.getHits());
+        }
+    }
+
+    /**
+     * Adds requests made by a client
+     * @param client The client's address. Only copied when the client becomes a suspect
+     * @param currentTime The timestamp when the requests were made
+     * @param count The number of requests
+     */
+    public synchronized void addRequests(CharSequence client, long currentTime, int count)
+    {
+        int slot = getSlot(currentTime);
+        if (slot < 0 || count <= 0)
+            return;
+
+        long hash = CountMinSketch.hash(client);
+        slots[slot].add(hash, count);
+
+        int suspect = findSuspect(hash);
+        if (suspect >= 0)
+        {
+            suspectCounts[suspect * SLOT_COUNT + slot] += count;
+            return;
+        }
+
+        long currentSlot = Math.floorDiv(currentTime, slotLength);
+        long estimate = getEstimate(hash, currentSlot);
+        if (estimate >= suspectThreshold)
+            addSuspect(client.toString(), hash, currentSlot, estimate);
+    }
+
+    /**
+     * Returns the clients with the most requests in the time window when the monitor was last updated
+     * @param count The maximum number of clients to return
+     * @return The clients, in decreasing order of requests
+     */
+    public synchronized ArrayList<Client> getTopClients(int count)
+    {
+        ArrayList<Client> clients = new ArrayList<Client>();
+        for (int i = 0; i < suspectCount; i++)
+        {
+            if (windowCounts[i] > 0)
+                clients.add(new Client(suspects[i], windowCounts[i], alerted[i]));
+        }
+        Collections.sort(clients, new Comparator<Client>() {
+            public int compare(Client a, Client b)
+            {
+                return Long.compare(b.requests, a.requests);
+            }
+        });
+
+        if (clients.size() > count)
+            return new ArrayList<Client>(clients.subList(0, count));
+        return clients;
+    }
+
+    /**
+     * Returns true if any client is currently above the threshold
+     */
+    public synchronized boolean isAlerting()
+    {
+        for (int i = 0; i < suspectCount; i++)
+        {
+            if (alerted[i])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time window (in milliseconds) over which each client's requests are counted
+     */
+    public long getTimeWindow()
+    {
+        return timeWindow;
+    }
+
+    /**
+     * Returns the index of the slot containing the given time, emptying it if it
+     * still holds an older slot's requests
+     * @return The slot's index, or -1 if the time has already left the window
+     */
+    private int getSlot(long time)
+    {
+        long slotId = Math.floorDiv(time, slotLength);
+        int index = (int) Math.floorMod(slotId, (long) SLOT_COUNT);
+        if (slotIds[index] > slotId)
+            return -1;
+        if (slotIds[index] != slotId)
+        {
+            slots[index].reset();
+            for (int i = 0; i < suspectCount; i++)
+            {
+                suspectCounts[i * SLOT_COUNT + index] = 0;
+            }
+            slotIds[index] = slotId;
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if a slot holds requests that are within the window ending at the current slot
+     */
+    private boolean isInWindow(int slot, long currentSlot)
+    {
+        return slotIds[slot] > currentSlot - SLOT_COUNT && slotIds[slot] <= currentSlot;
+    }
+
+    /**
+     * Estimates a client's requests over the window from the slots' sketches
+     * @param hash The hash of the client's address
+     * @param currentSlot The last slot of the window
+     * @return The estimate, which is never below the client's actual requests
+     */
+    private long getEstimate(long hash, long currentSlot)
+    {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++)
+        {
+            long sum = 0;
+            for (int i = 0; i < SLOT_COUNT; i++)
+            {
+                if (isInWindow(i, currentSlot))
+                    sum += slots[i].getCount(row, hash);
+            }
+            estimate = Math.min(estimate, sum);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns a suspect's requests over the window
+     */
+    private long getWindowCount(int suspect, long currentSlot)
+    {
+        long count = 0;
+        for (int i = 0; i < SLOT_COUNT; i++)
+        {
+            if (isInWindow(i, currentSlot))
+                count += suspectCounts[suspect * SLOT_COUNT + i];
+        }
+        return count;
+    }
+
+    /**
+     * Starts counting a client exactly. Its earlier requests are taken from the sketches.
+     * When the table is full, the suspect with the fewest requests is replaced if the
+     * client has more requests.
+     */
+    private void addSuspect(String client, long hash, long currentSlot, long estimate)
+    {
+        if (suspectCount == MAX_SUSPECTS)
+        {
+            int smallest = 0;
+            long smallestCount = Long.MAX_VALUE;
+            for (int i = 0; i < suspectCount; i++)
+            {
+                long count = getWindowCount(i, currentSlot);
+                if (count < smallestCount && !alerted[i])
+                {
+                    smallest = i;
+                    smallestCount = count;
+                }
+            }
+            if (smallestCount >= estimate)
+                return;
+            removeSuspect(smallest);
+            rebuildTable();
+        }
+
+        int suspect = suspectCount++;
+        suspects[suspect] = client;
+        suspectHashes[suspect] = hash;
+        alerted[suspect] = false;
+        windowCounts[suspect] = estimate;
+        for (int i = 0; i < SLOT_COUNT; i++)
+        {
+            suspectCounts[suspect * SLOT_COUNT + i] = isInWindow(i, currentSlot)? slots[i].estimate(hash) : 0;
+        }
+        insert(suspect);
+    }
+
+    /**
+     * Removes a suspect by moving the last suspect into its place. The table must be rebuilt afterwards.
+     */
+    private void removeSuspect(int suspect)
+    {
+        int last = --suspectCount;
+        if (suspect != last)
+        {
+            suspects[suspect] = suspects[last];
+            suspectHashes[suspect] = suspectHashes[last];
+            windowCounts[suspect] = windowCounts[last];
+            alerted[suspect] = alerted[last];
+            System.arraycopy(suspectCounts, last * SLOT_COUNT, suspectCounts, suspect * SLOT_COUNT, SLOT_COUNT);
+        }
+        suspects[last] = null;
+    }
+
+    /**
+     * Returns the index of the suspect with the given hash, or -1 if the client is not a suspect
+     */
+    private int findSuspect(long hash)
+    {
+        int mask = TABLE_CAPACITY - 1;
+        for (int i = (int) hash & mask; table[i] != 0; i = (i + 1) & mask)
+        {
+            if (suspectHashes[table[i] - 1] == hash)
+                return table[i] - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a suspect to the hash table
+     */
+    private void insert(int suspect)
+    {
+        int mask = TABLE_CAPACITY - 1;
+        int i = (int) suspectHashes[suspect] & mask;
+        while (table[i] != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        table[i] = suspect + 1;
+    }
+
+    /**
+     * Rebuilds the hash table after suspects were removed
+     */
+    private void rebuildTable()
+    {
+        Arrays.fill(table, 0);
+        for (int i = 0; i < suspectCount; i++)
+        {
+            insert(i);
+        }
+    }
+
+    /**
+     * A client and its requests in the time window
+     */
+    public static class Client
+    {
+        /** The client's address */
+        public String address;
+        /** The client's requests in the time window */
+        public long requests;
+        /** True if the client is above the threshold */
+        public boolean alerted;
+
+        public Client(String address, long requests, boolean alerted)
+        {
+            this.address = address;
+            this.requests = requests;
+            this.alerted = alerted;
+        }
+    }
+}
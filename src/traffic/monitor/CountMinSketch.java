@@ -0,0 +1,137 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Estimates how often each key was counted, in a fixed amount of memory.
+ *
+ * Each key is hashed to one counter in every row, and its estimate is the smallest of
+ * these counters. Keys that share a counter can only raise each other's estimates, so
+ * estimates are never too low, and are too high by at most e/width of the total count
+ * with a probability of 1 - e^-depth.
+ */
+public class CountMinSketch
+{
+    /** The number of rows, each with its own hash function */
+    private int depth;
+    /** The number of counters in each row, a power of two */
+    private int width;
+    /** The counters of every row, one row after another */
+    private int[] counts;
+
+    /**
+     * Creates an empty sketch
+     * @param depth The number of rows
+     * @param width The number of counters in each row, a power of two
+     */
+    public CountMinSketch(int depth, int width)
+    {
+        if (depth <= 0 || width <= 0 || (width & (width - 1)) != 0)
+            throw new IllegalArgumentException("CountMinSketch requires a positive depth and a power of two width");
+
+        this.depth = depth;
+        this.width = width;
+        counts = new int[depth * width];
+    }
+
+    /**
+     * Counts a key
+     * @param hash The hash of the key, from hash()
+     * @param count The number of times the key is counted
+     */
+    public void add(long hash, int count)
+    {
+        for (int row = 0; row < depth; row++)
+        {
+            counts[getIndex(row, hash)] += count;
+        }
+    }
+
+    /**
+     * Returns the estimated number of times a key was counted
+     * @param hash The hash of the key, from hash()
+     * @return The estimate, which is never below the key's actual count
+     */
+    public int estimate(long hash)
+    {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+        {
+            estimate = Math.min(estimate, counts[getIndex(row, hash)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the counter of a key in one row. Summing a row's counters over several
+     * sketches, then taking the smallest sum, estimates the key's count in all the sketches.
+     * @param row The index of the row
+     * @param hash The hash of the key, from hash()
+     */
+    public int getCount(int row, long hash)
+    {
+        return counts[getIndex(row, hash)];
+    }
+
+    /**
+     * Returns the number of rows
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Removes every count
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Returns the index of a key's counter in a row. The rows' hash functions are derived
+     * from the two halves of the key's hash.
+     */
+    private int getIndex(int row, long hash)
+    {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    /**
+     * Hashes the characters of a key without copying them
+     * @param key The key, e.g. a client's address
+     * @return A 64-bit hash of the key
+     */
+    public static long hash(CharSequence key)
+    {
+        return hash(key, 0, key.length());
+    }
+
+    /**
+     * Hashes a range of the characters of a key without copying them. The hash is the
+     * same as the hash of a key holding only those characters.
+     * @param key The characters, e.g. a requested URL
+     * @param start The index of the first character of the key
+     * @param end The index after the last character of the key
+     * @return A 64-bit hash of the key
+     */
+    public static long hash(CharSequence key, int start, int end)
+    {
+        // FNV-1a, followed by a finalizer that spreads every bit of the hash
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++)
+        {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,62 @@
+package traffic.monitor;
+
+/**
+ * An alert triggered when the share of 5xx responses crosses its threshold
+ */
+public class ErrorRateAlert extends Alert
+{
+    /** The share of requests that returned a 5xx status, between 0 and 1 */
+    private double errorRate;
+    /** The number of requests in the monitored window */
+    private long requests;
+    /** The number of 5xx responses in the monitored window */
+    private long errors;
+
+    /**
+     * Creates an alert at the given timestamp
+     * @param errorRate The share of requests in the window that returned a 5xx status
+     * @param requests The number of requests in the monitored window
+     * @param errors The number of 5xx responses in the monitored window
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public ErrorRateAlert(double errorRate, long requests, long errors, boolean recovery, long timestamp)
+    {
+        super((int) requests, recovery, timestamp);
+        this.errorRate = errorRate;
+        this.requests = requests;
+        this.errors = errors;
+    }
+
+    /**
+     * Returns the share of requests that returned a 5xx status when the alert was triggered
+     */
+    public double getErrorRate()
+    {
+        return errorRate;
+    }
+
+    /**
+     * Returns the number of requests in the monitored window
+     */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * Returns the number of 5xx responses in the monitored window
+     */
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    protected String getDescription()
+    {
+        String rate = String.format("%.2f%% of %d requests", errorRate * 100, requests);
+        if (!isRecovery())
+            return "High error rate generated an alert - 5xx = " + rate;
+        return "High error rate has recovered - 5xx = " + rate;
+    }
+}
@@ -0,0 +1,187 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+import traffic.log.Log;
+
+/**
+ * Monitors the share of requests that returned a 5xx status over a sliding time window,
+ * and triggers an alert when it reaches a threshold.
+ *
+ * The window is split into buckets, each counting its requests and errors. Running totals
+ * are kept as buckets are filled and expired, so adding a request and checking the rate
+ * take the same time however much traffic there is. An alert is only raised once the
+ * window holds enough requests, and it recovers below a lower threshold, so a rate that
+ * hovers around the threshold does not flap.
+ */
+public class ErrorRateMonitor extends MetricMonitor
+{
+    /** The number of buckets the time window is split into */
+    private static final int BUCKET_COUNT = 60;
+
+    /** If the error rate reaches this value, create an alert */
+    private double threshold;
+    /** Once alerted, the error rate must drop below this value to recover */
+    private double recoveryThreshold;
+    /** No alert is created until the window holds this many requests */
+    private long minRequests;
+    /** The time window (in milliseconds) over which the error rate is computed */
+    private long timeWindow;
+    /** The number of milliseconds covered by each bucket */
+    private long bucketLength;
+
+    /** The number of requests in each bucket */
+    private long[] requestCounts;
+    /** The number of 5xx responses in each bucket */
+    private long[] errorCounts;
+    /** The index of the time bucket that each entry covers, counted from the epoch */
+    private long[] bucketIds;
+    /** The total number of requests in the buckets */
+    private long requestCount;
+    /** The total number of 5xx responses in the buckets */
+    private long errorCount;
+    /** True if the error rate is currently above the threshold */
+    private boolean highErrorRateDetected;
+
+    /**
+     * Creates a monitor which analyzes the error rate for critical values
+     * @param threshold If the share of 5xx responses reaches this value, between 0 and 1, create an alert
+     * @param recoveryThreshold Once alerted, the share of 5xx responses must drop below this value to recover
+     * @param minRequests No alert is created until the window holds this many requests
+     * @param timeWindow The time window (in milliseconds) over which the error rate is computed
+     * @param delay Every "delay" milliseconds, the error rate is checked
+     */
+    public ErrorRateMonitor(double threshold, double recoveryThreshold, long minRequests, long timeWindow, long delay)
+    {
+        super(delay);
+        if (threshold <= 0 || threshold > 1 || recoveryThreshold < 0 || recoveryThreshold > threshold)
+            throw new IllegalArgumentException("ErrorRateMonitor requires 0 <= recoveryThreshold <= threshold <= 1");
+        if (minRequests < 0 || timeWindow <= 0)
+            throw new IllegalArgumentException("ErrorRateMonitor does not accept negative parameters");
+
+        this.threshold = threshold;
+        this.recoveryThreshold = recoveryThreshold;
+        this.minRequests = minRequests;
+        this.timeWindow = timeWindow;
+        bucketLength = Math.max(1, timeWindow / BUCKET_COUNT);
+
+        requestCounts = new long[BUCKET_COUNT];
+        errorCounts = new long[BUCKET_COUNT];
+        bucketIds = new long[BUCKET_COUNT];
+        Arrays.fill(bucketIds, Long.MIN_VALUE);
+    }
+
+    /**
+     * Computes the error rate over the time window, and logs a warning if the threshold is reached
+     * @param currentTime The current time of the system
+     */
+    public synchronized void update(long currentTime)
+    {
+        expireBuckets(Math.floorDiv(currentTime, bucketLength));
+        double errorRate = getCurrentErrorRate();
+
+        if (!highErrorRateDetected && requestCount >= minRequests && requestCount > 0 && errorRate >= threshold)
+        {
+            addAlert(new ErrorRateAlert(errorRate, requestCount, errorCount, false, currentTime));
+            highErrorRateDetected = true;
+        }
+        else if (highErrorRateDetected && errorRate < recoveryThreshold)
+        {
+            addAlert(new ErrorRateAlert(errorRate, requestCount, errorCount, true, currentTime));
+            highErrorRateDetected = false;
+        }
+    }
+
+    public void addLog(Log log, long currentTime)
+    {
+        addRequests(currentTime, 1, (log.getStatus() >= 500)? 1 : 0);
+    }
+
+    /**
+     * Counts each second's requests and errors at the start of that second
+     */
+    public synchronized void addDelta(MetricsDelta delta, long currentTime)
+    {
+        RequestBuckets requests = delta.requests;
+        for (int i = 0; i < requests.getLength(); i++)
+        {
+            addRequests((requests.getFirstSecond() + i) * 1000, requests.getCount(i), 0);
+        }
+        RequestBuckets errors = delta.errors;
+        for (int i = 0; i < errors.getLength(); i++)
+        {
+            addRequests((errors.getFirstSecond() + i) * 1000, 0, errors.getCount(i));
+        }
+    }
+
+    /**
+     * Adds requests made at the given timestamp
+     * @param currentTime The timestamp when the requests were made
+     * @param requests The number of requests
+     * @param errors The number of these requests that returned a 5xx status
+     */
+    public synchronized void addRequests(long currentTime, long requests, long errors)
+    {
+        if (requests <= 0 && errors <= 0)
+            return;
+
+        long bucketId = Math.floorDiv(currentTime, bucketLength);
+        int index = (int) Math.floorMod(bucketId, (long) BUCKET_COUNT);
+        if (bucketIds[index] > bucketId)
+            return;
+        if (bucketIds[index] != bucketId)
+        {
+            // The bucket still holds an older bucket's requests
+            expireBucket(index);
+            bucketIds[index] = bucketId;
+        }
+
+        requestCounts[index] += requests;
+        errorCounts[index] += errors;
+        requestCount += requests;
+        errorCount += errors;
+    }
+
+    /**
+     * Returns the share of requests in the window that returned a 5xx status
+     * @return The error rate between 0 and 1, or 0 if the window holds no requests
+     */
+    public synchronized double getCurrentErrorRate()
+    {
+        if (requestCount <= 0)
+            return 0;
+        return Math.min(1.0, errorCount / (double) requestCount);
+    }
+
+    /**
+     * Returns the time window (in milliseconds) over which the error rate is computed
+     */
+    public long getTimeWindow()
+    {
+        return timeWindow;
+    }
+
+    /**
+     * Removes the buckets that fell out of the window ending at the current bucket
+     */
+    private void expireBuckets(long currentBucket)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            if (bucketIds[i] != Long.MIN_VALUE && bucketIds[i] <= currentBucket - BUCKET_COUNT)
+                expireBucket(i);
+        }
+    }
+
+    /**
+     * Removes a bucket's requests from the running totals and empties it
+     */
+    private void expireBucket(int index)
+    {
+        requestCount -= requestCounts[index];
+        errorCount -= errorCounts[index];
+        requestCounts[index] = 0;
+        errorCounts[index] = 0;
+        bucketIds[index] = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,52 @@
+package traffic.monitor;
+import java.text.DecimalFormat;
+
+/**
+ * An alert triggered when a response time percentile crosses its threshold
+ */
+public class LatencyAlert extends Alert
+{
+    /** The monitored percentile, e.g. 99.0 */
+    private double percentile;
+    /** The response time at the percentile when the alert was triggered, in microseconds */
+    private long latency;
+    
+    /**
+     * Creates an alert at the given timestamp
+     * @param percentile The monitored percentile, e.g. 99.0
+     * @param latency The response time at the percentile, in microseconds
+     * @param hits The number of requests in the monitored window
+     * @param recovery True if this is a recovery alert. Else this is a critical alert
+     * @param timestamp The timestamp when this alert was triggered
+     */
+    public LatencyAlert(double percentile, long latency, int hits, boolean recovery, long timestamp)
+    {
+        super(hits, recovery, timestamp);
+        this.percentile = percentile;
+        this.latency = latency;
+    }
+    
+    /**
+     * Returns the response time at the percentile when the alert was triggered, in microseconds
+     */
+    public long getLatency()
+    {
+        return latency;
+    }
+    
+    protected String getDescription()
+    {
+        String name = "p" + new DecimalFormat("0.###").format(percentile);
+        if (!isRecovery())
+            return "High " + name + " response time generated an alert - " + name + " = " + formatMillis(latency);
+        return "High " + name + " response time has recovered - " + name + " = " + formatMillis(latency);
+    }
+    
+    /**
+     * Formats a duration in microseconds as milliseconds, e.g. "12.5ms"
+     */
+    static String formatMillis(long micros)
+    {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,174 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Counts response times in logarithmic buckets of fixed size, like an HdrHistogram.
+ *
+ * Values below 64 microseconds have a bucket each. Above that, each power of two is split
+ * into 32 buckets, so a bucket's width is at most 1/32 of its value and percentiles are
+ * accurate to about 3%. Recording a value never allocates, and histograms can be merged
+ * by adding their counts.
+ */
+public class LatencyHistogram
+{
+    /** The number of buckets each power of two is split into is 2^SUB_BUCKET_BITS */
+    private static final int SUB_BUCKET_BITS = 5;
+    /** The number of buckets each power of two is split into */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values below this limit have a bucket each */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    /** Values of 2^MAX_BITS microseconds (about 19 hours) or more are counted in the last bucket */
+    private static final int MAX_BITS = 36;
+    /** The number of buckets */
+    public static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    /** The number of values counted in each bucket */
+    private long[] counts = new long[BUCKET_COUNT];
+    /** The number of values recorded */
+    private long totalCount;
+    /** The largest value recorded */
+    private long maxValue;
+
+    /**
+     * Counts a response time
+     * @param micros The response time in microseconds. Negative values are ignored
+     */
+    public void record(long micros)
+    {
+        if (micros < 0)
+            return;
+
+        counts[getBucket(micros)]++;
+        totalCount++;
+        if (micros > maxValue)
+            maxValue = micros;
+    }
+
+    /**
+     * Adds to the count of a bucket, e.g. when a histogram is decoded.
+     * The largest value is set separately with updateMaxValue().
+     * @param bucket The index of the bucket
+     * @param count The number of values to add to the bucket
+     */
+    public void addToBucket(int bucket, long count)
+    {
+        counts[bucket] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Raises the largest value recorded, e.g. when a histogram is decoded
+     * @param value A value that was recorded, in microseconds
+     */
+    public void updateMaxValue(long value)
+    {
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one
+     * @param other The histogram to merge into this one
+     */
+    public void merge(LatencyHistogram other)
+    {
+        if (other.totalCount == 0)
+            return;
+        
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Removes every recorded value
+     */
+    public void reset()
+    {
+        if (totalCount > 0)
+            Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+    /**
+     * Returns the response time below which the given percentage of values fall
+     * @param percentile The percentage of values, e.g. 99.0
+     * @return The largest response time in the bucket containing the percentile, in microseconds,
+     *         or zero if no values were recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            count += counts[i];
+            if (count >= rank)
+                return Math.min(getBucketEnd(i), maxValue);
+        }
+        return maxValue;
+    }
+
+    /**
+     * Returns the number of values recorded
+     */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Returns the largest value recorded, in microseconds
+     */
+    public long getMaxValue()
+    {
+        return maxValue;
+    }
+
+    /**
+     * Returns the number of values counted in a bucket
+     * @param bucket The index of the bucket
+     */
+    public long getCount(int bucket)
+    {
+        return counts[bucket];
+    }
+
+    /**
+     * Returns the index of the bucket that counts the given value
+     */
+    static int getBucket(long value)
+    {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        // The value's highest bit selects a power of two, and the next bits select a bucket in it
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit >= MAX_BITS)
+            return BUCKET_COUNT - 1;
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (highestBit - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted by a bucket
+     */
+    static long getBucketEnd(int bucket)
+    {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int power = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = power - SUB_BUCKET_BITS;
+        return ((long) (subBucket + 1) << shift) - 1;
+    }
+}
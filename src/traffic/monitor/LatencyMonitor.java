@@ -0,0 +1,161 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+import traffic.log.Log;
+
+/**
+ * Monitors a response time percentile over a sliding time window, and triggers an
+ * alert when it reaches a threshold.
+ *
+ * The window is split into slots, each with its own histogram. Slots are reused once they
+ * fall out of the window, so recording a response time never allocates.
+ */
+public class LatencyMonitor extends MetricMonitor
+{
+    /** The number of slots the time window is split into */
+    private static final int SLOT_COUNT = 10;
+
+    /** The monitored percentile, e.g. 99.0 */
+    private double percentile;
+    /** If the percentile's response time reaches this value (in microseconds), create an alert */
+    private long threshold;
+    /** The time window (in milliseconds) over which the percentile is computed */
+    private long timeWindow;
+    /** The number of milliseconds covered by each slot */
+    private long slotLength;
+
+    /** The response times recorded in each slot */
+    private LatencyHistogram[] slots;
+    /** The index of the time slot that each histogram covers, counted from the epoch */
+    private long[] slotIds;
+    /** Holds the response times of the whole window while they are evaluated */
+    private LatencyHistogram window = new LatencyHistogram();
+    /** The response time at the percentile when the monitor was last updated */
+    private long currentLatency;
+    /** True if the percentile is currently above the threshold */
+    private boolean highLatencyDetected;
+
+    /**
+     * Creates a monitor which analyzes a response time percentile for critical values
+     * @param percentile The monitored percentile, between 0 (exclusive) and 100
+     * @param threshold If the percentile's response time reaches this value (in microseconds), create an alert
+     * @param timeWindow The time window (in milliseconds) over which the percentile is computed
+     * @param delay Every "delay" milliseconds, the percentile is checked
+     */
+    public LatencyMonitor(double percentile, long threshold, long timeWindow, long delay)
+    {
+        super(delay);
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("LatencyMonitor requires a percentile between 0 and 100");
+        if (threshold < 0 || timeWindow <= 0)
+            throw new IllegalArgumentException("LatencyMonitor does not accept negative parameters");
+
+        this.percentile = percentile;
+        this.threshold = threshold;
+        this.timeWindow = timeWindow;
+        slotLength = Math.max(1, timeWindow / SLOT_COUNT);
+
+        slots = new LatencyHistogram[SLOT_COUNT];
+        slotIds = new long[SLOT_COUNT];
+        for (int i = 0; i < SLOT_COUNT; i++)
+        {
+            slots[i] = new LatencyHistogram();
+        }
+        Arrays.fill(slotIds, Long.MIN_VALUE);
+    }
+
+    /**
+     * Computes the percentile over the time window, and logs a warning if the threshold is reached
+     * @param currentTime The current time of the system
+     */
+    public synchronized void update(long currentTime)
+    {
+        // Combine the slots that are still within the window
+        long currentSlot = Math.floorDiv(currentTime, slotLength);
+        window.reset();
+        for (int i = 0; i < SLOT_COUNT; i++)
+        {
+            if (slotIds[i] > currentSlot - SLOT_COUNT && slotIds[i] <= currentSlot)
+                window.merge(slots[i]);
+        }
+        currentLatency = window.getValueAtPercentile(percentile);
+        int hits = (int) window.getTotalCount();
+
+        if (!highLatencyDetected && hits > 0 && currentLatency >= threshold)
+        {
+            addAlert(new LatencyAlert(percentile, currentLatency, hits, false, currentTime));
+            highLatencyDetected = true;
+        }
+        else if (highLatencyDetected && currentLatency < threshold)
+        {
+            addAlert(new LatencyAlert(percentile, currentLatency, hits, true, currentTime));
+            highLatencyDetected = false;
+        }
+    }
+
+    public void addLog(Log log, long currentTime)
+    {
+        long responseTime = log.getResponseTime();
+        if (responseTime >= 0)
+            addLatency(currentTime, responseTime);
+    }
+
+    /**
+     * Adds the response times of the delta at the time it is merged
+     */
+    public synchronized void addDelta(MetricsDelta delta, long currentTime)
+    {
+        LatencyHistogram slot = getSlot(currentTime);
+        if (slot != null)
+            slot.merge(delta.metrics.latency);
+    }
+
+    /**
+     * Adds the response time of a request
+     * @param currentTime The timestamp when the request was made
+     * @param responseTime The response time in microseconds
+     */
+    public synchronized void addLatency(long currentTime, long responseTime)
+    {
+        LatencyHistogram slot = getSlot(currentTime);
+        if (slot != null)
+            slot.record(responseTime);
+    }
+
+    /**
+     * Returns the histogram of the slot containing the given time, emptying it if it
+     * still holds an older slot's response times
+     * @return The slot's histogram, or null if the time has already left the window
+     */
+    private LatencyHistogram getSlot(long time)
+    {
+        long slotId = Math.floorDiv(time, slotLength);
+        int index = (int) Math.floorMod(slotId, (long) SLOT_COUNT);
+        if (slotIds[index] > slotId)
+            return null;
+        if (slotIds[index] != slotId)
+        {
+            slots[index].reset();
+            slotIds[index] = slotId;
+        }
+        return slots[index];
+    }
+
+    /**
+     * Returns the response time at the percentile when the monitor was last updated
+     * @return The response time in microseconds
+     */
+    public synchronized long getCurrentLatency()
+    {
+        return currentLatency;
+    }
+
+    /**
+     * Returns the time window (in milliseconds) over which the percentile is computed
+     */
+    public long getTimeWindow()
+    {
+        return timeWindow;
+    }
+}
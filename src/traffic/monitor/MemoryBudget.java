@@ -0,0 +1,151 @@
+package traffic.monitor;
+
+/**
+ * Estimates the memory retained by the structures of a metric manager that grow with
+ * traffic: the websites and their sections, which grow with the number of clients and
+ * URLs, and the alert histories, which grow with uptime. Other structures, such as the
+ * section and subnet trees and the monitors' windows, have a fixed size.
+ *
+ * The estimates count the objects of each structure, multiplied by their typical size on
+ * a 64-bit JVM with compressed pointers, so they cost nothing to keep up to date. Once they
+ * reach the limit, the manager trims its structures down to TRIM_RATIO of the limit.
+ */
+public class MemoryBudget
+{
+    /** Estimated bytes retained by a website: its map entry, object, hostname and empty section set */
+    public static final long WEBSITE_BYTES = 240;
+    /** Estimated bytes retained by a section of a website: its set entry and name */
+    public static final long SECTION_BYTES = 96;
+    /** Estimated bytes retained by an alert, which is listed by both the manager and its monitor */
+    public static final long ALERT_BYTES = 96;
+    /** Estimated bytes retained by the sketch of evicted websites' hits */
+    public static final long SKETCH_BYTES = 4L * Metrics.EVICTED_SKETCH_DEPTH * Metrics.EVICTED_SKETCH_WIDTH;
+
+    /** The share of the limit that structures are trimmed to, so they are not trimmed again by the next batch */
+    public static final double TRIM_RATIO = 0.75;
+    /** The most recent alerts that are kept when alerts are trimmed */
+    public static final int KEPT_ALERTS = 1000;
+    /** The most sections recorded for each website once sections are limited */
+    public static final int KEPT_SECTIONS = 8;
+
+    /** The most bytes the structures may retain, or 0 if they are not limited */
+    private volatile long limit;
+    /** The estimated bytes of the websites and sections of the current metrics, as of the last estimate */
+    private long currentBytes;
+    /** The estimated bytes of the websites and sections of the total metrics, as of the last estimate */
+    private long totalBytes;
+    /** The estimated bytes of the alert histories, as of the last estimate */
+    private long alertBytes;
+    /** The number of times the structures were trimmed */
+    private int trimCount;
+
+    /**
+     * Creates a budget
+     * @param limit The most bytes the structures may retain, or 0 if they are not limited
+     */
+    public MemoryBudget(long limit)
+    {
+        setLimit(limit);
+    }
+
+    /**
+     * Changes the most bytes the structures may retain
+     * @param limit The most bytes, or 0 if the structures are not limited
+     */
+    public void setLimit(long limit)
+    {
+        if (limit < 0)
+            throw new IllegalArgumentException("MemoryBudget requires a limit of zero or more bytes");
+
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the most bytes the structures may retain, or 0 if they are not limited
+     */
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Estimates the bytes retained by the structures
+     * @param current The metrics recorded since the last flush
+     * @param total The metrics recorded since the manager was created
+     * @param alertCount The number of alerts in the manager's history
+     * @return True if the estimate exceeds the limit
+     */
+    public boolean update(Metrics current, Metrics total, int alertCount)
+    {
+        currentBytes = getRetainedBytes(current);
+        totalBytes = getRetainedBytes(total);
+        alertBytes = alertCount * ALERT_BYTES;
+        return limit > 0 && getRetainedBytes() > limit;
+    }
+
+    /**
+     * Returns the estimated bytes retained by the websites and sections of some metrics
+     * @param metrics The metrics to estimate
+     */
+    public static long getRetainedBytes(Metrics metrics)
+    {
+        return metrics.websites.size() * WEBSITE_BYTES + metrics.getSectionCount() * SECTION_BYTES
+                + (metrics.hasEvictedHits()? SKETCH_BYTES : 0);
+    }
+
+    /**
+     * Returns the bytes that the structures are trimmed to once they exceed the limit
+     */
+    public long getTrimTarget()
+    {
+        return (long) (limit * TRIM_RATIO);
+    }
+
+    /**
+     * Records that the structures were trimmed
+     */
+    void trimmed()
+    {
+        trimCount++;
+    }
+
+    /**
+     * Returns the estimated bytes retained by every structure, as of the last estimate
+     */
+    public long getRetainedBytes()
+    {
+        return currentBytes + totalBytes + alertBytes;
+    }
+
+    /**
+     * Returns the estimated bytes of the websites and sections recorded since the last flush
+     */
+    public long getCurrentBytes()
+    {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the estimated bytes of the websites and sections recorded since the manager was created
+     */
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the estimated bytes of the alert histories
+     */
+    public long getAlertBytes()
+    {
+        return alertBytes;
+    }
+
+    /**
+     * Returns the number of times the structures were trimmed
+     */
+    public int getTrimCount()
+    {
+        return trimCount;
+    }
+}
@@ -1,21 +1,48 @@
 package traffic.monitor;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.Queue;
 
+import traffic.log.FieldType;
 import traffic.log.Log;
+import traffic.log.LogBatch;
+import traffic.log.LogField;
+import traffic.stats.AnalyzeBatchEvent;
 
 public class MetricManager
 {    
+    /** The fields of a log that are analyzed. Other fields are skipped when logs are parsed */
+    public static final EnumSet<FieldType> ANALYZED_FIELDS = EnumSet.of(
+            FieldType.HOST, FieldType.TIME, FieldType.REQUEST, FieldType.URL, FieldType.STATUS,
+            FieldType.BYTES, FieldType.RESPONSE_TIME);
+    
+    /** Batches with fewer logs are analyzed log by log, since merging a scratch delta would cost more */
+    private static final int MIN_BATCH_SIZE = 4;
+    
     /** Metrics recorded since the last flush */
     private Metrics currentMetrics;  
     /** Metrics recorded since this manager was created */
     private Metrics totalMetrics;    
+    /** Metrics recorded since the last delta was taken. Null unless deltas are collected */
+    private volatile MetricsDelta delta;
+    /** Aggregates the logs of a batch before they are merged into the metrics and monitors */
+    private MetricsDelta batchDelta;
     
-    /** A list of objects that monitor throughput */
-    private ArrayList<ThroughputMonitor> throughputMonitors;
+    /** The requests, bytes and errors of each recent second, which seed monitors added later */
+    private RecentTraffic recentTraffic;
+    
+    /** 
+     * A list of objects that monitor metrics, such as throughput. The list is replaced 
+     * rather than modified, so logs can be analyzed while monitors are added or removed.
+     */
+    private volatile ArrayList<MetricMonitor> monitors;
     /** Stores all alerts for historical reasons */
     private ArrayList<Alert> alerts;
+    /** The number of alerts dropped from the history to save memory */
+    private int trimmedAlerts;
+    /** Estimates the memory retained by the metrics and alerts, and limits it */
+    private MemoryBudget memoryBudget;
     
     /**
      * Creates a manager which analyzes logs and records metrics
@@ -24,9 +51,12 @@ public class MetricManager
     {
         currentMetrics = new Metrics();
         totalMetrics = new Metrics();
+        batchDelta = new MetricsDelta();
+        recentTraffic = new RecentTraffic();
         
-        throughputMonitors = new ArrayList<ThroughputMonitor>();
+        monitors = new ArrayList<MetricMonitor>();
         alerts = new ArrayList<Alert>();
+        memoryBudget = new MemoryBudget(0);
     }
 
     /**
@@ -34,20 +64,120 @@ public class MetricManager
      * @param log The log line to analyze
      */
     public void analyze(Log log)
+    {
+        analyze(log, System.currentTimeMillis());
+    }
+    
+    /**
+     * Updates internal metrics based on the contents of the log line, 
+     * counting its request at the given time
+     * @param log The log line to analyze
+     * @param currentTime The timestamp at which the request is counted by throughput monitors
+     */
+    public void analyze(Log log, long currentTime)
     {
         if (log == null)
             return;
         
-        long currentTime = System.currentTimeMillis();
-        
         analyze(log, currentMetrics);
         analyze(log, totalMetrics);
         
-        // Add a request to each throughput monitor
-        for (int i = 0; i < throughputMonitors.size(); i++)
+        if (delta != null)
+        {
+            synchronized (this)
+            {
+                analyze(log, currentTime, delta);
+            }
+        }
+        recentTraffic.add(currentTime, 1, log.getBytes(), (log.getStatus() >= 500)? 1 : 0);
+        
+        // Add the log to each monitor
+        ArrayList<MetricMonitor> monitors = this.monitors;
+        for (int i = 0; i < monitors.size(); i++)
+        {
+                monitors.get(i).addLog(log, currentTime);
+        }
+        checkMemoryBudget();
+    }
+    
+    /**
+     * Updates internal metrics based on a block of logs, reading the clock once
+     * @param batch The logs to analyze
+     */
+    public void analyzeBatch(LogBatch batch)
+    {
+        analyzeBatch(batch, System.currentTimeMillis());
+    }
+    
+    /**
+     * Updates internal metrics based on a block of logs, counting their requests at the
+     * given time. The logs are first aggregated into a scratch delta, which is then merged 
+     * into the metrics and monitors at once, like the metrics of another manager.
+     * @param batch The logs to analyze
+     * @param currentTime The timestamp at which the requests are counted by throughput monitors
+     */
+    public synchronized void analyzeBatch(LogBatch batch, long currentTime)
+    {
+        AnalyzeBatchEvent event = new AnalyzeBatchEvent();
+        event.begin();
+        int count = batch.size();
+        if (count < MIN_BATCH_SIZE)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                analyze(batch.get(i), currentTime);
+            }
+            commit(event, count, false);
+            return;
+        }
+        
+        batchDelta.reset();
+        Metrics metrics = batchDelta.metrics;
+        for (int i = 0; i < count; i++)
         {
-                throughputMonitors.get(i).addRequest(currentTime);
+            analyze(batch.get(i), metrics);
         }
+        batchDelta.requests.add(currentTime, count);
+        batchDelta.bytes.add(currentTime, metrics.totalBytes);
+        Integer errors = metrics.statusCodeCounts.get('5');
+        if (errors != null)
+            batchDelta.errors.add(currentTime, errors);
+        
+        merge(batchDelta, currentTime);
+        commit(event, count, true);
+    }
+    
+    /**
+     * Records an analyzed batch if a flight recording enabled the event
+     * @param event The event started before the batch was analyzed
+     * @param count The number of logs in the batch
+     * @param merged True if the batch was aggregated into a delta
+     */
+    private void commit(AnalyzeBatchEvent event, int count, boolean merged)
+    {
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.logs = count;
+        event.merged = merged;
+        event.monitors = monitors.size();
+        event.commit();
+    }
+    
+    /**
+     * Records a log in a delta, counting its request at the given time. Deltas recorded
+     * on other threads can then be merged into a manager.
+     * @param log The log line to analyze
+     * @param currentTime The timestamp at which the request is counted
+     * @param delta The delta to update
+     */
+    public static void analyze(Log log, long currentTime, MetricsDelta delta)
+    {
+        analyze(log, delta.metrics);
+        delta.requests.add(currentTime, 1);
+        delta.bytes.add(currentTime, log.getBytes());
+        if (log.getStatus() >= 500)
+            delta.errors.add(currentTime, 1);
     }
     
     /**
@@ -55,10 +185,14 @@ public class MetricManager
      * @param log The log line to analyze
      * @param metrics The metrics to update
      */
-    private void analyze(Log log, Metrics metrics)
+    public static void analyze(Log log, Metrics metrics)
     {    
         updateWebsiteMetrics(log, metrics);
         updateStatusCodeMetrics(log, metrics);
+        updateBandwidthMetrics(log, metrics);
+        updateLatencyMetrics(log, metrics);
+        metrics.sectionTree.add(log.getRequestUrl(), 1, log.getBytes());
+        metrics.subnetTree.add(log.getHost(), 1);
         
         metrics.totalRequests++;
     }
@@ -68,22 +202,16 @@ public class MetricManager
      * @param log The log line to analyze
      * @param metrics The metrics to update
      */
-    private void updateWebsiteMetrics(Log log, Metrics metrics)
+    private static void updateWebsiteMetrics(Log log, Metrics metrics)
     {
-        String host = log.host;
-        String section = getWebsiteSection(log);
-        
-        if (section == null)
+        LogField url = log.getRequestUrl();
+        if (log.getHost().length() == 0)
             return;
         
-        if (!metrics.websites.containsKey(host))
-        {
-            metrics.websites.put(host, new Website(host));
-        }
-        
-        Website website = metrics.websites.get(host);
-        website.addSection(section);
+        Website website = metrics.getWebsite(log.getHost());
+        metrics.addSection(website, url, getSectionLength(url));
         website.incrementHits();
+        website.addBytes(log.getBytes());
         
         if (website.getHits() > metrics.maxSiteHits)
         {
@@ -98,13 +226,16 @@ public class MetricManager
      * @param log The log line to analyze
      * @param metrics The metrics to update
      */
-    private void updateStatusCodeMetrics(Log log, Metrics metrics)
+    private static void updateStatusCodeMetrics(Log log, Metrics metrics)
     {
-        if (log.status == null || log.status.length() < 1)
+        int status = log.getStatus();
+        if (status < 0)
             return;
         
         // Increment the status code count
-        char statusCodeFirstDigit = log.status.charAt(0);
+        while (status >= 10)
+            status /= 10;
+        char statusCodeFirstDigit = (char) ('0' + status);
         if (!metrics.statusCodeCounts.containsKey(statusCodeFirstDigit))
         {
             metrics.statusCodeCounts.put(statusCodeFirstDigit, 0);
@@ -112,6 +243,36 @@ public class MetricManager
         metrics.statusCodeCounts.put(statusCodeFirstDigit, metrics.statusCodeCounts.get(statusCodeFirstDigit)+1);
     }
     
+    /**
+     * Counts the bytes served by the log's request, globally and for its section
+     * @param log The log line to analyze
+     * @param metrics The metrics to update
+     */
+    private static void updateBandwidthMetrics(Log log, Metrics metrics)
+    {
+        long bytes = log.getBytes();
+        if (bytes == 0)
+            return;
+        
+        LogField url = log.getRequestUrl();
+        metrics.recordBytes(url, getSectionLength(url), bytes);
+    }
+    
+    /**
+     * Records the response time contained in the log, if it has one
+     * @param log The log line to analyze
+     * @param metrics The metrics to update
+     */
+    private static void updateLatencyMetrics(Log log, Metrics metrics)
+    {
+        long responseTime = log.getResponseTime();
+        if (responseTime < 0)
+            return;
+        
+        LogField url = log.getRequestUrl();
+        metrics.recordLatency(url, getSectionLength(url), responseTime);
+    }
+    
     /**
      * Creates a monitor which analyzes throughput for critical values
      * @param highTrafficRpsThreshold If average RPS surpasses this value, create an alert 
@@ -122,19 +283,341 @@ public class MetricManager
     {
         // Create the throughput monitor
         ThroughputMonitor monitor = new ThroughputMonitor(highTrafficRpsThreshold, highTrafficTimeWindow, delay);
-        throughputMonitors.add(monitor);
+        addMonitor(monitor);
+        
+        // Start monitoring throughput in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Adds a monitor which analyzes throughput for critical values. The monitor is 
+     * not started, so its caller is responsible for updating it.
+     * @param monitor The monitor to add
+     */
+    public void addThroughputMonitor(ThroughputMonitor monitor)
+    {
+        addMonitor(monitor);
+    }
+    
+    /**
+     * Creates a monitor which analyzes the bytes served per second for critical values
+     * @param bytesPerSecondThreshold If the average bytes per second reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) over which the average is computed
+     * @param delay Every "delay" milliseconds, the bandwidth is checked
+     */
+    public void addBandwidthMonitor(double bytesPerSecondThreshold, long timeWindow, long delay)
+    {
+        BandwidthMonitor monitor = new BandwidthMonitor(bytesPerSecondThreshold, timeWindow, delay);
+        addMonitor(monitor);
+        
+        // Start monitoring bandwidth in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Creates a monitor which analyzes a response time percentile for critical values
+     * @param percentile The monitored percentile, e.g. 99.0
+     * @param threshold If the percentile's response time reaches this value (in microseconds), create an alert
+     * @param timeWindow The time window (in milliseconds) over which the percentile is computed
+     * @param delay Every "delay" milliseconds, the percentile is checked
+     */
+    public void addLatencyMonitor(double percentile, long threshold, long timeWindow, long delay)
+    {
+        LatencyMonitor monitor = new LatencyMonitor(percentile, threshold, timeWindow, delay);
+        addMonitor(monitor);
+        
+        // Start monitoring response times in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Creates a monitor which analyzes the share of 5xx responses for critical values
+     * @param threshold If the share of 5xx responses reaches this value, between 0 and 1, create an alert
+     * @param recoveryThreshold Once alerted, the share of 5xx responses must drop below this value to recover
+     * @param minRequests No alert is created until the window holds this many requests
+     * @param timeWindow The time window (in milliseconds) over which the error rate is computed
+     * @param delay Every "delay" milliseconds, the error rate is checked
+     */
+    public void addErrorRateMonitor(double threshold, double recoveryThreshold, long minRequests, long timeWindow, long delay)
+    {
+        ErrorRateMonitor monitor = new ErrorRateMonitor(threshold, recoveryThreshold, minRequests, timeWindow, delay);
+        addMonitor(monitor);
+        
+        // Start monitoring the error rate in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Creates a monitor which analyzes the requests of each client for critical values
+     * @param threshold If a client's requests in the time window reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) over which each client's requests are counted
+     * @param delay Every "delay" milliseconds, the clients are checked
+     */
+    public void addClientMonitor(long threshold, long timeWindow, long delay)
+    {
+        ClientMonitor monitor = new ClientMonitor(threshold, timeWindow, delay);
+        addMonitor(monitor);
+        
+        // Start monitoring clients in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Creates a monitor which learns the baselines of all traffic and of each section
+     * @param deviations If a rate deviates from its baseline by this many standard deviations, create an alert
+     * @param minRate No alert is created for rates and baselines below this value (in requests per second)
+     * @param delay Every "delay" milliseconds, the rates are brought up to date
+     */
+    public void addBaselineMonitor(double deviations, double minRate, long delay)
+    {
+        BaselineMonitor monitor = new BaselineMonitor(deviations, minRate, delay);
+        addMonitor(monitor);
+        
+        // Start learning the baselines in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Creates a monitor which analyzes bursts of traffic within its time window
+     * @param threshold If the busiest bucket's requests per second reach this value, create an alert
+     * @param timeWindow The time window (in milliseconds) in which the busiest bucket is found
+     * @param bucketLength The number of milliseconds covered by each bucket
+     * @param delay Every "delay" milliseconds, the peak is checked
+     */
+    public void addBurstMonitor(double threshold, long timeWindow, long bucketLength, long delay)
+    {
+        BurstMonitor monitor = new BurstMonitor(threshold, timeWindow, bucketLength, delay);
+        addMonitor(monitor);
+        
+        // Start monitoring bursts in a new thread
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+    }
+    
+    /**
+     * Adds a monitor which receives every analyzed log. The monitor is not started,
+     * so its caller is responsible for updating it.
+     * @param monitor The monitor to add
+     */
+    public synchronized void addMonitor(MetricMonitor monitor)
+    {
+        ArrayList<MetricMonitor> newMonitors = new ArrayList<MetricMonitor>(monitors);
+        newMonitors.add(monitor);
+        monitors = newMonitors;
             
-        // Listen to throughput alerts 
+        // Listen to the monitor's alerts 
         monitor.addAlertListener(new AlertListener() {
             public void alertTriggered(Alert alert)
             {
                 addAlert(alert);
             }
         });
+    }
+    
+    /**
+     * Adds a monitor, first filling its window with the requests of the recent seconds.
+     * Only the requests, bytes and errors per second are kept, so other metrics, such as 
+     * response times, start empty. The monitor is not started.
+     * @param monitor The monitor to add
+     * @param window The time window (in milliseconds) of the monitor
+     * @param currentTime The end of the monitor's window
+     */
+    public synchronized void addMonitor(MetricMonitor monitor, long window, long currentTime)
+    {
+        monitor.addDelta(recentTraffic.getDelta(currentTime, window), currentTime);
+        addMonitor(monitor);
+    }
+    
+    /**
+     * Removes a monitor, which no longer receives logs. The monitor is not stopped.
+     * @param monitor The monitor to remove
+     */
+    public synchronized void removeMonitor(MetricMonitor monitor)
+    {
+        ArrayList<MetricMonitor> newMonitors = new ArrayList<MetricMonitor>(monitors);
+        newMonitors.remove(monitor);
+        monitors = newMonitors;
+    }
+    
+    /**
+     * Returns the monitors which receive every analyzed log
+     */
+    public ArrayList<MetricMonitor> getMonitors()
+    {
+        return monitors;
+    }
+    
+    /**
+     * Checks every monitor for critical values at the given time.
+     * Used when logs are replayed faster than real time.
+     * @param currentTime The time at which metrics are monitored
+     */
+    public void updateMonitors(long currentTime)
+    {
+        ArrayList<MetricMonitor> monitors = this.monitors;
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            monitors.get(i).update(currentTime);
+        }
+    }
+    
+    /**
+     * Seeds this manager with logs written before it started. The total metrics receive
+     * every log, while the monitors only receive the logs recent enough to fall in their
+     * windows, counted at their own timestamps.
+     * @param history The metrics of every log
+     * @param recent The metrics of the recent logs
+     * @param lastLogTime The timestamp of the last log
+     */
+    public synchronized void seed(Metrics history, MetricsDelta recent, long lastLogTime)
+    {
+        totalMetrics.merge(history);
+        recentTraffic.add(recent);
+        ArrayList<MetricMonitor> monitors = this.monitors;
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            monitors.get(i).addDelta(recent, lastLogTime);
+        }
+        checkMemoryBudget();
+    }
+    
+    /**
+     * Starts recording the metrics of analyzed logs in deltas, which are retrieved with takeDelta()
+     */
+    public synchronized void collectDeltas()
+    {
+        if (delta == null)
+            delta = new MetricsDelta();
+    }
+    
+    /**
+     * Returns the metrics recorded since the last delta was taken, and starts a new delta
+     * @return The metrics recorded since the last call, or null if deltas are not collected
+     */
+    public synchronized MetricsDelta takeDelta()
+    {
+        MetricsDelta previousDelta = delta;
+        if (previousDelta != null)
+            delta = new MetricsDelta();
+        return previousDelta;
+    }
+    
+    /**
+     * Adds metrics recorded by another manager to this manager's metrics and monitors
+     * @param otherDelta The metrics recorded by the other manager
+     */
+    public void merge(MetricsDelta otherDelta)
+    {
+        merge(otherDelta, System.currentTimeMillis());
+    }
+    
+    /**
+     * Adds metrics recorded by another manager to this manager's metrics and monitors
+     * @param otherDelta The metrics recorded by the other manager
+     * @param currentTime The time at which the delta is merged
+     */
+    private synchronized void merge(MetricsDelta otherDelta, long currentTime)
+    {
+        currentMetrics.merge(otherDelta.metrics);
+        totalMetrics.merge(otherDelta.metrics);
+        if (delta != null)
+            delta.merge(otherDelta);
+        recentTraffic.add(otherDelta);
         
-        // Start monitoring throughput in a new thread
-        Thread monitorThread = new Thread(monitor);
-        monitorThread.start();
+        ArrayList<MetricMonitor> monitors = this.monitors;
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            monitors.get(i).addDelta(otherDelta, currentTime);
+        }
+        checkMemoryBudget();
+    }
+    
+    /**
+     * Limits the memory retained by the metrics and alerts. Once the estimate reaches the limit, 
+     * the oldest alerts are dropped, then the sections of each website are limited, then the 
+     * websites with the fewest hits are evicted, until the estimate is back under TRIM_RATIO 
+     * of the limit. The windows of the monitors have a fixed size, so they are left as they are.
+     * @param limit The most bytes the metrics and alerts may retain, or 0 if they are not limited
+     */
+    public void setMemoryBudget(long limit)
+    {
+        memoryBudget.setLimit(limit);
+        checkMemoryBudget();
+    }
+    
+    /**
+     * Returns the budget which estimates and limits the memory retained by the metrics and alerts
+     */
+    public MemoryBudget getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+    
+    /**
+     * Updates the estimate of the memory retained by the metrics and alerts, and trims them
+     * if the estimate exceeds the budget
+     */
+    private void checkMemoryBudget()
+    {
+        if (memoryBudget.update(currentMetrics, totalMetrics, alerts.size()))
+            trimToBudget();
+    }
+    
+    /**
+     * Trims the metrics and alerts until their estimated memory is under the budget's trim target
+     */
+    private synchronized void trimToBudget()
+    {
+        long target = memoryBudget.getTrimTarget();
+        
+        // Only the most recent alerts are worth printing
+        synchronized (alerts)
+        {
+            if (alerts.size() > MemoryBudget.KEPT_ALERTS)
+            {
+                trimmedAlerts += alerts.size() - MemoryBudget.KEPT_ALERTS;
+                alerts.subList(0, alerts.size() - MemoryBudget.KEPT_ALERTS).clear();
+            }
+        }
+        ArrayList<MetricMonitor> monitors = this.monitors;
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            monitors.get(i).trimAlerts(MemoryBudget.KEPT_ALERTS);
+        }
+        
+        if (isOverTarget(target))
+        {
+            currentMetrics.limitSections(MemoryBudget.KEPT_SECTIONS);
+            totalMetrics.limitSections(MemoryBudget.KEPT_SECTIONS);
+        }
+        
+        if (isOverTarget(target))
+        {
+            // Evict the same share of websites from both metrics, leaving room for the sketches of their hits
+            long fixedBytes = memoryBudget.getAlertBytes() + 2 * MemoryBudget.SKETCH_BYTES;
+            long websiteBytes = memoryBudget.getCurrentBytes() + memoryBudget.getTotalBytes();
+            double kept = Math.max(0, target - fixedBytes) / (double) websiteBytes;
+            currentMetrics.trimWebsites((int) (currentMetrics.websites.size() * kept));
+            totalMetrics.trimWebsites((int) (totalMetrics.websites.size() * kept));
+        }
+        
+        memoryBudget.update(currentMetrics, totalMetrics, alerts.size());
+        memoryBudget.trimmed();
+    }
+    
+    /**
+     * Updates the estimate of the retained memory, and returns true if it exceeds the given target
+     */
+    private boolean isOverTarget(long target)
+    {
+        memoryBudget.update(currentMetrics, totalMetrics, alerts.size());
+        return memoryBudget.getRetainedBytes() > target;
     }
     
     /** 
@@ -154,6 +637,14 @@ public class MetricManager
         return alerts;
     }
     
+    /**
+     * Returns the number of alerts triggered, including those dropped from the history to save memory
+     */
+    public int getAlertCount()
+    {
+        return trimmedAlerts + alerts.size();
+    }
+    
     /**
      * Returns all metrics recorded since the last flush
      * @return The metrics recorded since the last flush
@@ -178,28 +669,59 @@ public class MetricManager
      */
     private void addAlert(Alert alert)
     {
-        alerts.add(alert);
+        synchronized (alerts)
+        {
+            alerts.add(alert);
+        }
         // Log the alert right when it happens
         System.out.println(alert);
     }
     
     /**
-     * Extracts the website section which was hit in this log
-     * @param log The log line to analyze
-     * @return The website section contained in this log
+     * Extracts the section of a URL, e.g. "/pages" for "/pages/create"
+     * @param url The requested URL
+     * @return The section of the URL, or an empty string if the URL has no section
+     */
+    public static String getSection(CharSequence url)
+    {
+        return url.subSequence(0, getSectionLength(url)).toString();
+    }
+    
+    /**
+     * Returns the length of a URL's section, which spans its first two slash-separated fields
+     * @param url The requested URL
+     * @return The number of characters at the start of the URL that form its section,
+     *         or zero if the URL has no section
      */
-    private String getWebsiteSection(Log log)
+    private static int getSectionLength(CharSequence url)
     {
-        if (log == null || log.requestUrl == null || log.host == null)
-            return null;
+        int length = url.length();
+        int firstSlash = indexOf(url, '/', 0);
+        if (firstSlash < 0)
+            return 0;
         
-        String[] urlFields = log.requestUrl.split("/");
-        String section = log.host;
-        if (urlFields.length > 1)
+        // Trailing empty fields do not count as a section
+        int end = firstSlash;
+        while (end < length && url.charAt(end) == '/')
+            end++;
+        if (end == length)
+            return 0;
+        
+        int secondSlash = indexOf(url, '/', firstSlash + 1);
+        return (secondSlash < 0)? length : secondSlash;
+    }
+    
+    /**
+     * Returns the index of the first occurrence of a character at or after the given index
+     * @return The index of the character, or -1 if it does not occur
+     */
+    private static int indexOf(CharSequence text, char c, int start)
+    {
+        for (int i = start; i < text.length(); i++)
         {
-            section += urlFields[0] + "/" + urlFields[1];
+            if (text.charAt(i) == c)
+                return i;
         }
-        
-        return section;
+        return -1;
     }
-}
\ No newline at end of file
+}
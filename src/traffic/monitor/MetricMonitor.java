@@ -0,0 +1,200 @@
+package traffic.monitor;
+
+import java.util.ArrayList;
+
+import traffic.log.Log;
+import traffic.stats.AlertEvent;
+import traffic.stats.TrafficMonitorStats;
+
+/**
+ * Monitors one metric of the analyzed logs and triggers alerts when it reaches a critical value.
+ * A monitor is fed every analyzed log, and checks its metric every "delay" milliseconds
+ * when it runs in its own thread, unless it schedules its checks itself.
+ */
+public abstract class MetricMonitor implements Runnable
+{
+    /** The alerts generated by this monitor */
+    private ArrayList<Alert> alerts;
+    /** Listeners that are notified whenever this monitor triggers an alert */
+    private ArrayList<AlertListener> alertListeners;
+
+    /** Every "delay" milliseconds, the metric is checked for critical values */
+    private long delay;
+    /** False once the monitor was asked to stop */
+    private volatile boolean running = true;
+
+    /**
+     * Creates a monitor
+     * @param delay Every "delay" milliseconds, the metric is checked for critical values
+     */
+    protected MetricMonitor(long delay)
+    {
+        if (delay <= 0)
+            throw new IllegalArgumentException("MetricMonitor requires a positive delay");
+
+        this.delay = delay;
+        alerts = new ArrayList<Alert>();
+        alertListeners = new ArrayList<AlertListener>();
+    }
+
+    /**
+     * Checks the metric regularly for critical values
+     */
+    public void run()
+    {
+        TrafficMonitorStats stats = TrafficMonitorStats.getInstance();
+        stats.monitorThreadStarted();
+        try
+        {
+            while (running)
+            {
+                long startTime = System.nanoTime();
+                long currentTime = System.currentTimeMillis();
+                update(currentTime);
+                stats.monitorUpdated(System.nanoTime() - startTime);
+
+                // Sleep until the next check is due, or until the monitor is woken up
+                try
+                {
+                    synchronized (this)
+                    {
+                        long nextUpdateTime = getNextUpdateTime(currentTime);
+                        long timeout = nextUpdateTime - System.currentTimeMillis();
+                        if (running && nextUpdateTime == Long.MAX_VALUE)
+                            wait();
+                        else if (running && timeout > 0)
+                            wait(timeout);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    System.out.println(e.getStackTrace());
+                }
+            }
+        }
+        finally
+        {
+            stats.monitorThreadStopped();
+        }
+    }
+
+    /**
+     * Stops checking the metric once the current check is done
+     */
+    public void stop()
+    {
+        running = false;
+        wakeUp();
+    }
+    
+    /**
+     * Wakes the monitor's thread, which checks the metric and schedules its next check again.
+     * Called when the monitor's state changed in a way that moves its next check earlier.
+     */
+    protected synchronized void wakeUp()
+    {
+        notifyAll();
+    }
+    
+    /**
+     * Returns when the metric should next be checked by the monitor's thread. By default, 
+     * the metric is checked every "delay" milliseconds. Called while holding the monitor's lock.
+     * @param currentTime The time of the last check
+     * @return The time of the next check, or Long.MAX_VALUE to wait until the monitor is woken up
+     */
+    protected long getNextUpdateTime(long currentTime)
+    {
+        return currentTime + delay;
+    }
+    
+    /**
+     * Checks the metric for critical values, triggering an alert if its state changed
+     * @param currentTime The current time of the system
+     */
+    public abstract void update(long currentTime);
+
+    /**
+     * Adds an analyzed log to the monitored metric
+     * @param log The analyzed log
+     * @param currentTime The timestamp at which the log is counted
+     */
+    public abstract void addLog(Log log, long currentTime);
+
+    /**
+     * Adds the logs analyzed by another metric manager to the monitored metric
+     * @param delta The metrics recorded by the other manager
+     * @param currentTime The time at which the delta is merged
+     */
+    public abstract void addDelta(MetricsDelta delta, long currentTime);
+
+    /**
+     * Adds a listener that will be notified whenever an alert is triggered
+     * @param listener The listener to notify
+     */
+    public void addAlertListener(AlertListener listener)
+    {
+        alertListeners.add(listener);
+    }
+
+    /**
+     * Returns the alerts generated by this monitor
+     * @return A list of alerts triggered by the monitor
+     */
+    public ArrayList<Alert> getAlerts()
+    {
+        return alerts;
+    }
+
+    /**
+     * Drops the oldest alerts to save memory, keeping the most recent ones
+     * @param count The number of alerts to keep
+     */
+    public void trimAlerts(int count)
+    {
+        synchronized (alerts)
+        {
+            if (alerts.size() > count)
+                alerts.subList(0, alerts.size() - count).clear();
+        }
+    }
+
+    /**
+     * Returns true if the monitored metric is currently at a critical value
+     * @return True if the monitor's last alert was a critical alert
+     */
+    public boolean isAlerting()
+    {
+        synchronized (alerts)
+        {
+            return !alerts.isEmpty() && !alerts.get(alerts.size() - 1).isRecovery();
+        }
+    }
+    
+    /**
+     * Stores the given alert and notifies listeners that it was triggered
+     * @param alert The alert that was triggered
+     */
+    protected void addAlert(Alert alert)
+    {
+        synchronized (alerts)
+        {
+            alerts.add(alert);
+        }
+        // Record the alert when a flight recording enables the event
+        AlertEvent event = new AlertEvent();
+        if (event.shouldCommit())
+        {
+            event.monitor = getClass().getSimpleName();
+            event.message = alert.toString();
+            event.recovery = alert.isRecovery();
+            event.alertTime = alert.getTimestamp();
+            event.commit();
+        }
+        
+        // Notify listeners that the alert was triggered
+        for (int i = 0; i < alertListeners.size(); i++)
+        {
+            alertListeners.get(i).alertTriggered(alert);
+        }
+    }
+}
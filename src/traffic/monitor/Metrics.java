@@ -1,12 +1,32 @@
 package traffic.monitor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Stores metrics for HTTP request monitoring
  */
 public class Metrics
 {
+    /** The maximum number of sections whose response times are recorded */
+    public static final int MAX_LATENCY_SECTIONS = 64;
+    /** The maximum number of sections whose served bytes are counted */
+    public static final int MAX_BYTES_SECTIONS = 1024;
+    /** The number of path segments counted in the section tree, e.g. 3 for "/api/v2/orders" */
+    public static final int SECTION_TREE_DEPTH = 3;
+    /** The maximum number of segments counted under each path of the section tree */
+    public static final int SECTION_TREE_CHILDREN = 32;
+    /** The maximum number of nodes in the subnet tree, which bounds its memory under scanning traffic */
+    public static final int SUBNET_TREE_NODES = 4096;
+    /** The number of rows in the sketch of evicted websites' hits */
+    public static final int EVICTED_SKETCH_DEPTH = 4;
+    /** The number of counters in each row of the sketch of evicted websites' hits */
+    public static final int EVICTED_SKETCH_WIDTH = 8192;
+    
     /** The websites which received requests */
     public HashMap<String, Website> websites; 
     /** Max hits for a website */
@@ -18,14 +38,51 @@ public class Metrics
     public HashMap<Character, Integer> statusCodeCounts;
     /** Total requests logged since this metrics object was last reset */
     public int totalRequests;
+    /** Total bytes served since this metrics object was last reset */
+    public long totalBytes;
+    
+    /** The response times of every request */
+    public LatencyHistogram latency;
+    /** The response times of each section, e.g. "/pages", for the first sections hit */
+    public HashMap<String, LatencyHistogram> sectionLatencies;
+    /** The bytes served by each section, e.g. "/pages", for the first sections hit */
+    public HashMap<String, ByteCounter> sectionBytes;
+    /** The requests and bytes under each path prefix, e.g. "/api", "/api/v2" */
+    public SectionTrie sectionTree;
+    /** The requests from each client subnet, e.g. "10.1.2.0/24", "10.1.0.0/16" */
+    public SubnetTrie subnetTree;
+    
+    /** The number of sections recorded across every website */
+    private long sectionCount;
+    /** The most sections recorded for each website, which is lowered to save memory */
+    private int sectionLimit = Integer.MAX_VALUE;
+    /** The hits of the websites evicted to save memory, by hostname. Null until a website is evicted */
+    private CountMinSketch evictedHits;
+    /** The number of websites evicted to save memory */
+    private long evictedWebsites;
     
     /** The timestamp when the metrics started to be recorded */
     private long startTime;    
+    /** The website of the last analyzed log, since consecutive logs often share a host */
+    private Website lastWebsite;
+    /** The section of the last recorded response time */
+    private String lastLatencySection;
+    /** The response times of the last section, or null if they are not recorded */
+    private LatencyHistogram lastSectionLatency;
+    /** The section of the last recorded byte count */
+    private String lastBytesSection;
+    /** The bytes served by the last section, or null if they are not counted */
+    private ByteCounter lastSectionBytes;
     
     public Metrics()
     {
         websites = new HashMap<String, Website>();
         statusCodeCounts = new HashMap<Character, Integer>();
+        latency = new LatencyHistogram();
+        sectionLatencies = new HashMap<String, LatencyHistogram>();
+        sectionBytes = new HashMap<String, ByteCounter>();
+        sectionTree = new SectionTrie(SECTION_TREE_DEPTH, SECTION_TREE_CHILDREN);
+        subnetTree = new SubnetTrie(SUBNET_TREE_NODES);
         
         reset();
     }
@@ -36,14 +93,355 @@ public class Metrics
     public void reset()
     {
         websites.clear();
+        sectionCount = 0;
+        evictedHits = null;
+        evictedWebsites = 0;
         maxSiteHits = 0;
         maxSite = null;
         statusCodeCounts.clear();
         totalRequests = 0;
+        totalBytes = 0;
+        lastWebsite = null;
+        latency.reset();
+        sectionLatencies.clear();
+        lastLatencySection = null;
+        lastSectionLatency = null;
+        sectionBytes.clear();
+        lastBytesSection = null;
+        lastSectionBytes = null;
+        sectionTree.reset();
+        subnetTree.reset();
         
         startTime = System.currentTimeMillis();
     }
     
+    /**
+     * Returns the website with the given hostname, adding it if it has not received requests yet.
+     * The hostname is only copied into a string when it differs from the last website's.
+     * @param host The hostname of the website
+     * @return The website with the given hostname
+     */
+    public Website getWebsite(CharSequence host)
+    {
+        if (lastWebsite != null && contentEquals(lastWebsite.getName(), host))
+            return lastWebsite;
+        
+        String name = host.toString();
+        Website website = websites.get(name);
+        if (website == null)
+            website = addWebsite(name);
+        lastWebsite = website;
+        return website;
+    }
+    
+    /**
+     * Adds a website, restoring its hits if it was evicted to save memory
+     * @param name The hostname of the website
+     * @return The new website
+     */
+    private Website addWebsite(String name)
+    {
+        Website website = new Website(name);
+        if (evictedHits != null)
+            website.restoreHits(evictedHits.estimate(CountMinSketch.hash(name)));
+        websites.put(name, website);
+        return website;
+    }
+    
+    /**
+     * Records the section of a URL hit on a website, unless the website already has as
+     * many sections as are recorded
+     * @param website The website that was hit
+     * @param url The requested URL
+     * @param sectionLength The number of characters at the start of the URL that form its section
+     */
+    public void addSection(Website website, CharSequence url, int sectionLength)
+    {
+        if (website.getSections().size() < sectionLimit && website.addSection(url, sectionLength))
+            sectionCount++;
+    }
+    
+    /**
+     * Evicts the websites with the fewest hits, keeping the website with the most hits.
+     * The hits of evicted websites are kept in a sketch, and restored if they are hit again,
+     * while their bytes and sections are dropped.
+     * @param count The number of websites to keep
+     */
+    public void trimWebsites(int count)
+    {
+        if (websites.size() <= count)
+            return;
+        
+        ArrayList<Website> sites = new ArrayList<Website>(websites.values());
+        Collections.sort(sites, new Comparator<Website>() {
+            public int compare(Website a, Website b)
+            {
+                return Integer.compare(b.getHits(), a.getHits());
+            }
+        });
+        
+        if (evictedHits == null)
+            evictedHits = new CountMinSketch(EVICTED_SKETCH_DEPTH, EVICTED_SKETCH_WIDTH);
+        for (int i = Math.max(count, 1); i < sites.size(); i++)
+        {
+            Website website = sites.get(i);
+            if (website == maxSite)
+                continue;
+            // Restored hits are already in the sketch
+            evictedHits.add(CountMinSketch.hash(website.getName()), website.getHits() - website.getRestoredHits());
+            sectionCount -= website.getSections().size();
+            websites.remove(website.getName());
+            evictedWebsites++;
+        }
+        lastWebsite = null;
+    }
+    
+    /**
+     * Limits the number of sections recorded for each website, dropping the sections beyond it
+     * @param limit The most sections recorded for each website
+     */
+    public void limitSections(int limit)
+    {
+        sectionLimit = limit;
+        for (Website website : websites.values())
+        {
+            Iterator<String> sections = website.getSections().iterator();
+            for (int kept = 0; sections.hasNext(); kept++)
+            {
+                sections.next();
+                if (kept >= limit)
+                {
+                    sections.remove();
+                    sectionCount--;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of sections recorded across every website
+     */
+    public long getSectionCount()
+    {
+        return sectionCount;
+    }
+    
+    /**
+     * Returns the most sections recorded for each website
+     */
+    public int getSectionLimit()
+    {
+        return sectionLimit;
+    }
+    
+    /**
+     * Returns the number of websites evicted to save memory
+     */
+    public long getEvictedWebsites()
+    {
+        return evictedWebsites;
+    }
+    
+    /**
+     * Returns true if the hits of evicted websites are kept in a sketch
+     */
+    public boolean hasEvictedHits()
+    {
+        return evictedHits != null;
+    }
+    
+    /**
+     * Records the response time of a request, both globally and for the requested section.
+     * The section's name is only copied into a string when it differs from the last section's.
+     * @param url The requested URL
+     * @param sectionLength The number of characters at the start of the URL that form its section
+     * @param responseTime The response time in microseconds
+     */
+    public void recordLatency(CharSequence url, int sectionLength, long responseTime)
+    {
+        latency.record(responseTime);
+        
+        if (lastLatencySection == null || !contentEquals(lastLatencySection, url, sectionLength))
+        {
+            lastLatencySection = url.subSequence(0, sectionLength).toString();
+            lastSectionLatency = getSectionLatency(lastLatencySection);
+        }
+        if (lastSectionLatency != null)
+            lastSectionLatency.record(responseTime);
+    }
+    
+    /**
+     * Returns the response times of a section, adding the section if there is room for it
+     * @param section The section, e.g. "/pages"
+     * @return The section's response times, or null if too many sections are recorded
+     */
+    private LatencyHistogram getSectionLatency(String section)
+    {
+        LatencyHistogram histogram = sectionLatencies.get(section);
+        if (histogram == null && sectionLatencies.size() < MAX_LATENCY_SECTIONS)
+        {
+            histogram = new LatencyHistogram();
+            sectionLatencies.put(section, histogram);
+        }
+        return histogram;
+    }
+    
+    /**
+     * Counts the bytes served by a request, both globally and for the requested section.
+     * The section's name is only copied into a string when it differs from the last section's.
+     * @param url The requested URL
+     * @param sectionLength The number of characters at the start of the URL that form its section
+     * @param bytes The number of bytes served
+     */
+    public void recordBytes(CharSequence url, int sectionLength, long bytes)
+    {
+        totalBytes += bytes;
+        
+        if (lastBytesSection == null || !contentEquals(lastBytesSection, url, sectionLength))
+        {
+            lastBytesSection = url.subSequence(0, sectionLength).toString();
+            lastSectionBytes = getSectionBytes(lastBytesSection);
+        }
+        if (lastSectionBytes != null)
+            lastSectionBytes.add(bytes);
+    }
+    
+    /**
+     * Returns the bytes served by a section, adding the section if there is room for it
+     * @param section The section, e.g. "/pages"
+     * @return The section's byte count, or null if too many sections are counted
+     */
+    private ByteCounter getSectionBytes(String section)
+    {
+        ByteCounter counter = sectionBytes.get(section);
+        if (counter == null && sectionBytes.size() < MAX_BYTES_SECTIONS)
+        {
+            counter = new ByteCounter();
+            sectionBytes.put(section, counter);
+        }
+        return counter;
+    }
+    
+    /**
+     * Returns true if the string holds the first "length" characters of the sequence
+     */
+    private static boolean contentEquals(String a, CharSequence b, int length)
+    {
+        if (a.length() != length)
+            return false;
+        for (int i = length - 1; i >= 0; i--)
+        {
+            if (a.charAt(i) != b.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Returns true if both sequences contain the same characters
+     */
+    private static boolean contentEquals(String a, CharSequence b)
+    {
+        return contentEquals(a, b, b.length());
+    }
+    
+    /**
+     * Adds the metrics recorded by another metrics object to these metrics
+     * @param other The metrics to merge into these metrics
+     */
+    public void merge(Metrics other)
+    {
+        for (Website otherWebsite : other.websites.values())
+        {
+            Website website = websites.get(otherWebsite.getName());
+            if (website == null)
+                website = addWebsite(otherWebsite.getName());
+            website.addHits(otherWebsite.getHits());
+            website.addBytes(otherWebsite.getBytes());
+            HashSet<String> sections = website.getSections();
+            for (String section : otherWebsite.getSections())
+            {
+                if (sections.size() >= sectionLimit)
+                    break;
+                if (sections.add(section))
+                    sectionCount++;
+            }
+            
+            if (website.getHits() > maxSiteHits)
+            {
+                // Update site with max hits
+                maxSiteHits = website.getHits();
+                maxSite = website;
+            }
+        }
+        
+        for (Map.Entry<Character, Integer> entry : other.statusCodeCounts.entrySet())
+        {
+            Integer count = statusCodeCounts.get(entry.getKey());
+            statusCodeCounts.put(entry.getKey(), (count != null)? count + entry.getValue() : entry.getValue());
+        }
+        
+        totalRequests += other.totalRequests;
+        totalBytes += other.totalBytes;
+        
+        latency.merge(other.latency);
+        for (Map.Entry<String, LatencyHistogram> entry : other.sectionLatencies.entrySet())
+        {
+            LatencyHistogram histogram = getSectionLatency(entry.getKey());
+            if (histogram != null)
+                histogram.merge(entry.getValue());
+        }
+        for (Map.Entry<String, ByteCounter> entry : other.sectionBytes.entrySet())
+        {
+            ByteCounter counter = getSectionBytes(entry.getKey());
+            if (counter != null)
+                counter.add(entry.getValue().getBytes());
+        }
+        sectionTree.merge(other.sectionTree);
+        subnetTree.merge(other.subnetTree);
+    }
+    
+    /**
+     * Returns the websites that served the most bytes
+     * @param count The maximum number of websites to return
+     * @return The websites, in decreasing order of bytes served
+     */
+    public ArrayList<Website> getTopWebsitesByBytes(int count)
+    {
+        ArrayList<Website> sites = new ArrayList<Website>(websites.values());
+        Collections.sort(sites, new Comparator<Website>() {
+            public int compare(Website a, Website b)
+            {
+                return Long.compare(b.getBytes(), a.getBytes());
+            }
+        });
+        
+        if (sites.size() > count)
+            return new ArrayList<Website>(sites.subList(0, count));
+        return sites;
+    }
+    
+    /**
+     * Returns the sections that served the most bytes
+     * @param count The maximum number of sections to return
+     * @return The sections and their byte counts, in decreasing order of bytes served
+     */
+    public ArrayList<Map.Entry<String, ByteCounter>> getTopSectionsByBytes(int count)
+    {
+        ArrayList<Map.Entry<String, ByteCounter>> sections = 
+                new ArrayList<Map.Entry<String, ByteCounter>>(sectionBytes.entrySet());
+        Collections.sort(sections, new Comparator<Map.Entry<String, ByteCounter>>() {
+            public int compare(Map.Entry<String, ByteCounter> a, Map.Entry<String, ByteCounter> b)
+            {
+                return Long.compare(b.getValue().getBytes(), a.getValue().getBytes());
+            }
+        });
+        
+        if (sections.size() > count)
+            return new ArrayList<Map.Entry<String, ByteCounter>>(sections.subList(0, count));
+        return sections;
+    }
+    
     /**
      * Returns the sections that were hit for the max-requested website
      * @return A list of sections for the max website. Returns ["None"] if no max site exists
@@ -78,6 +476,17 @@ public class Metrics
         return (statusCodeCounts.containsKey('2'))? statusCodeCounts.get('2')/(double)totalRequests: 0.0; 
     }
     
+    /**
+     * Returns the percentage of requests that returned a 5xx status
+     * @return A percentage of server errors as a string
+     */
+    public String getErrorPercent()
+    {
+        double errorRate = (statusCodeCounts.containsKey('5') && totalRequests > 0)? 
+                statusCodeCounts.get('5')/(double)totalRequests : 0.0;
+        return String.format("%.2f", errorRate*100) + "%";
+    }
+    
     /**
      * Returns the average requests per second since the last reset
      * @return The average RPS since the metrics were last reset
@@ -87,6 +496,15 @@ public class Metrics
         return totalRequests / getTimeSinceStart();
     }
     
+    /**
+     * Returns the average bytes served per second since the last reset
+     * @return The average bytes per second since the metrics were last reset
+     */
+    public double getBytesPerSecond()
+    {
+        return totalBytes / getTimeSinceStart();
+    }
+    
     /**
      * Returns the total amount of time the metrics have been recorded
      * @return Seconds that the metrics have been recorded for
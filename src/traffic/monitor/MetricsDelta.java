@@ -0,0 +1,40 @@
+package traffic.monitor;
+
+/**
+ * The metrics recorded since the last delta was taken from a metric manager.
+ * Deltas can be merged into another manager to combine the traffic of several monitors.
+ */
+public class MetricsDelta
+{
+    /** The metrics of the logs analyzed during the delta */
+    public Metrics metrics = new Metrics();
+    /** The number of requests made in each second of the delta */
+    public RequestBuckets requests = new RequestBuckets();
+    /** The number of bytes served in each second of the delta */
+    public RequestBuckets bytes = new RequestBuckets();
+    /** The number of requests that returned a 5xx status in each second of the delta */
+    public RequestBuckets errors = new RequestBuckets();
+    
+    /**
+     * Adds the metrics of another delta to this delta
+     * @param other The delta to merge into this one
+     */
+    public void merge(MetricsDelta other)
+    {
+        metrics.merge(other.metrics);
+        requests.merge(other.requests);
+        bytes.merge(other.bytes);
+        errors.merge(other.errors);
+    }
+    
+    /**
+     * Removes every metric from this delta, so it can be reused
+     */
+    public void reset()
+    {
+        metrics.reset();
+        requests.reset();
+        bytes.reset();
+        errors.reset();
+    }
+}
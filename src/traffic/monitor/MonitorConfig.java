@@ -0,0 +1,295 @@
+package traffic.monitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The monitors and print interval declared in a configuration file, e.g.
+ * <pre>
+ * print.interval = 10000
+ * memory.budget = 256
+ *
+ * monitor.traffic.type = throughput
+ * monitor.traffic.threshold = 1000
+ * monitor.traffic.window = 120000
+ *
+ * monitor.api-p99.type = latency
+ * monitor.api-p99.percentile = 99
+ * monitor.api-p99.threshold = 500000
+ * monitor.api-p99.window = 60000
+ *
+ * monitor.baseline.type = baseline
+ * monitor.baseline.deviations = 4
+ * </pre>
+ * Each monitor has a name, a type ("throughput", "burst", "bandwidth", "latency", "errors", "clients"
+ * or "baseline"), a window in milliseconds and an optional check interval, along with the thresholds
+ * of its type. The window of a baseline monitor defaults to the 15 minutes its baseline is weighted over.
+ * The memory budget, in megabytes, limits the memory retained by the metrics and alerts.
+ */
+public class MonitorConfig
+{
+    /** Milliseconds between printing metrics when the file does not set it */
+    public static final long DEFAULT_PRINT_INTERVAL = 10000;
+    /** Milliseconds covered by each bucket of a burst monitor when the file does not set it */
+    public static final long DEFAULT_BURST_BUCKET = 1000;
+    /** Milliseconds between checking a monitor when the file does not set it */
+    public static final long DEFAULT_MONITOR_INTERVAL = 100;
+    /** Standard deviations from its baseline that trigger a baseline monitor's alert when the file does not set it */
+    public static final double DEFAULT_BASELINE_DEVIATIONS = 4.0;
+    /** Requests per second below which a baseline monitor does not alert when the file does not set it */
+    public static final double DEFAULT_BASELINE_MIN_RATE = 1.0;
+
+    /** The prefix of the keys that declare monitors */
+    private static final String MONITOR_PREFIX = "monitor.";
+
+    /** Milliseconds between printing metrics */
+    private long printInterval = DEFAULT_PRINT_INTERVAL;
+    /** The most bytes retained by the metrics and alerts, or -1 if the file does not set it */
+    private long memoryBudget = -1;
+    /** The declared monitors, by name, in the order they were first declared */
+    private LinkedHashMap<String, MonitorSpec> monitors = new LinkedHashMap<String, MonitorSpec>();
+
+    /**
+     * Reads a configuration file
+     * @param file The file to read
+     * @return The configuration
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file declares an invalid monitor
+     */
+    public static MonitorConfig load(File file) throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            properties.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        return parse(properties);
+    }
+
+    /**
+     * Reads a configuration from properties
+     * @param properties The keys and values of the configuration
+     * @return The configuration
+     * @throws IllegalArgumentException If the properties declare an invalid monitor
+     */
+    public static MonitorConfig parse(Properties properties)
+    {
+        MonitorConfig config = new MonitorConfig();
+        // Sort the keys so monitors keep the same order between reloads
+        TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (String key : properties.stringPropertyNames())
+        {
+            sorted.put(key, properties.getProperty(key).trim());
+        }
+
+        for (String key : sorted.keySet())
+        {
+            String value = sorted.get(key);
+            if (key.equals("print.interval"))
+            {
+                config.printInterval = parseLong(key, value);
+                if (config.printInterval <= 0)
+                    throw new IllegalArgumentException("print.interval must be positive");
+            }
+            else if (key.equals("memory.budget"))
+            {
+                long megabytes = parseLong(key, value);
+                if (megabytes < 0)
+                    throw new IllegalArgumentException("memory.budget must not be negative");
+                config.memoryBudget = megabytes * 1024 * 1024;
+            }
+            else if (key.startsWith(MONITOR_PREFIX) && key.indexOf('.', MONITOR_PREFIX.length()) > 0)
+            {
+                int dot = key.indexOf('.', MONITOR_PREFIX.length());
+                String name = key.substring(MONITOR_PREFIX.length(), dot);
+                MonitorSpec spec = config.monitors.get(name);
+                if (spec == null)
+                {
+                    spec = new MonitorSpec(name);
+                    config.monitors.put(name, spec);
+                }
+                spec.settings.put(key.substring(dot + 1), value);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown setting " + key);
+            }
+        }
+
+        // Fail now rather than when the monitors are created
+        for (MonitorSpec spec : config.monitors.values())
+        {
+            spec.createMonitor();
+        }
+        return config;
+    }
+
+    /**
+     * Returns the milliseconds between printing metrics
+     */
+    public long getPrintInterval()
+    {
+        return printInterval;
+    }
+
+    /**
+     * Returns the most bytes retained by the metrics and alerts
+     * @return The budget in bytes, 0 if it is unlimited, or -1 if the file does not set it
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the declared monitors, by name
+     */
+    public LinkedHashMap<String, MonitorSpec> getMonitors()
+    {
+        return monitors;
+    }
+
+    /**
+     * Returns the longest window of the declared monitors
+     * @return The window in milliseconds, or 0 if no monitor is declared
+     */
+    public long getMaxWindow()
+    {
+        long window = 0;
+        for (MonitorSpec spec : monitors.values())
+        {
+            window = Math.max(window, spec.getWindow());
+        }
+        return window;
+    }
+
+    private static long parseLong(String key, String value)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(key + " must be an integer: " + value);
+        }
+    }
+
+    private static double parseDouble(String key, String value)
+    {
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(key + " must be a number: " + value);
+        }
+    }
+
+    /**
+     * The settings of one declared monitor. Two specs are equal if they have the same name
+     * and settings, in which case a reload keeps the running monitor.
+     */
+    public static class MonitorSpec
+    {
+        /** The name of the monitor */
+        private String name;
+        /** The monitor's settings, such as "type" and "threshold" */
+        private TreeMap<String, String> settings = new TreeMap<String, String>();
+
+        private MonitorSpec(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the monitor
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the time window (in milliseconds) of the monitor
+         */
+        public long getWindow()
+        {
+            return getLong("window", "baseline".equals(settings.get("type"))? BaselineMonitor.BASELINE_WINDOW : -1);
+        }
+
+        /**
+         * Creates a new monitor with these settings. The monitor is not started.
+         * @return The monitor
+         * @throws IllegalArgumentException If a setting is missing or invalid
+         */
+        public MetricMonitor createMonitor()
+        {
+            String type = settings.get("type");
+            if (type == null)
+                throw new IllegalArgumentException("Monitor " + name + " has no type");
+
+            long window = getWindow();
+            long interval = getLong("interval", DEFAULT_MONITOR_INTERVAL);
+            if (window <= 0)
+                throw new IllegalArgumentException("Monitor " + name + " requires a positive window");
+
+            if (type.equals("throughput"))
+                return new ThroughputMonitor(getDouble("threshold", -1), window, interval);
+            if (type.equals("burst"))
+                return new BurstMonitor(getDouble("threshold", -1), window, getLong("bucket", DEFAULT_BURST_BUCKET), interval);
+            if (type.equals("bandwidth"))
+                return new BandwidthMonitor(getDouble("threshold", -1), window, interval);
+            if (type.equals("latency"))
+                return new LatencyMonitor(getDouble("percentile", 99.0), getLong("threshold", -1), window, interval);
+            if (type.equals("errors"))
+            {
+                double threshold = getDouble("threshold", -1);
+                return new ErrorRateMonitor(threshold, getDouble("recovery", threshold / 2),
+                        getLong("min-requests", 0), window, interval);
+            }
+            if (type.equals("clients"))
+                return new ClientMonitor(getLong("threshold", -1), window, interval);
+            if (type.equals("baseline"))
+                return new BaselineMonitor(getDouble("deviations", DEFAULT_BASELINE_DEVIATIONS),
+                        getDouble("min-rate", DEFAULT_BASELINE_MIN_RATE), interval);
+            throw new IllegalArgumentException("Monitor " + name + " has an unknown type: " + type);
+        }
+
+        private long getLong(String setting, long defaultValue)
+        {
+            String value = settings.get(setting);
+            return (value != null)? parseLong(MONITOR_PREFIX + name + "." + setting, value) : defaultValue;
+        }
+
+        private double getDouble(String setting, double defaultValue)
+        {
+            String value = settings.get(setting);
+            return (value != null)? parseDouble(MONITOR_PREFIX + name + "." + setting, value) : defaultValue;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof MonitorSpec))
+                return false;
+            MonitorSpec spec = (MonitorSpec) other;
+            return name.equals(spec.name) && settings.equals(spec.settings);
+        }
+
+        public int hashCode()
+        {
+            return name.hashCode() * 31 + settings.hashCode();
+        }
+    }
+}
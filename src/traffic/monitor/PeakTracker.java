@@ -0,0 +1,167 @@
+package traffic.monitor;
+
+/**
+ * Tracks the busiest bucket (such as the busiest second) within a sliding time window.
+ *
+ * Requests are counted in the open bucket. When a later bucket opens, the closed bucket
+ * joins a monotonic deque, which drops every bucket that is not busier than it: such
+ * buckets expire first, so they can never be the peak again. The deque's counts therefore
+ * decrease from its front, where the peak of the window is found. Each bucket enters and
+ * leaves the deque once, so counting a request takes O(1) amortized time, and only the
+ * buckets that may still become the peak are stored.
+ */
+public class PeakTracker
+{
+    /** The number of milliseconds covered by each bucket */
+    private long bucketLength;
+    /** The time window (in milliseconds) over which the peak is found */
+    private long timeWindow;
+
+    /** The index of the open bucket, counted from the epoch */
+    private long openBucket = Long.MIN_VALUE;
+    /** The number of requests in the open bucket */
+    private long openCount;
+
+    /** The index of each closed bucket in the deque, as a ring buffer */
+    private long[] bucketIds = new long[16];
+    /** The number of requests in each closed bucket in the deque */
+    private long[] bucketCounts = new long[16];
+    /** The index of the deque's front, which holds the busiest closed bucket */
+    private int head;
+    /** The number of buckets in the deque */
+    private int size;
+
+    /** The most requests counted in one bucket since the start */
+    private long maxCount;
+
+    /**
+     * Creates a tracker for the busiest bucket in a time window
+     * @param bucketLength The number of milliseconds covered by each bucket
+     * @param timeWindow The time window (in milliseconds) over which the peak is found
+     */
+    public PeakTracker(long bucketLength, long timeWindow)
+    {
+        if (bucketLength <= 0 || timeWindow < bucketLength)
+            throw new IllegalArgumentException("PeakTracker requires a window at least as long as its buckets");
+
+        this.bucketLength = bucketLength;
+        this.timeWindow = timeWindow;
+    }
+
+    /**
+     * Counts requests made at the given time. Requests older than the open bucket,
+     * which arrive out of order, are counted in the open bucket.
+     * @param timestamp The time when the requests were made
+     * @param count The number of requests
+     */
+    public void add(long timestamp, long count)
+    {
+        if (count <= 0)
+            return;
+
+        long bucket = Math.floorDiv(timestamp, bucketLength);
+        if (bucket > openBucket)
+        {
+            closeBucket();
+            openBucket = bucket;
+            openCount = 0;
+        }
+        openCount += count;
+        maxCount = Math.max(maxCount, openCount);
+    }
+
+    /**
+     * Drops the buckets that started before the time window
+     * @param currentTime The end of the time window
+     */
+    public void expire(long currentTime)
+    {
+        long expiration = currentTime - timeWindow;
+        while (size > 0 && bucketIds[head] * bucketLength < expiration)
+        {
+            head = (head + 1) % bucketIds.length;
+            size--;
+        }
+        if (openBucket * bucketLength < expiration)
+            openCount = 0;
+    }
+
+    /**
+     * Returns the most requests counted in one bucket of the time window
+     */
+    public long getPeakCount()
+    {
+        return (size > 0)? Math.max(bucketCounts[head], openCount) : openCount;
+    }
+
+    /**
+     * Returns the requests per second of the busiest bucket in the time window
+     */
+    public double getPeakRate()
+    {
+        return getPeakCount() * 1000.0 / bucketLength;
+    }
+
+    /**
+     * Returns the requests per second of the busiest bucket since the start
+     */
+    public double getMaxRate()
+    {
+        return maxCount * 1000.0 / bucketLength;
+    }
+
+    /**
+     * Returns the number of milliseconds covered by each bucket
+     */
+    public long getBucketLength()
+    {
+        return bucketLength;
+    }
+
+    /**
+     * Returns the time window (in milliseconds) over which the peak is found
+     */
+    public long getTimeWindow()
+    {
+        return timeWindow;
+    }
+
+    /**
+     * Moves the open bucket to the back of the deque, after dropping the buckets that are not busier
+     */
+    private void closeBucket()
+    {
+        if (openCount == 0)
+            return;
+
+        while (size > 0 && bucketCounts[(head + size - 1) % bucketIds.length] <= openCount)
+        {
+            size--;
+        }
+        if (size == bucketIds.length)
+            grow();
+
+        int tail = (head + size) % bucketIds.length;
+        bucketIds[tail] = openBucket;
+        bucketCounts[tail] = openCount;
+        size++;
+    }
+
+    /**
+     * Doubles the capacity of the deque, moving its front to index zero
+     */
+    private void grow()
+    {
+        int capacity = bucketIds.length;
+        long[] ids = new long[capacity * 2];
+        long[] counts = new long[capacity * 2];
+        for (int i = 0; i < size; i++)
+        {
+            ids[i] = bucketIds[(head + i) % capacity];
+            counts[i] = bucketCounts[(head + i) % capacity];
+        }
+        bucketIds = ids;
+        bucketCounts = counts;
+        head = 0;
+    }
+}
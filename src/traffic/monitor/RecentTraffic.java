@@ -0,0 +1,96 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Counts the requests, bytes and 5xx responses of each second over the past hour, so
+ * monitors created while logs are being analyzed can start with a full window
+ */
+public class RecentTraffic
+{
+    /** The number of seconds that are kept */
+    public static final int MAX_SECONDS = 3600;
+
+    /** The second (timestamp divided by 1000) counted in each slot */
+    private long[] seconds = new long[MAX_SECONDS];
+    /** The number of requests made in each slot's second */
+    private long[] requests = new long[MAX_SECONDS];
+    /** The number of bytes served in each slot's second */
+    private long[] bytes = new long[MAX_SECONDS];
+    /** The number of 5xx responses in each slot's second */
+    private long[] errors = new long[MAX_SECONDS];
+
+    public RecentTraffic()
+    {
+        Arrays.fill(seconds, Long.MIN_VALUE);
+    }
+
+    /**
+     * Counts requests made at the given time. Requests older than an hour before the
+     * latest second in their slot are ignored.
+     * @param timestamp The time when the requests were made
+     * @param requestCount The number of requests
+     * @param byteCount The number of bytes they served
+     * @param errorCount The number of them that returned a 5xx status
+     */
+    public synchronized void add(long timestamp, long requestCount, long byteCount, long errorCount)
+    {
+        long second = Math.floorDiv(timestamp, 1000);
+        int slot = (int) Math.floorMod(second, (long) MAX_SECONDS);
+        if (seconds[slot] > second)
+            return;
+        if (seconds[slot] != second)
+        {
+            seconds[slot] = second;
+            requests[slot] = 0;
+            bytes[slot] = 0;
+            errors[slot] = 0;
+        }
+        requests[slot] += requestCount;
+        bytes[slot] += byteCount;
+        errors[slot] += errorCount;
+    }
+
+    /**
+     * Counts the requests, bytes and errors of each second of a delta
+     * @param delta The delta recorded by another manager
+     */
+    public void add(MetricsDelta delta)
+    {
+        for (int i = 0; i < delta.requests.getLength(); i++)
+        {
+            add((delta.requests.getFirstSecond() + i) * 1000, delta.requests.getCount(i), 0, 0);
+        }
+        for (int i = 0; i < delta.bytes.getLength(); i++)
+        {
+            add((delta.bytes.getFirstSecond() + i) * 1000, 0, delta.bytes.getCount(i), 0);
+        }
+        for (int i = 0; i < delta.errors.getLength(); i++)
+        {
+            add((delta.errors.getFirstSecond() + i) * 1000, 0, 0, delta.errors.getCount(i));
+        }
+    }
+
+    /**
+     * Returns the counts of the seconds within a window, as a delta that can be added to monitors
+     * @param currentTime The end of the window
+     * @param window The length (in milliseconds) of the window
+     * @return A delta whose per-second requests, bytes and errors cover the window
+     */
+    public synchronized MetricsDelta getDelta(long currentTime, long window)
+    {
+        MetricsDelta delta = new MetricsDelta();
+        long lastSecond = Math.floorDiv(currentTime, 1000);
+        long firstSecond = Math.max(lastSecond - MAX_SECONDS + 1, Math.floorDiv(currentTime - window, 1000) + 1);
+        for (long second = firstSecond; second <= lastSecond; second++)
+        {
+            int slot = (int) Math.floorMod(second, (long) MAX_SECONDS);
+            if (seconds[slot] != second)
+                continue;
+            delta.requests.add(second * 1000, requests[slot]);
+            delta.bytes.add(second * 1000, bytes[slot]);
+            delta.errors.add(second * 1000, errors[slot]);
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,88 @@
+package traffic.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Counts requests, or the bytes they served, per second over a short period of time
+ */
+public class RequestBuckets
+{
+    /** The maximum number of seconds covered. Later requests are counted in the last second */
+    private static final int MAX_SECONDS = 3600;
+    
+    /** The second (timestamp divided by 1000) of the first bucket. Negative if no request was counted */
+    private long firstSecond = -1;
+    /** The number of requests made, or bytes served, in each second */
+    private long[] counts = new long[16];
+    /** The number of buckets in use */
+    private int length;
+    
+    /**
+     * Counts requests made at the given time
+     * @param timestamp The time when the requests were made
+     * @param count The number of requests, or the bytes they served
+     */
+    public void add(long timestamp, long count)
+    {
+        long second = timestamp / 1000;
+        if (firstSecond < 0)
+            firstSecond = second;
+        
+        // Requests from before the first bucket or too far after it are clamped
+        int bucket = (int) Math.max(0, Math.min(MAX_SECONDS - 1, second - firstSecond));
+        if (bucket >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, bucket + 1));
+        
+        counts[bucket] += count;
+        length = Math.max(length, bucket + 1);
+    }
+    
+    /**
+     * Returns the second of the first bucket
+     * @return The first bucket's timestamp divided by 1000, or -1 if no request was counted
+     */
+    public long getFirstSecond()
+    {
+        return firstSecond;
+    }
+    
+    /**
+     * Returns the number of buckets, one per second starting from the first second
+     */
+    public int getLength()
+    {
+        return length;
+    }
+    
+    /**
+     * Returns the number of requests, or bytes, counted in a bucket
+     * @param bucket The index of the bucket, counting seconds from the first second
+     */
+    public long getCount(int bucket)
+    {
+        return counts[bucket];
+    }
+    
+    /**
+     * Removes every count, so the buckets can be reused
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0, length, 0);
+        firstSecond = -1;
+        length = 0;
+    }
+    
+    /**
+     * Adds the counts of other buckets to these buckets
+     * @param other The buckets to add
+     */
+    public void merge(RequestBuckets other)
+    {
+        for (int i = 0; i < other.length; i++)
+        {
+            if (other.counts[i] > 0)
+                add((other.firstSecond + i) * 1000, other.counts[i]);
+        }
+    }
+}
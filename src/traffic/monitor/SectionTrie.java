@@ -0,0 +1,379 @@
+package traffic.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Counts requests and bytes for every prefix of the URL paths, up to a maximum depth,
+ * e.g. "/api", "/api/v2" and "/api/v2/orders" for "/api/v2/orders?id=1".
+ *
+ * The segments of a path are matched against the nodes' names where they are, without
+ * building substrings, so counting a request allocates nothing once its path is known.
+ * Each node keeps at most a fixed number of children, and the paths that do not fit are
+ * counted in an "(other)" child, which bounds the trie's size and the cost of each request.
+ */
+public class SectionTrie
+{
+    /** The name of the child that counts the segments which overflowed a node */
+    public static final String OTHER = "(other)";
+
+    /** The maximum number of segments counted for each path */
+    private int maxDepth;
+    /** The maximum number of named children of each node */
+    private int maxChildren;
+    /** The node of the empty path, which counts every request */
+    private Node root = new Node(null, "", 0);
+
+    /**
+     * Creates an empty trie
+     * @param maxDepth The maximum number of segments counted for each path
+     * @param maxChildren The maximum number of named children of each node
+     */
+    public SectionTrie(int maxDepth, int maxChildren)
+    {
+        if (maxDepth <= 0 || maxChildren <= 0)
+            throw new IllegalArgumentException("SectionTrie requires a positive depth and number of children");
+
+        this.maxDepth = maxDepth;
+        this.maxChildren = maxChildren;
+    }
+
+    /**
+     * Counts a request for the prefixes of a URL's path. The query string and fragment are ignored.
+     * @param url The requested URL
+     * @param hits The number of requests
+     * @param bytes The number of bytes served
+     */
+    public void add(CharSequence url, long hits, long bytes)
+    {
+        Node node = root;
+        node.add(hits, bytes);
+
+        int length = url.length();
+        int start = 0;
+        for (int depth = 0; depth < maxDepth; depth++)
+        {
+            // Skip to the start of the next segment
+            while (start < length && url.charAt(start) == '/')
+                start++;
+            int end = start;
+            int hash = 0;
+            char c;
+            while (end < length && (c = url.charAt(end)) != '/' && c != '?' && c != '#')
+            {
+                hash = 31 * hash + c;
+                end++;
+            }
+            if (end == start)
+                return;
+
+            node = getChild(node, url, start, end, hash);
+            node.add(hits, bytes);
+            if (end < length && url.charAt(end) != '/')
+                return;
+            start = end;
+        }
+    }
+
+    /**
+     * Adds the counts of another trie to this trie, within this trie's depth and number of children
+     * @param other The trie to add
+     */
+    public void merge(SectionTrie other)
+    {
+        merge(root, other.root, 0);
+    }
+
+    /**
+     * Removes every count, so the trie can be reused. The nodes are kept, so the paths
+     * that are requested again are counted without allocating, and the nodes of paths
+     * that are not requested again are reused for new paths.
+     */
+    public void reset()
+    {
+        root.reset();
+    }
+
+    /**
+     * Returns the node of the empty path, whose children are the first segments
+     */
+    public Node getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Returns the maximum number of segments counted for each path
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the node of a path
+     * @param path The path, e.g. "/api/v2"
+     * @return The node, or null if the path was not counted
+     */
+    public Node find(String path)
+    {
+        Node node = root;
+        int start = 0;
+        while (node != null)
+        {
+            while (start < path.length() && path.charAt(start) == '/')
+                start++;
+            if (start == path.length())
+                return node;
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = path.length();
+            node = node.getChild(path.substring(start, end));
+            start = end;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the child of a node named after a segment of a URL, adding it if there is room,
+     * else returning the node's "(other)" child
+     */
+    private Node getChild(Node node, CharSequence url, int start, int end, int hash)
+    {
+        for (Node child = node.children; child != null; child = child.next)
+        {
+            if (child.hash == hash && child.matches(url, start, end))
+                return child;
+        }
+        return addChild(node, url.subSequence(start, end).toString(), hash);
+    }
+
+    /**
+     * Adds a child to a node, reusing a child without counts once the node is full
+     * @return The new child, or the node's "(other)" child if every child has counts
+     */
+    private Node addChild(Node node, String name, int hash)
+    {
+        if (node.childCount < maxChildren)
+            return node.addChild(name, hash);
+        for (Node child = node.children; child != null; child = child.next)
+        {
+            if (child.hits == 0 && child.bytes == 0)
+            {
+                child.rename(name, hash);
+                return child;
+            }
+        }
+        return node.getOther();
+    }
+
+    /**
+     * Adds the counts of a node of another trie and its descendants to a node of this trie
+     */
+    private void merge(Node node, Node other, int depth)
+    {
+        node.add(other.hits, other.bytes);
+        if (depth == maxDepth)
+            return;
+
+        if (other.other != null && (other.other.hits > 0 || other.other.bytes > 0))
+            merge(node.getOther(), other.other, depth + 1);
+        for (Node otherChild = other.children; otherChild != null; otherChild = otherChild.next)
+        {
+            if (otherChild.hits == 0 && otherChild.bytes == 0)
+                continue;
+            Node child = node.getChild(otherChild.name);
+            if (child == null)
+                child = addChild(node, otherChild.name, otherChild.hash);
+            merge(child, otherChild, depth + 1);
+        }
+    }
+
+    /**
+     * A path prefix and the requests made under it
+     */
+    public static class Node
+    {
+        /** The node of the path without this node's segment */
+        private Node parent;
+        /** The last segment of the path */
+        private String name;
+        /** The hash of the name, equal to String.hashCode() */
+        private int hash;
+        /** The number of requests made under the path */
+        private long hits;
+        /** The number of bytes served under the path */
+        private long bytes;
+
+        /** The first named child. The others follow through "next" */
+        private Node children;
+        /** The next child of the parent */
+        private Node next;
+        /** The number of named children */
+        private int childCount;
+        /** Counts the segments that did not fit in the named children, or null if none overflowed */
+        private Node other;
+
+        private Node(Node parent, String name, int hash)
+        {
+            this.parent = parent;
+            this.name = name;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns the last segment of the path, or "(other)" for the segments that overflowed
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the path of the node, e.g. "/api/v2"
+         */
+        public String getPath()
+        {
+            if (parent == null)
+                return "/";
+            if (parent.parent == null)
+                return "/" + name;
+            return parent.getPath() + "/" + name;
+        }
+
+        /**
+         * Returns the number of requests made under the path
+         */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * Returns the number of bytes served under the path
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * Returns the child with the given name, including "(other)"
+         * @return The child, or null if there is none
+         */
+        public Node getChild(String name)
+        {
+            if (name.equals(OTHER))
+                return other;
+            for (Node child = children; child != null; child = child.next)
+            {
+                if (child.name.equals(name))
+                    return child;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the children of the node that have counts, including "(other)"
+         */
+        public ArrayList<Node> getChildren()
+        {
+            ArrayList<Node> nodes = new ArrayList<Node>(childCount + 1);
+            for (Node child = children; child != null; child = child.next)
+            {
+                if (child.hits > 0 || child.bytes > 0)
+                    nodes.add(child);
+            }
+            if (other != null && (other.hits > 0 || other.bytes > 0))
+                nodes.add(other);
+            return nodes;
+        }
+
+        /**
+         * Returns the children with the most requests, including "(other)"
+         * @param count The maximum number of children to return
+         * @return The children, in decreasing order of requests
+         */
+        public ArrayList<Node> getTopChildren(int count)
+        {
+            ArrayList<Node> nodes = getChildren();
+            Collections.sort(nodes, new Comparator<Node>() {
+                public int compare(Node a, Node b)
+                {
+                    return Long.compare(b.hits, a.hits);
+                }
+            });
+            if (nodes.size() > count)
+                return new ArrayList<Node>(nodes.subList(0, count));
+            return nodes;
+        }
+
+        private void add(long hits, long bytes)
+        {
+            this.hits += hits;
+            this.bytes += bytes;
+        }
+
+        /**
+         * Returns true if the name equals a range of a URL
+         */
+        private boolean matches(CharSequence url, int start, int end)
+        {
+            if (name.length() != end - start)
+                return false;
+            for (int i = start; i < end; i++)
+            {
+                if (name.charAt(i - start) != url.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Removes the counts of the node and its descendants. A node never counts more than
+         * its parent, so the descendants of a node without counts are skipped.
+         */
+        private void reset()
+        {
+            if (hits == 0 && bytes == 0)
+                return;
+            hits = 0;
+            bytes = 0;
+            for (Node child = children; child != null; child = child.next)
+            {
+                child.reset();
+            }
+            if (other != null)
+                other.reset();
+        }
+
+        /**
+         * Gives the node of a path without counts to another path, removing its descendants
+         */
+        private void rename(String name, int hash)
+        {
+            this.name = name;
+            this.hash = hash;
+            children = null;
+            childCount = 0;
+            other = null;
+        }
+
+        private Node addChild(String name, int hash)
+        {
+            Node child = new Node(this, name, hash);
+            child.next = children;
+            children = child;
+            childCount++;
+            return child;
+        }
+
+        private Node getOther()
+        {
+            if (other == null)
+                other = new Node(this, OTHER, 0);
+            return other;
+        }
+    }
+}
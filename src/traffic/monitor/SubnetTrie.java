@@ -0,0 +1,487 @@
+package traffic.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import traffic.log.IpAddress;
+
+/**
+ * Counts requests for the subnets of the clients' addresses: /16 and /24 for IPv4, and
+ * /48 and /64 for IPv6. IPv4 addresses are mapped into IPv6, so both share one tree.
+ *
+ * The tree is a compressed binary radix tree: each node holds a prefix, and a child's prefix
+ * may skip many bits beyond its parent's, so a lone subnet takes one node rather than one
+ * per bit. Nodes are stored in parallel arrays indexed by number, which keeps the tree
+ * compact and lets reset() empty it without freeing anything. The tree holds at most a fixed
+ * number of nodes. Once it is full, requests from new /24 (or /64) subnets are only counted
+ * in their /16 (or /48), and requests from new /16 (or /48) subnets are counted as others,
+ * so scanning traffic from many addresses cannot grow the heap.
+ */
+public class SubnetTrie
+{
+    /** The prefix length, within IPv6, of the counted IPv4 /16 subnets */
+    private static final int IPV4_WIDE = IpAddress.IPV4_MAPPED_LENGTH + 16;
+    /** The prefix length, within IPv6, of the counted IPv4 /24 subnets */
+    private static final int IPV4_NARROW = IpAddress.IPV4_MAPPED_LENGTH + 24;
+    /** The prefix length of the counted IPv6 /48 subnets */
+    private static final int IPV6_WIDE = 48;
+    /** The prefix length of the counted IPv6 /64 subnets */
+    private static final int IPV6_NARROW = 64;
+
+    /** The maximum number of nodes, including the nodes where prefixes branch */
+    private int maxNodes;
+    /** The number of nodes in use. Node 0 is the root, whose prefix is empty */
+    private int nodeCount;
+
+    /** The high 64 bits of each node's prefix */
+    private long[] highBits;
+    /** The low 64 bits of each node's prefix */
+    private long[] lowBits;
+    /** The number of bits in each node's prefix */
+    private byte[] lengths;
+    /** The child of each node whose next bit is 0, or 0 if it has none */
+    private int[] zeroChildren;
+    /** The child of each node whose next bit is 1, or 0 if it has none */
+    private int[] oneChildren;
+    /** The number of requests counted in each node. Only the nodes of counted subnets have requests */
+    private long[] hits;
+
+    /** The number of requests whose subnet did not fit in the tree */
+    private long otherHits;
+    /** The address being counted */
+    private long[] address = new long[2];
+    /** The high bits of the last counted /24 (or /64), since consecutive requests often share a client */
+    private long lastHigh;
+    /** The low bits of the last counted /24 (or /64) */
+    private long lastLow;
+    /** The node of the last counted /16 (or /48), or 0 if there is no last subnet */
+    private int lastWideNode;
+    /** The node of the last counted /24 (or /64), or 0 if it did not fit in the tree */
+    private int lastNarrowNode;
+
+    /**
+     * Creates an empty tree
+     * @param maxNodes The maximum number of nodes in the tree
+     */
+    public SubnetTrie(int maxNodes)
+    {
+        if (maxNodes < 3)
+            throw new IllegalArgumentException("SubnetTrie requires at least 3 nodes");
+
+        this.maxNodes = maxNodes;
+        int capacity = Math.min(maxNodes, 64);
+        highBits = new long[capacity];
+        lowBits = new long[capacity];
+        lengths = new byte[capacity];
+        zeroChildren = new int[capacity];
+        oneChildren = new int[capacity];
+        hits = new long[capacity];
+        nodeCount = 1;
+    }
+
+    /**
+     * Counts requests for the subnets of a client's address. Host names are ignored.
+     * @param host The client's IPv4 or IPv6 address
+     * @param count The number of requests
+     */
+    public void add(CharSequence host, long count)
+    {
+        if (count <= 0 || !IpAddress.parse(host, address))
+            return;
+
+        boolean ipv4 = IpAddress.isIpv4(address[0], address[1]);
+        int narrowLength = ipv4? IPV4_NARROW : IPV6_NARROW;
+        long high = mask(address[0], 0, narrowLength);
+        long low = mask(address[1], 64, narrowLength);
+        if (lastWideNode == 0 || high != lastHigh || low != lastLow)
+        {
+            int wideLength = ipv4? IPV4_WIDE : IPV6_WIDE;
+            int wideNode = getPrefix(mask(high, 0, wideLength), mask(low, 64, wideLength), wideLength);
+            if (wideNode == 0)
+            {
+                otherHits += count;
+                return;
+            }
+            lastWideNode = wideNode;
+            lastNarrowNode = getPrefix(high, low, narrowLength);
+            lastHigh = high;
+            lastLow = low;
+        }
+
+        hits[lastWideNode] += count;
+        if (lastNarrowNode != 0)
+            hits[lastNarrowNode] += count;
+    }
+
+    /**
+     * Adds the counts of another tree to this tree, within this tree's number of nodes
+     * @param other The tree to add
+     */
+    public void merge(SubnetTrie other)
+    {
+        otherHits += other.otherHits;
+        for (Subnet subnet : other.getSubnets())
+        {
+            add(subnet);
+        }
+    }
+
+    /**
+     * Counts the requests of a subnet recorded by another tree. If the tree is full, the
+     * requests of a /16 (or /48) are counted as others, and those of a /24 (or /64) are dropped,
+     * since they were already counted in their /16 (or /48).
+     * @param subnet The subnet and its requests
+     */
+    public void add(Subnet subnet)
+    {
+        if (!addPrefix(subnet.high, subnet.low, subnet.length, subnet.hits) && isWide(subnet.length))
+            otherHits += subnet.hits;
+    }
+
+    /**
+     * Counts requests whose subnet is unknown, such as the others of another tree
+     * @param count The number of requests
+     */
+    public void addOtherHits(long count)
+    {
+        otherHits += count;
+    }
+
+    /**
+     * Removes every subnet, keeping the memory of the nodes for the next requests
+     */
+    public void reset()
+    {
+        zeroChildren[0] = 0;
+        oneChildren[0] = 0;
+        nodeCount = 1;
+        otherHits = 0;
+        lastWideNode = 0;
+    }
+
+    /**
+     * Returns every counted subnet with requests, of all prefix lengths
+     */
+    public ArrayList<Subnet> getSubnets()
+    {
+        ArrayList<Subnet> subnets = new ArrayList<Subnet>();
+        for (int node = 1; node < nodeCount; node++)
+        {
+            if (hits[node] > 0)
+                subnets.add(new Subnet(highBits[node], lowBits[node], lengths[node], hits[node]));
+        }
+        return subnets;
+    }
+
+    /**
+     * Returns the subnets of a prefix length with the most requests, busiest first
+     * @param prefixLength 16 or 24 for IPv4 subnets, 48 or 64 for IPv6 subnets
+     * @param count The maximum number of subnets to return
+     */
+    public ArrayList<Subnet> getTopSubnets(int prefixLength, int count)
+    {
+        int length = toTreeLength(prefixLength);
+        ArrayList<Subnet> subnets = new ArrayList<Subnet>();
+        for (int node = 1; node < nodeCount; node++)
+        {
+            if (lengths[node] != length || hits[node] == 0)
+                continue;
+            subnets.add(new Subnet(highBits[node], lowBits[node], length, hits[node]));
+        }
+
+        Collections.sort(subnets, new Comparator<Subnet>() {
+            public int compare(Subnet a, Subnet b)
+            {
+                return Long.compare(b.getHits(), a.getHits());
+            }
+        });
+        if (subnets.size() > count)
+            return new ArrayList<Subnet>(subnets.subList(0, count));
+        return subnets;
+    }
+
+    /**
+     * Returns the number of requests counted for a subnet, which may come from another tree
+     * @param subnet The subnet to find
+     * @return The subnet's requests, or 0 if it is not in this tree
+     */
+    public long getHits(Subnet subnet)
+    {
+        int node = findPrefix(subnet.high, subnet.low, subnet.length);
+        return (node > 0)? hits[node] : 0;
+    }
+
+    /**
+     * Returns the number of requests whose subnet did not fit in the tree
+     */
+    public long getOtherHits()
+    {
+        return otherHits;
+    }
+
+    /**
+     * Returns the number of nodes in the tree, including the root
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * Counts requests for a prefix, creating its node if needed
+     * @return False if the prefix has no node and the tree is full
+     */
+    private boolean addPrefix(long high, long low, int length, long count)
+    {
+        int node = getPrefix(mask(high, 0, length), mask(low, 64, length), length);
+        if (node == 0)
+            return false;
+        hits[node] += count;
+        return true;
+    }
+
+    /**
+     * Returns the node of a prefix, creating it along with the node where it branches from
+     * its neighbours if needed
+     * @return The node, or 0 if it has no node and the tree is full
+     */
+    private int getPrefix(long high, long low, int length)
+    {
+        int parent = 0;
+        while (true)
+        {
+            boolean one = getBit(high, low, lengths[parent]);
+            int child = one? oneChildren[parent] : zeroChildren[parent];
+            if (child == 0)
+            {
+                // The prefix goes below the parent on its own
+                if (nodeCount + 1 > maxNodes)
+                    return 0;
+                int leaf = createNode(high, low, length);
+                setChild(parent, one, leaf);
+                return leaf;
+            }
+
+            int childLength = lengths[child];
+            int common = commonLength(high, low, highBits[child], lowBits[child], Math.min(length, childLength));
+            if (common == childLength)
+            {
+                // The child's prefix is a prefix of this one
+                if (childLength == length)
+                    return child;
+                parent = child;
+                continue;
+            }
+
+            if (common == length)
+            {
+                // This prefix is a prefix of the child's, so it goes between the parent and the child
+                if (nodeCount + 1 > maxNodes)
+                    return 0;
+                int node = createNode(high, low, length);
+                setChild(node, getBit(highBits[child], lowBits[child], length), child);
+                setChild(parent, one, node);
+                return node;
+            }
+
+            // The prefixes differ after their common bits, so a node branches into both
+            if (nodeCount + 2 > maxNodes)
+                return 0;
+            int branch = createNode(mask(high, 0, common), mask(low, 64, common), common);
+            int leaf = createNode(high, low, length);
+            setChild(branch, getBit(highBits[child], lowBits[child], common), child);
+            setChild(branch, getBit(high, low, common), leaf);
+            setChild(parent, one, branch);
+            return leaf;
+        }
+    }
+
+    /**
+     * Returns the node of a prefix without creating it
+     * @return The node, or 0 if the prefix has no node
+     */
+    private int findPrefix(long high, long low, int length)
+    {
+        int node = 0;
+        while (lengths[node] < length)
+        {
+            node = getBit(high, low, lengths[node])? oneChildren[node] : zeroChildren[node];
+            if (node == 0)
+                return 0;
+            int shared = Math.min(length, lengths[node]);
+            if (commonLength(high, low, highBits[node], lowBits[node], shared) < shared)
+                return 0;
+        }
+        return (lengths[node] == length)? node : 0;
+    }
+
+    /**
+     * Creates a node with no requests and no children
+     */
+    private int createNode(long high, long low, int length)
+    {
+        if (nodeCount == highBits.length)
+            grow();
+
+        int node = nodeCount++;
+        highBits[node] = high;
+        lowBits[node] = low;
+        lengths[node] = (byte) length;
+        zeroChildren[node] = 0;
+        oneChildren[node] = 0;
+        hits[node] = 0;
+        return node;
+    }
+
+    private void setChild(int parent, boolean one, int child)
+    {
+        if (one)
+            oneChildren[parent] = child;
+        else
+            zeroChildren[parent] = child;
+    }
+
+    /**
+     * Doubles the capacity of the node arrays, up to the maximum number of nodes
+     */
+    private void grow()
+    {
+        int capacity = Math.min(maxNodes, highBits.length * 2);
+        highBits = Arrays.copyOf(highBits, capacity);
+        lowBits = Arrays.copyOf(lowBits, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        zeroChildren = Arrays.copyOf(zeroChildren, capacity);
+        oneChildren = Arrays.copyOf(oneChildren, capacity);
+        hits = Arrays.copyOf(hits, capacity);
+    }
+
+    /**
+     * Returns true if a prefix length is one of the wider counted subnets, /16 or /48
+     */
+    private static boolean isWide(int length)
+    {
+        return length == IPV4_WIDE || length == IPV6_WIDE;
+    }
+
+    /**
+     * Converts the prefix length of a subnet to its length in the tree
+     */
+    private static int toTreeLength(int prefixLength)
+    {
+        if (prefixLength == 16 || prefixLength == 24)
+            return IpAddress.IPV4_MAPPED_LENGTH + prefixLength;
+        if (prefixLength == IPV6_WIDE || prefixLength == IPV6_NARROW)
+            return prefixLength;
+        throw new IllegalArgumentException("Subnets are counted at /16, /24, /48 and /64, not /" + prefixLength);
+    }
+
+    /**
+     * Returns the bit of an address after the given number of leading bits
+     */
+    private static boolean getBit(long high, long low, int index)
+    {
+        if (index < 64)
+            return ((high >>> (63 - index)) & 1) != 0;
+        return ((low >>> (127 - index)) & 1) != 0;
+    }
+
+    /**
+     * Returns the number of leading bits that two addresses share, up to a maximum
+     */
+    private static int commonLength(long high, long low, long otherHigh, long otherLow, int max)
+    {
+        int common = (high != otherHigh)? Long.numberOfLeadingZeros(high ^ otherHigh)
+                : 64 + Long.numberOfLeadingZeros(low ^ otherLow);
+        return Math.min(common, max);
+    }
+
+    /**
+     * Keeps the bits of one half of an address that fall within a prefix
+     * @param bits The high or low 64 bits of the address
+     * @param offset The number of bits before this half: 0 for the high bits, 64 for the low bits
+     * @param length The number of leading bits in the prefix
+     */
+    private static long mask(long bits, int offset, int length)
+    {
+        int kept = length - offset;
+        if (kept <= 0)
+            return 0;
+        if (kept >= 64)
+            return bits;
+        return bits & (-1L << (64 - kept));
+    }
+
+    /**
+     * A subnet and its number of requests
+     */
+    public static class Subnet
+    {
+        /** The high 64 bits of the subnet's prefix */
+        private long high;
+        /** The low 64 bits of the subnet's prefix */
+        private long low;
+        /** The number of bits in the prefix, within IPv6 */
+        private int length;
+        /** The number of requests from the subnet */
+        private long hits;
+
+        /**
+         * Creates a subnet
+         * @param high The high 64 bits of the subnet's prefix
+         * @param low The low 64 bits of the subnet's prefix
+         * @param length The number of bits in the prefix, within IPv6: 112 or 120 for IPv4 subnets
+         * @param hits The number of requests from the subnet
+         */
+        public Subnet(long high, long low, int length, long hits)
+        {
+            if (!isWide(length) && length != IPV4_NARROW && length != IPV6_NARROW)
+                throw new IllegalArgumentException("Subnets are not counted at /" + length);
+            this.high = mask(high, 0, length);
+            this.low = mask(low, 64, length);
+            this.length = length;
+            this.hits = hits;
+        }
+
+        /**
+         * Returns the high 64 bits of the subnet's prefix
+         */
+        public long getHigh()
+        {
+            return high;
+        }
+
+        /**
+         * Returns the low 64 bits of the subnet's prefix
+         */
+        public long getLow()
+        {
+            return low;
+        }
+
+        /**
+         * Returns the number of bits in the prefix, within IPv6
+         */
+        public int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * Returns the number of requests from the subnet
+         */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * Returns the subnet in CIDR notation, such as "10.1.2.0/24"
+         */
+        public String toString()
+        {
+            return IpAddress.format(high, low, length);
+        }
+    }
+}
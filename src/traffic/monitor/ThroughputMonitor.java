@@ -1,20 +1,34 @@
 package traffic.monitor;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+
+import traffic.log.Log;
+import traffic.stats.MonitorUpdateEvent;
 
 /**
  * Monitors metrics and triggers relevant alerts 
+ * 
+ * The threshold is checked whenever requests are added, so high traffic is alerted as soon
+ * as the request which crosses the threshold is analyzed. Recoveries depend on the passing
+ * of time instead, so while high traffic is detected, the monitor's thread wakes up when 
+ * enough requests will have left the window for the traffic to recover. Without high 
+ * traffic, the thread sleeps until it is woken up by an alert.
  */
-public class ThroughputMonitor implements Runnable
+public class ThroughputMonitor extends MetricMonitor
 {
-    /** Stores timestamps for all requests in the past "highTrafficTimeWindow" milliseconds */
-    private Queue<Long> requestTimestamps;
-    /** The alerts generated by this throughput monitor */
-    private ArrayList<Alert> alerts;
-    /** Listeners that are notified whenever this monitor triggers an alert */
-    private ArrayList<AlertListener> alertListeners;
+    /** 
+     * Stores timestamps for all requests in the past "highTrafficTimeWindow" milliseconds, as a ring buffer. 
+     * Requests that share a timestamp are stored once, along with their count.
+     */
+    private long[] requestTimestamps;
+    /** The number of requests made at each timestamp */
+    private long[] requestCounts;
+    /** The index of the oldest timestamp in the ring buffer */
+    private int head;
+    /** The number of timestamps in the ring buffer */
+    private int size;
+    /** The total number of requests in the time window */
+    private long requestCount;
     
     /** If average RPS surpasses this value, log a warning */
     private double highTrafficRpsThreshold;
@@ -23,131 +37,232 @@ public class ThroughputMonitor implements Runnable
     /** True if the system is currently experiencing high traffic */
     private boolean highTrafficDetected;
     
-    /** Every "delay" milliseconds, throughput is monitored for high traffic */
-    private long delay;
-    
     /**
      * Creates a monitor which analyzes throughput for critical values
      * @param highTrafficRpsThreshold If average RPS surpasses this value, create an alert 
      * @param highTrafficTimeWindow The time window (in milliseconds) for which high traffic is detected
-     * @param delay Every "delay" milliseconds, throughput is monitored for high traffic
+     * @param delay Not used to schedule checks, since the monitor schedules its checks itself
      */
     public ThroughputMonitor(double highTrafficRpsThreshold, long highTrafficTimeWindow, long delay)
     {
-        if (highTrafficRpsThreshold < 0 || highTrafficTimeWindow < 0 || delay <= 0)
+        super(delay);
+        if (highTrafficRpsThreshold < 0 || highTrafficTimeWindow < 0)
             throw new IllegalArgumentException("ThroughputMonitor does not accept negative parameters");
         
         this.highTrafficRpsThreshold = highTrafficRpsThreshold;
         this.highTrafficTimeWindow = highTrafficTimeWindow;
-        this.delay = delay;
 
-        requestTimestamps = new LinkedList<Long>();
-        alerts = new ArrayList<Alert>();
-        alertListeners = new ArrayList<AlertListener>();
-    }
-    
-    /**
-     * Monitors throughput regularly to detect high traffic
-     */
-    public void run()
-    {
-        while (true)
-        {
-            update(System.currentTimeMillis());
-            
-            // Sleep for "delay" seconds
-            try
-            {
-                Thread.sleep(delay);
-            }
-            catch (InterruptedException e)
-            {
-                System.out.println(e.getStackTrace());
-            }
-        }
+        requestTimestamps = new long[16];
+        requestCounts = new long[16];
     }
     
     /**
      * Monitors the requests per second, and logs a warning if the threshold is surpassed
      * @param currentTime The current time of the system
      */
-    public void update(long currentTime)
+    public synchronized void update(long currentTime)
     {
         if (currentTime < 0)
             throw new IllegalArgumentException("Cannot perform update with negative timestamp");
         
+        MonitorUpdateEvent event = new MonitorUpdateEvent();
+        event.begin();
         expireOldRequests(currentTime);
         double requestsPerSecond = getCurrentRps();
+        String decision = MonitorUpdateEvent.NONE;
 
         // Log a warning if high traffic threshold is exceeded
         if (!highTrafficDetected && requestsPerSecond >= highTrafficRpsThreshold)
         {
-            addAlert(requestTimestamps.size(), false, currentTime);
-            highTrafficDetected = true;
+            alertHighTraffic(currentTime);
+            decision = MonitorUpdateEvent.ALERT;
         }
         // Recovery from high traffic
         else if (highTrafficDetected && requestsPerSecond < highTrafficRpsThreshold)
         {
-            addAlert(requestTimestamps.size(), true, currentTime);
+            addAlert(createAlert(requestCount, true, currentTime));
             highTrafficDetected = false;
+            decision = MonitorUpdateEvent.RECOVER;
+        }
+        
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.monitor = getClass().getSimpleName();
+            event.window = highTrafficTimeWindow;
+            event.count = requestCount;
+            event.rate = requestsPerSecond;
+            event.threshold = highTrafficRpsThreshold;
+            event.decision = decision;
+            event.commit();
         }
     }
     
+    public void addLog(Log log, long currentTime)
+    {
+        addRequests(currentTime, getWeight(log));
+    }
+    
+    /**
+     * Counts each second's requests at the start of that second
+     */
+    public void addDelta(MetricsDelta delta, long currentTime)
+    {
+        RequestBuckets requests = getBuckets(delta);
+        for (int i = 0; i < requests.getLength(); i++)
+        {
+            long count = requests.getCount(i);
+            if (count > 0)
+                addRequests((requests.getFirstSecond() + i) * 1000, count);
+        }
+    }
+    
+    /**
+     * Returns how much a log adds to the monitored count. Each log counts as one request.
+     * @param log The analyzed log
+     */
+    protected long getWeight(Log log)
+    {
+        return 1;
+    }
+    
+    /**
+     * Returns the per-second counts of a delta that are added to the monitored count
+     * @param delta The metrics recorded by another manager
+     */
+    protected RequestBuckets getBuckets(MetricsDelta delta)
+    {
+        return delta.requests;
+    }
+    
     /** 
      * Adds a request performed at the given timestamp. 
      * Allows the monitor to track throughput.
      * @param currentTime The timestamp when the request was created
      */
     public void addRequest(long currentTime)
+    {
+        addRequests(currentTime, 1);
+    }
+    
+    /** 
+     * Adds several requests performed at the given timestamp. 
+     * @param currentTime The timestamp when the requests were created
+     * @param count The number of requests
+     */
+    public synchronized void addRequests(long currentTime, long count)
     {
         if (currentTime < 0)
             throw new IllegalArgumentException("Cannot add a request with a negative timestamp");
+        if (count <= 0)
+            return;
+        
+        // Requests that left the window while no update was due must not count towards the threshold
+        expireOldRequests(currentTime);
+        requestCount += count;
         
-        requestTimestamps.offer(currentTime);
+        // Requests with the same timestamp as the newest one share its entry
+        int tail = (head + size - 1) % requestTimestamps.length;
+        if (size > 0 && requestTimestamps[tail] == currentTime)
+        {
+            requestCounts[tail] += count;
+        }
+        else
+        {
+            if (size == requestTimestamps.length)
+                growRequestBuffer();
+            tail = (head + size) % requestTimestamps.length;
+            requestTimestamps[tail] = currentTime;
+            requestCounts[tail] = count;
+            size++;
+        }
+        
+        // Alert as soon as the threshold is crossed, rather than at the next update
+        if (!highTrafficDetected && isHighTraffic(requestCount))
+            alertHighTraffic(currentTime);
     }
     
-    /** 
-     * Returns the average requests per second in the high traffic time window
-     * @return The average RPS being monitored for high traffic
+    /**
+     * Triggers a high traffic alert, and wakes the monitor's thread so it schedules the recovery check
+     * @param currentTime The timestamp when the alert is triggered
      */
-    public double getCurrentRps() 
+    private void alertHighTraffic(long currentTime)
     {
-        return requestTimestamps.size() / (highTrafficTimeWindow/1000.0);
+        addAlert(createAlert(requestCount, false, currentTime));
+        highTrafficDetected = true;
+        wakeUp();
     }
     
     /**
-     * Adds a listener that will be notified whenever an alert is triggered
-     * @param listener The listener to notify
+     * Returns true if the given number of requests in the time window reaches the threshold
+     * @param count The number of requests in the time window
      */
-    public void addAlertListener(AlertListener listener)
+    private boolean isHighTraffic(long count)
     {
-        alertListeners.add(listener);
+        return count / (highTrafficTimeWindow/1000.0) >= highTrafficRpsThreshold;
     }
     
     /**
-     * Returns the alerts generated by this monitor
-     * @return A list of alerts triggered by the throughput monitor
+     * Returns when the oldest requests will have left the window for the traffic to recover,
+     * if no more requests are added. Every request older than that is expired by the check, 
+     * so each request is visited once while scheduling checks.
+     * @param currentTime The time of the last check
+     * @return The time of the next check, or Long.MAX_VALUE if no high traffic is detected
      */
-    public ArrayList<Alert> getAlerts()
+    protected synchronized long getNextUpdateTime(long currentTime)
     {
-        return alerts;
+        if (!highTrafficDetected)
+            return Long.MAX_VALUE;
+        
+        long remainingCount = requestCount;
+        for (int i = 0; i < size; i++)
+        {
+            int index = (head + i) % requestTimestamps.length;
+            remainingCount -= requestCounts[index];
+            if (!isHighTraffic(remainingCount))
+                return requestTimestamps[index] + highTrafficTimeWindow + 1;
+        }
+        // The traffic cannot recover, e.g. with a threshold of zero
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * Doubles the capacity of the request ring buffer, moving the oldest entry to index zero
+     */
+    private void growRequestBuffer()
+    {
+        int capacity = requestTimestamps.length;
+        long[] timestamps = Arrays.copyOf(requestTimestamps, capacity * 2);
+        long[] counts = Arrays.copyOf(requestCounts, capacity * 2);
+        for (int i = 0; i < size; i++)
+        {
+            timestamps[i] = requestTimestamps[(head + i) % capacity];
+            counts[i] = requestCounts[(head + i) % capacity];
+        }
+        requestTimestamps = timestamps;
+        requestCounts = counts;
+        head = 0;
     }
     
     /** 
-     * Logs and stores the given alert 
-     * @param hits The total number of hits when the alert was triggered
+     * Returns the average requests per second in the high traffic time window
+     * @return The average RPS being monitored for high traffic
+     */
+    public synchronized double getCurrentRps() 
+    {
+        return requestCount / (highTrafficTimeWindow/1000.0);
+    }
+    
+    /** 
+     * Creates the alert triggered when the threshold is reached or recovered from
+     * @param count The total count in the time window when the alert was triggered
      * @param recovery If true, create a recovery alert. Otherwise, create a critical alert
      * @param currentTime The timestamp when the alert is triggered
+     * @return The alert to log and store
      */
-    private void addAlert(int hits, boolean recovery, long currentTime)
+    protected Alert createAlert(long count, boolean recovery, long currentTime)
     {
-        Alert alert = new Alert(hits, recovery, currentTime);
-        alerts.add(alert);
-        // Notify listeners that the alert was triggered
-        for (int i = 0; i < alertListeners.size(); i++) 
-        {
-                alertListeners.get(i).alertTriggered(alert);
-        }
+        return new Alert((int)count, recovery, currentTime);
     }
     
     /**
@@ -157,16 +272,17 @@ public class ThroughputMonitor implements Runnable
     private void expireOldRequests(long currentTime)
     {
         long expirationTimestamp = currentTime - highTrafficTimeWindow;
-        int numRequests = requestTimestamps.size();
-        for (int i = 0; i < numRequests; i++)
+        while (size > 0)
         {
             // All subsequent timestamps are within the expiration window
-            if (requestTimestamps.peek() >= expirationTimestamp)
+            if (requestTimestamps[head] >= expirationTimestamp)
             {
                 break;        
             }
             
-            requestTimestamps.poll();
+            requestCount -= requestCounts[head];
+            head = (head + 1) % requestTimestamps.length;
+            size--;
         }
     }
 }
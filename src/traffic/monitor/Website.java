@@ -9,6 +9,12 @@ public class Website
     private HashSet<String> sections;
     /** The total number of times this website was hit */
     private int hits;
+    /** The hits restored from before the website was evicted, which are already counted elsewhere */
+    private int restoredHits;
+    /** The total number of bytes this website served */
+    private long bytes;
+    /** The last section added, since consecutive requests often hit the same section */
+    private String lastSection;
     
     public Website()
     {
@@ -29,6 +35,33 @@ public class Website
         hits++;
     }
     
+    /**
+     * Adds to the number of times the website received a request
+     * @param count The number of requests to add
+     */
+    public void addHits(int count)
+    {
+        hits += count;
+    }
+    
+    /**
+     * Restores the hits counted before this website was evicted to save memory
+     * @param count The estimated number of hits before the website was evicted
+     */
+    public void restoreHits(int count)
+    {
+        hits += count;
+        restoredHits += count;
+    }
+    
+    /**
+     * Returns the number of hits restored from before this website was evicted
+     */
+    public int getRestoredHits()
+    {
+        return restoredHits;
+    }
+    
     /**
      * Returns the number of times a request was sent to this website
      */
@@ -37,6 +70,23 @@ public class Website
         return hits;
     }
     
+    /**
+     * Adds to the number of bytes the website served
+     * @param count The number of bytes to add
+     */
+    public void addBytes(long count)
+    {
+        bytes += count;
+    }
+    
+    /**
+     * Returns the number of bytes this website served
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+    
     /**
      * Adds a section to the website
      * @param section A section of the website that was hit
@@ -46,6 +96,39 @@ public class Website
         sections.add(section);
     }
     
+    /**
+     * Adds the section of a URL to the website, named after the website's hostname.
+     * The name is only built when it differs from the last section added.
+     * @param url The requested URL
+     * @param sectionLength The number of characters at the start of the URL that form its section
+     * @return True if the section was not hit before
+     */
+    public boolean addSection(CharSequence url, int sectionLength)
+    {
+        if (isLastSection(url, sectionLength))
+            return false;
+        
+        lastSection = name + url.subSequence(0, sectionLength);
+        return sections.add(lastSection);
+    }
+    
+    /**
+     * Returns true if the section of the URL is the last section added
+     */
+    private boolean isLastSection(CharSequence url, int sectionLength)
+    {
+        int nameLength = name.length();
+        if (lastSection == null || lastSection.length() != nameLength + sectionLength)
+            return false;
+        
+        for (int i = 0; i < sectionLength; i++)
+        {
+            if (lastSection.charAt(nameLength + i) != url.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
     /**
      * Returns a list of all website sections that received a request 
      * @return The sections that were hit
@@ -0,0 +1,24 @@
+package traffic.query;
+
+/**
+ * The value computed for each group of a query
+ */
+public enum Aggregate
+{
+    /** The number of matching requests */
+    COUNT,
+    /** The sum of bytes served by the matching requests */
+    BYTES,
+    /** The number of distinct hosts that sent the matching requests */
+    HOSTS;
+    
+    /**
+     * Returns the aggregate with the given command-line name
+     * @param name The name of the aggregate, e.g. "count"
+     * @return The matching aggregate
+     */
+    public static Aggregate fromName(String name)
+    {
+        return valueOf(name.toUpperCase());
+    }
+}
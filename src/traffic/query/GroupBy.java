@@ -0,0 +1,26 @@
+package traffic.query;
+
+/**
+ * The field by which query results are grouped
+ */
+public enum GroupBy
+{
+    /** Group by the first segment of the request URL */
+    SECTION,
+    /** Group by the client host */
+    HOST,
+    /** Group by the full status code */
+    STATUS,
+    /** Group by the minute in which the request was logged */
+    MINUTE;
+    
+    /**
+     * Returns the grouping with the given command-line name
+     * @param name The name of the grouping, e.g. "section"
+     * @return The matching grouping
+     */
+    public static GroupBy fromName(String name)
+    {
+        return valueOf(name.toUpperCase());
+    }
+}
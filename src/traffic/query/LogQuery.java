@@ -0,0 +1,228 @@
+package traffic.query;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.function.Supplier;
+
+import traffic.log.LogDate;
+import traffic.log.LogFormat;
+import traffic.log.MappedLogReader;
+import traffic.log.TimeIndex;
+import traffic.util.PrettyPrinter;
+
+/**
+ * Runs an ad-hoc query over one or more log files and prints the aggregated results.
+ *
+ * Usage: LogQuery [options] file...
+ *   --from DATE         Skip logs dated before DATE (e.g. "07/Mar/2004:16:00:00 -0800")
+ *   --to DATE           Skip logs dated at or after DATE
+ *   --status CODE       Select a status code ("404") or class ("5xx")
+ *   --method METHOD     Select a request method
+ *   --host HOST         Select a client host
+ *   --section PREFIX    Select requests whose URL starts with PREFIX
+ *   --group-by FIELD    section, host, status or minute (default: section)
+ *   --aggregate VALUE   count, bytes or hosts (default: count)
+ *   --format FORMAT     common, combined, or an Apache/nginx format string (default: common)
+ *   --limit N           Print at most N groups (default: all)
+ *   --threads N         Scan with N threads (default: available processors)
+ */
+public class LogQuery
+{
+    public static void main(String[] args) throws Exception
+    {
+        Query query = new Query();
+        ArrayList<File> files = new ArrayList<File>();
+        int limit = Integer.MAX_VALUE;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // Parse the command-line arguments
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (!arg.startsWith("--"))
+            {
+                files.add(new File(arg));
+                continue;
+            }
+            if (i + 1 >= args.length)
+            {
+                System.out.println("Error: missing value for " + arg);
+                System.exit(1);
+            }
+
+            String value = args[++i];
+            try
+            {
+                switch (arg)
+                {
+                case "--from":
+                    query.from = parseDate(value);
+                    break;
+                case "--to":
+                    query.to = parseDate(value);
+                    break;
+                case "--status":
+                    query.status = value;
+                    break;
+                case "--method":
+                    query.method = value;
+                    break;
+                case "--host":
+                    query.host = value;
+                    break;
+                case "--section":
+                    query.sectionPrefix = value;
+                    break;
+                case "--group-by":
+                    query.groupBy = GroupBy.fromName(value);
+                    break;
+                case "--aggregate":
+                    query.aggregate = Aggregate.fromName(value);
+                    break;
+                case "--format":
+                    query.format = LogFormat.forName(value);
+                    break;
+                case "--limit":
+                    limit = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("Error: unknown option " + arg);
+                    System.exit(1);
+                }
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.out.println("Error: invalid value for " + arg + ": " + value);
+                System.exit(1);
+            }
+        }
+
+        if (files.isEmpty())
+        {
+            System.out.println("Error: expecting at least one log file");
+            System.exit(1);
+        }
+
+        long startTime = System.currentTimeMillis();
+        QueryVisitor result = null;
+        try
+        {
+            result = run(query, files, threads);
+        }
+        catch (FileNotFoundException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        print(query, result, limit);
+        System.out.println("Scanned " + result.getLinesScanned() + " lines ("
+                + result.getParseFailures() + " unparseable), matched "
+                + result.getMatches() + " in " + (elapsedTime / 1000.0) + "s");
+    }
+
+    /**
+     * Runs the query over the given files
+     * @param query The query to run
+     * @param files The log files to scan
+     * @param threads The number of threads that scan each file
+     * @return The merged results of the query
+     * @throws FileNotFoundException If a file does not exist
+     * @throws IOException If a file cannot be scanned
+     */
+    public static QueryVisitor run(Query query, ArrayList<File> files, int threads) throws IOException
+    {
+        return run(query, files, threads, MappedLogReader.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Runs the query over the given files, scanning them in chunks of the given size
+     * @param query The query to run
+     * @param files The log files to scan
+     * @param threads The number of threads that scan each file
+     * @param chunkSize The number of bytes scanned by each visitor
+     * @return The merged results of the query
+     * @throws FileNotFoundException If a file does not exist
+     * @throws IOException If a file cannot be scanned
+     */
+    public static QueryVisitor run(final Query query, ArrayList<File> files, int threads, long chunkSize) throws IOException
+    {
+        QueryVisitor result = new QueryVisitor(query);
+        Supplier<QueryVisitor> visitorFactory = new Supplier<QueryVisitor>() {
+            public QueryVisitor get()
+            {
+                return new QueryVisitor(query);
+            }
+        };
+
+        for (File file : files)
+        {
+            if (!file.exists())
+                throw new FileNotFoundException("File does not exist: " + file);
+
+            // Only scan the part of the file within the query's time range
+            long[] range = TimeIndex.getRange(file, query.from, query.to);
+            MappedLogReader reader = new MappedLogReader(file, threads, chunkSize);
+            ArrayList<QueryVisitor> chunks = reader.scan(range[0], range[1], visitorFactory);
+            for (int i = 0; i < chunks.size(); i++)
+            {
+                result.merge(chunks.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Prints the groups of the query's result as a table
+     * @param query The query that was run
+     * @param result The results of the query
+     * @param limit The maximum number of groups to print
+     */
+    private static void print(final Query query, QueryVisitor result, int limit)
+    {
+        ArrayList<QueryGroup> groups = new ArrayList<QueryGroup>(result.getGroups().values());
+
+        // Minutes are listed chronologically, other groups by their aggregate
+        Collections.sort(groups, new Comparator<QueryGroup>() {
+            public int compare(QueryGroup a, QueryGroup b)
+            {
+                if (query.groupBy == GroupBy.MINUTE)
+                    return a.getKey().compareTo(b.getKey());
+                return Long.compare(b.getValue(query.aggregate), a.getValue(query.aggregate));
+            }
+        });
+
+        PrettyPrinter printer = new PrettyPrinter();
+        printer.startTable();
+        printer.addRow(query.groupBy.name().toLowerCase(), query.aggregate.name().toLowerCase());
+        printer.addHorizontalSeparator();
+        for (int i = 0; i < groups.size() && i < limit; i++)
+        {
+            QueryGroup group = groups.get(i);
+            printer.addRow(group.getKey(), "" + group.getValue(query.aggregate));
+        }
+        printer.endTable();
+    }
+
+    /**
+     * Parses a date given on the command line
+     * @param date A date in common log format
+     * @return The date's timestamp
+     */
+    private static long parseDate(String date)
+    {
+        long timestamp = LogDate.parse(date);
+        if (timestamp < 0)
+            throw new IllegalArgumentException("Malformed date: " + date);
+        return timestamp;
+    }
+}
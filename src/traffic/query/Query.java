@@ -0,0 +1,140 @@
+package traffic.query;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import traffic.log.Log;
+import traffic.log.LogFormat;
+import traffic.log.LogDate;
+
+/**
+ * Describes which logs a query selects, how they are grouped and what is computed per group
+ */
+public class Query
+{
+    /** Formats minute buckets in a human-readable format */
+    private static final String MINUTE_FORMAT = "yyyy-MM-dd HH:mm";
+
+    /** Logs dated before this timestamp are skipped. Ignored if negative */
+    public long from = -1;
+    /** Logs dated at or after this timestamp are skipped. Ignored if negative */
+    public long to = -1;
+    /** The status code to select, either exact ("404") or by class ("5xx"). Ignored if null */
+    public String status;
+    /** The request method to select. Ignored if null */
+    public String method;
+    /** The host to select. Ignored if null */
+    public String host;
+    /** Only requests whose URL starts with this prefix are selected. Ignored if null */
+    public String sectionPrefix;
+
+    /** The layout of the queried logs */
+    public LogFormat format = LogFormat.COMMON;
+
+    /** The field by which matching logs are grouped */
+    public GroupBy groupBy = GroupBy.SECTION;
+    /** The value computed for each group */
+    public Aggregate aggregate = Aggregate.COUNT;
+
+    /**
+     * Returns true if the log should be included in the query's results
+     * @param log The log to test
+     * @param timestamp The timestamp of the log, or -1 if its date is malformed
+     * @return True if the log matches every filter of this query
+     */
+    public boolean matches(Log log, long timestamp)
+    {
+        if ((from >= 0 || to >= 0) && timestamp < 0)
+            return false;
+        if (from >= 0 && timestamp < from)
+            return false;
+        if (to >= 0 && timestamp >= to)
+            return false;
+        if (method != null && !log.getRequestMethod().contentEquals(method))
+            return false;
+        if (host != null && !log.getHost().contentEquals(host))
+            return false;
+        if (sectionPrefix != null && !log.getRequestUrl().startsWith(sectionPrefix))
+            return false;
+        if (status != null && !matchesStatus(log.getStatus()))
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Returns true if the status code matches the query's status filter
+     * @param logStatus The status code of a log
+     */
+    private boolean matchesStatus(int logStatus)
+    {
+        if (logStatus < 0)
+            return false;
+
+        // Compare the digits from last to first. An 'x' in the filter matches any digit
+        for (int i = status.length() - 1; i >= 0; i--)
+        {
+            char c = status.charAt(i);
+            int digit = logStatus % 10;
+            logStatus /= 10;
+            if (c != 'x' && c != 'X' && c - '0' != digit)
+                return false;
+        }
+        return logStatus == 0;
+    }
+
+    /**
+     * Returns the group that the log belongs to
+     * @param log The log to group
+     * @param timestamp The timestamp of the log, or -1 if its date is malformed
+     * @return The key of the log's group
+     */
+    public String getGroupKey(Log log, long timestamp)
+    {
+        switch (groupBy)
+        {
+        case HOST:
+            return log.getHost().toString();
+        case STATUS:
+            return Integer.toString(log.getStatus());
+        case MINUTE:
+            return formatMinute(timestamp);
+        case SECTION:
+        default:
+            return getSection(log.getRequestUrl());
+        }
+    }
+
+    /**
+     * Formats the minute containing the given timestamp
+     * @param timestamp The timestamp to format
+     * @return The minute in "yyyy-MM-dd HH:mm" format, in the local time zone
+     */
+    public static String formatMinute(long timestamp)
+    {
+        if (timestamp < 0)
+            return "Unknown";
+
+        long minute = timestamp - Math.floorMod(timestamp, LogDate.MINUTE);
+        return new SimpleDateFormat(MINUTE_FORMAT).format(new Date(minute));
+    }
+
+    /**
+     * Returns the first segment of a URL's path, e.g. "/api" for "/api/v2/orders?id=1"
+     * @param url The URL to extract the section from
+     * @return The section of the URL
+     */
+    public static String getSection(CharSequence url)
+    {
+        if (url == null || url.length() == 0)
+            return "/";
+
+        for (int i = 1; i < url.length(); i++)
+        {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?')
+                return url.subSequence(0, i).toString();
+        }
+        return url.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package traffic.query;
+
+import java.util.HashSet;
+
+/**
+ * Accumulates the aggregates of one group of query results
+ */
+public class QueryGroup
+{
+    /** The key shared by every log in this group */
+    private String key;
+    /** The number of logs in this group */
+    private long count;
+    /** The sum of bytes served by the logs in this group */
+    private long bytes;
+    /** The distinct hosts in this group. Null if distinct hosts are not computed */
+    private HashSet<String> hosts;
+    
+    /**
+     * Creates an empty group
+     * @param key The key shared by every log in the group
+     * @param trackHosts True if the distinct hosts of the group should be recorded
+     */
+    public QueryGroup(String key, boolean trackHosts)
+    {
+        this.key = key;
+        if (trackHosts)
+            hosts = new HashSet<String>();
+    }
+    
+    /**
+     * Adds a log to the group
+     * @param host The host of the log
+     * @param logBytes The number of bytes served for the log
+     */
+    public void add(CharSequence host, long logBytes)
+    {
+        count++;
+        bytes += logBytes;
+        if (hosts != null)
+            hosts.add(host.toString());
+    }
+    
+    /**
+     * Adds the contents of another group with the same key to this group
+     * @param other The group to merge into this one
+     */
+    public void merge(QueryGroup other)
+    {
+        count += other.count;
+        bytes += other.bytes;
+        if (hosts != null && other.hosts != null)
+            hosts.addAll(other.hosts);
+    }
+    
+    /**
+     * Returns the value of the given aggregate for this group
+     * @param aggregate The aggregate to compute
+     * @return The aggregated value
+     */
+    public long getValue(Aggregate aggregate)
+    {
+        switch (aggregate)
+        {
+        case BYTES:
+            return bytes;
+        case HOSTS:
+            return (hosts != null)? hosts.size() : 0;
+        case COUNT:
+        default:
+            return count;
+        }
+    }
+    
+    public String getKey()
+    {
+        return key;
+    }
+}
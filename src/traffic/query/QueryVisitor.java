@@ -0,0 +1,122 @@
+package traffic.query;
+
+import java.util.HashMap;
+
+import traffic.log.LineVisitor;
+import traffic.log.Log;
+import traffic.log.LogDate;
+import traffic.log.LogProcessor;
+
+/**
+ * Evaluates a query over the lines of one chunk of a log file
+ */
+public class QueryVisitor implements LineVisitor
+{
+    /** The query being evaluated */
+    private Query query;
+    /** The groups of logs that matched the query */
+    private HashMap<String, QueryGroup> groups = new HashMap<String, QueryGroup>();
+    
+    /** The number of lines scanned */
+    private long linesScanned;
+    /** The number of lines that could not be parsed */
+    private long parseFailures;
+    /** The number of logs that matched the query */
+    private long matches;
+    
+    /** The last minute that was formatted, since consecutive logs usually share a minute */
+    private long lastMinute = Long.MIN_VALUE;
+    /** The formatted key of the last minute */
+    private String lastMinuteKey;
+    
+    /**
+     * Creates a visitor which evaluates the given query
+     * @param query The query to evaluate
+     */
+    public QueryVisitor(Query query)
+    {
+        this.query = query;
+    }
+    
+    public void visitLine(byte[] line, int length, long offset)
+    {
+        linesScanned++;
+        Log log = LogProcessor.parseLine(line, 0, length, query.format);
+        if (log == null)
+        {
+            parseFailures++;
+            return;
+        }
+        
+        long timestamp = log.getTimestamp();
+        if (!query.matches(log, timestamp))
+            return;
+        matches++;
+        
+        String key = getGroupKey(log, timestamp);
+        QueryGroup group = groups.get(key);
+        if (group == null)
+        {
+            group = new QueryGroup(key, query.aggregate == Aggregate.HOSTS);
+            groups.put(key, group);
+        }
+        group.add(log.getHost(), log.getBytes());
+    }
+    
+    /**
+     * Returns the group key of the log, reusing the last formatted minute when possible
+     */
+    private String getGroupKey(Log log, long timestamp)
+    {
+        if (query.groupBy != GroupBy.MINUTE)
+            return query.getGroupKey(log, timestamp);
+        
+        long minute = (timestamp < 0)? -1 : timestamp / LogDate.MINUTE;
+        if (minute != lastMinute)
+        {
+            lastMinute = minute;
+            lastMinuteKey = Query.formatMinute(timestamp);
+        }
+        return lastMinuteKey;
+    }
+    
+    /**
+     * Adds the results of another visitor to this one
+     * @param other The visitor to merge into this one
+     */
+    public void merge(QueryVisitor other)
+    {
+        linesScanned += other.linesScanned;
+        parseFailures += other.parseFailures;
+        matches += other.matches;
+        
+        for (QueryGroup group : other.groups.values())
+        {
+            QueryGroup existing = groups.get(group.getKey());
+            if (existing == null)
+                groups.put(group.getKey(), group);
+            else
+                existing.merge(group);
+        }
+    }
+    
+    public HashMap<String, QueryGroup> getGroups()
+    {
+        return groups;
+    }
+    
+    public long getLinesScanned()
+    {
+        return linesScanned;
+    }
+    
+    public long getParseFailures()
+    {
+        return parseFailures;
+    }
+    
+    public long getMatches()
+    {
+        return matches;
+    }
+}
@@ -0,0 +1,119 @@
+package traffic.segment;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable buffer holding one encoded column of a segment
+ */
+class ColumnBuffer
+{
+    /** The encoded bytes of the column */
+    private byte[] data = new byte[4096];
+    /** The number of bytes written to the column */
+    private int size;
+    
+    /**
+     * Appends a signed value using a variable number of bytes. Small magnitudes use fewer bytes.
+     * @param value The value to append
+     */
+    public void writeSignedVarLong(long value)
+    {
+        // Zig-zag encoding maps small negative values to small positive ones
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+    
+    /**
+     * Appends a non-negative value using seven bits per byte
+     * @param value The value to append
+     */
+    public void writeVarLong(long value)
+    {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0)
+        {
+            data[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+    }
+    
+    /**
+     * Appends a two-byte value
+     * @param value The value to append
+     */
+    public void writeShort(short value)
+    {
+        ensureCapacity(2);
+        data[size++] = (byte) (value >> 8);
+        data[size++] = (byte) value;
+    }
+    
+    /**
+     * Writes the column's length followed by its contents
+     * @param out The stream to write to
+     */
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeInt(size);
+        out.write(data, 0, size);
+    }
+    
+    /**
+     * Returns the number of bytes written to the column
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Empties the column
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+    
+    private void ensureCapacity(int bytes)
+    {
+        if (size + bytes > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + bytes));
+    }
+    
+    /**
+     * Reads a value written by writeVarLong()
+     * @param data The encoded column
+     * @param position The position to read from. Advanced past the value
+     * @return The decoded value
+     */
+    public static long readVarLong(byte[] data, int[] position)
+    {
+        long value = 0;
+        int shift = 0;
+        int i = position[0];
+        while (true)
+        {
+            byte b = data[i++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                break;
+            shift += 7;
+        }
+        position[0] = i;
+        return value;
+    }
+    
+    /**
+     * Reads a value written by writeSignedVarLong()
+     * @param data The encoded column
+     * @param position The position to read from. Advanced past the value
+     * @return The decoded value
+     */
+    public static long readSignedVarLong(byte[] data, int[] position)
+    {
+        long value = readVarLong(data, position);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
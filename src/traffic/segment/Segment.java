@@ -0,0 +1,50 @@
+package traffic.segment;
+
+/**
+ * A block of logs stored column by column. Host and section columns hold indexes
+ * into the segment's dictionaries.
+ */
+public class Segment
+{
+    /** The number of logs in the segment */
+    public int rowCount;
+    
+    /** The earliest timestamp in the segment */
+    public long minTime;
+    /** The latest timestamp in the segment */
+    public long maxTime;
+    /** The smallest status code in the segment */
+    public short minStatus;
+    /** The largest status code in the segment */
+    public short maxStatus;
+    /** The smallest number of bytes served by a log in the segment */
+    public long minBytes;
+    /** The largest number of bytes served by a log in the segment */
+    public long maxBytes;
+    
+    /** The distinct hosts in the segment */
+    public String[] hosts;
+    /** The distinct sections in the segment */
+    public String[] sections;
+    
+    /** The timestamp of each log */
+    public long[] times;
+    /** The index of each log's host in the host dictionary */
+    public int[] hostIds;
+    /** The index of each log's section in the section dictionary */
+    public int[] sectionIds;
+    /** The status code of each log */
+    public short[] statuses;
+    /** The number of bytes served by each log */
+    public long[] bytes;
+    
+    /**
+     * Returns true if some log in this segment may be dated within the time range
+     * @param from The start of the range, or -1 if unbounded
+     * @param to The end of the range (exclusive), or -1 if unbounded
+     */
+    public boolean overlaps(long from, long to)
+    {
+        return (from < 0 || maxTime >= from) && (to < 0 || minTime < to);
+    }
+}
@@ -0,0 +1,168 @@
+package traffic.segment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import traffic.log.LineVisitor;
+import traffic.log.LogFormat;
+import traffic.log.MappedLogReader;
+
+/**
+ * Converts a log into a segment file.
+ *
+ * Usage: SegmentConverter [--format FORMAT] input.log [output.seg]
+ *   --format FORMAT    common, combined, or an Apache/nginx format string (default: common)
+ */
+public class SegmentConverter
+{
+    /** The extension of segment files */
+    public static final String EXTENSION = ".seg";
+    
+    /** The number of bytes of the log converted per thread before the results are written out */
+    private static final long BYTES_PER_THREAD = 64L * 1024 * 1024;
+    
+    public static void main(String[] args) throws IOException
+    {
+        LogFormat format = LogFormat.COMMON;
+        ArrayList<String> paths = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--format") && i + 1 < args.length)
+                format = LogFormat.forName(args[++i]);
+            else
+                paths.add(args[i]);
+        }
+        if (paths.size() < 1)
+        {
+            System.out.println("Error: expecting a log file");
+            return;
+        }
+        
+        File log = new File(paths.get(0));
+        if (!log.exists())
+        {
+            System.out.println("Error: File does not exist: " + paths.get(0));
+            System.exit(1);
+        }
+        File output = new File((paths.size() > 1)? paths.get(1) : paths.get(0) + EXTENSION);
+        
+        long startTime = System.currentTimeMillis();
+        long skippedLines = convert(log, output, format, Runtime.getRuntime().availableProcessors());
+        
+        System.out.println("Converted " + log + " (" + log.length() + " bytes) to " 
+                + output + " (" + output.length() + " bytes) in " 
+                + (System.currentTimeMillis() - startTime) / 1000.0 + "s, skipping "
+                + skippedLines + " unparseable lines");
+    }
+    
+    /**
+     * Converts a log into a segment file. The log is converted in parallel, one range at a
+     * time, so that only one range of encoded segments is held in memory.
+     * @param log The log to convert
+     * @param output The segment file to write
+     * @param threads The number of threads converting the log
+     * @return The number of lines that could not be converted
+     */
+    public static long convert(File log, File output, int threads) throws IOException
+    {
+        return convert(log, output, LogFormat.COMMON, threads);
+    }
+    
+    /**
+     * Converts a log into a segment file. The log is converted in parallel, one range at a
+     * time, so that only one range of encoded segments is held in memory.
+     * @param log The log to convert
+     * @param output The segment file to write
+     * @param format The layout of the log's lines
+     * @param threads The number of threads converting the log
+     * @return The number of lines that could not be converted
+     */
+    public static long convert(File log, File output, LogFormat format, int threads) throws IOException
+    {
+        return convert(log, output, format, threads, MappedLogReader.DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Converts a log into a segment file, encoding chunks of the given size in parallel.
+     * Each chunk's segments hold their own dictionaries of hosts and sections.
+     * @param log The log to convert
+     * @param output The segment file to write
+     * @param format The layout of the log's lines
+     * @param threads The number of threads converting the log
+     * @param chunkSize The number of bytes of the log in each chunk
+     * @return The number of lines that could not be converted
+     */
+    public static long convert(File log, File output, final LogFormat format, int threads, long chunkSize) throws IOException
+    {
+        MappedLogReader reader = new MappedLogReader(log, threads, chunkSize);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16);
+        long skippedLines = 0;
+        try
+        {
+            new SegmentWriter(out, true).flush();
+            
+            long length = log.length();
+            long rangeSize = BYTES_PER_THREAD * threads;
+            for (long start = 0; start < length; start += rangeSize)
+            {
+                // Each chunk of the range is encoded into its own buffer
+                ArrayList<ChunkConverter> chunks = reader.scan(start, Math.min(length, start + rangeSize), 
+                        new Supplier<ChunkConverter>() {
+                            public ChunkConverter get()
+                            {
+                                return new ChunkConverter(format);
+                            }
+                        });
+                
+                for (int i = 0; i < chunks.size(); i++)
+                {
+                    ChunkConverter chunk = chunks.get(i);
+                    chunk.writer.flush();
+                    chunk.buffer.writeTo(out);
+                    skippedLines += chunk.writer.getSkippedLines();
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return skippedLines;
+    }
+    
+    /**
+     * Converts one chunk of a log into segments held in memory
+     */
+    private static class ChunkConverter implements LineVisitor
+    {
+        /** Holds the encoded segments of the chunk */
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        /** Encodes the logs of the chunk */
+        SegmentWriter writer;
+        
+        ChunkConverter(LogFormat format)
+        {
+            try
+            {
+                writer = new SegmentWriter(buffer, false);
+                writer.setFormat(format);
+            }
+            catch (IOException e)
+            {
+                // Writing to memory cannot fail
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        public void visitLine(byte[] line, int length, long offset)
+        {
+            writer.visitLine(line, length, offset);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package traffic.segment;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the segments of a segment file
+ */
+public class SegmentReader
+{
+    /** The segment file to read */
+    private File file;
+    
+    /**
+     * Creates a reader of the given segment file
+     * @param file A file written by SegmentWriter
+     */
+    public SegmentReader(File file)
+    {
+        this.file = file;
+    }
+    
+    /**
+     * Decodes every segment in the file
+     * @param visitor Receives each segment
+     */
+    public void read(SegmentVisitor visitor) throws IOException
+    {
+        read(-1, -1, visitor);
+    }
+    
+    /**
+     * Decodes the segments that may contain logs dated within the time range.
+     * Other segments are skipped without being decoded.
+     * @param from The start of the range, or -1 if unbounded
+     * @param to The end of the range (exclusive), or -1 if unbounded
+     * @param visitor Receives each decoded segment
+     */
+    public void read(long from, long to, SegmentVisitor visitor) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try
+        {
+            if (in.readInt() != SegmentWriter.MAGIC)
+                throw new IOException("Not a segment file: " + file);
+            if (in.readInt() != SegmentWriter.VERSION)
+                throw new IOException("Unsupported segment version: " + file);
+            
+            Segment segment = new Segment();
+            byte[] column = new byte[0];
+            while (true)
+            {
+                try
+                {
+                    segment.rowCount = in.readInt();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                segment.minTime = in.readLong();
+                segment.maxTime = in.readLong();
+                segment.minStatus = in.readShort();
+                segment.maxStatus = in.readShort();
+                segment.minBytes = in.readLong();
+                segment.maxBytes = in.readLong();
+                int bodyLength = in.readInt();
+                
+                if (!segment.overlaps(from, to))
+                {
+                    in.skipBytes(bodyLength);
+                    continue;
+                }
+                
+                column = decode(in, segment, column);
+                visitor.visitSegment(segment);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Decodes the dictionaries and columns of a segment
+     * @param in The stream positioned after the segment's statistics
+     * @param segment Receives the decoded columns
+     * @param column A buffer for the encoded columns, replaced if too small
+     * @return The buffer used for encoded columns
+     */
+    private byte[] decode(DataInputStream in, Segment segment, byte[] column) throws IOException
+    {
+        int rowCount = segment.rowCount;
+        if (segment.times == null || segment.times.length < rowCount)
+        {
+            segment.times = new long[rowCount];
+            segment.hostIds = new int[rowCount];
+            segment.sectionIds = new int[rowCount];
+            segment.statuses = new short[rowCount];
+            segment.bytes = new long[rowCount];
+        }
+        
+        segment.hosts = readDictionary(in);
+        segment.sections = readDictionary(in);
+        int[] position = new int[1];
+        
+        // Times are stored as differences from the previous time
+        column = readColumn(in, column);
+        long time = segment.minTime;
+        for (int i = 0; i < rowCount; i++)
+        {
+            time += ColumnBuffer.readSignedVarLong(column, position);
+            segment.times[i] = time;
+        }
+        
+        column = readColumn(in, column);
+        position[0] = 0;
+        for (int i = 0; i < rowCount; i++)
+        {
+            segment.hostIds[i] = (int) ColumnBuffer.readVarLong(column, position);
+        }
+        
+        column = readColumn(in, column);
+        position[0] = 0;
+        for (int i = 0; i < rowCount; i++)
+        {
+            segment.sectionIds[i] = (int) ColumnBuffer.readVarLong(column, position);
+        }
+        
+        column = readColumn(in, column);
+        for (int i = 0; i < rowCount; i++)
+        {
+            segment.statuses[i] = (short) ((column[2*i] << 8) | (column[2*i+1] & 0xFF));
+        }
+        
+        column = readColumn(in, column);
+        position[0] = 0;
+        for (int i = 0; i < rowCount; i++)
+        {
+            segment.bytes[i] = ColumnBuffer.readVarLong(column, position);
+        }
+        
+        return column;
+    }
+    
+    /**
+     * Reads a length-prefixed column into the buffer, growing it if needed
+     */
+    private static byte[] readColumn(DataInputStream in, byte[] column) throws IOException
+    {
+        int length = in.readInt();
+        if (column.length < length)
+            column = new byte[Math.max(length, column.length * 2)];
+        in.readFully(column, 0, length);
+        return column;
+    }
+    
+    private static String[] readDictionary(DataInputStream in) throws IOException
+    {
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++)
+        {
+            dictionary[i] = in.readUTF();
+        }
+        return dictionary;
+    }
+}
@@ -0,0 +1,158 @@
+package traffic.segment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import traffic.log.Log;
+import traffic.log.LogBatch;
+import traffic.log.LogFormat;
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+import traffic.util.MetricPrinter;
+
+/**
+ * Replays a segment file through a metric manager and its throughput monitors, using the
+ * logs' own timestamps as the monitors' clock. The logs of each second are analyzed in batches.
+ *
+ * Usage: SegmentReplay [--text] [--threshold RPS] [--window MS] file
+ *   --text    Replay a log in common log format instead, to compare against segments
+ */
+public class SegmentReplay implements SegmentVisitor
+{
+    /** The manager receiving the replayed logs */
+    private MetricManager metricManager;
+    /** The maximum number of logs that are analyzed together */
+    private static final int BATCH_SIZE = 512;
+    
+    /** The replayed logs waiting to be analyzed, which all fall in the same second */
+    private LogBatch batch = new LogBatch(LogFormat.COMMON, BATCH_SIZE);
+    /** The timestamp of the first log in the batch */
+    private long batchTime;
+    /** The last second in which the monitors were updated */
+    private long lastUpdateSecond = Long.MIN_VALUE;
+    /** The number of logs replayed */
+    private long rowCount;
+    
+    /**
+     * Creates a replay that feeds the given manager
+     * @param metricManager The manager receiving the replayed logs
+     */
+    public SegmentReplay(MetricManager metricManager)
+    {
+        this.metricManager = metricManager;
+    }
+    
+    public void visitSegment(Segment segment)
+    {
+        for (int i = 0; i < segment.rowCount; i++)
+        {
+            batch.next().set(segment.hosts[segment.hostIds[i]], segment.sections[segment.sectionIds[i]],
+                    segment.statuses[i], segment.bytes[i], segment.times[i]);
+            replay(segment.times[i]);
+        }
+    }
+    
+    /**
+     * Adds the batch's next log to the batch, analyzing the previous second's logs and
+     * updating the monitors whenever a new second starts
+     * @param time The timestamp of the log
+     */
+    private void replay(long time)
+    {
+        long second = time / 1000;
+        if (second != lastUpdateSecond)
+        {
+            flush();
+            if (lastUpdateSecond != Long.MIN_VALUE)
+                metricManager.updateMonitors(time);
+            lastUpdateSecond = second;
+        }
+        
+        if (batch.size() == 0)
+            batchTime = time;
+        batch.add();
+        if (batch.isFull())
+            flush();
+        rowCount++;
+    }
+    
+    /**
+     * Analyzes the logs waiting in the batch
+     */
+    public void flush()
+    {
+        metricManager.analyzeBatch(batch, batchTime);
+        batch.clear();
+    }
+    
+    /**
+     * Replays a log in common log format, parsing every line
+     * @param file The log to replay
+     */
+    public void replayText(File file) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16);
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                Log textLog = batch.next();
+                long time = textLog.parse(line)? textLog.getTimestamp() : -1;
+                if (time >= 0)
+                {
+                    replay(time);
+                }
+            }
+            flush();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        boolean text = false;
+        double threshold = 1000.0;
+        long window = 120000;
+        File file = null;
+        
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--text"))
+                text = true;
+            else if (args[i].equals("--threshold") && i + 1 < args.length)
+                threshold = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--window") && i + 1 < args.length)
+                window = Long.parseLong(args[++i]);
+            else
+                file = new File(args[i]);
+        }
+        if (file == null || !file.exists())
+        {
+            System.out.println("Error: expecting a segment file");
+            System.exit(1);
+        }
+        
+        MetricManager metricManager = new MetricManager();
+        metricManager.addThroughputMonitor(new ThroughputMonitor(threshold, window, 1000));
+        SegmentReplay replay = new SegmentReplay(metricManager);
+        
+        long startTime = System.currentTimeMillis();
+        if (text)
+            replay.replayText(file);
+        else
+        {
+            new SegmentReader(file).read(replay);
+            replay.flush();
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        
+        new MetricPrinter(metricManager, 0).printMetrics();
+        System.out.println("Replayed " + replay.rowCount + " logs in " + elapsedTime / 1000.0 + "s");
+    }
+}
@@ -0,0 +1,14 @@
+package traffic.segment;
+
+/**
+ * Receives the segments read from a segment file
+ */
+public interface SegmentVisitor
+{
+    /**
+     * Called for each segment read from the file. The segment's arrays are reused
+     * for the next segment, so they should not be retained.
+     * @param segment The decoded segment
+     */
+    void visitSegment(Segment segment);
+}
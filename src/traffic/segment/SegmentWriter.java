@@ -0,0 +1,248 @@
+package traffic.segment;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import traffic.log.LineVisitor;
+import traffic.log.Log;
+import traffic.log.LogFormat;
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+
+/**
+ * Converts logs into compact columnar segments
+ */
+public class SegmentWriter implements LineVisitor
+{
+    /** Identifies segment files ("TSEG") */
+    public static final int MAGIC = 0x54534547;
+    /** The version of the segment file format */
+    public static final int VERSION = 1;
+    /** The maximum number of logs stored in one segment */
+    public static final int ROWS_PER_SEGMENT = 65536;
+
+    /** The stream receiving the segments */
+    private DataOutputStream out;
+    /** The layout of the converted log lines */
+    private LogFormat format = LogFormat.COMMON;
+
+    /** Maps each host in the current segment to its index */
+    private HashMap<String, Integer> hostIds = new HashMap<String, Integer>();
+    /** The hosts of the current segment, in index order */
+    private ArrayList<String> hosts = new ArrayList<String>();
+    /** Maps each section in the current segment to its index */
+    private HashMap<String, Integer> sectionIds = new HashMap<String, Integer>();
+    /** The sections of the current segment, in index order */
+    private ArrayList<String> sections = new ArrayList<String>();
+
+    /** The timestamp of each log in the current segment */
+    private long[] times = new long[ROWS_PER_SEGMENT];
+    private ColumnBuffer hostColumn = new ColumnBuffer();
+    private ColumnBuffer sectionColumn = new ColumnBuffer();
+    private ColumnBuffer statusColumn = new ColumnBuffer();
+    private ColumnBuffer bytesColumn = new ColumnBuffer();
+    private ColumnBuffer timeColumn = new ColumnBuffer();
+
+    /** The number of logs in the current segment */
+    private int rowCount;
+    private long minTime, maxTime;
+    private short minStatus, maxStatus;
+    private long minBytes, maxBytes;
+
+    /** The number of lines that could not be converted */
+    private long skippedLines;
+
+    /**
+     * Creates a writer of segments
+     * @param out The stream receiving the segments
+     * @param writeHeader True if the file header should be written before the first segment
+     */
+    public SegmentWriter(OutputStream out, boolean writeHeader) throws IOException
+    {
+        this.out = new DataOutputStream(out);
+        if (writeHeader)
+        {
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+    }
+
+    /**
+     * Sets the layout of the log lines passed to visitLine()
+     * @param format The layout of the log's lines
+     */
+    public void setFormat(LogFormat format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * Parses a log line and adds it to the current segment
+     */
+    public void visitLine(byte[] line, int length, long offset)
+    {
+        Log log = LogProcessor.parseLine(line, 0, length, format);
+        long timestamp = (log != null)? log.getTimestamp() : -1;
+        if (timestamp < 0)
+        {
+            skippedLines++;
+            return;
+        }
+
+        try
+        {
+            add(timestamp, log.getHost().toString(), MetricManager.getSection(log.getRequestUrl()),
+                    (short) log.getStatus(), log.getBytes());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not write segment", e);
+        }
+    }
+
+    /**
+     * Adds a log to the current segment, writing the segment once it is full
+     * @param time The timestamp of the log
+     * @param host The host that sent the request
+     * @param section The section of the requested URL
+     * @param status The status code of the response
+     * @param bytes The number of bytes served
+     */
+    public void add(long time, String host, String section, short status, long bytes) throws IOException
+    {
+        if (rowCount == 0)
+        {
+            minTime = maxTime = time;
+            minStatus = maxStatus = status;
+            minBytes = maxBytes = bytes;
+        }
+        else
+        {
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            minStatus = (short) Math.min(minStatus, status);
+            maxStatus = (short) Math.max(maxStatus, status);
+            minBytes = Math.min(minBytes, bytes);
+            maxBytes = Math.max(maxBytes, bytes);
+        }
+
+        times[rowCount++] = time;
+        hostColumn.writeVarLong(getId(host, hostIds, hosts));
+        sectionColumn.writeVarLong(getId(section, sectionIds, sections));
+        statusColumn.writeShort(status);
+        bytesColumn.writeVarLong(bytes);
+
+        if (rowCount == ROWS_PER_SEGMENT)
+            flush();
+    }
+
+    /**
+     * Returns the dictionary index of the value, adding it to the dictionary if needed
+     */
+    private static int getId(String value, HashMap<String, Integer> ids, ArrayList<String> dictionary)
+    {
+        Integer id = ids.get(value);
+        if (id == null)
+        {
+            id = dictionary.size();
+            ids.put(value, id);
+            dictionary.add(value);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the current segment, if it contains any logs, and starts a new one
+     */
+    public void flush() throws IOException
+    {
+        if (rowCount == 0)
+            return;
+
+        // Times are stored as the difference from the previous time, starting from the minimum
+        long previousTime = minTime;
+        for (int i = 0; i < rowCount; i++)
+        {
+            timeColumn.writeSignedVarLong(times[i] - previousTime);
+            previousTime = times[i];
+        }
+
+        // Segment statistics let readers skip segments without decoding them
+        out.writeInt(rowCount);
+        out.writeLong(minTime);
+        out.writeLong(maxTime);
+        out.writeShort(minStatus);
+        out.writeShort(maxStatus);
+        out.writeLong(minBytes);
+        out.writeLong(maxBytes);
+        out.writeInt(getBodyLength());
+
+        writeDictionary(hosts);
+        writeDictionary(sections);
+        timeColumn.writeTo(out);
+        hostColumn.writeTo(out);
+        sectionColumn.writeTo(out);
+        statusColumn.writeTo(out);
+        bytesColumn.writeTo(out);
+        out.flush();
+
+        // Start a new segment
+        rowCount = 0;
+        hostIds.clear();
+        hosts.clear();
+        sectionIds.clear();
+        sections.clear();
+        timeColumn.clear();
+        hostColumn.clear();
+        sectionColumn.clear();
+        statusColumn.clear();
+        bytesColumn.clear();
+    }
+
+    /**
+     * Returns the number of bytes written after the segment's statistics
+     */
+    private int getBodyLength() throws IOException
+    {
+        // Measure the dictionaries by writing them to a counting stream
+        DataOutputStream counter = new DataOutputStream(new OutputStream() {
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        });
+        writeDictionary(hosts, counter);
+        writeDictionary(sections, counter);
+
+        ColumnBuffer[] columns = { timeColumn, hostColumn, sectionColumn, statusColumn, bytesColumn };
+        int length = counter.size();
+        for (ColumnBuffer column : columns)
+        {
+            length += 4 + column.size();
+        }
+        return length;
+    }
+
+    private void writeDictionary(ArrayList<String> dictionary) throws IOException
+    {
+        writeDictionary(dictionary, out);
+    }
+
+    private static void writeDictionary(ArrayList<String> dictionary, DataOutputStream stream) throws IOException
+    {
+        stream.writeInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++)
+        {
+            stream.writeUTF(dictionary.get(i));
+        }
+    }
+
+    /**
+     * Returns the number of lines that could not be parsed and were not converted
+     */
+    public long getSkippedLines()
+    {
+        return skippedLines;
+    }
+}
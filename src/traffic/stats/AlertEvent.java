@@ -0,0 +1,35 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * A flight recorder event for an alert triggered or recovered from by a monitor
+ */
+@Name("traffic.Alert")
+@Label("Alert")
+@Description("An alert emitted by a monitor")
+@Category({ "Traffic Monitor", "Monitoring" })
+@Enabled(false)
+@StackTrace(false)
+public class AlertEvent extends jdk.jfr.Event
+{
+    @Label("Monitor")
+    public String monitor;
+
+    @Label("Message")
+    public String message;
+
+    @Label("Recovery")
+    public boolean recovery;
+
+    @Label("Alert Time")
+    @Description("The time at which the monitor dated the alert, which may be a log's timestamp")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    public long alertTime;
+}
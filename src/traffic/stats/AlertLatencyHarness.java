@@ -0,0 +1,247 @@
+package traffic.stats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import traffic.log.FileTailer;
+import traffic.log.LogProcessor;
+import traffic.monitor.Alert;
+import traffic.monitor.AlertListener;
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+
+/**
+ * Measures the latency of high traffic alerts from end to end: from the moment the lines
+ * which cross the threshold are appended to a log file, to the moment an alert listener is
+ * notified. The log is tailed and monitored like the application does, while a background
+ * writer keeps the traffic at half the threshold. Each trial appends a burst that crosses the
+ * threshold, then waits for the traffic to recover. The first trial warms up the code paths.
+ *
+ * Usage: AlertLatencyHarness [--trials N] [--window MS] rps...
+ *   rps    The thresholds to measure, in requests per second, e.g. 100 1000 10000
+ */
+public class AlertLatencyHarness
+{
+    /** Milliseconds between reads of the log file, as when the application tails a log */
+    private static final long FILE_READING_DELAY = 10;
+    /** Milliseconds between checks of monitors that poll, as when the application monitors a log */
+    private static final long MONITOR_INTERVAL = 100;
+    /** Milliseconds between writes of the background traffic, unless it is too light to be written that often */
+    private static final long BACKGROUND_WRITE_INTERVAL = 10;
+    /** Milliseconds to wait for an alert before a trial fails */
+    private static final long ALERT_TIMEOUT = 10000;
+    /** The line appended to the log, which is counted at the time it is read */
+    private static final byte[] LINE = ("10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] "
+            + "\"GET /twiki/bin/view/Main/WebHome HTTP/1.1\" 200 4523\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    /** The number of bursts measured at each traffic level */
+    private int trials;
+    /** The time window (in milliseconds) of the monitor */
+    private long window;
+    /** False once the background traffic should stop */
+    private volatile boolean writing;
+
+    /**
+     * Creates a harness
+     * @param trials The number of bursts measured at each traffic level
+     * @param window The time window (in milliseconds) of the monitor
+     */
+    public AlertLatencyHarness(int trials, long window)
+    {
+        if (trials <= 0 || window <= 0)
+            throw new IllegalArgumentException("AlertLatencyHarness requires positive trials and window");
+
+        this.trials = trials;
+        this.window = window;
+    }
+
+    /**
+     * Measures the alert latency of a monitor whose threshold is the given traffic level
+     * @param rps The threshold of the monitor, in requests per second
+     * @return The latency (in nanoseconds) of each trial, sorted
+     */
+    public long[] measure(double rps) throws IOException, InterruptedException
+    {
+        File file = File.createTempFile("latency", ".log");
+        file.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(file);
+
+        // Record when each alert reaches a listener
+        final LinkedBlockingQueue<Long> alertTimes = new LinkedBlockingQueue<Long>();
+        MetricManager metricManager = new MetricManager();
+        ThroughputMonitor monitor = new ThroughputMonitor(rps, window, MONITOR_INTERVAL);
+        monitor.addAlertListener(new AlertListener() {
+            public void alertTriggered(Alert alert)
+            {
+                if (!alert.isRecovery())
+                    alertTimes.offer(System.nanoTime());
+            }
+        });
+        metricManager.addThroughputMonitor(monitor);
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+
+        FileTailer tailer = new FileTailer(file, new LogProcessor(metricManager), FILE_READING_DELAY, 0);
+        Thread tailerThread = new Thread(tailer);
+        tailerThread.setDaemon(true);
+        tailerThread.start();
+
+        // Keep the traffic at half the threshold
+        int backgroundLines = Math.max(1, (int) (rps / 2 * BACKGROUND_WRITE_INTERVAL / 1000));
+        final byte[] background = repeat(backgroundLines);
+        final long backgroundInterval = (long) Math.ceil(backgroundLines * 1000 / (rps / 2));
+        writing = true;
+        Thread writer = new Thread(new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    while (writing)
+                    {
+                        write(out, background);
+                        Thread.sleep(backgroundInterval);
+                    }
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Error: Could not write the log: " + e.getMessage());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        Thread.sleep(window);
+
+        // A burst of two windows' worth of requests crosses the threshold halfway, and keeps the
+        // traffic above it until the burst leaves the window, so each burst alerts once
+        byte[] burst = repeat((int) Math.ceil(2 * rps * window / 1000.0));
+        long[] latencies = new long[trials + 1];
+        int measured = 0;
+        for (int i = 0; i <= trials; i++)
+        {
+            // Start from recovered traffic. Requests are counted per second, so the previous burst
+            // may still fill part of a second and cross the threshold again as it leaves the window.
+            // Wait for it to leave, varying the phase of the bursts against the monitor's and the
+            // tailer's intervals.
+            long recoveryDeadline = System.currentTimeMillis() + window + ALERT_TIMEOUT;
+            do
+            {
+                while (monitor.isAlerting() && System.currentTimeMillis() < recoveryDeadline)
+                {
+                    Thread.sleep(BACKGROUND_WRITE_INTERVAL);
+                }
+                Thread.sleep(1000 + i * 37 % MONITOR_INTERVAL);
+            }
+            while (monitor.isAlerting() && System.currentTimeMillis() < recoveryDeadline);
+            if (monitor.isAlerting())
+            {
+                System.out.println("Error: The traffic did not recover at " + rps + " requests per second");
+                break;
+            }
+            long writeTime = System.nanoTime();
+            write(out, burst);
+            
+            // Alerts raised before the write, as the tail of the previous burst leaves the window, are skipped
+            Long alertTime;
+            do
+            {
+                alertTime = alertTimes.poll(ALERT_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            while (alertTime != null && alertTime < writeTime);
+            if (alertTime == null)
+            {
+                System.out.println("Error: No alert was triggered at " + rps + " requests per second");
+                break;
+            }
+            latencies[measured++] = alertTime - writeTime;
+        }
+
+        writing = false;
+        writer.join();
+        tailer.stop();
+        monitor.stop();
+        metricManager.removeMonitor(monitor);
+        out.close();
+        // The first trial warms up the code paths, and is not measured
+        latencies = Arrays.copyOfRange(latencies, Math.min(1, measured), measured);
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Appends lines to the log in one write
+     */
+    private static synchronized void write(FileOutputStream out, byte[] lines) throws IOException
+    {
+        out.write(lines);
+        out.flush();
+    }
+
+    /**
+     * Returns the given number of lines, concatenated
+     */
+    private static byte[] repeat(int count)
+    {
+        byte[] lines = new byte[LINE.length * count];
+        for (int i = 0; i < count; i++)
+        {
+            System.arraycopy(LINE, 0, lines, i * LINE.length, LINE.length);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, in milliseconds
+     */
+    private static double getPercentile(long[] latencies, double percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, index)] / 1000000.0;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int trials = 20;
+        long window = 5000;
+        double[] levels = new double[args.length];
+        int levelCount = 0;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--trials") && i + 1 < args.length)
+                trials = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--window") && i + 1 < args.length)
+                window = Long.parseLong(args[++i]);
+            else
+                levels[levelCount++] = Double.parseDouble(args[i]);
+        }
+        if (levelCount == 0)
+        {
+            System.out.println("Error: expecting traffic levels in requests per second");
+            System.exit(1);
+        }
+
+        AlertLatencyHarness harness = new AlertLatencyHarness(trials, window);
+        System.out.println(String.format("%10s %8s %10s %10s %10s %10s",
+                "rps", "trials", "min ms", "p50 ms", "p90 ms", "max ms"));
+        for (int i = 0; i < levelCount; i++)
+        {
+            long[] latencies = harness.measure(levels[i]);
+            if (latencies.length == 0)
+                continue;
+            System.out.println(String.format("%10.0f %8d %10.1f %10.1f %10.1f %10.1f", levels[i], latencies.length,
+                    getPercentile(latencies, 0), getPercentile(latencies, 50),
+                    getPercentile(latencies, 90), getPercentile(latencies, 100)));
+        }
+        System.exit(0);
+    }
+}
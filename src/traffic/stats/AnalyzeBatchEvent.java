@@ -0,0 +1,31 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for a batch of parsed logs analyzed by the metric manager
+ */
+@Name("traffic.AnalyzeBatch")
+@Label("Analyze Batch")
+@Description("A batch of parsed logs added to the metrics and monitors")
+@Category({ "Traffic Monitor", "Ingestion" })
+@Enabled(false)
+@StackTrace(false)
+public class AnalyzeBatchEvent extends jdk.jfr.Event
+{
+    @Label("Logs")
+    public int logs;
+
+    @Label("Merged")
+    @Description("True if the batch was aggregated before being merged, false if its logs were added one by one")
+    public boolean merged;
+
+    @Label("Monitors")
+    @Description("The number of monitors that received the batch")
+    public int monitors;
+}
@@ -0,0 +1,53 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A periodic flight recorder event with the totals of {@link TrafficMonitorStats}
+ */
+@Name("traffic.IngestionStatistics")
+@Label("Ingestion Statistics")
+@Description("The lines read, parsed and analyzed since the monitor started")
+@Category({ "Traffic Monitor", "Ingestion" })
+@Enabled(false)
+@Period("1 s")
+@StackTrace(false)
+public class IngestionStatisticsEvent extends jdk.jfr.Event
+{
+    @Label("Lines Read")
+    public long linesRead;
+
+    @Label("Lines Parsed")
+    public long linesParsed;
+
+    @Label("Parse Failures")
+    public long parseFailures;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Tail Lag")
+    @Description("The bytes written to the log that were not read yet")
+    @DataAmount
+    public long tailLagBytes;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long parseNanos;
+
+    @Label("Analyze Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long analyzeNanos;
+
+    @Label("Monitor Threads")
+    public int monitorThreads;
+}
@@ -0,0 +1,42 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A flight recorder event for a log line that took long to parse. Only lines slower
+ * than the threshold are recorded, so the event can stay on while every line is timed.
+ */
+@Name("traffic.LogParse")
+@Label("Slow Log Line")
+@Description("A log line whose parsing took longer than the threshold")
+@Category({ "Traffic Monitor", "Ingestion" })
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+public class LogParseEvent extends jdk.jfr.Event
+{
+    /** The longest prefix of a line that is recorded */
+    public static final int MAX_LINE_LENGTH = 256;
+
+    @Label("Line")
+    public String line;
+
+    @Label("Length")
+    @Description("The number of characters in the line")
+    public int length;
+
+    /**
+     * Returns the start of a line, short enough to be recorded in an event
+     * @param line The line to record
+     */
+    public static String truncate(String line)
+    {
+        return (line.length() <= MAX_LINE_LENGTH)? line : line.substring(0, MAX_LINE_LENGTH);
+    }
+}
@@ -0,0 +1,72 @@
+package traffic.stats;
+
+import java.nio.charset.StandardCharsets;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for a log line that could not be parsed. A log full of malformed
+ * lines would flood the recording, so only one failure in every {@link #SAMPLE_INTERVAL} is recorded.
+ */
+@Name("traffic.LogParseFailure")
+@Label("Log Parse Failure")
+@Description("A sampled log line that could not be parsed")
+@Category({ "Traffic Monitor", "Ingestion" })
+@Enabled(false)
+@StackTrace(false)
+public class LogParseFailureEvent extends jdk.jfr.Event
+{
+    /** One failure in this many is recorded */
+    public static final int SAMPLE_INTERVAL = 64;
+
+    @Label("Line")
+    public String line;
+
+    @Label("Failures")
+    @Description("The number of lines that could not be parsed so far, including this one")
+    public long failures;
+
+    /**
+     * Records a failure if it is sampled and the event is enabled
+     * @param line The line that could not be parsed
+     * @param failures The number of failures so far, including this one
+     */
+    public static void record(String line, long failures)
+    {
+        if ((failures - 1) % SAMPLE_INTERVAL != 0)
+            return;
+
+        LogParseFailureEvent event = new LogParseFailureEvent();
+        if (!event.shouldCommit())
+            return;
+        event.line = LogParseEvent.truncate(line);
+        event.failures = failures;
+        event.commit();
+    }
+
+    /**
+     * Records a failure if it is sampled and the event is enabled. The line is only
+     * copied into a string when it is recorded.
+     * @param line The bytes containing the line that could not be parsed
+     * @param start The index of the line's first byte
+     * @param end The index after the line's last byte
+     * @param failures The number of failures so far, including this one
+     */
+    public static void record(byte[] line, int start, int end, long failures)
+    {
+        if ((failures - 1) % SAMPLE_INTERVAL != 0)
+            return;
+
+        LogParseFailureEvent event = new LogParseFailureEvent();
+        if (!event.shouldCommit())
+            return;
+        event.line = LogParseEvent.truncate(new String(line, start, end - start, StandardCharsets.ISO_8859_1));
+        event.failures = failures;
+        event.commit();
+    }
+}
@@ -0,0 +1,50 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A flight recorder event for one check of a throughput or bandwidth monitor
+ */
+@Name("traffic.MonitorUpdate")
+@Label("Monitor Update")
+@Description("A monitor comparing its time window with its threshold")
+@Category({ "Traffic Monitor", "Monitoring" })
+@Enabled(false)
+@StackTrace(false)
+public class MonitorUpdateEvent extends jdk.jfr.Event
+{
+    /** The decision when the monitor's state did not change */
+    public static final String NONE = "none";
+    /** The decision when the monitor triggered a critical alert */
+    public static final String ALERT = "alert";
+    /** The decision when the monitor recovered */
+    public static final String RECOVER = "recover";
+
+    @Label("Monitor")
+    public String monitor;
+
+    @Label("Window")
+    @Timespan(Timespan.MILLISECONDS)
+    public long window;
+
+    @Label("Count")
+    @Description("The requests or bytes counted in the window")
+    public long count;
+
+    @Label("Rate")
+    @Description("The count per second in the window")
+    public double rate;
+
+    @Label("Threshold")
+    public double threshold;
+
+    @Label("Decision")
+    @Description("\"alert\", \"recover\" or \"none\"")
+    public String decision;
+}
@@ -0,0 +1,24 @@
+package traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for the metric printer rendering one interval to the screen
+ */
+@Name("traffic.Render")
+@Label("Render Metrics")
+@Description("The metric printer rendering the metrics of an interval")
+@Category({ "Traffic Monitor", "Output" })
+@Enabled(false)
+@StackTrace(false)
+public class RenderEvent extends jdk.jfr.Event
+{
+    @Label("Requests")
+    @Description("The number of requests in the rendered interval")
+    public long requests;
+}
@@ -0,0 +1,333 @@
+package traffic.stats;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Records how well the traffic monitor keeps up with the log it reads.
+ * Counters are striped per thread, so recording never takes a lock.
+ */
+public class TrafficMonitorStats implements TrafficMonitorStatsMBean
+{
+    /** The name under which the statistics are registered with JMX */
+    public static final String OBJECT_NAME = "traffic:type=TrafficMonitorStats";
+
+    /** The statistics shared by the whole process */
+    private static final TrafficMonitorStats INSTANCE = new TrafficMonitorStats();
+
+    private final LongAdder linesRead = new LongAdder();
+    private final LongAdder linesParsed = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder analyzeNanos = new LongAdder();
+    private final LongAdder monitorUpdateNanos = new LongAdder();
+    private final LongAdder monitorUpdates = new LongAdder();
+    private final LongAdder printerRenderNanos = new LongAdder();
+    private final LongAdder printerRenders = new LongAdder();
+
+    /** True once the periodic flight recorder event was registered */
+    private final AtomicBoolean flightEventsRegistered = new AtomicBoolean();
+
+    /** The number of monitor threads currently running */
+    private final AtomicInteger monitorThreads = new AtomicInteger();
+
+    /** The log file being read, used to compute the tail lag */
+    private volatile File logFile;
+    /** The byte offset of the next line to read in the log file, which starts again at zero when the log is rotated */
+    private volatile long logOffset;
+    /** The timestamp of the last parsed log, or -1 if it is unknown */
+    private volatile long lastLogTime = -1;
+
+    /**
+     * Returns the statistics shared by the whole process
+     * @return The process-wide statistics
+     */
+    public static TrafficMonitorStats getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server
+     */
+    public void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(this, name);
+        }
+        catch (JMException e)
+        {
+            System.out.println("Error: Could not register statistics with JMX: " + e.getMessage());
+        }
+        registerFlightEvents();
+    }
+
+    /**
+     * Emits these statistics as a periodic flight recorder event, when a recording enables it
+     */
+    public void registerFlightEvents()
+    {
+        if (!flightEventsRegistered.compareAndSet(false, true))
+            return;
+
+        FlightRecorder.addPeriodicEvent(IngestionStatisticsEvent.class, new Runnable() {
+            public void run()
+            {
+                IngestionStatisticsEvent event = new IngestionStatisticsEvent();
+                event.linesRead = getLinesRead();
+                event.linesParsed = getLinesParsed();
+                event.parseFailures = getParseFailures();
+                event.bytesRead = getBytesRead();
+                event.tailLagBytes = getTailLagBytes();
+                event.parseNanos = getParseNanos();
+                event.analyzeNanos = getAnalyzeNanos();
+                event.monitorThreads = getMonitorThreadCount();
+                event.commit();
+            }
+        });
+    }
+
+    /**
+     * Sets the log file being read
+     * @param logFile The file tailed by the monitor
+     */
+    public void setLogFile(File logFile)
+    {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Sets the position of the reader in the log file, which the tail lag is measured from
+     * @param logOffset The byte offset of the next line to read in the log file
+     */
+    public void setLogOffset(long logOffset)
+    {
+        this.logOffset = logOffset;
+    }
+
+    /**
+     * Records a line read from the log
+     * @param bytes The number of bytes in the line, including its line terminator
+     */
+    public void lineRead(int bytes)
+    {
+        linesRead.increment();
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Records a line that was parsed successfully
+     * @param nanos Nanoseconds spent parsing the line
+     * @param logTime The timestamp of the parsed log
+     */
+    public void lineParsed(long nanos, long logTime)
+    {
+        linesParsed.increment();
+        parseNanos.add(nanos);
+        lastLogTime = logTime;
+    }
+
+    /**
+     * Records lines that were read in bulk before the log was tailed
+     * @param lines The number of lines read
+     * @param failures The number of lines that could not be parsed
+     * @param bytes The number of bytes read
+     * @param logTime The timestamp of the last parsed log
+     */
+    public void linesBackfilled(long lines, long failures, long bytes, long logTime)
+    {
+        linesRead.add(lines);
+        linesParsed.add(lines - failures);
+        parseFailures.add(failures);
+        bytesRead.add(bytes);
+        lastLogTime = logTime;
+    }
+
+    /**
+     * Records a line that could not be parsed
+     * @param nanos Nanoseconds spent trying to parse the line
+     */
+    public void parseFailed(long nanos)
+    {
+        parseFailures.increment();
+        parseNanos.add(nanos);
+    }
+
+    /**
+     * Records the time spent analyzing a parsed log
+     * @param nanos Nanoseconds spent analyzing the log
+     */
+    public void analyzed(long nanos)
+    {
+        analyzeNanos.add(nanos);
+    }
+
+    /**
+     * Records the time spent on one monitor update
+     * @param nanos Nanoseconds spent updating the monitor
+     */
+    public void monitorUpdated(long nanos)
+    {
+        monitorUpdates.increment();
+        monitorUpdateNanos.add(nanos);
+    }
+
+    /**
+     * Records the time spent rendering metrics
+     * @param nanos Nanoseconds spent rendering
+     */
+    public void printerRendered(long nanos)
+    {
+        printerRenders.increment();
+        printerRenderNanos.add(nanos);
+    }
+
+    /**
+     * Records that a monitor thread started
+     */
+    public void monitorThreadStarted()
+    {
+        monitorThreads.incrementAndGet();
+    }
+
+    /**
+     * Records that a monitor thread stopped
+     */
+    public void monitorThreadStopped()
+    {
+        monitorThreads.decrementAndGet();
+    }
+
+    public long getLinesRead()
+    {
+        return linesRead.sum();
+    }
+
+    public long getLinesParsed()
+    {
+        return linesParsed.sum();
+    }
+
+    public long getParseFailures()
+    {
+        return parseFailures.sum();
+    }
+
+    public long getBytesRead()
+    {
+        return bytesRead.sum();
+    }
+
+    public long getTailLagBytes()
+    {
+        File file = logFile;
+        if (file == null)
+            return 0;
+        return Math.max(0, file.length() - logOffset);
+    }
+
+    public double getTailLagSeconds()
+    {
+        long logTime = lastLogTime;
+        if (logTime < 0)
+            return 0.0;
+        return (System.currentTimeMillis() - logTime) / 1000.0;
+    }
+
+    public long getParseNanos()
+    {
+        return parseNanos.sum();
+    }
+
+    public long getAnalyzeNanos()
+    {
+        return analyzeNanos.sum();
+    }
+
+    public long getMonitorUpdateNanos()
+    {
+        return monitorUpdateNanos.sum();
+    }
+
+    public long getMonitorUpdates()
+    {
+        return monitorUpdates.sum();
+    }
+
+    public long getPrinterRenderNanos()
+    {
+        return printerRenderNanos.sum();
+    }
+
+    public long getPrinterRenders()
+    {
+        return printerRenders.sum();
+    }
+
+    public double getAverageParseNanos()
+    {
+        return average(parseNanos.sum(), linesRead.sum());
+    }
+
+    public double getAverageAnalyzeNanos()
+    {
+        return average(analyzeNanos.sum(), linesParsed.sum());
+    }
+
+    public double getAverageMonitorUpdateNanos()
+    {
+        return average(monitorUpdateNanos.sum(), monitorUpdates.sum());
+    }
+
+    public double getAveragePrinterRenderNanos()
+    {
+        return average(printerRenderNanos.sum(), printerRenders.sum());
+    }
+
+    public int getMonitorThreadCount()
+    {
+        return monitorThreads.get();
+    }
+
+    public int getLiveThreadCount()
+    {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    public void reset()
+    {
+        linesRead.reset();
+        linesParsed.reset();
+        parseFailures.reset();
+        bytesRead.reset();
+        parseNanos.reset();
+        analyzeNanos.reset();
+        monitorUpdateNanos.reset();
+        monitorUpdates.reset();
+        printerRenderNanos.reset();
+        printerRenders.reset();
+    }
+
+    /**
+     * Divides a total by a count, returning zero if nothing was counted
+     */
+    private static double average(long total, long count)
+    {
+        return (count > 0)? total / (double)count : 0.0;
+    }
+}
@@ -0,0 +1,64 @@
+package traffic.stats;
+
+/**
+ * Management interface exposing the traffic monitor's own ingestion statistics over JMX
+ */
+public interface TrafficMonitorStatsMBean
+{
+    /** @return The number of lines read from the log */
+    long getLinesRead();
+
+    /** @return The number of lines that were parsed into a log */
+    long getLinesParsed();
+
+    /** @return The number of lines that could not be parsed */
+    long getParseFailures();
+
+    /** @return The number of bytes read from the log */
+    long getBytesRead();
+
+    /** @return The number of bytes in the log file that have not been read yet */
+    long getTailLagBytes();
+
+    /** @return Seconds between the current time and the date of the last parsed log */
+    double getTailLagSeconds();
+
+    /** @return Total nanoseconds spent parsing log lines */
+    long getParseNanos();
+
+    /** @return Total nanoseconds spent analyzing parsed logs */
+    long getAnalyzeNanos();
+
+    /** @return Total nanoseconds spent updating monitors */
+    long getMonitorUpdateNanos();
+
+    /** @return The number of monitor updates performed */
+    long getMonitorUpdates();
+
+    /** @return Total nanoseconds spent rendering metrics */
+    long getPrinterRenderNanos();
+
+    /** @return The number of times metrics were rendered */
+    long getPrinterRenders();
+
+    /** @return Average nanoseconds spent parsing a line */
+    double getAverageParseNanos();
+
+    /** @return Average nanoseconds spent analyzing a parsed log */
+    double getAverageAnalyzeNanos();
+
+    /** @return Average nanoseconds spent on one monitor update */
+    double getAverageMonitorUpdateNanos();
+
+    /** @return Average nanoseconds spent rendering metrics once */
+    double getAveragePrinterRenderNanos();
+
+    /** @return The number of monitor threads currently running */
+    int getMonitorThreadCount();
+
+    /** @return The number of live threads in the process */
+    int getLiveThreadCount();
+
+    /** Resets all counters to zero. The tail lag still follows the position in the log */
+    void reset();
+}
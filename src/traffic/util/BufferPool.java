@@ -0,0 +1,64 @@
+package traffic.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Lends direct byte buffers of one size, so that channels can be read without copying through
+ * a temporary buffer, and without allocating a buffer for each connection. Direct buffers are
+ * costly to allocate and are only freed by the garbage collector, so released buffers are kept
+ * for reuse, up to a limit.
+ */
+public class BufferPool
+{
+    /** The capacity of every buffer */
+    private int bufferSize;
+    /** The most released buffers that are kept for reuse */
+    private int maxPooled;
+    /** The released buffers waiting to be reused */
+    private ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * Creates an empty pool
+     * @param bufferSize The capacity of every buffer
+     * @param maxPooled The most released buffers that are kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled)
+    {
+        if (bufferSize <= 0 || maxPooled < 0)
+            throw new IllegalArgumentException("BufferPool requires a positive buffer size");
+
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a cleared buffer, reusing a released buffer if there is one
+     */
+    public synchronized ByteBuffer acquire()
+    {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used once it is released.
+     * @param buffer A buffer acquired from this pool
+     */
+    public synchronized void release(ByteBuffer buffer)
+    {
+        if (buffers.size() < maxPooled)
+            buffers.push(buffer);
+    }
+
+    /**
+     * Returns the number of released buffers waiting to be reused
+     */
+    public synchronized int getPooledCount()
+    {
+        return buffers.size();
+    }
+}
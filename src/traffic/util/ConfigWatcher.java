@@ -0,0 +1,151 @@
+package traffic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import traffic.monitor.MetricManager;
+import traffic.monitor.MetricMonitor;
+import traffic.monitor.MonitorConfig;
+import traffic.monitor.MonitorConfig.MonitorSpec;
+
+/**
+ * Creates the monitors declared in a configuration file, and applies the file's changes
+ * while logs are being analyzed.
+ *
+ * Monitors whose settings did not change keep running with their state. Removed or changed
+ * monitors are stopped, and new or changed monitors are created with their window already
+ * filled from the manager's recent traffic. Every monitor is fed by the manager's single
+ * pass over the logs, so adding monitors does not parse the logs again.
+ */
+public class ConfigWatcher implements Runnable
+{
+    /** The configuration file */
+    private File file;
+    /** The manager whose monitors are configured */
+    private MetricManager metricManager;
+    /** The printer whose interval is configured */
+    private MetricPrinter metricPrinter;
+    /** Milliseconds between checking whether the file changed */
+    private long delay;
+
+    /** The running monitors, by name */
+    private HashMap<String, MetricMonitor> monitors = new HashMap<String, MetricMonitor>();
+    /** The settings of each running monitor, by name */
+    private HashMap<String, MonitorSpec> specs = new HashMap<String, MonitorSpec>();
+    /** The modification time of the file when it was last read */
+    private long lastModified;
+
+    /**
+     * Creates a watcher for the given configuration file
+     * @param file The configuration file
+     * @param metricManager The manager whose monitors are configured
+     * @param metricPrinter The printer whose interval is configured
+     * @param delay Milliseconds between checking whether the file changed
+     */
+    public ConfigWatcher(File file, MetricManager metricManager, MetricPrinter metricPrinter, long delay)
+    {
+        if (delay <= 0)
+            throw new IllegalArgumentException("ConfigWatcher requires a positive delay");
+
+        this.file = file;
+        this.metricManager = metricManager;
+        this.metricPrinter = metricPrinter;
+        this.delay = delay;
+    }
+
+    /**
+     * Reloads the file whenever it is modified
+     */
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            if (file.lastModified() != lastModified)
+                reload();
+        }
+    }
+
+    /**
+     * Reads the file and applies its monitors, print interval and memory budget. If the file is invalid,
+     * the error is printed and the current monitors are kept.
+     * @return The configuration, or null if the file is invalid
+     */
+    public synchronized MonitorConfig reload()
+    {
+        lastModified = file.lastModified();
+        MonitorConfig config;
+        try
+        {
+            config = MonitorConfig.load(file);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.out.println("Error: could not load " + file + ": " + e.getMessage());
+            return null;
+        }
+
+        apply(config, System.currentTimeMillis());
+        return config;
+    }
+
+    /**
+     * Stops the monitors that were removed or changed, starts the new or changed ones, and
+     * applies the print interval and memory budget
+     * @param config The configuration to apply
+     * @param currentTime The time at which new monitors' windows end
+     */
+    public synchronized void apply(MonitorConfig config, long currentTime)
+    {
+        Map<String, MonitorSpec> newSpecs = config.getMonitors();
+        Iterator<Map.Entry<String, MonitorSpec>> entries = specs.entrySet().iterator();
+        while (entries.hasNext())
+        {
+            Map.Entry<String, MonitorSpec> entry = entries.next();
+            if (entry.getValue().equals(newSpecs.get(entry.getKey())))
+                continue;
+
+            MetricMonitor monitor = monitors.remove(entry.getKey());
+            metricManager.removeMonitor(monitor);
+            monitor.stop();
+            entries.remove();
+        }
+
+        for (MonitorSpec spec : newSpecs.values())
+        {
+            if (specs.containsKey(spec.getName()))
+                continue;
+
+            MetricMonitor monitor = spec.createMonitor();
+            metricManager.addMonitor(monitor, spec.getWindow(), currentTime);
+            new Thread(monitor).start();
+            monitors.put(spec.getName(), monitor);
+            specs.put(spec.getName(), spec);
+        }
+
+        if (metricPrinter != null)
+            metricPrinter.setDelay(config.getPrintInterval());
+        if (config.getMemoryBudget() >= 0)
+            metricManager.setMemoryBudget(config.getMemoryBudget());
+    }
+
+    /**
+     * Returns the running monitor with the given name
+     * @return The monitor, or null if no monitor has this name
+     */
+    public synchronized MetricMonitor getMonitor(String name)
+    {
+        return monitors.get(name);
+    }
+}
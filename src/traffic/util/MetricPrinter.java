@@ -1,10 +1,26 @@
 package traffic.util;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 import traffic.monitor.Alert;
+import traffic.monitor.BandwidthAlert;
+import traffic.monitor.BaselineMonitor;
+import traffic.monitor.BurstMonitor;
+import traffic.monitor.ByteCounter;
+import traffic.monitor.ClientMonitor;
+import traffic.monitor.LatencyHistogram;
+import traffic.monitor.MemoryBudget;
 import traffic.monitor.MetricManager;
+import traffic.monitor.MetricMonitor;
 import traffic.monitor.Metrics;
+import traffic.monitor.SectionTrie;
+import traffic.monitor.SubnetTrie;
+import traffic.monitor.Website;
+import traffic.stats.RenderEvent;
+import traffic.stats.TrafficMonitorStats;
 
 /**
  * Prints metrics at a desired interval
@@ -14,8 +30,32 @@ public class MetricPrinter extends PrettyPrinter implements Runnable
     /** Stores metrics analyzed from logs */
     private MetricManager metricManager;
     
+    /** The response time percentiles that are printed */
+    private static final double[] LATENCY_PERCENTILES = { 50.0, 90.0, 99.0 };
+    /** The number of sections whose response times are printed */
+    private static final int LATENCY_SECTIONS = 5;
+    /** The number of websites and sections that served the most bytes which are printed */
+    private static final int TOP_BANDWIDTH_CONSUMERS = 3;
+    /** The number of first-level sections with the most requests which are printed */
+    private static final int TOP_SECTIONS = 5;
+    /** The number of subsections with the most requests which are printed under each section */
+    private static final int TOP_SUBSECTIONS = 3;
+    /** The number of clients with the most requests which are printed */
+    private static final int TOP_CLIENTS = 5;
+    /** The number of sections with the highest baselines which are printed */
+    private static final int TOP_BASELINES = 5;
+    /** The prefix lengths of the printed subnets: IPv4 /16 and /24, then IPv6 /48 and /64 */
+    private static final int[] SUBNET_PREFIXES = { 16, 24, 48, 64 };
+    /** The number of subnets with the most requests which are printed for each prefix length */
+    private static final int TOP_SUBNETS = 3;
+    
+    /** The number of top sections in each exported snapshot */
+    private static final int EXPORTED_SECTIONS = 10;
+    
     /** The amount of delay between printing each batch of metrics */
-    private long delay;
+    private volatile long delay;
+    /** Writes the metrics of each interval to a file, or null if they are not exported */
+    private MetricsExporter exporter;
     
     /**
      * Creates printer for metrics.
@@ -35,12 +75,32 @@ public class MetricPrinter extends PrettyPrinter implements Runnable
         while (true)
         {
             printMetrics();
+            if (exporter != null)
+                exporter.export(MetricsSnapshot.take(metricManager, EXPORTED_SECTIONS));
             metricManager.flushMetrics();
             
             sleep();
         }
     }
     
+    /**
+     * Exports the metrics of each interval before they are flushed
+     * @param exporter Writes the metrics to a file in the background
+     */
+    public void setExporter(MetricsExporter exporter)
+    {
+        this.exporter = exporter;
+    }
+    
+    /**
+     * Changes the delay between printing metrics, starting after the next batch
+     * @param delay The amount of milliseconds to wait between printing each batch of metrics
+     */
+    public void setDelay(long delay)
+    {
+        this.delay = delay;
+    }
+    
     /**
      * Helper function that sleeps this thread for "delay" milliseconds
      */
@@ -59,8 +119,12 @@ public class MetricPrinter extends PrettyPrinter implements Runnable
     /**
      * Prints metrics that were analyzed from the logs
      */
-    private void printMetrics()
+    public void printMetrics()
     {
+        RenderEvent event = new RenderEvent();
+        event.begin();
+        long startTime = System.nanoTime();
+        
         // Clear the screen
         System.out.print("\033[H\033[2J");
         System.out.flush();
@@ -68,8 +132,23 @@ public class MetricPrinter extends PrettyPrinter implements Runnable
         
         printMaxSites();
         printWorkMetrics();
+        printSectionTree();
+        printBandwidthReport();
+        printLatencyReport();
+        printTopClients();
+        printBaselines();
+        printTopSubnets();
+        printMemoryReport();
         printStatusCodeReport();
         printAlertHistory();
+        
+        TrafficMonitorStats.getInstance().printerRendered(System.nanoTime() - startTime);
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.requests = metricManager.getCurrentMetrics().totalRequests;
+            event.commit();
+        }
     }
     
     /**
@@ -129,11 +208,258 @@ public class MetricPrinter extends PrettyPrinter implements Runnable
         addRow("Requests per second (avg):",
                 "" + String.format("%.3f", currentMetrics.getRequestsPerSecond()),
                 "" + String.format("%.3f", totalMetrics.getRequestsPerSecond()));
+        printPeakRps();
         
-        // Success rate
+        // Success and error rates
         addRow("Success rate (2xx responses):",
                 currentMetrics.getSuccessPercent(),
                 totalMetrics.getSuccessPercent());
+        addRow("Error rate (5xx responses):",
+                currentMetrics.getErrorPercent(),
+                totalMetrics.getErrorPercent());
+    }
+    
+    /**
+     * Prints the requests per second of the busiest second in each burst monitor's window,
+     * and of the busiest second since the start
+     */
+    private void printPeakRps()
+    {
+        for (MetricMonitor monitor : metricManager.getMonitors())
+        {
+            if (!(monitor instanceof BurstMonitor))
+                continue;
+            
+            BurstMonitor burstMonitor = (BurstMonitor) monitor;
+            addRow("Requests per second (peak, past " + burstMonitor.getTimeWindow() / 1000 + "s):",
+                    String.format("%.1f", burstMonitor.getPeakRps()),
+                    String.format("%.1f", burstMonitor.getMaxPeakRps()));
+        }
+    }
+    
+    /**
+     * Prints the sections with the most requests since the start, drilling down into their subsections
+     */
+    private void printSectionTree()
+    {
+        SectionTrie.Node root = metricManager.getTotalMetrics().sectionTree.getRoot();
+        if (root.getHits() == 0)
+            return;
+        
+        addRow("Top sections by hits:");
+        for (SectionTrie.Node section : root.getTopChildren(TOP_SECTIONS))
+        {
+            printSection(section, 1);
+        }
+    }
+    
+    /**
+     * Prints a section's hits, followed by its subsections with the most hits
+     * @param node The section's node in the total metrics
+     * @param depth The number of segments in the section's path
+     */
+    private void printSection(SectionTrie.Node node, int depth)
+    {
+        SectionTrie.Node current = metricManager.getCurrentMetrics().sectionTree.find(node.getPath());
+        String indent = new String(new char[depth * 2]).replace('\0', ' ');
+        addRow(indent + node.getPath(),
+                (current != null)? "" + current.getHits() : "-",
+                "" + node.getHits());
+        
+        for (SectionTrie.Node child : node.getTopChildren(TOP_SUBSECTIONS))
+        {
+            printSection(child, depth + 1);
+        }
+    }
+    
+    /**
+     * Prints the bytes served, and the websites and sections that served the most bytes since the start
+     */
+    private void printBandwidthReport()
+    {
+        Metrics currentMetrics = metricManager.getCurrentMetrics();
+        Metrics totalMetrics = metricManager.getTotalMetrics();
+        
+        addRow("Bytes served:",
+                BandwidthAlert.formatBytes(currentMetrics.totalBytes),
+                BandwidthAlert.formatBytes(totalMetrics.totalBytes));
+        addRow("Bytes per second (avg):",
+                BandwidthAlert.formatBytes(currentMetrics.getBytesPerSecond()) + "/s",
+                BandwidthAlert.formatBytes(totalMetrics.getBytesPerSecond()) + "/s");
+        if (totalMetrics.totalBytes == 0)
+            return;
+        
+        ArrayList<Website> websites = totalMetrics.getTopWebsitesByBytes(TOP_BANDWIDTH_CONSUMERS);
+        addRow("Top websites by bytes:");
+        for (Website website : websites)
+        {
+            Website current = currentMetrics.websites.get(website.getName());
+            addRow("  " + website.getName(),
+                    (current != null)? BandwidthAlert.formatBytes(current.getBytes()) : "-",
+                    BandwidthAlert.formatBytes(website.getBytes()));
+        }
+        
+        ArrayList<Map.Entry<String, ByteCounter>> sections = totalMetrics.getTopSectionsByBytes(TOP_BANDWIDTH_CONSUMERS);
+        if (!sections.isEmpty())
+            addRow("Top sections by bytes:");
+        for (Map.Entry<String, ByteCounter> entry : sections)
+        {
+            String section = entry.getKey();
+            ByteCounter current = currentMetrics.sectionBytes.get(section);
+            addRow("  " + (section.isEmpty()? "/" : section),
+                    (current != null)? BandwidthAlert.formatBytes(current.getBytes()) : "-",
+                    BandwidthAlert.formatBytes(entry.getValue().getBytes()));
+        }
+    }
+    
+    /**
+     * Prints response time percentiles, globally and for the busiest sections
+     */
+    private void printLatencyReport()
+    {
+        Metrics currentMetrics = metricManager.getCurrentMetrics();
+        Metrics totalMetrics = metricManager.getTotalMetrics();
+        if (totalMetrics.latency.getTotalCount() == 0)
+            return;
+        
+        addRow();
+        addRow("Response time:");
+        for (double percentile : LATENCY_PERCENTILES)
+        {
+            addRow("p" + (int) percentile,
+                    formatLatency(currentMetrics.latency.getValueAtPercentile(percentile)),
+                    formatLatency(totalMetrics.latency.getValueAtPercentile(percentile)));
+        }
+        addRow("max",
+                formatLatency(currentMetrics.latency.getMaxValue()),
+                formatLatency(totalMetrics.latency.getMaxValue()));
+        
+        // The p99 of the sections with the most requests since the start
+        ArrayList<Map.Entry<String, LatencyHistogram>> sections = 
+                new ArrayList<Map.Entry<String, LatencyHistogram>>(totalMetrics.sectionLatencies.entrySet());
+        Collections.sort(sections, new Comparator<Map.Entry<String, LatencyHistogram>>() {
+            public int compare(Map.Entry<String, LatencyHistogram> a, Map.Entry<String, LatencyHistogram> b)
+            {
+                return Long.compare(b.getValue().getTotalCount(), a.getValue().getTotalCount());
+            }
+        });
+        if (!sections.isEmpty())
+            addRow("Section p99:");
+        for (int i = 0; i < sections.size() && i < LATENCY_SECTIONS; i++)
+        {
+            String section = sections.get(i).getKey();
+            LatencyHistogram current = currentMetrics.sectionLatencies.get(section);
+            addRow("  " + (section.isEmpty()? "/" : section),
+                    (current != null)? formatLatency(current.getValueAtPercentile(99.0)) : "-",
+                    formatLatency(sections.get(i).getValue().getValueAtPercentile(99.0)));
+        }
+    }
+    
+    /**
+     * Prints the clients with the most requests in the time window of each client monitor
+     */
+    private void printTopClients()
+    {
+        ArrayList<MetricMonitor> monitors = metricManager.getMonitors();
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            if (!(monitors.get(i) instanceof ClientMonitor))
+                continue;
+            
+            ClientMonitor monitor = (ClientMonitor) monitors.get(i);
+            ArrayList<ClientMonitor.Client> clients = monitor.getTopClients(TOP_CLIENTS);
+            if (clients.isEmpty())
+                continue;
+            
+            addRow();
+            addRow("Top clients (past " + (monitor.getTimeWindow() / 1000) + " sec.):");
+            for (ClientMonitor.Client client : clients)
+            {
+                addRow("  " + client.address, client.requests + " hits" + (client.alerted? " (alert)" : ""));
+            }
+        }
+    }
+    
+    /**
+     * Prints the 1, 5 and 15 minute request rates of all traffic and of the sections with
+     * the highest baselines, for each baseline monitor
+     */
+    private void printBaselines()
+    {
+        ArrayList<MetricMonitor> monitors = metricManager.getMonitors();
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            if (!(monitors.get(i) instanceof BaselineMonitor))
+                continue;
+            
+            ArrayList<BaselineMonitor.Baseline> baselines = ((BaselineMonitor) monitors.get(i)).getBaselines(TOP_BASELINES);
+            if (baselines.isEmpty())
+                continue;
+            
+            addRow();
+            addRow("Request rates (req/s, 1 / 5 / 15 min.):");
+            for (BaselineMonitor.Baseline baseline : baselines)
+            {
+                String state = (baseline.state > 0)? " (surge)" : (baseline.state < 0)? " (drop)" : "";
+                addRow("  " + baseline.name, String.format("%.1f / %.1f / %.1f", baseline.rate1, baseline.rate5, baseline.rate15)
+                        + String.format(" (%+.1f sd)", baseline.deviation) + state);
+            }
+        }
+    }
+    
+    /**
+     * Prints the client subnets with the most requests since the start, for each prefix length
+     */
+    private void printTopSubnets()
+    {
+        SubnetTrie currentTree = metricManager.getCurrentMetrics().subnetTree;
+        SubnetTrie totalTree = metricManager.getTotalMetrics().subnetTree;
+        for (int prefixLength : SUBNET_PREFIXES)
+        {
+            ArrayList<SubnetTrie.Subnet> subnets = totalTree.getTopSubnets(prefixLength, TOP_SUBNETS);
+            if (subnets.isEmpty())
+                continue;
+            
+            addRow("Top /" + prefixLength + " subnets:");
+            for (SubnetTrie.Subnet subnet : subnets)
+            {
+                addRow("  " + subnet, "" + currentTree.getHits(subnet), "" + subnet.getHits());
+            }
+        }
+    }
+    
+    /**
+     * Prints the estimated memory retained by the websites, sections and alerts, against the
+     * budget if there is one, and how much was dropped to stay within it
+     */
+    private void printMemoryReport()
+    {
+        Metrics currentMetrics = metricManager.getCurrentMetrics();
+        Metrics totalMetrics = metricManager.getTotalMetrics();
+        MemoryBudget budget = metricManager.getMemoryBudget();
+        
+        addRow();
+        addRow("Memory (estimated):", "", BandwidthAlert.formatBytes(budget.getRetainedBytes())
+                + ((budget.getLimit() > 0)? " of " + BandwidthAlert.formatBytes(budget.getLimit()) : ""));
+        addRow("  Websites and sections:",
+                BandwidthAlert.formatBytes(budget.getCurrentBytes()),
+                BandwidthAlert.formatBytes(budget.getTotalBytes()));
+        addRow("  Websites tracked:", "" + currentMetrics.websites.size(), "" + totalMetrics.websites.size());
+        addRow("  Alerts:", "", BandwidthAlert.formatBytes(budget.getAlertBytes()));
+        if (budget.getTrimCount() == 0)
+            return;
+        
+        addRow("  Websites evicted:", "" + currentMetrics.getEvictedWebsites(), "" + totalMetrics.getEvictedWebsites());
+        addRow("  Trimmed:", "", budget.getTrimCount() + " times, "
+                + ((totalMetrics.getSectionLimit() < Integer.MAX_VALUE)? "up to " + totalMetrics.getSectionLimit() + " sections per website" : "all sections kept"));
+    }
+    
+    /**
+     * Formats a response time in microseconds as milliseconds
+     */
+    private static String formatLatency(long micros)
+    {
+        return String.format("%.1f ms", micros / 1000.0);
     }
     
     /**
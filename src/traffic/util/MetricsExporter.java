@@ -0,0 +1,356 @@
+package traffic.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes metric snapshots to a file as NDJSON or CSV, one line per snapshot.
+ *
+ * Snapshots are queued and written by a background thread, so exporting never blocks
+ * the thread that takes them. The writer drains every queued snapshot at once and writes
+ * them in one buffered batch. Once the file reaches its maximum size, it is renamed to
+ * "file.1", the older files are shifted to "file.2" and so on, and a new file is started.
+ */
+public class MetricsExporter implements Runnable
+{
+    /** The formats in which snapshots are written */
+    public enum Format
+    {
+        /** One JSON object per line */
+        NDJSON,
+        /** Comma-separated values, with a header line at the start of each file */
+        CSV
+    }
+
+    /** The maximum number of snapshots waiting to be written. Later snapshots are dropped */
+    private static final int QUEUE_CAPACITY = 64;
+    /** The size of the buffer in front of the file */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The status classes written as CSV columns */
+    private static final char[] STATUS_CLASSES = { '1', '2', '3', '4', '5' };
+    /** The header line of CSV files */
+    private static final String CSV_HEADER = "timestamp,interval_seconds,requests,total_requests,rps,"
+            + "bytes,total_bytes,bytes_per_second,1xx,2xx,3xx,4xx,5xx,top_sections,alert_count,alerting\n";
+
+    /** The file being written */
+    private File file;
+    /** The format of the snapshots */
+    private Format format;
+    /** The size at which the file is rotated */
+    private long maxBytes;
+    /** The number of rotated files that are kept */
+    private int maxFiles;
+
+    /** The snapshots waiting to be written */
+    private ArrayBlockingQueue<MetricsSnapshot> queue = new ArrayBlockingQueue<MetricsSnapshot>(QUEUE_CAPACITY);
+    /** The number of snapshots dropped because the queue was full */
+    private AtomicLong dropped = new AtomicLong();
+    /** False once the exporter was asked to stop */
+    private volatile boolean running = true;
+
+    /** The open file, or null if it could not be opened */
+    private OutputStream out;
+    /** The number of bytes in the open file */
+    private long size;
+
+    /**
+     * Creates an exporter which writes to the given file
+     * @param file The file to write the snapshots to
+     * @param format The format of the snapshots
+     * @param maxBytes The size at which the file is rotated
+     * @param maxFiles The number of rotated files that are kept
+     */
+    public MetricsExporter(File file, Format format, long maxBytes, int maxFiles)
+    {
+        if (maxBytes <= 0 || maxFiles < 0)
+            throw new IllegalArgumentException("MetricsExporter requires a positive file size");
+
+        this.file = file;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Queues a snapshot to be written. Never blocks: if the writer fell behind, the snapshot is dropped.
+     * @param snapshot The snapshot to write
+     * @return False if the snapshot was dropped
+     */
+    public boolean export(MetricsSnapshot snapshot)
+    {
+        if (queue.offer(snapshot))
+            return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Writes the queued snapshots until the exporter is stopped and its queue is empty
+     */
+    public void run()
+    {
+        ArrayList<MetricsSnapshot> batch = new ArrayList<MetricsSnapshot>();
+        StringBuilder text = new StringBuilder();
+        try
+        {
+            while (running || !queue.isEmpty())
+            {
+                MetricsSnapshot snapshot = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (snapshot == null)
+                    continue;
+
+                batch.add(snapshot);
+                queue.drainTo(batch);
+                for (MetricsSnapshot queued : batch)
+                {
+                    text.setLength(0);
+                    if (format == Format.CSV)
+                        appendCsv(text, queued);
+                    else
+                        appendJson(text, queued);
+                    write(text.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                batch.clear();
+                if (out != null)
+                    out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not export metrics to " + file + ": " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Stops the exporter once the queued snapshots are written
+     */
+    public void stop()
+    {
+        running = false;
+    }
+
+    /**
+     * Returns the number of snapshots dropped because the writer fell behind
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Writes one formatted snapshot, rotating the file first if it would exceed its maximum size
+     */
+    private void write(byte[] line) throws IOException
+    {
+        if (out != null && size > 0 && size + line.length > maxBytes)
+            rotate();
+        if (out == null)
+            open();
+
+        out.write(line);
+        size += line.length;
+    }
+
+    /**
+     * Opens the file for appending, writing the CSV header if the file is empty
+     */
+    private void open() throws IOException
+    {
+        size = file.length();
+        out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+        if (format == Format.CSV && size == 0)
+        {
+            byte[] header = CSV_HEADER.getBytes(StandardCharsets.UTF_8);
+            out.write(header);
+            size += header.length;
+        }
+    }
+
+    /**
+     * Closes the file and shifts it and the older files by one, dropping the oldest
+     */
+    private void rotate() throws IOException
+    {
+        out.close();
+        out = null;
+
+        if (maxFiles == 0)
+        {
+            file.delete();
+            return;
+        }
+        new File(file.getPath() + "." + maxFiles).delete();
+        for (int i = maxFiles - 1; i >= 1; i--)
+        {
+            File older = new File(file.getPath() + "." + i);
+            if (older.exists())
+                older.renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        if (!file.renameTo(new File(file.getPath() + ".1")))
+            throw new IOException("Could not rotate " + file);
+    }
+
+    /**
+     * Closes the file if it is open
+     */
+    private void close()
+    {
+        if (out == null)
+            return;
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not close " + file + ": " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Formats a snapshot as one JSON object followed by a newline
+     */
+    private static void appendJson(StringBuilder text, MetricsSnapshot snapshot)
+    {
+        text.append("{\"timestamp\":").append(snapshot.timestamp);
+        text.append(",\"intervalSeconds\":").append(format(snapshot.intervalSeconds));
+        text.append(",\"requests\":").append(snapshot.requests);
+        text.append(",\"totalRequests\":").append(snapshot.totalRequests);
+        text.append(",\"rps\":").append(format(snapshot.requestsPerSecond));
+        text.append(",\"bytes\":").append(snapshot.bytes);
+        text.append(",\"totalBytes\":").append(snapshot.totalBytes);
+        text.append(",\"bytesPerSecond\":").append(format(snapshot.bytesPerSecond));
+
+        text.append(",\"status\":{");
+        boolean first = true;
+        for (char statusClass : STATUS_CLASSES)
+        {
+            Integer count = snapshot.statusCodeCounts.get(statusClass);
+            if (count == null)
+                continue;
+            text.append(first? "" : ",").append("\"").append(statusClass).append("xx\":").append(count);
+            first = false;
+        }
+
+        text.append("},\"topSections\":[");
+        for (int i = 0; i < snapshot.topSections.size(); i++)
+        {
+            text.append((i == 0)? "" : ",").append("{\"section\":");
+            appendJsonString(text, snapshot.topSections.get(i));
+            text.append(",\"hits\":").append(snapshot.topSectionHits.get(i)).append("}");
+        }
+
+        text.append("],\"alertCount\":").append(snapshot.alertCount);
+        text.append(",\"alerting\":[");
+        for (int i = 0; i < snapshot.alerting.size(); i++)
+        {
+            text.append((i == 0)? "" : ",");
+            appendJsonString(text, snapshot.alerting.get(i));
+        }
+        text.append("]}\n");
+    }
+
+    /**
+     * Formats a snapshot as one CSV line. The top sections are written in one field as
+     * "section:hits" pairs separated by spaces, and the alerting monitors likewise.
+     */
+    private static void appendCsv(StringBuilder text, MetricsSnapshot snapshot)
+    {
+        text.append(snapshot.timestamp).append(',');
+        text.append(format(snapshot.intervalSeconds)).append(',');
+        text.append(snapshot.requests).append(',');
+        text.append(snapshot.totalRequests).append(',');
+        text.append(format(snapshot.requestsPerSecond)).append(',');
+        text.append(snapshot.bytes).append(',');
+        text.append(snapshot.totalBytes).append(',');
+        text.append(format(snapshot.bytesPerSecond)).append(',');
+        for (char statusClass : STATUS_CLASSES)
+        {
+            Integer count = snapshot.statusCodeCounts.get(statusClass);
+            text.append((count != null)? count : 0).append(',');
+        }
+
+        StringBuilder sections = new StringBuilder();
+        for (int i = 0; i < snapshot.topSections.size(); i++)
+        {
+            sections.append((i == 0)? "" : " ").append(snapshot.topSections.get(i))
+                    .append(':').append(snapshot.topSectionHits.get(i));
+        }
+        appendCsvField(text, sections.toString());
+        text.append(',').append(snapshot.alertCount).append(',');
+
+        StringBuilder alerting = new StringBuilder();
+        for (int i = 0; i < snapshot.alerting.size(); i++)
+        {
+            alerting.append((i == 0)? "" : " ").append(snapshot.alerting.get(i));
+        }
+        appendCsvField(text, alerting.toString());
+        text.append('\n');
+    }
+
+    /**
+     * Formats a decimal with 3 digits after the point
+     */
+    private static String format(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return "0";
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Appends a JSON string literal, escaping quotes, backslashes and control characters
+     */
+    private static void appendJsonString(StringBuilder text, String value)
+    {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                text.append('\\').append(c);
+            else if (c < 0x20)
+                text.append(String.format("\\u%04x", (int) c));
+            else
+                text.append(c);
+        }
+        text.append('"');
+    }
+
+    /**
+     * Appends a CSV field, quoting it if it contains a comma, a quote or a line break
+     */
+    private static void appendCsvField(StringBuilder text, String value)
+    {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++)
+        {
+            char c = value.charAt(i);
+            quoted = (c == ',' || c == '"' || c == '\n' || c == '\r');
+        }
+        if (!quoted)
+        {
+            text.append(value);
+            return;
+        }
+        text.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,85 @@
+package traffic.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import traffic.monitor.MetricManager;
+import traffic.monitor.MetricMonitor;
+import traffic.monitor.Metrics;
+import traffic.monitor.SectionTrie;
+
+/**
+ * The metrics of one print interval, copied out of a metric manager so they can be
+ * formatted and written on another thread while the manager keeps analyzing logs
+ */
+public class MetricsSnapshot
+{
+    /** The timestamp when the snapshot was taken */
+    public long timestamp;
+    /** The number of seconds covered by the interval */
+    public double intervalSeconds;
+
+    /** The requests made during the interval */
+    public int requests;
+    /** The requests made since the start */
+    public int totalRequests;
+    /** The average requests per second during the interval */
+    public double requestsPerSecond;
+    /** The bytes served during the interval */
+    public long bytes;
+    /** The bytes served since the start */
+    public long totalBytes;
+    /** The average bytes served per second during the interval */
+    public double bytesPerSecond;
+
+    /** The requests of the interval for each status class, e.g. '2' for 2xx */
+    public HashMap<Character, Integer> statusCodeCounts;
+    /** The paths of the sections with the most requests during the interval */
+    public ArrayList<String> topSections = new ArrayList<String>();
+    /** The requests made to each of the top sections during the interval */
+    public ArrayList<Long> topSectionHits = new ArrayList<Long>();
+
+    /** The number of alerts triggered since the start */
+    public int alertCount;
+    /** The names of the monitors whose last alert was critical */
+    public ArrayList<String> alerting = new ArrayList<String>();
+
+    /**
+     * Copies the metrics of the current interval from a manager
+     * @param metricManager The manager to copy the metrics from
+     * @param sectionCount The maximum number of top sections to copy
+     * @return The snapshot
+     */
+    public static MetricsSnapshot take(MetricManager metricManager, int sectionCount)
+    {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.timestamp = System.currentTimeMillis();
+        synchronized (metricManager)
+        {
+            Metrics metrics = metricManager.getCurrentMetrics();
+            snapshot.intervalSeconds = metrics.getTimeSinceStart();
+            snapshot.requests = metrics.totalRequests;
+            snapshot.totalRequests = metricManager.getTotalMetrics().totalRequests;
+            snapshot.requestsPerSecond = metrics.getRequestsPerSecond();
+            snapshot.bytes = metrics.totalBytes;
+            snapshot.totalBytes = metricManager.getTotalMetrics().totalBytes;
+            snapshot.bytesPerSecond = metrics.getBytesPerSecond();
+            snapshot.statusCodeCounts = new HashMap<Character, Integer>(metrics.statusCodeCounts);
+
+            for (SectionTrie.Node section : metrics.sectionTree.getRoot().getTopChildren(sectionCount))
+            {
+                snapshot.topSections.add(section.getPath());
+                snapshot.topSectionHits.add(section.getHits());
+            }
+        }
+
+        snapshot.alertCount = metricManager.getAlertCount();
+        ArrayList<MetricMonitor> monitors = metricManager.getMonitors();
+        for (int i = 0; i < monitors.size(); i++)
+        {
+            if (monitors.get(i).isAlerting())
+                snapshot.alerting.add(monitors.get(i).getClass().getSimpleName());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,36 @@
+package traffic;
+
+import traffic.monitor.MetricManager;
+
+/**
+ * Builds the log lines shared by the tests, and reads the metrics they check
+ */
+public class LogFixtures
+{
+    /**
+     * Returns the line logged "i" steps after midnight on 07/Mar/2004. The line requests
+     * /a0/b, /a1/b or /a2/b in turn, and serves 12 bytes.
+     * @param i The index of the line
+     * @param step The number of seconds between consecutive lines
+     * @param hosts The number of hosts, from 10.0.0.0 up, that send the lines in turn
+     * @return The line, without a terminator
+     */
+    public static String getLine(int i, int step, int hosts)
+    {
+        int minute = (i * step) / 60;
+        int second = (i * step) % 60;
+        return String.format("10.0.0.%d - - [07/Mar/2004:%02d:%02d:%02d -0800] \"GET /a%d/b HTTP/1.1\" 200 12",
+                i % hosts, minute / 60, minute % 60, second, i % 3);
+    }
+
+    /**
+     * Returns the requests counted by a manager, while another thread may be analyzing logs
+     */
+    public static int getTotalRequests(MetricManager metricManager)
+    {
+        synchronized (metricManager)
+        {
+            return metricManager.getTotalMetrics().totalRequests;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import traffic.log.FileTailer;
+import traffic.log.LineVisitor;
+import traffic.log.LogBackfill;
+import traffic.log.LogDate;
+import traffic.log.LogFormat;
+import traffic.log.LogProcessor;
+import traffic.log.MappedLogReader;
+import traffic.log.TimeIndex;
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+
+public class TestBackfill
+{
+    /** The number of complete lines in the log before it is backfilled */
+    private static final int LINE_COUNT = 20000;
+    /** The number of lines written once the log is tailed */
+    private static final int TAILED_LINE_COUNT = 5;
+
+    /**
+     * Tests that the backfill seeds the metrics and monitors, and that tailing continues
+     * from the line that was still being written without skipping or repeating lines
+     */
+    @Test
+    public void testHandover() throws Exception
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+
+        // One line every 3 seconds, followed by a line that is still being written
+        FileWriter writer = new FileWriter(log);
+        for (int i = 0; i < LINE_COUNT; i++)
+        {
+            writer.write(getLine(i));
+        }
+        String partialLine = getLine(LINE_COUNT);
+        writer.write(partialLine.substring(0, 20));
+        writer.close();
+
+        MetricManager metricManager = new MetricManager();
+        ThroughputMonitor monitor = new ThroughputMonitor(0.5, 60000, 1000);
+        metricManager.addThroughputMonitor(monitor);
+
+        LogBackfill backfill = new LogBackfill(log, LogFormat.COMMON, 4, 60000);
+        long offset = backfill.run(metricManager);
+        assertEquals(log.length() - 20, offset);
+        assertEquals(LINE_COUNT, backfill.getLineCount());
+        assertEquals(LINE_COUNT, metricManager.getTotalMetrics().totalRequests);
+        assertEquals(LINE_COUNT * 12L, metricManager.getTotalMetrics().totalBytes);
+
+        // Only the lines of the last minute of event time are in the monitor's window
+        long lastLogTime = LogProcessor.parseLine(getLine(LINE_COUNT - 1).trim()).getTimestamp();
+        monitor.update(lastLogTime);
+        assertEquals(21 / 60.0, monitor.getCurrentRps(), 0.0001);
+
+        LogProcessor logProcessor = new LogProcessor(metricManager);
+        logProcessor.setOffset(offset);
+        FileTailer tailer = new FileTailer(log, logProcessor, 10, offset);
+        new Thread(tailer).start();
+
+        writer = new FileWriter(log, true);
+        writer.write(partialLine.substring(20));
+        for (int i = 1; i <= TAILED_LINE_COUNT; i++)
+        {
+            writer.write(getLine(LINE_COUNT + i));
+        }
+        writer.close();
+
+        int expected = LINE_COUNT + TAILED_LINE_COUNT + 1;
+        for (int i = 0; i < 200 && LogFixtures.getTotalRequests(metricManager) < expected; i++)
+        {
+            Thread.sleep(10);
+        }
+        tailer.stop();
+        assertEquals(expected, LogFixtures.getTotalRequests(metricManager));
+        assertEquals(log.length(), tailer.getPosition());
+    }
+
+    /**
+     * Tests that the backfill indexes the minutes it scans, so a minute which the handover
+     * to the tailer falls in is found from its first line rather than from the handover
+     */
+    @Test
+    public void testTimeIndex() throws IOException
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        TimeIndex.getIndexFile(log).deleteOnExit();
+
+        // The backfill ends 30 seconds into the fifth minute
+        FileWriter writer = new FileWriter(log);
+        for (int i = 0; i < 90; i++)
+        {
+            writer.write(getLine(i));
+        }
+        writer.close();
+
+        MetricManager metricManager = new MetricManager();
+        TimeIndex timeIndex = TimeIndex.openForAppend(log);
+        LogBackfill backfill = new LogBackfill(log, LogFormat.COMMON, 4, 60000);
+        backfill.setTimeIndex(timeIndex);
+        long offset = backfill.run(metricManager);
+
+        // The tailer reads the rest of the minute
+        LogProcessor logProcessor = new LogProcessor(metricManager);
+        logProcessor.setTimeIndex(timeIndex);
+        logProcessor.setOffset(offset);
+        writer = new FileWriter(log, true);
+        for (int i = 90; i < 100; i++)
+        {
+            writer.write(getLine(i));
+            logProcessor.handle(getLine(i).trim());
+        }
+        writer.close();
+        logProcessor.endOfFileReached();
+        timeIndex.close();
+
+        TimeIndex loaded = TimeIndex.load(log);
+        assertEquals(5, loaded.size());
+        long start = LogDate.parse("07/Mar/2004:00:00:00 -0800");
+        long lineLength = getLine(0).length();
+        for (int minute = 0; minute < 5; minute++)
+        {
+            assertEquals(minute * 20 * lineLength, loaded.getStartOffset(start + minute * LogDate.MINUTE));
+        }
+    }
+
+    /**
+     * Tests that chunks are consumed in file order, and that only a few chunks per thread
+     * are scanned ahead of the consumer, so a large log does not keep every chunk alive
+     */
+    @Test
+    public void testChunksAhead() throws IOException
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        FileWriter writer = new FileWriter(log);
+        for (int i = 0; i < LINE_COUNT; i++)
+        {
+            writer.write(getLine(i));
+        }
+        writer.close();
+
+        final AtomicInteger created = new AtomicInteger();
+        final int[] consumed = new int[1];
+        final long[] lines = new long[1];
+        final long[] lastOffset = { -1 };
+        new MappedLogReader(log, 2, 4096).scan(0, log.length(), new Supplier<ChunkCounter>() {
+            public ChunkCounter get()
+            {
+                created.incrementAndGet();
+                return new ChunkCounter();
+            }
+        }, new Consumer<ChunkCounter>() {
+            public void accept(ChunkCounter chunk)
+            {
+                assertTrue(created.get() - consumed[0] <= 4);
+                assertTrue(chunk.firstOffset > lastOffset[0]);
+                lastOffset[0] = chunk.firstOffset;
+                lines[0] += chunk.lines;
+                consumed[0]++;
+            }
+        });
+        assertEquals(created.get(), consumed[0]);
+        assertTrue(consumed[0] > 100);
+        assertEquals(LINE_COUNT, lines[0]);
+    }
+
+    /**
+     * Counts the lines of a chunk and records where the chunk starts
+     */
+    private static class ChunkCounter implements LineVisitor
+    {
+        /** The offset of the chunk's first line */
+        long firstOffset = -1;
+        /** The number of lines in the chunk */
+        long lines;
+
+        public void visitLine(byte[] line, int length, long offset)
+        {
+            if (firstOffset < 0)
+                firstOffset = offset;
+            lines++;
+        }
+    }
+
+    /**
+     * Returns the line logged "i" times 3 seconds after the start of the log
+     */
+    private static String getLine(int i)
+    {
+        return LogFixtures.getLine(i, 3, 7) + "\n";
+    }
+}
@@ -0,0 +1,126 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import traffic.log.LogBatch;
+import traffic.log.LogFormat;
+import traffic.monitor.BurstAlert;
+import traffic.monitor.BurstMonitor;
+import traffic.monitor.MetricManager;
+import traffic.monitor.PeakTracker;
+import traffic.monitor.ThroughputMonitor;
+
+public class TestBurstMonitor
+{
+    /**
+     * Tests that the tracked peak matches the busiest bucket found by scanning the window
+     */
+    @Test
+    public void testPeak()
+    {
+        Random random = new Random(42);
+        long bucketLength = 100;
+        long window = 5000;
+        long[] counts = new long[2000];
+        PeakTracker peaks = new PeakTracker(bucketLength, window);
+        for (int bucket = 0; bucket < counts.length; bucket++)
+        {
+            // Several requests per bucket, with an occasional empty bucket
+            int requests = random.nextInt(5);
+            for (int i = 0; i < requests; i++)
+            {
+                long count = random.nextInt(20);
+                counts[bucket] += count;
+                peaks.add(bucket * bucketLength + random.nextInt((int) bucketLength), count);
+            }
+
+            long currentTime = bucket * bucketLength + bucketLength - 1;
+            peaks.expire(currentTime);
+            long expected = 0;
+            for (int i = bucket; i >= 0 && i * bucketLength >= currentTime - window; i--)
+            {
+                expected = Math.max(expected, counts[i]);
+            }
+            assertEquals("bucket " + bucket, expected, peaks.getPeakCount());
+        }
+    }
+
+    /**
+     * Tests that a 5-second burst triggers an alert although the average stays low,
+     * and that the alert recovers once the burst leaves the window
+     */
+    @Test
+    public void testBurst()
+    {
+        long startTime = 1000000000000L;
+        BurstMonitor burstMonitor = new BurstMonitor(2000, 120000, 1000, 100);
+        ThroughputMonitor throughputMonitor = new ThroughputMonitor(1000, 120000, 100);
+        for (int second = 0; second < 120; second++)
+        {
+            long time = startTime + second * 1000;
+            long requests = (second >= 60 && second < 65)? 3000 : 100;
+            burstMonitor.addRequests(time, requests);
+            throughputMonitor.addRequests(time, requests);
+            burstMonitor.update(time);
+            throughputMonitor.update(time);
+        }
+
+        assertTrue(throughputMonitor.getCurrentRps() < 1000);
+        assertEquals(0, throughputMonitor.getAlerts().size());
+        assertEquals(1, burstMonitor.getAlerts().size());
+        BurstAlert alert = (BurstAlert) burstMonitor.getAlerts().get(0);
+        assertEquals(3000.0, alert.getPeakRps(), 0.001);
+        assertEquals(startTime + 60000, alert.getTimestamp());
+
+        // The burst is in the window until 120 seconds after it ended
+        burstMonitor.update(startTime + 184000);
+        assertEquals(1, burstMonitor.getAlerts().size());
+        burstMonitor.update(startTime + 185001);
+        assertEquals(2, burstMonitor.getAlerts().size());
+        assertTrue(burstMonitor.getAlerts().get(1).isRecovery());
+        assertEquals(3000.0, burstMonitor.getMaxPeakRps(), 0.001);
+    }
+
+    /**
+     * Tests that batches analyzed a tenth of a second apart fall in separate 100 ms buckets,
+     * so steady traffic is not mistaken for a burst
+     */
+    @Test
+    public void testBatches()
+    {
+        MetricManager metricManager = new MetricManager();
+        BurstMonitor burstMonitor = new BurstMonitor(100, 10000, 100, 100);
+        metricManager.addMonitor(burstMonitor);
+
+        // 50 requests per second, analyzed in batches of 5 every 100 ms
+        long time = 1000000000000L;
+        LogBatch batch = new LogBatch(LogFormat.COMMON, 64);
+        for (int i = 0; i < 100; i++)
+        {
+            batch.clear();
+            for (int j = 0; j < 5; j++)
+            {
+                assertNotNull(batch.add(LogFixtures.getLine(i, 1, 7)));
+            }
+            metricManager.analyzeBatch(batch, time);
+            burstMonitor.update(time);
+            time += 100;
+        }
+        assertEquals(50.0, burstMonitor.getPeakRps(), 0.001);
+        assertEquals(0, burstMonitor.getAlerts().size());
+
+        // A batch of 20 requests is a burst of 200 requests per second
+        batch.clear();
+        for (int j = 0; j < 20; j++)
+        {
+            assertNotNull(batch.add(LogFixtures.getLine(j, 1, 7)));
+        }
+        metricManager.analyzeBatch(batch, time);
+        burstMonitor.update(time);
+        assertEquals(200.0, burstMonitor.getPeakRps(), 0.001);
+        assertEquals(1, burstMonitor.getAlerts().size());
+    }
+}
@@ -0,0 +1,74 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import traffic.log.ByteScanner;
+
+public class TestByteScanner
+{
+    /** The bytes that delimit lines and fields, which fill most of the random buffers */
+    private static final byte[] DELIMITERS = "\n \"\\[]".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Tests that the SWAR scanner finds the same bytes as the scalar scanner, in both byte
+     * orders, for every range of random buffers, including bytes with their high bit set
+     */
+    @Test
+    public void testSameAsScalar()
+    {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 200; trial++)
+        {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                int kind = random.nextInt(4);
+                bytes[i] = (kind == 0)? DELIMITERS[random.nextInt(DELIMITERS.length)]
+                        : (kind == 1)? (byte) (0x80 | random.nextInt(0x80)) : (byte) ('a' + random.nextInt(3));
+            }
+
+            ByteBuffer[] views = { ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN),
+                    ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN) };
+            for (ByteBuffer view : views)
+            {
+                for (int start = 0; start <= bytes.length; start++)
+                {
+                    for (int end = start; end <= bytes.length; end++)
+                    {
+                        for (byte b : DELIMITERS)
+                        {
+                            assertEquals(ByteScanner.SCALAR.indexOf(view, b, start, end),
+                                    ByteScanner.SWAR.indexOf(view, b, start, end));
+                        }
+                        assertEquals(ByteScanner.SCALAR.indexOf(view, (byte) 0xFF, start, end),
+                                ByteScanner.SWAR.indexOf(view, (byte) 0xFF, start, end));
+                        assertEquals(ByteScanner.SCALAR.indexOfAny(view, (byte) '[', (byte) ']', start, end),
+                                ByteScanner.SWAR.indexOfAny(view, (byte) '[', (byte) ']', start, end));
+                        assertEquals(ByteScanner.SCALAR.indexOfQuote(view, start, end),
+                                ByteScanner.SWAR.indexOfQuote(view, start, end));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that escaped quotes do not close a quoted field
+     */
+    @Test
+    public void testQuote()
+    {
+        ByteBuffer view = ByteScanner.wrap("GET /a\\\"b\\\\\" 200".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(11, ByteScanner.SWAR.indexOfQuote(view, 0, view.capacity()));
+        assertEquals(11, ByteScanner.SCALAR.indexOfQuote(view, 0, view.capacity()));
+        // A quote whose escape is cut by the end of the range is not found
+        assertEquals(-1, ByteScanner.SWAR.indexOfQuote(view, 0, 7));
+        assertEquals(-1, ByteScanner.SWAR.indexOfQuote(view, 0, 8));
+    }
+}
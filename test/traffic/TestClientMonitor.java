@@ -0,0 +1,99 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import traffic.monitor.Alert;
+import traffic.monitor.ClientAlert;
+import traffic.monitor.ClientMonitor;
+
+public class TestClientMonitor
+{
+    /** The number of clients that only make a few requests */
+    private static final int CLIENT_COUNT = 200000;
+    /** The requests made by each heavy client in the window */
+    private static final int HEAVY_REQUESTS = 1000;
+
+    /**
+     * Tests that heavy clients are counted and alerted on among many light clients,
+     * and that they recover once their requests leave the window
+     */
+    @Test
+    public void testHeavyClients()
+    {
+        ClientMonitor monitor = new ClientMonitor(600, 60000, 1000);
+        Random random = new Random(42);
+        String[] heavyClients = { "203.0.113.7", "198.51.100.23", "2001:db8::1" };
+
+        // Light clients and heavy clients interleaved over 59 seconds, from the start of a slot
+        long startTime = 999999996000L;
+        int heavyRequests = 0;
+        for (int i = 0; i < CLIENT_COUNT; i++)
+        {
+            long time = startTime + i * 59000L / CLIENT_COUNT;
+            monitor.addRequests("10." + (i >> 16) + "." + ((i >> 8) & 255) + "." + (i & 255),
+                    time, 1 + random.nextInt(3));
+            while (heavyRequests < (long) HEAVY_REQUESTS * (i + 1) / CLIENT_COUNT)
+            {
+                for (String client : heavyClients)
+                {
+                    monitor.addRequests(client, time, 1);
+                }
+                heavyRequests++;
+            }
+        }
+        monitor.update(startTime + 59000);
+
+        ArrayList<ClientMonitor.Client> clients = monitor.getTopClients(5);
+        assertEquals(heavyClients.length, clients.size());
+        for (ClientMonitor.Client client : clients)
+        {
+            // Requests made before a client became a suspect are estimated from the sketches
+            assertTrue(client.address + ": " + client.requests,
+                    client.requests >= HEAVY_REQUESTS && client.requests <= HEAVY_REQUESTS * 1.03);
+            assertTrue(client.alerted);
+        }
+
+        ArrayList<Alert> alerts = monitor.getAlerts();
+        assertEquals(heavyClients.length, alerts.size());
+        for (Alert alert : alerts)
+        {
+            assertFalse(alert.isRecovery());
+            assertTrue(((ClientAlert) alert).getRequests() >= HEAVY_REQUESTS);
+        }
+
+        // Once the window has passed, every heavy client recovers and the table empties
+        monitor.update(startTime + 130000);
+        assertEquals(heavyClients.length * 2, alerts.size());
+        for (int i = heavyClients.length; i < alerts.size(); i++)
+        {
+            assertTrue(alerts.get(i).isRecovery());
+        }
+        assertTrue(monitor.getTopClients(5).isEmpty());
+    }
+
+    /**
+     * Tests that a new heavy client replaces the lightest suspect once the table is full
+     */
+    @Test
+    public void testFullTable()
+    {
+        ClientMonitor monitor = new ClientMonitor(100, 60000, 1000);
+        long time = 999999996000L;
+        for (int i = 0; i < ClientMonitor.MAX_SUSPECTS; i++)
+        {
+            monitor.addRequests("10.0." + (i >> 8) + "." + (i & 255), time, 50 + (i % 10));
+        }
+        monitor.addRequests("203.0.113.7", time, 80);
+        monitor.addRequests("203.0.113.7", time, 40);
+        monitor.update(time);
+
+        ArrayList<ClientMonitor.Client> clients = monitor.getTopClients(1);
+        assertEquals("203.0.113.7", clients.get(0).address);
+        assertEquals(120, clients.get(0).requests);
+        assertEquals(1, monitor.getAlerts().size());
+    }
+}
@@ -0,0 +1,94 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import traffic.cluster.MetricsAgent;
+import traffic.cluster.MetricsAggregator;
+import traffic.log.LogProcessor;
+import traffic.monitor.BandwidthMonitor;
+import traffic.monitor.ErrorRateMonitor;
+import traffic.monitor.MetricManager;
+import traffic.monitor.Metrics;
+import traffic.monitor.ThroughputMonitor;
+
+public class TestCluster
+{
+    /** The number of agents sending metrics */
+    private static final int AGENT_COUNT = 3;
+    /** The number of requests analyzed by each agent */
+    private static final int REQUESTS_PER_AGENT = 400;
+    
+    /**
+     * Tests that an aggregator combines the traffic of several agents, and alerts on 
+     * traffic that no single agent sees
+     */
+    @Test
+    public void testAggregation() throws Exception
+    {
+        MetricManager aggregatorManager = new MetricManager();
+        // Each agent stays below 10 RPS over 60 seconds, but together they exceed it
+        ThroughputMonitor monitor = new ThroughputMonitor(10, 60000, 1000);
+        aggregatorManager.addThroughputMonitor(monitor);
+        // Likewise for 1000 bytes per second, with 100 bytes per request
+        BandwidthMonitor bandwidthMonitor = new BandwidthMonitor(1000, 60000, 1000);
+        aggregatorManager.addMonitor(bandwidthMonitor);
+        // A quarter of the requests are 5xx, above a 20% error rate
+        ErrorRateMonitor errorRateMonitor = new ErrorRateMonitor(0.2, 0.1, 100, 60000, 1000);
+        aggregatorManager.addMonitor(errorRateMonitor);
+        
+        MetricsAggregator aggregator = new MetricsAggregator(aggregatorManager, 0);
+        new Thread(aggregator).start();
+        InetSocketAddress address = new InetSocketAddress("localhost", aggregator.getPort());
+        
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < AGENT_COUNT; i++)
+        {
+            MetricManager agentManager = new MetricManager();
+            MetricsAgent agent = new MetricsAgent(agentManager, "agent" + i, address, 1000);
+            for (int j = 0; j < REQUESTS_PER_AGENT; j++)
+            {
+                String status = (j % 4 == 0)? "500" : "200";
+                agentManager.analyze(LogProcessor.parseLine("10.0.0." + i 
+                        + " - - [07/Mar/2004:16:05:49 -0800] \"GET /section" + (j % 3) 
+                        + "/page HTTP/1.1\" " + status + " 100"), now);
+            }
+            assertTrue(agent.send());
+            agent.close();
+        }
+        
+        // Wait for every delta to be merged
+        Metrics totalMetrics = aggregatorManager.getTotalMetrics();
+        for (int i = 0; i < 100 && LogFixtures.getTotalRequests(aggregatorManager) < AGENT_COUNT * REQUESTS_PER_AGENT; i++)
+        {
+            Thread.sleep(50);
+        }
+        aggregator.close();
+        
+        synchronized (aggregatorManager)
+        {
+            assertEquals(AGENT_COUNT * REQUESTS_PER_AGENT, totalMetrics.totalRequests);
+            assertEquals(AGENT_COUNT, totalMetrics.websites.size());
+            assertEquals(REQUESTS_PER_AGENT, totalMetrics.maxSiteHits);
+            assertEquals(AGENT_COUNT * REQUESTS_PER_AGENT / 4, (int) totalMetrics.statusCodeCounts.get('5'));
+            assertEquals(3, totalMetrics.maxSite.getSections().size());
+            assertEquals(AGENT_COUNT * REQUESTS_PER_AGENT * 100L, totalMetrics.totalBytes);
+            assertEquals(REQUESTS_PER_AGENT * 100L, totalMetrics.maxSite.getBytes());
+            assertEquals(3, totalMetrics.sectionBytes.size());
+            assertEquals(AGENT_COUNT * REQUESTS_PER_AGENT, totalMetrics.sectionTree.getRoot().getHits());
+            assertEquals(AGENT_COUNT * 134, totalMetrics.sectionTree.find("/section0/page").getHits());
+            assertEquals("10.0.0.0/24", totalMetrics.subnetTree.getTopSubnets(24, 1).get(0).toString());
+            assertEquals(AGENT_COUNT * REQUESTS_PER_AGENT, totalMetrics.subnetTree.getTopSubnets(24, 1).get(0).getHits());
+        }
+        
+        monitor.update(now);
+        assertEquals(1, monitor.getAlerts().size());
+        bandwidthMonitor.update(now);
+        assertEquals(1, bandwidthMonitor.getAlerts().size());
+        errorRateMonitor.update(now);
+        assertEquals(0.25, errorRateMonitor.getCurrentErrorRate(), 0.0001);
+        assertEquals(1, errorRateMonitor.getAlerts().size());
+    }
+}
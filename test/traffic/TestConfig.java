@@ -0,0 +1,103 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import traffic.log.LogProcessor;
+import traffic.monitor.BaselineMonitor;
+import traffic.monitor.ErrorRateMonitor;
+import traffic.monitor.MetricManager;
+import traffic.monitor.MetricMonitor;
+import traffic.monitor.MonitorConfig;
+import traffic.monitor.ThroughputMonitor;
+import traffic.util.ConfigWatcher;
+
+public class TestConfig
+{
+    /**
+     * Tests that monitors are read from properties, and that invalid monitors are rejected
+     */
+    @Test
+    public void testParse()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("print.interval", "5000");
+        properties.setProperty("memory.budget", "64");
+        properties.setProperty("monitor.traffic.type", "throughput");
+        properties.setProperty("monitor.traffic.threshold", "10");
+        properties.setProperty("monitor.traffic.window", "60000");
+        properties.setProperty("monitor.errors.type", "errors");
+        properties.setProperty("monitor.errors.threshold", "0.1");
+        properties.setProperty("monitor.errors.window", "120000");
+        properties.setProperty("monitor.baseline.type", "baseline");
+        properties.setProperty("monitor.baseline.deviations", "5");
+        MonitorConfig config = MonitorConfig.parse(properties);
+
+        assertEquals(5000, config.getPrintInterval());
+        assertEquals(64L * 1024 * 1024, config.getMemoryBudget());
+        assertEquals(3, config.getMonitors().size());
+        // The baseline monitor's window defaults to the period of its baseline
+        assertEquals(BaselineMonitor.BASELINE_WINDOW, config.getMaxWindow());
+        assertTrue(config.getMonitors().get("traffic").createMonitor() instanceof ThroughputMonitor);
+        assertTrue(config.getMonitors().get("errors").createMonitor() instanceof ErrorRateMonitor);
+        assertEquals(5, ((BaselineMonitor) config.getMonitors().get("baseline").createMonitor()).getDeviations(), 0);
+
+        properties.setProperty("monitor.traffic.window", "-1");
+        try
+        {
+            MonitorConfig.parse(properties);
+            fail("A negative window should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    /**
+     * Tests that reloading keeps unchanged monitors, and that new monitors start with
+     * the requests made before they were added
+     */
+    @Test
+    public void testReload()
+    {
+        MetricManager metricManager = new MetricManager();
+        ConfigWatcher watcher = new ConfigWatcher(new File("monitors.properties"), metricManager, null, 1000);
+        long currentTime = System.currentTimeMillis();
+
+        Properties properties = new Properties();
+        properties.setProperty("monitor.traffic.type", "throughput");
+        properties.setProperty("monitor.traffic.threshold", "1000");
+        properties.setProperty("monitor.traffic.window", "60000");
+        watcher.apply(MonitorConfig.parse(properties), currentTime);
+        MetricMonitor traffic = watcher.getMonitor("traffic");
+
+        // 120 requests over the past 3 seconds, which the new monitor should count
+        for (int i = 0; i < 120; i++)
+        {
+            metricManager.analyze(LogProcessor.parseLine("10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] "
+                    + "\"GET /api HTTP/1.1\" 200 100"), currentTime - 3000 + i * 25);
+        }
+
+        properties.setProperty("monitor.slow.type", "throughput");
+        properties.setProperty("monitor.slow.threshold", "1000");
+        properties.setProperty("monitor.slow.window", "10000");
+        watcher.apply(MonitorConfig.parse(properties), currentTime);
+        assertSame(traffic, watcher.getMonitor("traffic"));
+        assertEquals(2, metricManager.getMonitors().size());
+        assertEquals(12.0, ((ThroughputMonitor) watcher.getMonitor("slow")).getCurrentRps(), 0.001);
+
+        // Changing a setting replaces the monitor, and removing it stops it
+        properties.setProperty("monitor.traffic.threshold", "500");
+        watcher.apply(MonitorConfig.parse(properties), currentTime);
+        assertNotSame(traffic, watcher.getMonitor("traffic"));
+        assertFalse(metricManager.getMonitors().contains(traffic));
+        assertEquals(2.0, ((ThroughputMonitor) watcher.getMonitor("traffic")).getCurrentRps(), 0.001);
+
+        watcher.apply(MonitorConfig.parse(new Properties()), currentTime);
+        assertNull(watcher.getMonitor("slow"));
+        assertEquals(0, metricManager.getMonitors().size());
+    }
+}
@@ -0,0 +1,102 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+import traffic.util.MetricsExporter;
+import traffic.util.MetricsSnapshot;
+
+public class TestExport
+{
+    /**
+     * Tests that snapshots are written as NDJSON, with the counters, status classes,
+     * top sections and alerting monitors of the interval
+     */
+    @Test
+    public void testNdjson() throws Exception
+    {
+        File file = File.createTempFile("metrics", ".ndjson");
+        file.deleteOnExit();
+
+        MetricManager metricManager = createMetricManager();
+        MetricsExporter exporter = new MetricsExporter(file, MetricsExporter.Format.NDJSON, 1024 * 1024, 2);
+        Thread writer = new Thread(exporter);
+        writer.start();
+        assertTrue(exporter.export(MetricsSnapshot.take(metricManager, 2)));
+        exporter.stop();
+        writer.join();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        String line = lines.get(0);
+        assertTrue(line, line.startsWith("{\"timestamp\":"));
+        assertTrue(line, line.contains("\"requests\":10,\"totalRequests\":10,"));
+        assertTrue(line, line.contains("\"bytes\":1000,"));
+        assertTrue(line, line.contains("\"status\":{\"2xx\":7,\"5xx\":3}"));
+        assertTrue(line, line.contains("\"topSections\":[{\"section\":\"/api\",\"hits\":7},"
+                + "{\"section\":\"/img,large\",\"hits\":3}]"));
+        assertTrue(line, line.endsWith("\"alertCount\":1,\"alerting\":[\"ThroughputMonitor\"]}"));
+    }
+
+    /**
+     * Tests that CSV files start with a header, and are rotated once they reach their maximum size
+     */
+    @Test
+    public void testCsvRotation() throws Exception
+    {
+        File file = File.createTempFile("metrics", ".csv");
+        File rotated = new File(file.getPath() + ".1");
+        File oldest = new File(file.getPath() + ".2");
+        file.deleteOnExit();
+        rotated.deleteOnExit();
+        oldest.deleteOnExit();
+
+        // Each file holds the header and 2 snapshots
+        MetricManager metricManager = createMetricManager();
+        MetricsExporter exporter = new MetricsExporter(file, MetricsExporter.Format.CSV, 450, 1);
+        Thread writer = new Thread(exporter);
+        writer.start();
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue(exporter.export(MetricsSnapshot.take(metricManager, 2)));
+        }
+        exporter.stop();
+        writer.join();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("timestamp,interval_seconds,requests,"));
+        assertTrue(lines.get(1), lines.get(1).contains(",10,10,"));
+        assertTrue(lines.get(1), lines.get(1).contains(",0,7,0,0,3,\"/api:7 /img,large:3\",1,ThroughputMonitor"));
+
+        assertEquals(3, Files.readAllLines(rotated.toPath(), StandardCharsets.UTF_8).size());
+        assertFalse(oldest.exists());
+        assertEquals(0, exporter.getDropped());
+    }
+
+    /**
+     * Creates a manager with 10 requests of 100 bytes, 3 of which failed, and a throughput alert
+     */
+    private static MetricManager createMetricManager()
+    {
+        MetricManager metricManager = new MetricManager();
+        ThroughputMonitor monitor = new ThroughputMonitor(0.1, 60000, 1000);
+        metricManager.addThroughputMonitor(monitor);
+        for (int i = 0; i < 10; i++)
+        {
+            String url = (i < 7)? "/api/v2/orders" : "/img,large/a.png";
+            metricManager.analyze(LogProcessor.parseLine("10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET "
+                    + url + " HTTP/1.1\" " + ((i < 7)? 200 : 500) + " 100"), 1000);
+        }
+        monitor.update(1000);
+        return metricManager;
+    }
+}
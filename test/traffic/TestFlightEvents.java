@@ -0,0 +1,101 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+import traffic.monitor.ThroughputMonitor;
+
+public class TestFlightEvents
+{
+    /** A line that parses */
+    private static final String LINE = "10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET /api HTTP/1.1\" 200 100";
+
+    /**
+     * Tests that enabled events record parse failures, batches, monitor updates and alerts.
+     * Only the 1st and 65th of the 100 failures are sampled, and the 900 parsed lines fill 2 batches.
+     */
+    @Test
+    public void testEnabled() throws Exception
+    {
+        Recording recording = new Recording();
+        recording.enable("traffic.LogParseFailure");
+        recording.enable("traffic.AnalyzeBatch").withThreshold(Duration.ZERO);
+        recording.enable("traffic.MonitorUpdate").withThreshold(Duration.ZERO);
+        recording.enable("traffic.Alert");
+        recording.start();
+        process(1000);
+        recording.stop();
+
+        HashMap<String, Integer> counts = countEvents(recording);
+        assertEquals(Integer.valueOf(2), counts.get("traffic.LogParseFailure"));
+        assertEquals(Integer.valueOf(2), counts.get("traffic.AnalyzeBatch"));
+        assertEquals(Integer.valueOf(1), counts.get("traffic.MonitorUpdate"));
+        assertEquals(Integer.valueOf(1), counts.get("traffic.Alert"));
+    }
+
+    /**
+     * Tests that no event is recorded unless a recording enables it
+     */
+    @Test
+    public void testDisabledByDefault() throws Exception
+    {
+        Recording recording = new Recording();
+        recording.start();
+        process(1000);
+        recording.stop();
+
+        for (String name : countEvents(recording).keySet())
+        {
+            assertFalse(name, name.startsWith("traffic."));
+        }
+    }
+
+    /**
+     * Handles lines of which 1 in 10 are malformed, then checks a monitor which alerts
+     */
+    private static void process(int lineCount)
+    {
+        MetricManager metricManager = new MetricManager();
+        // The window is long enough that the requests alerted as they are analyzed never expire
+        ThroughputMonitor monitor = new ThroughputMonitor(1, 60000, 1000);
+        metricManager.addMonitor(monitor);
+        LogProcessor logProcessor = new LogProcessor(metricManager);
+        for (int i = 0; i < lineCount; i++)
+        {
+            logProcessor.handle((i % 10 == 0)? "malformed" : LINE);
+        }
+        logProcessor.endOfFileReached();
+        monitor.update(System.currentTimeMillis());
+    }
+
+    /**
+     * Dumps a stopped recording and counts its events by name
+     */
+    private static HashMap<String, Integer> countEvents(Recording recording) throws Exception
+    {
+        File file = File.createTempFile("events", ".jfr");
+        file.deleteOnExit();
+        recording.dump(file.toPath());
+        recording.close();
+
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        for (RecordedEvent event : events)
+        {
+            String name = event.getEventType().getName();
+            Integer count = counts.get(name);
+            counts.put(name, (count == null)? 1 : count + 1);
+        }
+        return counts;
+    }
+}
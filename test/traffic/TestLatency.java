@@ -0,0 +1,112 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import traffic.monitor.Alert;
+import traffic.monitor.LatencyAlert;
+import traffic.monitor.LatencyHistogram;
+import traffic.monitor.LatencyMonitor;
+
+public class TestLatency
+{
+    /**
+     * Compares the histogram's percentiles with the exact percentiles of the recorded values
+     */
+    @Test
+    public void testPercentiles()
+    {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++)
+        {
+            // Log-normal response times, mostly between 1ms and 1s
+            values[i] = (long) Math.exp(random.nextGaussian() * 1.5 + 10);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        double[] percentiles = { 50.0, 90.0, 99.0, 99.9 };
+        for (double percentile : percentiles)
+        {
+            long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact,
+                    estimate >= exact && estimate <= exact * 1.04);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxValue());
+        assertEquals(values.length, histogram.getTotalCount());
+    }
+
+    /**
+     * Tests that merging histograms is the same as recording every value in one histogram
+     */
+    @Test
+    public void testMerge()
+    {
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram[] shards = { new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram() };
+        for (int i = 0; i < 30000; i++)
+        {
+            long value = (i * 7919L) % 2000000;
+            all.record(value);
+            shards[i % shards.length].record(value);
+        }
+
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram shard : shards)
+        {
+            merged.merge(shard);
+        }
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++)
+        {
+            assertEquals(all.getCount(i), merged.getCount(i));
+        }
+        assertEquals(all.getMaxValue(), merged.getMaxValue());
+        assertEquals(all.getValueAtPercentile(99.0), merged.getValueAtPercentile(99.0));
+    }
+
+    /**
+     * Tests that an alert is triggered when the p99 crosses its threshold, and recovers
+     * once the slow requests leave the time window
+     */
+    @Test
+    public void testAlerts()
+    {
+        long threshold = 500000;
+        long window = 10000;
+        LatencyMonitor monitor = new LatencyMonitor(99.0, threshold, window, 100);
+
+        // Fast requests do not trigger an alert
+        long time = 1000000;
+        for (int i = 0; i < 1000; i++)
+        {
+            monitor.addLatency(time, 20000);
+        }
+        monitor.update(time);
+        assertTrue(monitor.getAlerts().isEmpty());
+
+        // More than 1% of slow requests moves the p99 above the threshold
+        time += 1000;
+        for (int i = 0; i < 20; i++)
+        {
+            monitor.addLatency(time, 800000);
+        }
+        monitor.update(time);
+        assertEquals(1, monitor.getAlerts().size());
+        Alert critical = monitor.getAlerts().get(0);
+        assertFalse(critical.isRecovery());
+        assertTrue(((LatencyAlert) critical).getLatency() >= threshold);
+
+        // The alert recovers once the window only holds fast requests
+        time += window;
+        monitor.addLatency(time, 20000);
+        monitor.update(time);
+        assertEquals(2, monitor.getAlerts().size());
+        assertTrue(monitor.getAlerts().get(1).isRecovery());
+    }
+}
@@ -0,0 +1,77 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import traffic.log.Log;
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+
+public class TestLog
+{
+    /**
+     * Tests that every field of a log line is parsed
+     */
+    @Test
+    public void testParse()
+    {
+        Log log = LogProcessor.parseLine("64.242.88.10 - bob [07/Mar/2004:16:05:49 -0800] "
+                + "\"GET /twiki/bin/view/Main HTTP/1.1\" 401 12846");
+        assertNotNull(log);
+        assertEquals("64.242.88.10", log.getHost().toString());
+        assertEquals("-", log.getId().toString());
+        assertEquals("bob", log.getAuthUser().toString());
+        assertEquals("07/Mar/2004:16:05:49 -0800", log.getDate().toString());
+        assertEquals("GET /twiki/bin/view/Main HTTP/1.1", log.getRequest().toString());
+        assertEquals("GET", log.getRequestMethod().toString());
+        assertEquals("/twiki/bin/view/Main", log.getRequestUrl().toString());
+        assertEquals("HTTP/1.1", log.getRequestProtocol().toString());
+        assertEquals(401, log.getStatus());
+        assertEquals(12846, log.getBytes());
+        assertEquals(1078704349000L, log.getTimestamp());
+    }
+
+    /**
+     * Tests that the recycled log holds the fields of the last parsed line
+     */
+    @Test
+    public void testReuse()
+    {
+        Log first = LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"GET /a HTTP/1.1\" 200 10");
+        Log second = LogProcessor.parseLine("b - - [07/Mar/2004:16:05:50 -0800] \"POST /b\" 304 -");
+        assertSame(first, second);
+        assertEquals("b", second.getHost().toString());
+        assertEquals("/b", second.getRequestUrl().toString());
+        assertEquals(0, second.getRequestProtocol().length());
+        assertEquals(304, second.getStatus());
+        assertEquals(0, second.getBytes());
+    }
+
+    /**
+     * Tests that malformed lines are rejected
+     */
+    @Test
+    public void testMalformedLines()
+    {
+        assertNull(LogProcessor.parseLine(""));
+        assertNull(LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"-\" 408 -"));
+        assertNull(LogProcessor.parseLine("a - - 07/Mar/2004:16:05:49 -0800 \"GET / HTTP/1.1\" 200 10"));
+        assertNull(LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"GET / HTTP/1.1\" OK 10"));
+        assertNull(LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"GET / HTTP/1.1\" 200"));
+    }
+
+    /**
+     * Tests that URL sections match the sections of slash-separated fields
+     */
+    @Test
+    public void testSections()
+    {
+        String[] urls = { "/pages/create", "/pages", "/pages/", "/", "//a/b", "pages/a", "pages", "/?q=1", "" };
+        for (String url : urls)
+        {
+            String[] fields = url.split("/");
+            String expected = (fields.length > 1)? fields[0] + "/" + fields[1] : "";
+            assertEquals(url, expected, MetricManager.getSection(url));
+        }
+    }
+}
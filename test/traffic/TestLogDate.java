@@ -0,0 +1,44 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import traffic.log.LogDate;
+
+public class TestLogDate
+{
+    /**
+     * Compares the log date parser against the JDK's date formatter
+     */
+    @Test
+    public void testParse() throws Exception
+    {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+        String[] dates = {
+                "07/Mar/2004:16:05:49 -0800",
+                "29/Feb/2000:00:00:00 +0000",
+                "31/Dec/1999:23:59:59 +0530",
+                "1/Jan/1970:00:00:00 +0000" };
+        
+        for (String date : dates)
+        {
+            assertEquals(date, format.parse(date).getTime(), LogDate.parse(date));
+        }
+    }
+    
+    /**
+     * Tests that malformed dates are rejected
+     */
+    @Test
+    public void testMalformedDates()
+    {
+        assertEquals(-1, LogDate.parse(null));
+        assertEquals(-1, LogDate.parse(""));
+        assertEquals(-1, LogDate.parse("07/Foo/2004:16:05:49 -0800"));
+        assertEquals(-1, LogDate.parse("07/Mar/2004 16:05:49"));
+        assertEquals(-1, LogDate.parse("07/Mar/2004:16:05:49 *0800"));
+    }
+}
@@ -0,0 +1,87 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import traffic.log.FieldType;
+import traffic.log.Log;
+import traffic.log.LogFormat;
+import traffic.log.LogProcessor;
+
+public class TestLogFormat
+{
+    /** A line in Combined Log Format */
+    private static final String COMBINED_LINE = "10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] "
+            + "\"GET /pages/create HTTP/1.1\" 200 512 \"http://example.com/\" \"Mozilla/5.0 (X11; Linux)\"";
+
+    /**
+     * Tests that the referer and user agent of the Combined Log Format are parsed
+     */
+    @Test
+    public void testCombined()
+    {
+        Log log = LogProcessor.parseLine(COMBINED_LINE, LogFormat.COMBINED);
+        assertNotNull(log);
+        assertEquals("10.0.0.1", log.getHost().toString());
+        assertEquals("/pages/create", log.getRequestUrl().toString());
+        assertEquals(200, log.getStatus());
+        assertEquals(512, log.getBytes());
+        assertEquals("http://example.com/", log.getReferer().toString());
+        assertEquals("Mozilla/5.0 (X11; Linux)", log.getUserAgent().toString());
+
+        // The common format ignores the extra fields
+        assertNotNull(LogProcessor.parseLine(COMBINED_LINE, LogFormat.COMMON));
+    }
+
+    /**
+     * Tests that response times are converted to microseconds
+     */
+    @Test
+    public void testResponseTime()
+    {
+        LogFormat apache = LogFormat.compile(LogFormat.COMMON_FORMAT + " %D");
+        Log log = LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"GET / HTTP/1.1\" 200 - 1534", apache);
+        assertNotNull(log);
+        assertEquals(0, log.getBytes());
+        assertEquals(1534, log.getResponseTime());
+
+        LogFormat nginx = LogFormat.compile("$remote_addr - $remote_user [$time_local] "
+                + "\"$request\" $status $body_bytes_sent \"$http_referer\" \"$http_user_agent\" $request_time");
+        log = LogProcessor.parseLine("b - bob [07/Mar/2004:16:05:49 -0800] \"POST /api/orders HTTP/1.1\" 201 17 "
+                + "\"-\" \"curl/7.58.0\" 0.042", nginx);
+        assertNotNull(log);
+        assertEquals("bob", log.getAuthUser().toString());
+        assertEquals("POST", log.getRequestMethod().toString());
+        assertEquals("curl/7.58.0", log.getUserAgent().toString());
+        assertEquals(1078704349000L, log.getTimestamp());
+        assertEquals(42000, log.getResponseTime());
+    }
+
+    /**
+     * Tests that fields which are not selected are neither parsed nor validated
+     */
+    @Test
+    public void testSelect()
+    {
+        LogFormat format = LogFormat.COMBINED.select(EnumSet.of(FieldType.HOST, FieldType.STATUS));
+        assertFalse(format.hasField(FieldType.USER_AGENT));
+
+        // The bytes and the unterminated user agent come after the last selected field
+        Log log = LogProcessor.parseLine("a - - [07/Mar/2004:16:05:49 -0800] \"GET / HTTP/1.1\" 404 x \"-\" \"abc", format);
+        assertNotNull(log);
+        assertEquals(404, log.getStatus());
+        assertEquals(0, log.getUserAgent().length());
+        assertNull(LogProcessor.parseLine(COMBINED_LINE.replace(" 200 ", " OK "), format));
+    }
+
+    /**
+     * Tests that fields which cannot be told apart are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdjacentFields()
+    {
+        LogFormat.compile("%h%u");
+    }
+}
@@ -0,0 +1,107 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import traffic.log.LogBatch;
+import traffic.log.LogFormat;
+import traffic.log.LogMerger;
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+
+public class TestLogMerger
+{
+    /** The number of logs merged */
+    private static final int LOG_COUNT = 3;
+    /** The number of lines in each log */
+    private static final int LINE_COUNT = 2000;
+
+    /**
+     * Tests that the lines of several logs, one of them compressed, are merged in time order,
+     * with small blocks so that the readers wait for the merge
+     */
+    @Test
+    public void testMerge() throws IOException
+    {
+        LogMerger merger = new LogMerger(createLogs(), LogFormat.COMMON, 16, 1);
+        LogBatch batch = new LogBatch(LogFormat.COMMON, LOG_COUNT * LINE_COUNT);
+        while (merger.next(batch))
+        {
+        }
+
+        assertEquals(LOG_COUNT * LINE_COUNT, batch.size());
+        assertEquals(LOG_COUNT * (LINE_COUNT + 1), merger.getLineCount());
+        assertEquals(LOG_COUNT, merger.getFailures());
+        for (int i = 0; i < batch.size(); i++)
+        {
+            // Log "j" holds every line "i" where i % LOG_COUNT == j
+            assertEquals(getTime(i), batch.get(i).getTimestamp());
+            assertEquals("10.0.0." + (i % LOG_COUNT), batch.get(i).getHost().toString());
+        }
+    }
+
+    /**
+     * Tests that the merged logs are analyzed as if they were read from one log
+     */
+    @Test
+    public void testReplay() throws IOException
+    {
+        MetricManager metricManager = new MetricManager();
+        LogMerger merger = new LogMerger(createLogs(), LogFormat.COMMON);
+        assertEquals(LOG_COUNT * LINE_COUNT, merger.run(metricManager));
+        assertEquals(LOG_COUNT * LINE_COUNT, metricManager.getTotalMetrics().totalRequests);
+        assertEquals(LOG_COUNT * LINE_COUNT * 12L, metricManager.getTotalMetrics().totalBytes);
+    }
+
+    /**
+     * Creates the logs to merge. The last one is compressed, and each starts with a malformed line.
+     */
+    private static ArrayList<File> createLogs() throws IOException
+    {
+        ArrayList<File> files = new ArrayList<File>();
+        for (int log = 0; log < LOG_COUNT; log++)
+        {
+            boolean compressed = log == LOG_COUNT - 1;
+            File file = File.createTempFile("access", compressed? ".log.gz" : ".log");
+            file.deleteOnExit();
+            OutputStream out = new FileOutputStream(file);
+            if (compressed)
+                out = new GZIPOutputStream(out);
+
+            Writer writer = new OutputStreamWriter(out, "ISO-8859-1");
+            writer.write("malformed line\n");
+            for (int i = log; i < LOG_COUNT * LINE_COUNT; i += LOG_COUNT)
+            {
+                writer.write(getLine(i));
+            }
+            writer.close();
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the line logged "i" seconds after the start of the logs
+     */
+    private static String getLine(int i)
+    {
+        return LogFixtures.getLine(i, 1, LOG_COUNT) + "\n";
+    }
+
+    /**
+     * Returns the timestamp of line "i"
+     */
+    private static long getTime(int i)
+    {
+        return LogProcessor.parseLine(getLine(0).trim()).getTimestamp() + i * 1000L;
+    }
+}
@@ -0,0 +1,204 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import traffic.log.LogDate;
+import traffic.query.Aggregate;
+import traffic.query.GroupBy;
+import traffic.query.LogQuery;
+import traffic.query.Query;
+import traffic.query.QueryGroup;
+import traffic.query.QueryVisitor;
+
+public class TestLogQuery
+{
+    /** The number of times the requests of REQUESTS are written, 10 seconds apart */
+    private static final int REPEATS = 50;
+    /** The host, method, URL, status and bytes of the requests written every 10 seconds */
+    private static final String[][] REQUESTS = {
+        { "10.0.0.1", "GET", "/api/orders", "200", "100" },
+        { "10.0.0.2", "POST", "/api/orders", "201", "200" },
+        { "10.0.0.3", "GET", "/blog/post?id=1", "404", "50" },
+        { "10.0.0.1", "GET", "/blog", "500", "0" },
+        { null, "GET", "/img/logo.png", "200", "1000" },
+        { "10.0.0.2", "DELETE", "/api/orders/1", "503", "10" },
+    };
+    /** The number of bytes in each chunk, so that lines are split across many chunks */
+    private static final long CHUNK_SIZE = 300;
+    /** The date of the first request */
+    private static final String START_DATE = "07/Mar/2004:10:00:00 -0800";
+
+    /** The queried log, which starts with an unparseable line */
+    private static File log;
+
+    @BeforeClass
+    public static void writeLog() throws IOException
+    {
+        log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+
+        long start = LogDate.parse(START_DATE);
+        FileWriter writer = new FileWriter(log);
+        writer.write("not a log line\n");
+        for (int i = 0; i < REPEATS; i++)
+        {
+            String date = formatDate(start + i * 10000);
+            for (String[] request : REQUESTS)
+            {
+                // The images are requested by five different hosts in turn
+                String host = (request[0] != null)? request[0] : "10.0.0." + (4 + i % 5);
+                writer.write(host + " - - [" + date + "] \"" + request[1] + " " + request[2] + " HTTP/1.1\" "
+                        + request[3] + " " + request[4] + "\n");
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     * Tests that the groups of every chunk are merged, and that distinct hosts are not
+     * counted twice when they appear in several chunks
+     */
+    @Test
+    public void testAggregates() throws IOException
+    {
+        Query query = new Query();
+        QueryVisitor result = run(query);
+        assertEquals(REPEATS * REQUESTS.length + 1, result.getLinesScanned());
+        assertEquals(1, result.getParseFailures());
+        assertEquals(REPEATS * REQUESTS.length, result.getMatches());
+        assertGroups(result, Aggregate.COUNT, "/api", 150L, "/blog", 100L, "/img", 50L);
+
+        query.aggregate = Aggregate.BYTES;
+        assertGroups(run(query), Aggregate.BYTES, "/api", 15500L, "/blog", 2500L, "/img", 50000L);
+
+        query.aggregate = Aggregate.HOSTS;
+        assertGroups(run(query), Aggregate.HOSTS, "/api", 2L, "/blog", 2L, "/img", 5L);
+
+        // The same groups are found when the log is scanned in one chunk
+        QueryVisitor whole = LogQuery.run(query, getFiles(), 1);
+        assertGroups(whole, Aggregate.HOSTS, "/api", 2L, "/blog", 2L, "/img", 5L);
+    }
+
+    /**
+     * Tests the status, method, host and section filters
+     */
+    @Test
+    public void testFilters() throws IOException
+    {
+        Query query = new Query();
+        query.status = "5xx";
+        query.groupBy = GroupBy.STATUS;
+        assertGroups(run(query), Aggregate.COUNT, "500", 50L, "503", 50L);
+
+        query.status = "404";
+        query.groupBy = GroupBy.HOST;
+        assertGroups(run(query), Aggregate.COUNT, "10.0.0.3", 50L);
+
+        query = new Query();
+        query.method = "POST";
+        assertGroups(run(query), Aggregate.COUNT, "/api", 50L);
+
+        query = new Query();
+        query.host = "10.0.0.1";
+        query.groupBy = GroupBy.STATUS;
+        assertGroups(run(query), Aggregate.COUNT, "200", 50L, "500", 50L);
+
+        query = new Query();
+        query.sectionPrefix = "/api/orders/";
+        query.groupBy = GroupBy.STATUS;
+        assertGroups(run(query), Aggregate.COUNT, "503", 50L);
+    }
+
+    /**
+     * Tests that the time range selects the requests of whole repeats, and that minutes are grouped
+     */
+    @Test
+    public void testTimeRange() throws IOException
+    {
+        long start = LogDate.parse(START_DATE);
+        Query query = new Query();
+        query.groupBy = GroupBy.MINUTE;
+
+        // Every minute holds 6 repeats, except the last, which holds 2
+        QueryVisitor result = run(query);
+        assertEquals(9, result.getGroups().size());
+        assertEquals(6L * REQUESTS.length, result.getGroups().get(Query.formatMinute(start)).getValue(Aggregate.COUNT));
+        assertEquals(2L * REQUESTS.length,
+                result.getGroups().get(Query.formatMinute(start + 8 * LogDate.MINUTE)).getValue(Aggregate.COUNT));
+
+        query.from = start + LogDate.MINUTE;
+        query.to = start + 2 * LogDate.MINUTE;
+        assertGroups(run(query), Aggregate.COUNT, Query.formatMinute(query.from), 6L * REQUESTS.length);
+
+        // The range may end within a minute
+        query.from = start + 30000;
+        query.to = start + 65000;
+        query.groupBy = GroupBy.SECTION;
+        assertGroups(run(query), Aggregate.COUNT, "/api", 12L, "/blog", 8L, "/img", 4L);
+    }
+
+    /**
+     * Tests that a missing file is reported to the caller
+     */
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFile() throws IOException
+    {
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(new File(log.getPath() + ".missing"));
+        LogQuery.run(new Query(), files, 1);
+    }
+
+    /**
+     * Runs a query over the log, in small chunks scanned by several threads
+     */
+    private static QueryVisitor run(Query query) throws IOException
+    {
+        return LogQuery.run(query, getFiles(), 4, CHUNK_SIZE);
+    }
+
+    private static ArrayList<File> getFiles()
+    {
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(log);
+        return files;
+    }
+
+    /**
+     * Asserts that the result holds exactly the given groups
+     * @param expected Each group's key followed by its value
+     */
+    private static void assertGroups(QueryVisitor result, Aggregate aggregate, Object... expected)
+    {
+        HashMap<String, QueryGroup> groups = result.getGroups();
+        assertEquals(expected.length / 2, groups.size());
+        for (int i = 0; i < expected.length; i += 2)
+        {
+            QueryGroup group = groups.get(expected[i]);
+            assertNotNull("Missing group " + expected[i], group);
+            assertEquals(expected[i+1], group.getValue(aggregate));
+        }
+    }
+
+    /**
+     * Formats a timestamp as a date of the log, in its -0800 time zone
+     */
+    private static String formatDate(long timestamp)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT-08:00"));
+        return format.format(new Date(timestamp));
+    }
+}
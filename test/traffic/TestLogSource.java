@@ -0,0 +1,141 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import traffic.log.LogProcessor;
+import traffic.log.StreamLogSource;
+import traffic.log.Syslog;
+import traffic.log.SyslogTcpSource;
+import traffic.log.SyslogUdpSource;
+import traffic.monitor.MetricManager;
+
+public class TestLogSource
+{
+    /** A log line carried by the syslog messages */
+    private static final String LINE = "10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET /a/b HTTP/1.1\" 200 12";
+
+    /**
+     * Tests that the log line is found after RFC 5424 and RFC 3164 headers, and that lines
+     * without a header are passed on whole
+     */
+    @Test
+    public void testSyslogHeader()
+    {
+        assertEquals(LINE, getMessage("<190>1 2004-03-07T16:05:49.003Z web1 nginx 123 - - " + LINE));
+        assertEquals(LINE, getMessage("<190>1 2004-03-07T16:05:49Z web1 nginx - access [id a=\"x\\]\"][b c=\"d\"] " + LINE));
+        assertEquals(LINE, getMessage("<190>Mar  7 16:05:49 web1 nginx: " + LINE));
+        assertEquals(LINE, getMessage("<190>Mar  7 16:05:49 web1 nginx[123]: " + LINE));
+        assertEquals(LINE, getMessage("<13>nginx: " + LINE));
+        assertEquals(LINE, getMessage(LINE));
+        assertEquals("<notsyslog> " + LINE, getMessage("<notsyslog> " + LINE));
+    }
+
+    /**
+     * Tests that the lines of datagrams, which may hold several lines, are analyzed
+     */
+    @Test
+    public void testUdp() throws Exception
+    {
+        MetricManager metricManager = new MetricManager();
+        SyslogUdpSource source = new SyslogUdpSource(new LogProcessor(metricManager), 0, 10);
+        new Thread(source).start();
+
+        DatagramSocket socket = new DatagramSocket();
+        send(socket, source.getPort(), "<190>Mar  7 16:05:49 web1 nginx: " + LINE);
+        send(socket, source.getPort(), "<190>1 2004-03-07T16:05:49Z web1 nginx - - - " + LINE + "\n");
+        send(socket, source.getPort(), LINE + "\n" + LINE + "\r\n" + "malformed");
+        socket.close();
+
+        waitForRequests(metricManager, 4);
+        source.stop();
+        assertEquals(4, LogFixtures.getTotalRequests(metricManager));
+    }
+
+    /**
+     * Tests that octet-counted and line feed framed messages are analyzed, even when
+     * they are split across several writes, for several senders at once
+     */
+    @Test
+    public void testTcp() throws Exception
+    {
+        MetricManager metricManager = new MetricManager();
+        SyslogTcpSource source = new SyslogTcpSource(new LogProcessor(metricManager), 0, 10);
+        new Thread(source).start();
+
+        String message = "<190>1 2004-03-07T16:05:49Z web1 nginx - - - " + LINE;
+        String frames = message.length() + " " + message
+                + "<190>Mar  7 16:05:49 web1 nginx: " + LINE + "\n"
+                + LINE + "\r\n"
+                + (message.length() + 1) + " " + message + "\n";
+        byte[] bytes = frames.getBytes(StandardCharsets.ISO_8859_1);
+
+        Socket first = new Socket(InetAddress.getLoopbackAddress(), source.getPort());
+        Socket second = new Socket(InetAddress.getLoopbackAddress(), source.getPort());
+        OutputStream out = first.getOutputStream();
+        for (int i = 0; i < bytes.length; i += 7)
+        {
+            out.write(bytes, i, Math.min(7, bytes.length - i));
+            out.flush();
+        }
+        second.getOutputStream().write(bytes);
+        // The last line is not terminated, and is passed on when the sender disconnects
+        second.getOutputStream().write(LINE.getBytes(StandardCharsets.ISO_8859_1));
+        first.close();
+        second.close();
+
+        waitForRequests(metricManager, 9);
+        source.stop();
+        assertEquals(9, LogFixtures.getTotalRequests(metricManager));
+    }
+
+    /**
+     * Tests that the lines of a stream, such as piped standard input, are analyzed
+     */
+    @Test
+    public void testStream() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            lines.append(LINE).append('\n');
+        }
+        lines.append("<190>Mar  7 16:05:49 web1 nginx: ").append(LINE);
+
+        MetricManager metricManager = new MetricManager();
+        new StreamLogSource(new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.ISO_8859_1)),
+                new LogProcessor(metricManager)).run();
+        assertEquals(1001, LogFixtures.getTotalRequests(metricManager));
+    }
+
+    private static String getMessage(String frame)
+    {
+        byte[] bytes = frame.getBytes(StandardCharsets.ISO_8859_1);
+        int start = Syslog.findMessage(bytes, 0, bytes.length);
+        return new String(bytes, start, bytes.length - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void send(DatagramSocket socket, int port, String message) throws Exception
+    {
+        byte[] bytes = message.getBytes(StandardCharsets.ISO_8859_1);
+        socket.send(new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), port));
+    }
+
+    private static void waitForRequests(MetricManager metricManager, int expected) throws InterruptedException
+    {
+        for (int i = 0; i < 200 && LogFixtures.getTotalRequests(metricManager) < expected; i++)
+        {
+            Thread.sleep(10);
+        }
+        // Give extra lines a chance to be counted
+        Thread.sleep(50);
+    }
+}
@@ -0,0 +1,88 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import traffic.monitor.SectionTrie;
+
+public class TestSectionTrie
+{
+    /**
+     * Tests that each prefix of a path is counted up to the maximum depth,
+     * ignoring query strings, fragments and repeated slashes
+     */
+    @Test
+    public void testRollup()
+    {
+        SectionTrie trie = new SectionTrie(3, 32);
+        trie.add("/api/v2/orders/17?expand=items/all", 1, 100);
+        trie.add("/api/v2/orders", 1, 50);
+        trie.add("/api//v1/users#top", 1, 10);
+        trie.add("/api?debug=1", 1, 5);
+        trie.add("/", 1, 1);
+
+        assertEquals(5, trie.getRoot().getHits());
+        assertEquals(166, trie.getRoot().getBytes());
+        assertEquals(4, trie.find("/api").getHits());
+        assertEquals(2, trie.find("/api/v2").getHits());
+        assertEquals(2, trie.find("/api/v2/orders").getHits());
+        assertEquals(150, trie.find("/api/v2/orders").getBytes());
+        assertEquals(1, trie.find("/api/v1/users").getHits());
+        assertEquals(1, trie.getRoot().getChildren().size());
+
+        // Segments beyond the maximum depth are not counted
+        assertNull(trie.find("/api/v2/orders/17"));
+        assertEquals("/api/v2/orders", trie.find("/api/v2/orders").getPath());
+    }
+
+    /**
+     * Tests that children beyond the limit are counted in "(other)"
+     */
+    @Test
+    public void testOverflow()
+    {
+        SectionTrie trie = new SectionTrie(2, 4);
+        for (int i = 0; i < 10; i++)
+        {
+            trie.add("/section" + i + "/page", 1, 0);
+        }
+
+        assertEquals(5, trie.getRoot().getChildren().size());
+        SectionTrie.Node other = trie.find("/" + SectionTrie.OTHER);
+        assertEquals(6, other.getHits());
+        assertEquals(1, other.getChildren().size());
+        assertEquals(6, trie.find("/" + SectionTrie.OTHER + "/page").getHits());
+        assertEquals(SectionTrie.OTHER, trie.getRoot().getTopChildren(1).get(0).getName());
+    }
+
+    /**
+     * Tests that merging tries is the same as counting every path in one trie
+     */
+    @Test
+    public void testMerge()
+    {
+        SectionTrie all = new SectionTrie(3, 16);
+        SectionTrie[] shards = { new SectionTrie(3, 16), new SectionTrie(3, 16) };
+        for (int i = 0; i < 1000; i++)
+        {
+            String url = "/a" + (i % 3) + "/b" + (i % 5) + "/c" + (i % 11);
+            all.add(url, 1, i);
+            shards[i % 2].add(url, 1, i);
+        }
+
+        SectionTrie merged = new SectionTrie(3, 16);
+        merged.merge(shards[0]);
+        merged.merge(shards[1]);
+        assertEquals(all.getRoot().getHits(), merged.getRoot().getHits());
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < 5; j++)
+            {
+                String path = "/a" + i + "/b" + j;
+                assertEquals(all.find(path).getHits(), merged.find(path).getHits());
+                assertEquals(all.find(path).getBytes(), merged.find(path).getBytes());
+                assertEquals(all.find(path + "/c7").getHits(), merged.find(path + "/c7").getHits());
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import traffic.log.LogFormat;
+import traffic.monitor.Alert;
+import traffic.monitor.MetricManager;
+import traffic.monitor.Metrics;
+import traffic.monitor.SectionTrie;
+import traffic.monitor.ThroughputMonitor;
+import traffic.segment.Segment;
+import traffic.segment.SegmentConverter;
+import traffic.segment.SegmentReader;
+import traffic.segment.SegmentReplay;
+import traffic.segment.SegmentVisitor;
+import traffic.segment.SegmentWriter;
+
+public class TestSegment
+{
+    /**
+     * Tests that logs written to segments are read back unchanged, and that
+     * segments outside of a time range are skipped
+     */
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        File file = File.createTempFile("logs", ".seg");
+        file.deleteOnExit();
+        
+        // Write enough logs to fill more than one segment
+        int rowCount = SegmentWriter.ROWS_PER_SEGMENT + 100;
+        long startTime = 1078704349000L;
+        FileOutputStream out = new FileOutputStream(file);
+        SegmentWriter writer = new SegmentWriter(out, true);
+        for (int i = 0; i < rowCount; i++)
+        {
+            // Times are mostly increasing, with some logs out of order
+            long time = startTime + i * 10 - ((i % 7 == 0)? 25 : 0);
+            writer.add(time, "10.0.0." + (i % 13), "/section" + (i % 5), (short) (200 + i % 300), i * 1000L);
+        }
+        writer.flush();
+        out.close();
+        
+        final ArrayList<Segment> segments = new ArrayList<Segment>();
+        final int[] rowsRead = new int[1];
+        new SegmentReader(file).read(new SegmentVisitor() {
+            public void visitSegment(Segment segment)
+            {
+                for (int i = 0; i < segment.rowCount; i++)
+                {
+                    int row = rowsRead[0]++;
+                    assertEquals(startTime(row), segment.times[i]);
+                    assertEquals("10.0.0." + (row % 13), segment.hosts[segment.hostIds[i]]);
+                    assertEquals("/section" + (row % 5), segment.sections[segment.sectionIds[i]]);
+                    assertEquals(200 + row % 300, segment.statuses[i]);
+                    assertEquals(row * 1000L, segment.bytes[i]);
+                }
+                segments.add(segment);
+            }
+            
+            private long startTime(int row)
+            {
+                return 1078704349000L + row * 10 - ((row % 7 == 0)? 25 : 0);
+            }
+        });
+        assertEquals(rowCount, rowsRead[0]);
+        assertEquals(2, segments.size());
+        
+        // Only the second segment contains logs after the first segment's last log
+        final int[] segmentsRead = new int[1];
+        new SegmentReader(file).read(startTime + (rowCount - 50) * 10, -1, new SegmentVisitor() {
+            public void visitSegment(Segment segment)
+            {
+                segmentsRead[0]++;
+                assertEquals(100, segment.rowCount);
+            }
+        });
+        assertEquals(1, segmentsRead[0]);
+    }
+
+    
+    /**
+     * Tests that a log converted in many small chunks, each with its own dictionaries, replays
+     * to the same totals and alerts as the log's lines, with the logs' own timestamps as the clock
+     */
+    @Test
+    public void testConvertAndReplay() throws IOException
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        File output = File.createTempFile("logs", SegmentConverter.EXTENSION);
+        output.deleteOnExit();
+        
+        // Two requests per second for five minutes, with a burst of 30 per second for 10 seconds
+        int garbageLines = 0;
+        FileWriter writer = new FileWriter(log);
+        for (int second = 0; second < 300; second++)
+        {
+            int requests = (second >= 100 && second < 110)? 30 : 2;
+            for (int i = 0; i < requests; i++)
+            {
+                writer.write(LogFixtures.getLine(second, 1, 7) + "\n");
+            }
+            if (second % 50 == 0)
+            {
+                writer.write("not a log line\n");
+                garbageLines++;
+            }
+        }
+        writer.close();
+        
+        assertEquals(garbageLines, SegmentConverter.convert(log, output, LogFormat.COMMON, 4, 4096));
+        
+        MetricManager segmentManager = new MetricManager();
+        ThroughputMonitor segmentMonitor = new ThroughputMonitor(5, 60000, 1000);
+        segmentManager.addThroughputMonitor(segmentMonitor);
+        SegmentReplay segmentReplay = new SegmentReplay(segmentManager);
+        new SegmentReader(output).read(segmentReplay);
+        segmentReplay.flush();
+        
+        MetricManager textManager = new MetricManager();
+        ThroughputMonitor textMonitor = new ThroughputMonitor(5, 60000, 1000);
+        textManager.addThroughputMonitor(textMonitor);
+        new SegmentReplay(textManager).replayText(log);
+        
+        Metrics expected = textManager.getTotalMetrics();
+        Metrics actual = segmentManager.getTotalMetrics();
+        assertEquals(290 * 2 + 10 * 30, expected.totalRequests);
+        assertEquals(expected.totalRequests, actual.totalRequests);
+        assertEquals(expected.totalBytes, actual.totalBytes);
+        assertEquals(expected.statusCodeCounts, actual.statusCodeCounts);
+        assertEquals(expected.websites.size(), actual.websites.size());
+        for (SectionTrie.Node section : expected.sectionTree.getRoot().getChildren())
+        {
+            assertEquals(section.getHits(), actual.sectionTree.getRoot().getChild(section.getName()).getHits());
+        }
+        
+        // The burst raises an alert which recovers once it leaves the window, at the same log times
+        ArrayList<Alert> alerts = textMonitor.getAlerts();
+        assertEquals(2, alerts.size());
+        assertTrue(alerts.get(1).isRecovery());
+        assertEquals(alerts.size(), segmentMonitor.getAlerts().size());
+        for (int i = 0; i < alerts.size(); i++)
+        {
+            assertEquals(alerts.get(i).getTimestamp(), segmentMonitor.getAlerts().get(i).getTimestamp());
+            assertEquals(alerts.get(i).isRecovery(), segmentMonitor.getAlerts().get(i).isRecovery());
+        }
+    }
+}
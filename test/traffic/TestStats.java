@@ -0,0 +1,90 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import traffic.log.LogProcessor;
+import traffic.monitor.MetricManager;
+import traffic.stats.TrafficMonitorStats;
+
+public class TestStats
+{
+    /**
+     * Tests that the lines, bytes and parse failures read by a processor are counted, and that reset clears them
+     */
+    @Test
+    public void testCounters()
+    {
+        TrafficMonitorStats stats = new TrafficMonitorStats();
+        LogProcessor processor = new LogProcessor(new MetricManager());
+        processor.setStats(stats);
+
+        String line = LogFixtures.getLine(0, 1, 1);
+        processor.handle(line);
+        processor.handle("not a log");
+        byte[] bytes = LogFixtures.getLine(1, 1, 1).getBytes(StandardCharsets.ISO_8859_1);
+        processor.handle(bytes, 0, bytes.length, 2);
+        processor.flush();
+
+        assertEquals(3, stats.getLinesRead());
+        assertEquals(2, stats.getLinesParsed());
+        assertEquals(1, stats.getParseFailures());
+        assertEquals(line.length() + 1 + "not a log".length() + 1 + bytes.length + 2, stats.getBytesRead());
+        assertTrue(stats.getAnalyzeNanos() > 0);
+
+        stats.reset();
+        assertEquals(0, stats.getLinesRead());
+        assertEquals(0, stats.getLinesParsed());
+        assertEquals(0, stats.getParseFailures());
+        assertEquals(0, stats.getBytesRead());
+    }
+
+    /**
+     * Tests that the tail lag counts the bytes after the processor's offset, which starts
+     * again from zero when the log is rotated
+     */
+    @Test
+    public void testTailLag() throws IOException
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        TrafficMonitorStats stats = new TrafficMonitorStats();
+        stats.setLogFile(log);
+        LogProcessor processor = new LogProcessor(new MetricManager());
+        processor.setStats(stats);
+
+        String line = LogFixtures.getLine(0, 1, 1);
+        writeLines(log, line, 10);
+        processor.setOffset(4 * (line.length() + 1));
+        assertEquals(6 * (line.length() + 1), stats.getTailLagBytes());
+        processor.handle(line);
+        assertEquals(5 * (line.length() + 1), stats.getTailLagBytes());
+
+        // The rotated log is shorter than the bytes read so far, and none of it was read
+        writeLines(log, line, 2);
+        processor.fileRotated();
+        assertEquals(2 * (line.length() + 1), stats.getTailLagBytes());
+        processor.handle(line);
+        assertEquals(line.length() + 1, stats.getTailLagBytes());
+        processor.handle(line);
+        assertEquals(0, stats.getTailLagBytes());
+    }
+
+    /**
+     * Replaces the content of a log with the same line repeated
+     */
+    private static void writeLines(File log, String line, int count) throws IOException
+    {
+        FileWriter writer = new FileWriter(log);
+        for (int i = 0; i < count; i++)
+        {
+            writer.write(line + "\n");
+        }
+        writer.close();
+    }
+}
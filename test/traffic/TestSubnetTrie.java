@@ -0,0 +1,121 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import traffic.log.IpAddress;
+import traffic.monitor.SubnetTrie;
+
+public class TestSubnetTrie
+{
+    /**
+     * Tests that IPv4 and IPv6 addresses are parsed, and that host names are rejected
+     */
+    @Test
+    public void testParse()
+    {
+        long[] address = new long[2];
+        assertTrue(IpAddress.parse("192.168.1.20", address));
+        assertTrue(IpAddress.isIpv4(address[0], address[1]));
+        assertEquals(0xffffc0a80114L, address[1]);
+        assertEquals("192.168.1.0/24", IpAddress.format(address[0], address[1] & ~0xffL, 120));
+
+        assertTrue(IpAddress.parse("2001:db8::1", address));
+        assertEquals(0x20010db800000000L, address[0]);
+        assertEquals(1L, address[1]);
+        assertTrue(IpAddress.parse("fe80::1%eth0", address));
+        assertEquals(0xfe80000000000000L, address[0]);
+        assertTrue(IpAddress.parse("::ffff:10.0.0.1", address));
+        assertTrue(IpAddress.isIpv4(address[0], address[1]));
+        assertEquals("2001:db8:1::/48", IpAddress.format(0x20010db800010000L, 0, 48));
+
+        String[] invalid = { "example.com", "256.1.1.1", "1.2.3", "1.2.3.4.5", "1:2:3", "1::2::3", "", "::1:" };
+        for (String host : invalid)
+        {
+            assertFalse(host, IpAddress.parse(host, address));
+        }
+    }
+
+    /**
+     * Tests that requests are counted in their /16 and /24, or /48 and /64, subnets
+     */
+    @Test
+    public void testRollup()
+    {
+        SubnetTrie tree = new SubnetTrie(1024);
+        for (int i = 0; i < 10; i++)
+        {
+            tree.add("10.1.2." + i, 1);
+        }
+        tree.add("10.1.3.1", 5);
+        tree.add("10.2.0.1", 2);
+        tree.add("2001:db8:1:2::1", 3);
+        tree.add("2001:db8:1:3::1", 4);
+        tree.add("example.com", 100);
+
+        ArrayList<SubnetTrie.Subnet> wide = tree.getTopSubnets(16, 5);
+        assertEquals(2, wide.size());
+        assertEquals("10.1.0.0/16", wide.get(0).toString());
+        assertEquals(15, wide.get(0).getHits());
+        assertEquals("10.2.0.0/16", wide.get(1).toString());
+
+        ArrayList<SubnetTrie.Subnet> narrow = tree.getTopSubnets(24, 1);
+        assertEquals("10.1.2.0/24", narrow.get(0).toString());
+        assertEquals(10, narrow.get(0).getHits());
+
+        assertEquals("2001:db8:1::/48", tree.getTopSubnets(48, 1).get(0).toString());
+        assertEquals(7, tree.getTopSubnets(48, 1).get(0).getHits());
+        assertEquals("2001:db8:1:3::/64", tree.getTopSubnets(64, 1).get(0).toString());
+        assertEquals(0, tree.getOtherHits());
+    }
+
+    /**
+     * Tests that scanning traffic from many subnets stops creating nodes once the tree is full,
+     * while every request is still counted
+     */
+    @Test
+    public void testBound()
+    {
+        SubnetTrie tree = new SubnetTrie(256);
+        long total = 0;
+        for (int i = 0; i < 65536; i++)
+        {
+            tree.add((i & 0xff) + "." + (i >> 8) + ".0.1", 1);
+            total++;
+        }
+        assertTrue(tree.getNodeCount() <= 256);
+
+        long counted = tree.getOtherHits();
+        for (SubnetTrie.Subnet subnet : tree.getTopSubnets(16, 65536))
+        {
+            counted += subnet.getHits();
+        }
+        assertEquals(total, counted);
+    }
+
+    /**
+     * Tests that merging trees adds their subnets' requests, and that a merged tree can be queried
+     * for the subnets of another tree
+     */
+    @Test
+    public void testMerge()
+    {
+        SubnetTrie first = new SubnetTrie(1024);
+        SubnetTrie second = new SubnetTrie(1024);
+        first.add("10.1.2.3", 2);
+        second.add("10.1.2.4", 3);
+        second.add("172.16.0.1", 1);
+        first.merge(second);
+
+        SubnetTrie.Subnet top = first.getTopSubnets(24, 1).get(0);
+        assertEquals(5, top.getHits());
+        assertEquals(3, second.getHits(top));
+        assertEquals(2, first.getTopSubnets(16, 5).size());
+
+        first.reset();
+        assertEquals(0, first.getHits(top));
+        assertEquals(1, first.getNodeCount());
+    }
+}
@@ -0,0 +1,109 @@
+package traffic;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import traffic.log.FileTailer;
+import traffic.log.LogDate;
+import traffic.log.LogProcessor;
+import traffic.log.TimeIndex;
+import traffic.monitor.MetricManager;
+
+public class TestTimeIndex
+{
+    /** The number of lines written to the test log */
+    private static final int LINE_COUNT = 20000;
+    
+    /**
+     * Tests that the index and the binary search fallback find the same ranges
+     */
+    @Test
+    public void testRange() throws IOException
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        TimeIndex.getIndexFile(log).deleteOnExit();
+        long[] offsets = writeLog(log, "\n");
+        
+        long start = LogDate.parse("07/Mar/2004:00:00:00 -0800");
+        long from = start + 3 * 1000 * 5000;
+        long to = start + 3 * 1000 * 12000;
+        
+        // Without an index, the binary search finds the exact lines
+        long[] searched = TimeIndex.getRange(log, from, to);
+        assertEquals(offsets[5000], searched[0]);
+        assertEquals(offsets[12000], searched[1]);
+        
+        // With an index, the range is widened to whole minutes
+        TimeIndex index = TimeIndex.build(log, 4);
+        assertEquals(LINE_COUNT * 3 / 60, index.size());
+        long[] indexed = TimeIndex.getRange(log, from, to);
+        assertEquals(offsets[5000], indexed[0]);
+        assertEquals(offsets[12020], indexed[1]);
+    }
+    
+    /**
+     * Tests that the index written while a log with "\r\n" terminators is tailed
+     * records where each minute really starts
+     */
+    @Test
+    public void testCarriageReturns() throws Exception
+    {
+        File log = File.createTempFile("access", ".log");
+        log.deleteOnExit();
+        TimeIndex.getIndexFile(log).deleteOnExit();
+        long[] offsets = writeLog(log, "\r\n");
+        
+        LogProcessor processor = new LogProcessor(new MetricManager());
+        processor.setTimeIndex(TimeIndex.openForAppend(log));
+        FileTailer tailer = new FileTailer(log, processor, 10, 0);
+        Thread thread = new Thread(tailer);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (tailer.getPosition() < log.length() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        tailer.stop();
+        thread.join();
+        processor.endOfFileReached();
+        
+        TimeIndex index = TimeIndex.load(log);
+        assertEquals(LINE_COUNT * 3 / 60, index.size());
+        long start = LogDate.parse("07/Mar/2004:00:00:00 -0800");
+        for (int minute = 0; minute < index.size(); minute++)
+        {
+            assertEquals(offsets[minute * 20], index.getStartOffset(start + minute * LogDate.MINUTE));
+        }
+        
+        // The range ends at the first line of the following minute
+        long[] indexed = TimeIndex.getRange(log, start + 3 * 1000 * 5000, start + 3 * 1000 * 12000);
+        assertEquals(offsets[5000], indexed[0]);
+        assertEquals(offsets[12020], indexed[1]);
+    }
+    
+    /**
+     * Writes one line every 3 seconds
+     * @param terminator The terminator of each line
+     * @return The offset at which each line starts
+     */
+    private static long[] writeLog(File log, String terminator) throws IOException
+    {
+        long[] offsets = new long[LINE_COUNT];
+        long offset = 0;
+        FileWriter writer = new FileWriter(log);
+        for (int i = 0; i < LINE_COUNT; i++)
+        {
+            String line = LogFixtures.getLine(i, 3, 1) + terminator;
+            writer.write(line);
+            offsets[i] = offset;
+            offset += line.length();
+        }
+        writer.close();
+        return offsets;
+    }
+}
@@ -2,10 +2,25 @@ package traffic;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import org.junit.Test;
 
+import traffic.log.Log;
+import traffic.log.LogBatch;
+import traffic.log.LogFormat;
+import traffic.log.LogProcessor;
 import traffic.monitor.Alert;
+import traffic.monitor.BandwidthAlert;
+import traffic.monitor.BandwidthMonitor;
+import traffic.monitor.BaselineAlert;
+import traffic.monitor.BaselineMonitor;
+import traffic.monitor.ErrorRateMonitor;
+import traffic.monitor.MemoryBudget;
+import traffic.monitor.MetricManager;
+import traffic.monitor.Metrics;
+import traffic.monitor.MetricsDelta;
+import traffic.monitor.SectionTrie;
 import traffic.monitor.ThroughputMonitor;
 
 public class TestTrafficMonitor 
@@ -84,7 +99,7 @@ public class TestTrafficMonitor
                 new Alert(thresholdRequestCount - 1, true, alertTimes.get(1))},
                 monitor.getAlerts());
 
-        // Surpass the threshold
+        // Surpass the threshold, which is alerted by the request that crosses it
         int overshootRequestCount = 1 + thresholdRequestCount * 4;
         for (int i = 0; i < overshootRequestCount; i++) 
         {
@@ -95,7 +110,7 @@ public class TestTrafficMonitor
         alertEquals(new Alert[] { 
                 new Alert(thresholdRequestCount, false, alertTimes.get(0)), 
                 new Alert(thresholdRequestCount - 1, true, alertTimes.get(1)),
-                new Alert(thresholdRequestCount * 5, false, alertTimes.get(2))}, 
+                new Alert(thresholdRequestCount, false, alertTimes.get(2))}, 
                 monitor.getAlerts());
 
         // Slide the traffic window until RPS = 0
@@ -105,11 +120,391 @@ public class TestTrafficMonitor
         alertEquals(new Alert[] { 
                 new Alert(thresholdRequestCount, false, alertTimes.get(0)), 
                 new Alert(thresholdRequestCount - 1, true, alertTimes.get(1)),
-                new Alert(thresholdRequestCount * 5, false, alertTimes.get(2)), 
+                new Alert(thresholdRequestCount, false, alertTimes.get(2)), 
                 new Alert(0, true, alertTimes.get(3))}, 
                 monitor.getAlerts());
     }
     
+    /**
+     * Tests that crossing the threshold is alerted by the request that crosses it, without an
+     * update, and that the monitor's thread wakes up for the recovery once the requests expire
+     */
+    @Test
+    public void testPushAlerts() throws InterruptedException
+    {
+        ThroughputMonitor monitor = new ThroughputMonitor(10, 500, 100000);
+        Thread monitorThread = new Thread(monitor);
+        monitorThread.start();
+        
+        long time = System.currentTimeMillis();
+        monitor.addRequests(time, 4);
+        assertEquals(0, monitor.getAlerts().size());
+        monitor.addRequests(time + 1, 1);
+        assertEquals(1, monitor.getAlerts().size());
+        assertEquals(time + 1, monitor.getAlerts().get(0).getTimestamp());
+        
+        // The recovery is detected although the monitor's delay is much longer than the window
+        for (int i = 0; i < 200 && monitor.isAlerting(); i++)
+        {
+            Thread.sleep(10);
+        }
+        monitor.stop();
+        monitorThread.join(1000);
+        assertFalse(monitorThread.isAlive());
+        assertEquals(2, monitor.getAlerts().size());
+        assertTrue(monitor.getAlerts().get(1).isRecovery());
+        assertTrue(monitor.getAlerts().get(1).getTimestamp() > time + 500);
+    }
+    
+    /**
+     * Tests that analyzing logs in batches records the same metrics as analyzing them one by one
+     */
+    @Test
+    public void testBatch()
+    {
+        MetricManager single = new MetricManager();
+        MetricManager batched = new MetricManager();
+        ThroughputMonitor monitor = new ThroughputMonitor(10, 10000, 100);
+        batched.addThroughputMonitor(monitor);
+        
+        long time = System.currentTimeMillis();
+        LogBatch batch = new LogBatch(LogFormat.COMMON, 64);
+        for (int i = 0; i < 150; i++)
+        {
+            String host = (i % 3 == 0)? "10.0.0.1" : "10.0.0." + (i % 5);
+            String line = host + " - - [07/Mar/2004:16:05:49 -0800] \"GET /section" + (i % 7)
+                    + "/page HTTP/1.1\" " + ((i % 10 == 0)? 404 : 200) + " " + i;
+            single.analyze(LogProcessor.parseLine(line), time);
+            assertNotNull(batch.add(line));
+            if (batch.isFull())
+            {
+                batched.analyzeBatch(batch, time);
+                batch.clear();
+            }
+        }
+        // Malformed lines are not added
+        assertNull(batch.add("not a log"));
+        batched.analyzeBatch(batch, time);
+        
+        Metrics expected = single.getTotalMetrics();
+        Metrics actual = batched.getTotalMetrics();
+        assertEquals(expected.totalRequests, actual.totalRequests);
+        assertEquals(expected.totalBytes, actual.totalBytes);
+        assertEquals(expected.statusCodeCounts, actual.statusCodeCounts);
+        assertEquals(expected.maxSiteHits, actual.maxSiteHits);
+        assertEquals(expected.maxSite.getName(), actual.maxSite.getName());
+        assertEquals(expected.maxSite.getSections(), actual.maxSite.getSections());
+        assertEquals(expected.sectionBytes.size(), actual.sectionBytes.size());
+        
+        monitor.update(time);
+        assertEquals(1, monitor.getAlerts().size());
+        assertEquals(15.0, monitor.getCurrentRps(), 0.001);
+    }
+    
+    /**
+     * Tests that the bandwidth monitor sums the bytes of each log, whether logs are analyzed
+     * one by one or in batches, and alerts with the bytes served per second
+     */
+    @Test
+    public void testBandwidth()
+    {
+        MetricManager metricManager = new MetricManager();
+        BandwidthMonitor monitor = new BandwidthMonitor(1000, 10000, 100);
+        metricManager.addMonitor(monitor);
+        long time = 600000;
+        
+        // 8000 bytes in 10 seconds stay below 1000 bytes per second
+        for (int i = 0; i < 4; i++)
+        {
+            metricManager.analyze(LogProcessor.parseLine(getLine(2000)), time);
+        }
+        assertEquals(800.0, monitor.getCurrentBytesPerSecond(), 0.001);
+        assertEquals(0, monitor.getAlerts().size());
+        
+        // The log that reaches the threshold triggers the alert
+        metricManager.analyze(LogProcessor.parseLine(getLine(2000)), time);
+        assertEquals(1, monitor.getAlerts().size());
+        BandwidthAlert alert = (BandwidthAlert) monitor.getAlerts().get(0);
+        assertFalse(alert.isRecovery());
+        assertEquals(10000, alert.getBytes());
+        assertEquals(1000.0, alert.getBytesPerSecond(), 0.001);
+        
+        // The bytes leave the window
+        monitor.update(time + 10001);
+        assertEquals(2, monitor.getAlerts().size());
+        alert = (BandwidthAlert) monitor.getAlerts().get(1);
+        assertTrue(alert.isRecovery());
+        assertEquals(0.0, alert.getBytesPerSecond(), 0.001);
+        
+        // A batch counts the bytes of all of its logs at once
+        time += 60000;
+        LogBatch batch = new LogBatch(LogFormat.COMMON, 64);
+        for (int i = 0; i < 8; i++)
+        {
+            assertNotNull(batch.add(getLine(2000)));
+        }
+        metricManager.analyzeBatch(batch, time);
+        assertEquals(3, monitor.getAlerts().size());
+        alert = (BandwidthAlert) monitor.getAlerts().get(2);
+        assertFalse(alert.isRecovery());
+        assertEquals(16000, alert.getBytes());
+        assertEquals(1600.0, alert.getBytesPerSecond(), 0.001);
+        
+        monitor.update(time + 10001);
+        assertEquals(4, monitor.getAlerts().size());
+        assertTrue(monitor.getAlerts().get(3).isRecovery());
+    }
+    
+    /**
+     * Returns a log line whose request served the given number of bytes
+     */
+    private static String getLine(long bytes)
+    {
+        return "10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET /images/logo.png HTTP/1.1\" 200 " + bytes;
+    }
+    
+    /**
+     * Tests that the metrics stay within the memory budget as new clients keep arriving, keeping
+     * the busiest website, and that the hits of an evicted website are restored when it returns
+     */
+    @Test
+    public void testMemoryBudget()
+    {
+        MetricManager metricManager = new MetricManager();
+        long limit = 1024 * 1024;
+        metricManager.setMemoryBudget(limit);
+        
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 20000; i++)
+        {
+            String host = (i % 2 == 0)? "10.0.0.1" : "10.1." + (i / 256 % 256) + "." + (i % 256);
+            analyze(metricManager, host, "/section" + (i % 20) + "/page", time);
+        }
+        for (int i = 0; i < 40; i++)
+        {
+            analyze(metricManager, "10.2.0.1", "/page", time);
+        }
+        for (int i = 0; i < 20000; i++)
+        {
+            analyze(metricManager, "10.3." + (i / 256 % 256) + "." + (i % 256), "/page", time);
+        }
+        
+        Metrics metrics = metricManager.getTotalMetrics();
+        MemoryBudget budget = metricManager.getMemoryBudget();
+        assertTrue(budget.getTrimCount() > 0);
+        assertTrue(budget.getRetainedBytes() <= limit);
+        assertTrue(metrics.getEvictedWebsites() > 0);
+        assertEquals(MemoryBudget.KEPT_SECTIONS, metrics.getSectionLimit());
+        assertEquals("10.0.0.1", metrics.maxSite.getName());
+        assertEquals(10000, metrics.maxSiteHits);
+        
+        // The sketch never underestimates the hits of an evicted website
+        metrics.trimWebsites(1);
+        assertEquals(1, metrics.websites.size());
+        assertNull(metrics.websites.get("10.2.0.1"));
+        analyze(metricManager, "10.2.0.1", "/page", time);
+        assertTrue(metrics.websites.get("10.2.0.1").getHits() >= 41);
+        assertEquals(40041, metrics.totalRequests);
+    }
+    
+    private static void analyze(MetricManager metricManager, String host, String url, long time)
+    {
+        metricManager.analyze(LogProcessor.parseLine(host + " - - [07/Mar/2004:16:05:49 -0800] \"GET " 
+                + url + " HTTP/1.1\" 200 100"), time);
+    }
+    
+    /**
+     * Tests that the error rate monitor waits for enough requests, and only recovers
+     * once the error rate drops below the recovery threshold
+     */
+    @Test
+    public void testErrorRate()
+    {
+        ErrorRateMonitor monitor = new ErrorRateMonitor(0.1, 0.05, 100, 60000, 1000);
+        long time = 600000;
+        
+        // Every request fails, but there are too few of them
+        monitor.addRequests(time, 50, 50);
+        monitor.update(time);
+        assertEquals(1.0, monitor.getCurrentErrorRate(), 0.0001);
+        assertEquals(0, monitor.getAlerts().size());
+        
+        // 60 errors out of 200 requests
+        monitor.addRequests(time + 10000, 150, 10);
+        monitor.update(time + 10000);
+        assertEquals(0.3, monitor.getCurrentErrorRate(), 0.0001);
+        assertEquals(1, monitor.getAlerts().size());
+        
+        // 60 errors out of 800 requests is below the threshold, but not the recovery threshold
+        monitor.addRequests(time + 20000, 600, 0);
+        monitor.update(time + 20000);
+        assertEquals(0.075, monitor.getCurrentErrorRate(), 0.0001);
+        assertEquals(1, monitor.getAlerts().size());
+        
+        // The first requests leave the window, leaving 10 errors out of 750 requests
+        monitor.update(time + 65000);
+        assertEquals(10 / 750.0, monitor.getCurrentErrorRate(), 0.0001);
+        assertEquals(2, monitor.getAlerts().size());
+        assertTrue(monitor.getAlerts().get(1).isRecovery());
+        
+        // The remaining requests leave the window
+        monitor.update(time + 200000);
+        assertEquals(0, monitor.getCurrentErrorRate(), 0.0001);
+    }
+    
+    @Test
+    public void testBaseline()
+    {
+        BaselineMonitor monitor = new BaselineMonitor(4, 1, 1000);
+        Random random = new Random(42);
+        long time = 1000000000L;
+        
+        // Half an hour of steady, noisy traffic learns the baselines without alerting
+        time = addTraffic(monitor, random, time, 1800, 100, 20);
+        assertEquals(0, monitor.getAlerts().size());
+        assertEquals(120, monitor.getBaseline(BaselineMonitor.ALL_TRAFFIC).rate15, 5);
+        assertEquals(100, monitor.getBaseline("/api").rate5, 5);
+        assertEquals(20, monitor.getBaseline("/blog").rate1, 5);
+        
+        // A surge of /api is detected within a few ticks
+        time = addTraffic(monitor, random, time, 30, 400, 20);
+        assertTrue(monitor.isAlerting());
+        BaselineAlert surge = getBaselineAlert(monitor, "/api", false);
+        assertTrue(surge.isSurge());
+        assertTrue(surge.getRate() > surge.getBaseline());
+        assertNull(getBaselineAlert(monitor, "/blog", false));
+        
+        // The surge ends and /api recovers
+        time = addTraffic(monitor, random, time, 600, 100, 20);
+        assertTrue(getBaselineAlert(monitor, "/api", true).isSurge());
+        assertFalse(monitor.isAlerting());
+        
+        // /blog drops to zero while /api carries on
+        time = addTraffic(monitor, random, time, 60, 100, 0);
+        BaselineAlert drop = getBaselineAlert(monitor, "/blog", false);
+        assertFalse(drop.isSurge());
+        assertTrue(drop.getTimestamp() - (time - 60000) <= 45000);
+        
+        // A daily rise from 100 to 1000 requests per second over six hours is not a surge
+        BaselineMonitor daily = new BaselineMonitor(4, 1, 1000);
+        time = addTraffic(daily, random, time, 1800, 100, 0);
+        for (int i = 0; i < 6 * 3600; i++)
+        {
+            daily.addRequests("/api", time, 100 + 900 * i / (6 * 3600));
+            time += 1000;
+            daily.update(time);
+        }
+        assertEquals(0, daily.getAlerts().size());
+        assertEquals(1000, daily.getBaseline("/api").rate15, 50);
+    }
+    
+    /**
+     * Tests that logs analyzed one at a time and merged as a delta are measured under the same
+     * sections, and that the sections beyond MAX_SECTIONS are measured together as "(other)"
+     */
+    @Test
+    public void testBaselineSections()
+    {
+        BaselineMonitor single = new BaselineMonitor(4, 1, 1000);
+        BaselineMonitor batched = new BaselineMonitor(4, 1, 1000);
+        MetricsDelta delta = new MetricsDelta();
+        long time = 1000000000L;
+        int sections = BaselineMonitor.MAX_SECTIONS + 8;
+        for (int i = 0; i < sections; i++)
+        {
+            Log log = LogProcessor.parseLine("10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET /s" + i + "/page HTTP/1.1\" 200 12");
+            single.addLog(log, time);
+            MetricManager.analyze(log, time, delta);
+        }
+        batched.addDelta(delta, time);
+        single.update(time + BaselineMonitor.TICK_LENGTH);
+        batched.update(time + BaselineMonitor.TICK_LENGTH);
+
+        ArrayList<BaselineMonitor.Baseline> baselines = single.getBaselines(sections);
+        assertEquals(BaselineMonitor.MAX_SECTIONS + 2, baselines.size());
+        assertEquals(baselines.size(), batched.getBaselines(sections).size());
+        for (BaselineMonitor.Baseline baseline : baselines)
+        {
+            assertEquals(baseline.rate1, batched.getBaseline(baseline.name).rate1, 0.0001);
+        }
+        assertEquals(8 / 5.0, single.getBaseline(SectionTrie.OTHER).rate1, 0.0001);
+        assertNull(single.getBaseline("/s" + (sections - 1)));
+    }
+    
+    /**
+     * Tests that a seed of several minutes starts each section at its average rate, so live
+     * traffic at the same rate does not alert as a drop once the section warms up
+     */
+    @Test
+    public void testBaselineSeed()
+    {
+        MetricManager metricManager = new MetricManager();
+        BaselineMonitor monitor = new BaselineMonitor(4, 1, 1000);
+        metricManager.addMonitor(monitor);
+        String line = "10.0.0.1 - - [07/Mar/2004:16:05:49 -0800] \"GET /a/page HTTP/1.1\" 200 12";
+
+        // Two minutes of 20 requests per second to /a are seeded at once
+        long time = 1000000000000L;
+        MetricsDelta recent = new MetricsDelta();
+        for (int i = 0; i < 120 * 20; i++)
+        {
+            MetricManager.analyze(LogProcessor.parseLine(line), time + (i / 20) * 1000, recent);
+        }
+        time += 120000;
+        metricManager.seed(new Metrics(), recent, time - 1);
+        assertEquals(20, monitor.getBaseline("/a").rate15, 0.001);
+
+        // The live traffic carries on at the same rate
+        LogBatch batch = new LogBatch(LogFormat.COMMON, 64);
+        for (int second = 0; second < 900; second++)
+        {
+            batch.clear();
+            for (int i = 0; i < 20; i++)
+            {
+                assertNotNull(batch.add(line));
+            }
+            metricManager.analyzeBatch(batch, time);
+            time += 1000;
+            monitor.update(time);
+        }
+        assertEquals(0, monitor.getAlerts().size());
+        assertEquals(20, monitor.getBaseline("/a").rate15, 0.001);
+    }
+    
+    /**
+     * Adds a second of requests to /api and /blog at a time, each rate varying by up to 10%
+     * @return The time after the last second
+     */
+    private long addTraffic(BaselineMonitor monitor, Random random, long time, int seconds, int apiRate, int blogRate)
+    {
+        for (int i = 0; i < seconds; i++)
+        {
+            monitor.addRequests("/api/orders", time, apiRate + random.nextInt(apiRate / 10 + 1) - apiRate / 20);
+            if (blogRate > 0)
+                monitor.addRequests("/blog?page=2", time, blogRate + random.nextInt(blogRate / 10 + 1) - blogRate / 20);
+            time += 1000;
+            monitor.update(time);
+        }
+        return time;
+    }
+    
+    /**
+     * Returns the last baseline alert of a section
+     * @param recovery True to find the last recovery alert. Else the last critical alert is found
+     * @return The alert, or null if there is none
+     */
+    private BaselineAlert getBaselineAlert(BaselineMonitor monitor, String section, boolean recovery)
+    {
+        ArrayList<Alert> alerts = monitor.getAlerts();
+        for (int i = alerts.size() - 1; i >= 0; i--)
+        {
+            BaselineAlert alert = (BaselineAlert) alerts.get(i);
+            if (alert.getKey().equals(section) && alert.isRecovery() == recovery)
+                return alert;
+        }
+        return null;
+    }
+    
     /**
      * Tests illegal arguments with the monitoring methods and expects failure
      */